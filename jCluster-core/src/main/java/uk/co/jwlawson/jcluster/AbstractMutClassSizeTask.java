@@ -14,18 +14,30 @@
  */
 package uk.co.jwlawson.jcluster;
 
-import java.util.ArrayDeque;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.co.jwlawson.jcluster.data.LinkHolder;
+import uk.co.jwlawson.jcluster.data.ExchangeGraph;
+import uk.co.jwlawson.jcluster.data.ExchangeGraphBuilder;
+import uk.co.jwlawson.jcluster.data.FilteredLinkTable;
+import uk.co.jwlawson.jcluster.data.LinkTable;
+import uk.co.jwlawson.jcluster.data.MappedLinkTable;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverLinkTable;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverPacker;
 import uk.co.jwlawson.jcluster.pool.Pool;
 import uk.co.jwlawson.jcluster.pool.Pools;
 
@@ -33,9 +45,30 @@ import uk.co.jwlawson.jcluster.pool.Pools;
  * Abstract class which holds the main algorithm to find th size of the mutation class.
  * 
  * <p>
- * The map stores any matrices which have been seen but are not complete. By using matrices which
- * implement {@link Object#equals(Object)} and {@link Object#hashCode()} in different ways the type
- * of mutation class will change.
+ * Matrices which have been seen are stored in a {@link QuiverLinkTable} as keys, along with which
+ * of their mutations have been considered. By default the key is the exact entries of the matrix
+ * and matrices are removed from the table once complete, as they will never be reached again.
+ * Subclasses can provide keys which are equal for different matrices to change the type of mutation
+ * class found.
+ * 
+ * <p>
+ * If a working directory is set then the table is kept off the heap in a {@link MappedLinkTable}
+ * instead, which allows mutation classes larger than the heap to be explored more slowly. Either
+ * table can be put behind a {@link FilteredLinkTable}, so that most new matrices are recognised
+ * without probing the table at all.
+ * 
+ * <p>
+ * Long calculations can be saved to a {@link MutClassCheckpoint} at regular intervals, and resumed
+ * from one later. See {@link AbstractMutClassSizeTask#setCheckpointFile(File, long, TimeUnit)} and
+ * {@link AbstractMutClassSizeTask#resumeFrom(File)}.
+ * 
+ * <p>
+ * The queue of matrices still to be handled stores each one packed into a few longs rather than as
+ * a matrix object. A memory budget can be given with
+ * {@link AbstractMutClassSizeTask#setMemoryBudget(long)}. Once the estimated size of the table and
+ * the queue of matrices still to be handled goes over it, the newest part of the queue is written
+ * to compressed files in the working directory and read back when it is reached, see
+ * {@link SpillingFrontier}.
  * 
  * @author John Lawson
  * 
@@ -49,17 +82,42 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 	/** Value returned if the mutation class is found to be infinite. */
 	public static final int INFINITE = -1;
 
+	/** Initial capacity of the queue of incomplete matrices. */
+	private static final int INITIAL_QUEUE_CAPACITY = 16;
+	/** Fewest matrices kept in memory however small the budget. */
+	private static final int MIN_IN_MEMORY = 1024;
+
 	/** Logger instance. */
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	/** Initial matrix to find mutation class of. */
 	private T mInitialMatrix;
 	/** True if the calculation should be continued. */
-	private boolean mShouldRun;
+	private volatile boolean mShouldRun;
 	/** Number of iterations to run between updating the stats. */
 	private int mIterationsBetweenStats;
 	/** List of listeners waiting for the stats to be updated. */
 	private final List<StatsListener> mStatsListeners;
+	/** Encoder providing the default keys. */
+	private QuiverEncoder mEncoder;
+	/** Directory to store the link table in, or null to keep it on the heap. */
+	private File mWorkingDirectory;
+	/** File to write checkpoints to, or null if no checkpoints are written. */
+	private File mCheckpointFile;
+	/** Time between checkpoints in nanoseconds. */
+	private long mCheckpointInterval;
+	/** Checkpoint to resume from, or null to start from the initial matrix. */
+	private File mResumeFile;
+	/** Expected number of matrices in the class, or 0 if unknown. */
+	private int mExpectedSize;
+	/** True if the exchange graph should be recorded. */
+	private boolean mRecordGraph;
+	/** Exchange graph recorded by the last complete calculation. */
+	private ExchangeGraph mExchangeGraph;
+	/** Bytes of heap the table and queue can use before the queue is spilled, or 0 for no limit. */
+	private long mMemoryBudget;
+	/** True if the link table should be behind a filter. */
+	private boolean mUseFilter;
 
 	/**
 	 * Create a new instance. Initialises the listeners and adds a logger listener.
@@ -111,6 +169,117 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 		mIterationsBetweenStats = number;
 	}
 
+	/**
+	 * Set a directory in which to keep the table of seen matrices, in a memory mapped file. This
+	 * keeps the heap usage low for very large mutation classes, at the cost of speed.
+	 * 
+	 * @param directory Directory to store the table in, or null to keep it on the heap
+	 */
+	public final void setWorkingDirectory(final File directory) {
+		mWorkingDirectory = directory;
+	}
+
+	/**
+	 * Write a checkpoint of the calculation to {@code file} at regular intervals, and once more if
+	 * the task is stopped using {@link AbstractMutClassSizeTask#requestStop()}.
+	 * 
+	 * <p>
+	 * A snapshot of the state is taken between iterations and streamed to the file by a background
+	 * thread. Taking the snapshot copies nothing, the table and queue only copy the parts they
+	 * change before the writer reaches them, so the calculation does not pause to checkpoint.
+	 * 
+	 * @param file File to write checkpoints to, or null to not write checkpoints
+	 * @param interval Time between checkpoints
+	 * @param unit Unit of the interval
+	 */
+	public final void setCheckpointFile(final File file, final long interval, final TimeUnit unit) {
+		mCheckpointFile = file;
+		mCheckpointInterval = unit.toNanos(interval);
+	}
+
+	/**
+	 * Continue the calculation from a checkpoint the next time the task is run, rather than
+	 * starting from the initial matrix. The checkpoint must have been written by a task of the same
+	 * type with the same initial matrix. Only the number of matrices handled is restored in the
+	 * {@link Stats}, the timings start again from zero.
+	 * 
+	 * @param checkpoint Checkpoint file to resume from, or null to start from the beginning
+	 */
+	public final void resumeFrom(final File checkpoint) {
+		mResumeFile = checkpoint;
+	}
+
+	/**
+	 * Give the expected size of the mutation class, for example if the class is known to be of a
+	 * type with a known size. The tables of matrices are then allocated at the right size up front,
+	 * rather than starting small and growing as the class is explored.
+	 * 
+	 * <p>
+	 * This is only a hint, so the result is still correct if the class is larger or smaller.
+	 * 
+	 * @param expectedSize Expected number of matrices, or 0 if unknown
+	 */
+	public final void setExpectedSize(final int expectedSize) {
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Expected size cannot be negative: " + expectedSize);
+		}
+		mExpectedSize = expectedSize;
+	}
+
+	/**
+	 * Put a {@link FilteredLinkTable} in front of the table of seen matrices. Most matrices found
+	 * at the edge of the search are new, and the filter usually shows this from a single word
+	 * rather than a probe of the full table. This helps most for large classes, where the table no
+	 * longer fits in the cache, and for tables kept in the working directory.
+	 * 
+	 * @param useFilter true to use the filter
+	 */
+	public final void setUseSeenFilter(final boolean useFilter) {
+		mUseFilter = useFilter;
+	}
+
+	/**
+	 * Limit the heap used by the calculation to about {@code bytes}. When the table of seen
+	 * matrices and the queue of matrices still to be handled are estimated to use more than this,
+	 * the newest matrices in the queue are spilled to compressed files in the working directory, or
+	 * the system temporary directory if none is set. They are read back in order, so the search is
+	 * still breadth first.
+	 * 
+	 * <p>
+	 * Only the queue is spilled. If the table alone is larger than the budget then a working
+	 * directory should be set as well, so that the table is kept off the heap.
+	 * 
+	 * @param bytes Memory budget in bytes, or 0 for no limit
+	 */
+	public final void setMemoryBudget(final long bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("Memory budget cannot be negative: " + bytes);
+		}
+		mMemoryBudget = bytes;
+	}
+
+	/**
+	 * Record the exchange graph of the class as it is explored, so that it can be analysed later
+	 * without exploring the class again. The graph takes an int for each link as well as a key for
+	 * each matrix, and is not recorded when resuming from a checkpoint.
+	 * 
+	 * @param record true to record the graph
+	 * @see AbstractMutClassSizeTask#getExchangeGraph()
+	 */
+	public final void setRecordExchangeGraph(final boolean record) {
+		mRecordGraph = record;
+	}
+
+	/**
+	 * Get the exchange graph recorded by the last calculation. The vertices are given by the same
+	 * keys as are used to store the matrices, and the links by the same indices.
+	 * 
+	 * @return Exchange graph, or null if not recorded or the last calculation did not complete
+	 */
+	public final ExchangeGraph getExchangeGraph() {
+		return mExchangeGraph;
+	}
+
 	/**
 	 * Find the number of matrices in the mutation class of the initial matrix. If the matrix is
 	 * mutation-infinite then -1 is returned.
@@ -151,74 +320,251 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 	 * Calculate the size of the mutation class.
 	 * 
 	 * @return Size of the mutation class
+	 * @throws IOException if the link table cannot be stored in the working directory
 	 */
-	protected final Integer getMutationClassSize() {
+	protected final Integer getMutationClassSize() throws IOException {
 		int size = getSize(mInitialMatrix);
 		int numMatrices = 0;
+		mExchangeGraph = null;
+
+		if (mInitialMatrix.isInfinite()) {
+			return INFINITE;
+		}
 
-		Map<T, LinkHolder<T>> matrixSet = getMatrixMap(size);
 		Pool<T> quiverPool = getQuiverPool();
-		Pool<LinkHolder<T>> holderPool = getHolderPool(size);
-		Queue<T> incompleteQuivers = new ArrayDeque<T>((int) Math.pow(2, 3 * size - 3));
+		mEncoder = new QuiverEncoder(getRows(), getCols());
+		// Start small and let the queue grow with the class, as most classes are tiny
+		SpillingFrontier<T> incompleteQuivers =
+				new SpillingFrontier<T>(QuiverPacker.forMatrix(mInitialMatrix), quiverPool,
+						mWorkingDirectory, INITIAL_QUEUE_CAPACITY);
 
 		T m = quiverPool.getObj();
 		m.set(mInitialMatrix);
 
-		LinkHolder<T> initial = holderPool.getObj();
-		initial.setMatrix(m);
-		matrixSet.put(m, initial);
+		setUp(m);
 
-		incompleteQuivers.add(m);
+		int keyLength = getKeyLength();
+		LinkTable linkTable = createLinkTable(keyLength, size);
+		long[] matKey = new long[keyLength];
+		long[] newKey = new long[keyLength];
+		int[] matMap = new int[size];
+		int[] newMap = new int[size];
+		for (int i = 0; i < size; i++) {
+			matMap[i] = i;
+			newMap[i] = i;
+		}
 
-		setUp(m);
+		long[] initialEncoding = new long[mEncoder.getNumWords()];
+		mEncoder.encode(m, initialEncoding, 0);
+		if (mResumeFile != null) {
+			MutClassCheckpoint.Reader checkpoint = MutClassCheckpoint.open(mResumeFile);
+			try {
+				numMatrices = restore(checkpoint, linkTable, incompleteQuivers, initialEncoding);
+			} finally {
+				checkpoint.close();
+			}
+			removeHandledQuiver(m, quiverPool);
+		} else {
+			getKey(m, matKey, matMap);
+			linkTable.putIfAbsent(matKey, 0, 0L);
+			incompleteQuivers.add(m);
+		}
+		ExchangeGraphBuilder graph = null;
+		if (mRecordGraph) {
+			if (mResumeFile == null) {
+				graph = new ExchangeGraphBuilder(keyLength, size, mExpectedSize);
+				graph.getId(matKey, 0);
+			} else {
+				log.warn("Cannot record the exchange graph when resuming from a checkpoint");
+			}
+		}
 
+		Checkpointer checkpointer = mCheckpointFile == null ? null : new Checkpointer();
+		long matrixBytes = incompleteQuivers.getBytesPerMatrix();
+		boolean overBudget = false;
 		Stats stats = new Stats();
 		mShouldRun = true;
 		try {
 			T mat;
 			T newMatrix;
+			long links;
 			int i;
+			int matId = 0;
 			stats.start();
-			do {
+			while (!incompleteQuivers.isEmpty() && mShouldRun) {
 				mat = incompleteQuivers.poll();
+				getKey(mat, matKey, matMap);
+				if (graph != null) {
+					matId = graph.getId(matKey, 0);
+				}
 				for (i = 0; i < size && mShouldRun; i++) {
-					if (shouldMutateAt(mat, i, matrixSet)) {
-						newMatrix = quiverPool.getObj();
-						newMatrix = mat.mutate(i, newMatrix);
-						if (matrixSeenBefore(newMatrix, matrixSet)) {
-							handleSeenMatrix(matrixSet, mat, newMatrix, i);
-							if (isMatrixComplete(newMatrix, matrixSet)) {
-								removeComplete(newMatrix, quiverPool, holderPool, matrixSet);
-							} else {
-								returnMatrix(newMatrix, quiverPool);
-							}
-						} else {
-							if (newMatrix.isInfinite()) {
-								log.debug("Infinite matrix found {} in classs of {}", newMatrix,
-										mInitialMatrix);
-								return INFINITE;
-							}
-							handleUnseenMatrix(matrixSet, incompleteQuivers, holderPool, mat,
-									newMatrix, i);
-						}
+					links = linkTable.getLinks(matKey, 0);
+					if (links == LinkTable.NO_ENTRY) {
+						// Complete and removed from the table
+						break;
+					}
+					if ((links & (1L << matMap[i])) != 0) {
+						continue;
+					}
+					newMatrix = quiverPool.getObj();
+					newMatrix = mat.mutate(i, newMatrix);
+					if (newMatrix.isInfinite()) {
+						log.debug("Infinite matrix found {} in classs of {}", newMatrix,
+								mInitialMatrix);
+						returnMatrix(newMatrix, quiverPool);
+						removeHandledQuiver(mat, quiverPool);
+						return INFINITE;
+					}
+					getKey(newMatrix, newKey, newMap);
+					if (graph != null) {
+						int newId = graph.getId(newKey, 0);
+						graph.setNeighbour(matId, matMap[i], newId);
+						graph.setNeighbour(newId, newMap[i], matId);
+					}
+					// Set the link on newMatrix first, in case mutating gave mat back again
+					if (linkTable.setLinkAt(newKey, 0, newMap[i]) != LinkTable.NOT_FOUND) {
+						returnMatrix(newMatrix, quiverPool);
+					} else {
+						handleUnseenMatrix(newMatrix);
+						linkTable.putIfAbsent(newKey, 0, 1L << newMap[i]);
+						incompleteQuivers.add(newMatrix);
 					}
+					linkTable.setLinkAt(matKey, 0, matMap[i]);
 				}
-				removeHandledQuiver(mat, quiverPool, holderPool, matrixSet);
+				if (!mShouldRun) {
+					// Stopped part way through, so mat still needs handling when resumed
+					incompleteQuivers.addFirst(mat);
+					break;
+				}
+				removeHandledQuiver(mat, quiverPool);
 				if (numMatrices % mIterationsBetweenStats == 0 && numMatrices != 0) {
-					stats.update(matrixSet, numMatrices);
+					stats.update(linkTable.size(), numMatrices);
 				}
 				numMatrices++;
 				stats.iterationComplete();
-			} while (!incompleteQuivers.isEmpty() && mShouldRun);
-			log.debug("Graph completed. Vertices: {}", numMatrices);
+				if (mMemoryBudget != 0) {
+					long tableBytes = estimateTableBytes(linkTable, keyLength);
+					if (tableBytes > mMemoryBudget && !overBudget) {
+						log.warn("Table of seen matrices is over the memory budget of {} bytes."
+								+ " Set a working directory to keep it off the heap.",
+								mMemoryBudget);
+						overBudget = true;
+					}
+					long allowance = (mMemoryBudget - tableBytes) / matrixBytes;
+					incompleteQuivers.setMaxInMemory((int) Math.min(Integer.MAX_VALUE - 1,
+							Math.max(MIN_IN_MEMORY, allowance)));
+				}
+				if (checkpointer != null && checkpointer.isDue()) {
+					checkpointer.submit(createCheckpoint(linkTable, incompleteQuivers, numMatrices,
+							initialEncoding));
+				}
+			}
 			if (mShouldRun) {
+				log.debug("Graph completed. Vertices: {}", numMatrices);
+				if (graph != null) {
+					mExchangeGraph = graph.build();
+				}
 				return numMatrices;
 			} else {
+				if (checkpointer != null) {
+					// Only one snapshot can be open at a time
+					checkpointer.waitForPending();
+					checkpointer.writeNow(createCheckpoint(linkTable, incompleteQuivers,
+							numMatrices, initialEncoding));
+				}
 				return STOP;
 			}
 		} finally {
-			teardown(quiverPool, holderPool, matrixSet);
+			if (checkpointer != null) {
+				// Waits for any checkpoint still reading the table and queue before they close
+				checkpointer.shutdown();
+			}
+			// Drop anything spilled, so teardown only sees the matrices in memory
+			incompleteQuivers.close();
+			teardown(quiverPool, incompleteQuivers);
+			linkTable.close();
+		}
+	}
+
+	/**
+	 * Take snapshots of the state of the calculation for a checkpoint. Nothing is copied here, the
+	 * state is streamed from the snapshots when the checkpoint is written.
+	 * 
+	 * @param linkTable Table of seen matrices
+	 * @param incompleteQuivers Quivers still to be handled
+	 * @param numMatrices Number of quivers handled so far
+	 * @param initialEncoding Encoding of the initial matrix
+	 * @return Checkpoint holding snapshots of the state
+	 */
+	private MutClassCheckpoint createCheckpoint(final LinkTable linkTable,
+			final SpillingFrontier<T> incompleteQuivers, final int numMatrices,
+			final long[] initialEncoding) {
+		return new MutClassCheckpoint(getClass().getName(), getRows(), getCols(), getKeyLength(),
+				initialEncoding, numMatrices, linkTable.snapshot(), incompleteQuivers.snapshot(),
+				incompleteQuivers.getNumWords());
+	}
+
+	/**
+	 * Estimate the heap used by the table of seen matrices. A table in the working directory is
+	 * not on the heap, and a table on the heap is kept at most half full.
+	 * 
+	 * @param linkTable Table of seen matrices
+	 * @param keyLength Number of longs in each key
+	 * @return Estimated bytes used
+	 */
+	private long estimateTableBytes(final LinkTable linkTable, final int keyLength) {
+		if (mWorkingDirectory != null) {
+			return 0;
+		}
+		return 2L * 8 * (keyLength + 1) * linkTable.size();
+	}
+
+	/**
+	 * Load the state of the calculation from a checkpoint.
+	 * 
+	 * @param checkpoint Checkpoint to load
+	 * @param linkTable Empty table to put the seen matrices in
+	 * @param incompleteQuivers Empty queue to put the quivers still to be handled in
+	 * @param initialEncoding Encoding of the initial matrix
+	 * @return Number of quivers handled before the checkpoint
+	 * @throws IOException if the checkpoint cannot be read
+	 */
+	private int restore(final MutClassCheckpoint.Reader checkpoint, final LinkTable linkTable,
+			final SpillingFrontier<T> incompleteQuivers, final long[] initialEncoding)
+			throws IOException {
+		int keyLength = getKeyLength();
+		if (!checkpoint.matches(getClass().getName(), getRows(), getCols(), keyLength,
+				initialEncoding)) {
+			throw new IllegalArgumentException("Checkpoint " + mResumeFile
+					+ " was not written by a task for " + mInitialMatrix);
+		}
+		long numEntries = checkpoint.readEntries(linkTable);
+		long numQueued = checkpoint.readFrontier(incompleteQuivers);
+		log.debug("Resumed from {} with {} quivers handled, {} in the table and {} queued",
+				mResumeFile, checkpoint.getNumHandled(), numEntries, numQueued);
+		return checkpoint.getNumHandled();
+	}
+
+	/**
+	 * Create the table to store seen matrices in, either on the heap or in the working directory.
+	 * 
+	 * @param keyLength Number of longs in each key
+	 * @param size Number of links for each matrix
+	 * @return New link table
+	 * @throws IOException if the table cannot be created in the working directory
+	 */
+	private LinkTable createLinkTable(final int keyLength, final int size) throws IOException {
+		LinkTable table;
+		if (mWorkingDirectory == null) {
+			table =
+					new QuiverLinkTable(keyLength, size, mExpectedSize,
+							shouldRemoveCompleteQuivers());
+		} else {
+			table =
+					new MappedLinkTable(mWorkingDirectory, keyLength, size, mExpectedSize,
+							shouldRemoveCompleteQuivers());
 		}
+		return mUseFilter ? new FilteredLinkTable(table, keyLength, mExpectedSize) : table;
 	}
 
 	/**
@@ -250,17 +596,6 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 		return Pools.getQuiverMatrixPool(getRows(), getCols(), getMatrixClass());
 	}
 
-	/**
-	 * Get the {@link Pool} which provides {@link LinkHolder} objects which expect matrices of Type
-	 * T.
-	 * 
-	 * @param size Number of links in each {@link LinkHolder}
-	 * @return Pool of {@link LinkHolder} objects
-	 */
-	protected final Pool<LinkHolder<T>> getHolderPool(final int size) {
-		return Pools.getHolderPool(size, getMatrixClass());
-	}
-
 	/**
 	 * Convenience method to get the number of unfrozen vertices in the quiver.
 	 * 
@@ -300,47 +635,13 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 	}
 
 	/**
-	 * Check whether the matrix has all its links full.
-	 * 
-	 * @param remove Matrix to check
-	 * @param mMatrixSet Map containing the links
-	 * @return true if the matrix has all links full
-	 */
-	protected final boolean isMatrixComplete(final T remove, final Map<T, LinkHolder<T>> mMatrixSet) {
-
-		LinkHolder<T> holder = mMatrixSet.get(remove);
-		return holder != null && holder.isComplete();
-	}
-
-	/**
-	 * Remove a matrix from the map once it has been handled by the task. This should only be called
-	 * once the quiver is handled, as it makes a lot of assumptions about the state concerning the
-	 * matrix. Any other time
-	 * {@link AbstractMutClassSizeTask#checkRemoveUnhandledQuiver(QuiverMatrix, Pool, Pool, Map, Queue, int)}
-	 * should be used instead.
+	 * Remove a matrix once it has been handled by the task, or is left over once the task is
+	 * finished. Any matrix which is no longer needed should be returned to the pool.
 	 * 
 	 * @param remove Handled matrix to remove
 	 * @param quiverPool Pool to return matrix to
-	 * @param holderPool Pool to return link holder to
-	 * @param matrixSet Map to remove quiver from
-	 */
-	protected abstract void removeHandledQuiver(final T remove, final Pool<T> quiverPool,
-			final Pool<LinkHolder<T>> holderPool, final Map<T, LinkHolder<T>> matrixSet);
-
-	/**
-	 * Remove a complete matrix from the map.
-	 * 
-	 * <p>
-	 * Does not remove from the Queue, as the Queue is not backed by a hashtable, so the remove is
-	 * slow.
-	 * 
-	 * @param remove Matrix to remove
-	 * @param quiverPool Pool to return matrix to
-	 * @param holderPool Pool to return holder to
-	 * @param matrixSet Map to remove matrix from
 	 */
-	protected abstract void removeComplete(final T remove, final Pool<T> quiverPool,
-			final Pool<LinkHolder<T>> holderPool, final Map<T, LinkHolder<T>> matrixSet);
+	protected abstract void removeHandledQuiver(final T remove, final Pool<T> quiverPool);
 
 	/**
 	 * Return a quiver to the pool.
@@ -353,74 +654,145 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 	}
 
 	/**
-	 * Get the {@link Map} which holds the {@link QuiverMatrix} objects which have been seen before
-	 * and the {@link LinkHolder} associated to them.
+	 * Handle matrix not yet seen before in the mutation process. The task adds the matrix to the
+	 * queue of quivers to handle after this is called.
 	 * 
-	 * @param size Size of the matrices which will be stored in the map
-	 * @return Map between matrices and link holders
+	 * @param newMatrix Unseen matrix
 	 */
-	protected abstract Map<T, LinkHolder<T>> getMatrixMap(int size);
+	protected abstract void handleUnseenMatrix(final T newMatrix);
 
 	/**
-	 * Handle a matrix which has been seen before in the mutation process.
+	 * Get the number of longs in the key of each matrix.
 	 * 
-	 * @param matrixSet {@link Map} containing the matrices and which mutations from them have been
-	 *        considered
-	 * @param mat Matrix mutated to get the seen before matrix
-	 * @param newMatrix Matrix which has been seen before
-	 * @param i Index mutated at to get to newMatrix
+	 * @return Length of the keys
 	 */
-	protected abstract void handleSeenMatrix(Map<T, LinkHolder<T>> matrixSet, T mat, T newMatrix,
-			int i);
+	protected int getKeyLength() {
+		return mEncoder.getNumWords();
+	}
 
 	/**
-	 * Handle matrix not yet seen before in the mutation process.
+	 * Compute the key used to store the matrix in the link table. Two matrices with the same key
+	 * are counted as the same matrix.
 	 * 
-	 * @param matrixSet {@link Map} containing the matrices and which mutations from them have been
-	 *        considered
-	 * @param incompleteQuivers {@link Queue} containing quivers not yet handled
-	 * @param holderPool {@link Pool} providing {@link LinkHolder} objects
-	 * @param mat Matrix mutated to get the unseen matrix
-	 * @param newMatrix Unseen matrix
-	 * @param i Index mutated at to get unseen matrix
+	 * <p>
+	 * The link set when mutating vertex {@code i} is {@code vertexMap[i]}, so if equal keys are
+	 * given to matrices whose vertices are ordered differently then the map should put the vertices
+	 * into a common order. The map starts as the identity, which is correct for the default keys.
+	 * 
+	 * @param matrix Matrix to compute the key of
+	 * @param key Array to write the key to
+	 * @param vertexMap Array to write the index of the link for each vertex to
 	 */
-	protected abstract void handleUnseenMatrix(final Map<T, LinkHolder<T>> matrixSet,
-			final Queue<T> incompleteQuivers, final Pool<LinkHolder<T>> holderPool, final T mat,
-			final T newMatrix, final int i);
+	protected void getKey(final T matrix, final long[] key, final int[] vertexMap) {
+		mEncoder.encode(matrix, key, 0);
+	}
 
 	/**
-	 * Check whether the matrix has been seen before in the mutation process.
+	 * Check whether matrices should be removed from the link table once all their links are set.
+	 * 
+	 * <p>
+	 * This is only safe if a complete matrix can never be reached again, which is true when the
+	 * keys are the exact matrix entries. If different matrices can have the same key then complete
+	 * matrices must be kept, so that the table records every matrix seen.
 	 * 
-	 * @param newMatrix Matrix to check
-	 * @param matrixSet Map containing the seen matrices which are currently incomplete
-	 * @return true if the matrix has been seen before
+	 * @return true if complete matrices should be removed
 	 */
-	protected abstract boolean matrixSeenBefore(T newMatrix, Map<T, LinkHolder<T>> matrixSet);
+	protected boolean shouldRemoveCompleteQuivers() {
+		return true;
+	}
 
 	/**
 	 * Called after the calculation is complete. Can be used to clean up and return objects to their
 	 * pools.
 	 * 
 	 * @param quiverPool Pool of quiver objects
-	 * @param holderPool Pool of link holder objects
-	 * @param matrixSet Map containing quivers and holders
+	 * @param incompleteQuivers Queue containing any quivers which were not handled
 	 */
-	protected abstract void teardown(Pool<T> quiverPool, Pool<LinkHolder<T>> holderPool,
-			Map<T, LinkHolder<T>> matrixSet);
+	protected abstract void teardown(Pool<T> quiverPool, Queue<T> incompleteQuivers);
 
 	/**
-	 * Check whether we need to mutate the vertex at the specified index, or whether that mutation
-	 * has already been considered.
-	 * 
-	 * @param matrix Matrix to check
-	 * @param i Index to mutate at
-	 * @param matrixSet Map containing {@link LinkHolder} objects
-	 * @return true if should mutate at the index
+	 * Writes checkpoints on a background thread, so that the calculation is not held up by the
+	 * disk. Only one checkpoint is written at a time.
 	 */
-	private boolean shouldMutateAt(final T matrix, final int i,
-			final Map<T, LinkHolder<T>> matrixSet) {
-		LinkHolder<T> holder = matrixSet.get(matrix);
-		return holder != null && !holder.hasLink(i);
+	private class Checkpointer {
+
+		private final ExecutorService mExecutor = Executors
+				.newSingleThreadExecutor(new NamingThreadFactory("Checkpointer"));
+		/** Checkpoint being written, or null if none have been submitted. */
+		private Future<?> mPending;
+		/** Time at which the next checkpoint is due. */
+		private long mNextCheckpoint = System.nanoTime() + mCheckpointInterval;
+
+		/**
+		 * Check whether a checkpoint should be written now.
+		 * 
+		 * @return true if the interval has passed and the last checkpoint has been written
+		 */
+		boolean isDue() {
+			return System.nanoTime() >= mNextCheckpoint && (mPending == null || mPending.isDone());
+		}
+
+		/**
+		 * Write the checkpoint on the background thread, closing it once written.
+		 * 
+		 * @param checkpoint Checkpoint to write
+		 */
+		void submit(final MutClassCheckpoint checkpoint) {
+			waitForPending();
+			mPending = mExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						checkpoint.write(mCheckpointFile);
+						log.debug("Checkpoint written to {}", mCheckpointFile);
+					} catch (IOException e) {
+						log.error("Unable to write checkpoint to " + mCheckpointFile, e);
+					} finally {
+						checkpoint.close();
+					}
+				}
+			});
+			mNextCheckpoint = System.nanoTime() + mCheckpointInterval;
+		}
+
+		/**
+		 * Write the checkpoint on the current thread, closing it once written.
+		 * 
+		 * @param checkpoint Checkpoint to write
+		 * @throws IOException if the checkpoint cannot be written
+		 */
+		void writeNow(final MutClassCheckpoint checkpoint) throws IOException {
+			try {
+				checkpoint.write(mCheckpointFile);
+			} finally {
+				checkpoint.close();
+			}
+			log.debug("Final checkpoint written to {}", mCheckpointFile);
+		}
+
+		/**
+		 * Wait until the checkpoint being written, if any, is finished and closed.
+		 */
+		void waitForPending() {
+			if (mPending == null) {
+				return;
+			}
+			try {
+				mPending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				log.error("Checkpoint failed", e);
+			}
+		}
+
+		/**
+		 * Wait for the checkpoint being written, then stop the background thread.
+		 */
+		void shutdown() {
+			waitForPending();
+			mExecutor.shutdown();
+		}
 	}
 
 	/**
@@ -466,12 +838,12 @@ public abstract class AbstractMutClassSizeTask<T extends QuiverMatrix> implement
 		/**
 		 * Update the Stats object with new information.
 		 * 
-		 * @param map Map containing unhandled matrices
+		 * @param inTable Number of matrices seen but not complete
 		 * @param num Number of matrices handled so far
 		 */
-		private void update(final Map<T, LinkHolder<T>> map, final int num) {
+		private void update(final int inTable, final int num) {
 			numConsidered = num;
-			numInMap = map.size();
+			numInMap = inTable;
 			for (StatsListener lis : mStatsListeners) {
 				lis.statsUpdated(this);
 			}
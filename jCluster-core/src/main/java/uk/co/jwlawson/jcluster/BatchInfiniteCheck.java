@@ -0,0 +1,268 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * BatchInfiniteCheck.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import uk.co.jwlawson.jcluster.data.IntMatrix;
+
+/**
+ * Runs the random walk of {@link FastInfiniteCheck} on many matrices of the same size at once. This
+ * is much quicker than a task for each matrix when checking thousands of small matrices, such as
+ * all the submatrices or extensions of a quiver.
+ * 
+ * <p>
+ * A batch of matrices is held as one array for each entry, so entry {@code (i, j)} of the matrix in
+ * lane {@code b} is {@code entries[i * cols + j][b]}. Each step every matrix in the batch is mutated
+ * in place at the same random vertex, so the inner loops run along these arrays with no branches,
+ * and are vectorised by the JIT. Each matrix still takes a random walk, and the walks are only
+ * correlated in which vertex is chosen, not in the matrices reached.
+ * 
+ * <p>
+ * Any matrix with an entry of 3 or more after a mutation is removed from the batch straight away as
+ * infinite. A matrix is also removed once it has been mutated the set number of times, and is then
+ * probably finite. Removed matrices are replaced by the next matrices to check, so the batch stays
+ * full until the matrices run out.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class BatchInfiniteCheck {
+
+	/** Default number of matrices walked at once. */
+	public static final int DEFAULT_BATCH_SIZE = 256;
+	/** Default number of mutations to make to each matrix, as in {@link FastInfiniteCheck}. */
+	public static final int DEFAULT_MAX_MUTATIONS = 3000;
+
+	private final int mRows;
+	private final int mCols;
+	/** Number of mutable vertices. */
+	private final int mSize;
+	/** Number of lanes in the batch. */
+	private final int mBatchSize;
+	/** Array of the lanes of each entry of the matrices in the batch. */
+	private final int[][] mEntries;
+	/** Negative for each lane whose last mutation gave an entry of 3 or more. */
+	private final int[] mOver;
+	/** Index in the input list of the matrix in each lane. */
+	private final int[] mLaneMatrix;
+	/** Step at which the matrix in each lane was loaded. */
+	private final long[] mLaneStart;
+
+	/** Number of mutations to make to each matrix. */
+	private int mMaxMutations = DEFAULT_MAX_MUTATIONS;
+	/** True if the seed has been set, otherwise a new one is chosen for each call. */
+	private boolean mSeeded;
+	private long mSeed;
+
+	/**
+	 * Create a new check for matrices of the given size.
+	 * 
+	 * @param rows Number of rows of the matrices
+	 * @param cols Number of columns of the matrices
+	 */
+	public BatchInfiniteCheck(final int rows, final int cols) {
+		this(rows, cols, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a new check for matrices of the given size.
+	 * 
+	 * @param rows Number of rows of the matrices
+	 * @param cols Number of columns of the matrices
+	 * @param batchSize Number of matrices to walk at once
+	 */
+	public BatchInfiniteCheck(final int rows, final int cols, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive, not " + batchSize);
+		}
+		mRows = rows;
+		mCols = cols;
+		mSize = Math.min(rows, cols);
+		mBatchSize = batchSize;
+		mEntries = new int[rows * cols][batchSize];
+		mOver = new int[batchSize];
+		mLaneMatrix = new int[batchSize];
+		mLaneStart = new long[batchSize];
+	}
+
+	/**
+	 * Set the number of random mutations to make to each matrix before deciding it is probably
+	 * finite.
+	 * 
+	 * @param maxMutations Number of mutations
+	 */
+	public void setMaxMutations(final int maxMutations) {
+		if (maxMutations < 0) {
+			throw new IllegalArgumentException("Cannot make a negative number of mutations: "
+					+ maxMutations);
+		}
+		mMaxMutations = maxMutations;
+	}
+
+	/**
+	 * Set the seed of the walks, so that checking the same list again makes the same mutations.
+	 * 
+	 * @param seed Seed of the random vertices
+	 */
+	public void setSeed(final long seed) {
+		mSeed = seed;
+		mSeeded = true;
+	}
+
+	/**
+	 * Find which of the matrices are infinite. As with {@link FastInfiniteCheck}, a matrix which is
+	 * not found to be infinite is only probably finite.
+	 * 
+	 * @param matrices Matrices to check, all of the size given to the constructor
+	 * @return Set containing the index of each matrix found to be infinite
+	 */
+	public BitSet findInfinite(final List<? extends IntMatrix> matrices) {
+		for (IntMatrix matrix : matrices) {
+			if (matrix.getNumRows() != mRows || matrix.getNumCols() != mCols) {
+				throw new IllegalArgumentException("Expected a " + mRows + "x" + mCols
+						+ " matrix, not " + matrix);
+			}
+		}
+		BitSet infinite = new BitSet(matrices.size());
+		// No walk can change a 2x2 matrix, nor one with a single mutable vertex
+		boolean walk = mSize > 2 || (mSize == 2 && mRows != mCols);
+		Random random = new Random(mSeeded ? mSeed : ThreadLocalRandom.current().nextLong());
+
+		int next = 0;
+		int active = 0;
+		long step = 0;
+		int last = -1;
+		while (true) {
+			// Fill the empty lanes, skipping any matrices infinite to begin with
+			while (active < mBatchSize && next < matrices.size()) {
+				if (load(matrices.get(next), active)) {
+					infinite.set(next);
+				} else if (walk && mMaxMutations > 0) {
+					mLaneMatrix[active] = next;
+					mLaneStart[active] = step;
+					active++;
+				}
+				next++;
+			}
+			if (active == 0) {
+				break;
+			}
+			int k;
+			do {
+				k = random.nextInt(mSize);
+			} while (k == last);
+			last = k;
+			mutate(k, active);
+			step++;
+
+			for (int b = active - 1; b >= 0; b--) {
+				if (mOver[b] < 0) {
+					infinite.set(mLaneMatrix[b]);
+				} else if (step - mLaneStart[b] < mMaxMutations) {
+					continue;
+				}
+				active--;
+				moveLane(active, b);
+			}
+		}
+		return infinite;
+	}
+
+	/**
+	 * Copy a matrix into a lane.
+	 * 
+	 * @return true if the matrix has an entry of 3 or more
+	 */
+	private boolean load(final IntMatrix matrix, final int lane) {
+		for (int i = 0; i < mRows; i++) {
+			for (int j = 0; j < mCols; j++) {
+				int value = matrix.get(i, j);
+				if (value >= 3 || value <= -3) {
+					return true;
+				}
+				mEntries[i * mCols + j][lane] = value;
+			}
+		}
+		mOver[lane] = 0;
+		return false;
+	}
+
+	/**
+	 * Move the matrix in lane {@code from} to lane {@code to}.
+	 */
+	private void moveLane(final int from, final int to) {
+		if (from == to) {
+			return;
+		}
+		for (int e = 0; e < mRows * mCols; e++) {
+			mEntries[e][to] = mEntries[e][from];
+		}
+		mOver[to] = mOver[from];
+		mLaneMatrix[to] = mLaneMatrix[from];
+		mLaneStart[to] = mLaneStart[from];
+	}
+
+	/**
+	 * Mutate the first {@code active} lanes in place at vertex {@code k}, marking in mOver the lanes
+	 * which now have an entry of 3 or more.
+	 */
+	private void mutate(final int k, final int active) {
+		int[][] entries = mEntries;
+		int[] over = mOver;
+		for (int i = 0; i < mRows; i++) {
+			if (i == k) {
+				continue;
+			}
+			int[] ik = entries[i * mCols + k];
+			for (int j = 0; j < mCols; j++) {
+				if (j == k) {
+					continue;
+				}
+				int[] ij = entries[i * mCols + j];
+				int[] kj = entries[k * mCols + j];
+				for (int b = 0; b < active; b++) {
+					int x = ik[b];
+					int y = kj[b];
+					// The sum is always even, so the shift divides exactly
+					int value = ij[b] + ((Math.abs(x) * y + x * Math.abs(y)) >> 1);
+					ij[b] = value;
+					// Negative exactly when value is outside -2 to 2
+					over[b] |= (2 - value) | (value + 2);
+				}
+			}
+		}
+		for (int j = 0; j < mCols; j++) {
+			negate(entries[k * mCols + j], active);
+		}
+		for (int i = 0; i < mRows; i++) {
+			if (i != k) {
+				negate(entries[i * mCols + k], active);
+			}
+		}
+	}
+
+	private static void negate(final int[] lanes, final int active) {
+		for (int b = 0; b < active; b++) {
+			lanes[b] = -lanes[b];
+		}
+	}
+}
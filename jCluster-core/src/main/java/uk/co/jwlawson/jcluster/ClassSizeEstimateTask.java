@@ -0,0 +1,384 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ClassSizeEstimateTask.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.SizeEstimate;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * Estimates the size of the mutation class of the initial matrix up to reordering rows and
+ * columns, the size found exactly by {@link EquivMutClassSizeTask}, by sampling the class with
+ * random walks. This gives the order of magnitude of classes far too large to explore.
+ * 
+ * <p>
+ * Each walker mutates at a random vertex each step, and quivers are compared by their
+ * {@link QuiverCanonicaliser} key. A plain walk visits quivers with fewer symmetries more often, so
+ * each step is accepted with the Metropolis-Hastings probability {@code min(1, b/a)}, where
+ * {@code a} is the number of vertices of the current quiver whose mutation gives the proposed quiver
+ * and {@code b} the number of vertices of the proposed quiver whose mutation gives the current one.
+ * The walk then samples every quiver of the class equally often.
+ * 
+ * <p>
+ * The size is estimated from the number of repeated samples, in the same way as the birthday
+ * problem: {@code m} uniform samples from a class of size {@code N} contain about
+ * {@code m(m-1)/2N} pairs of equal quivers. The bounds treat the number of pairs as a Poisson
+ * variable. Samples are taken a number of steps apart, so that they are close to independent.
+ * 
+ * <p>
+ * Walkers run on separate threads until enough repeated pairs have been seen, the time limit runs
+ * out or the task is stopped. If a walker reaches a quiver with an entry of 3 or more the class is
+ * infinite, and that is returned instead of an estimate.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to estimate the class size of
+ */
+public class ClassSizeEstimateTask<T extends QuiverMatrix> implements MatrixTask<T> {
+
+	/** Default number of repeated pairs to stop at, which gives bounds about 10% either side. */
+	public static final int DEFAULT_TARGET_PAIRS = 400;
+
+	/** Number of samples between the steps being spaced by the minimum interval. */
+	private static final int BURN_IN_SAMPLES = 4;
+	/** Value used for 95% confidence bounds on the number of pairs. */
+	private static final double Z = 1.96;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Initial matrix to estimate the class of. */
+	private T mInitialMatrix;
+	/** Number of walkers to run. */
+	private int mNumWalkers = Runtime.getRuntime().availableProcessors();
+	/** Number of repeated pairs of samples to stop at. */
+	private int mTargetPairs = DEFAULT_TARGET_PAIRS;
+	/** Maximum time to run in nanoseconds, or 0 for no limit. */
+	private long mTimeLimit;
+	/** Number of steps between samples, or 0 to choose from the size of the quiver. */
+	private int mStepsBetweenSamples;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task with no initial matrix.
+	 */
+	public ClassSizeEstimateTask() {}
+
+	/**
+	 * Create a new task to estimate the class size of the matrix.
+	 * 
+	 * @param matrix Initial matrix
+	 */
+	public ClassSizeEstimateTask(final T matrix) {
+		setMatrix(matrix);
+	}
+
+	@Override
+	public final void setMatrix(final T matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	/**
+	 * Set the number of random walkers, each run on its own thread. By default one walker is run
+	 * for each available processor.
+	 * 
+	 * @param numWalkers Number of walkers
+	 */
+	public void setNumWalkers(final int numWalkers) {
+		if (numWalkers < 1) {
+			throw new IllegalArgumentException("Need at least one walker, not " + numWalkers);
+		}
+		mNumWalkers = numWalkers;
+	}
+
+	/**
+	 * Set the number of repeated pairs of samples to collect before stopping. The width of the
+	 * bounds is roughly {@code 4 / sqrt(pairs)} of the estimate.
+	 * 
+	 * @param pairs Number of pairs
+	 */
+	public void setTargetPairs(final int pairs) {
+		if (pairs < 1) {
+			throw new IllegalArgumentException("Need at least one pair, not " + pairs);
+		}
+		mTargetPairs = pairs;
+	}
+
+	/**
+	 * Set the longest time to sample for. Once reached the estimate is made from the samples so
+	 * far.
+	 * 
+	 * @param time Time limit, or 0 for no limit
+	 * @param unit Unit of the time
+	 */
+	public void setTimeLimit(final long time, final TimeUnit unit) {
+		mTimeLimit = unit.toNanos(time);
+	}
+
+	/**
+	 * Set the number of steps each walker takes between samples. Longer gaps give samples closer to
+	 * independent. By default this is four times the number of mutable vertices.
+	 * 
+	 * @param steps Number of steps, or 0 for the default
+	 */
+	public void setStepsBetweenSamples(final int steps) {
+		if (steps < 0) {
+			throw new IllegalArgumentException("Steps cannot be negative: " + steps);
+		}
+		mStepsBetweenSamples = steps;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("ClassSizeEstimateTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		if (mInitialMatrix.isInfinite()) {
+			result.setFinite(false);
+			return result;
+		}
+		Samples samples = new Samples();
+		ExecutorService exec =
+				Executors.newFixedThreadPool(mNumWalkers, new NamingThreadFactory(getClass()
+						.getSimpleName()));
+		try {
+			for (int w = 0; w < mNumWalkers; w++) {
+				exec.submit(new Walker(samples));
+			}
+			exec.shutdown();
+			if (mTimeLimit > 0) {
+				if (!exec.awaitTermination(mTimeLimit, TimeUnit.NANOSECONDS)) {
+					log.debug("Time limit reached with {} samples", samples.mNumSamples.get());
+				}
+			} else {
+				while (!exec.awaitTermination(1, TimeUnit.SECONDS)) {
+					// Wait for the walkers to finish
+				}
+			}
+		} finally {
+			samples.mDone.set(true);
+			exec.shutdownNow();
+			exec.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		if (samples.mInfinite.get()) {
+			result.setFinite(false);
+		} else {
+			SizeEstimate estimate = estimate(samples.mNumSamples.get(), samples.mNumPairs.get());
+			log.debug("Estimated class size of {} as {}", mInitialMatrix, estimate);
+			result.setEquivMutationClassSizeEstimate(estimate);
+		}
+		return result;
+	}
+
+	/**
+	 * Estimate the class size from the number of samples and the number of equal pairs among them.
+	 * 
+	 * @param numSamples Number of samples
+	 * @param numPairs Number of pairs of equal samples
+	 * @return Estimate of the size
+	 */
+	static SizeEstimate estimate(final long numSamples, final long numPairs) {
+		double allPairs = numSamples * (numSamples - 1) / 2.0;
+		// Bounds on the mean of a Poisson variable from the square root transform
+		double upperMean = Math.pow(Math.sqrt(numPairs + 1) + Z / 2, 2);
+		double lowerBound = allPairs / upperMean;
+		if (numPairs == 0) {
+			return new SizeEstimate(Double.POSITIVE_INFINITY, lowerBound, Double.POSITIVE_INFINITY,
+					numSamples);
+		}
+		double lowerMean = Math.pow(Math.max(0, Math.sqrt(numPairs) - Z / 2), 2);
+		double upperBound = lowerMean == 0 ? Double.POSITIVE_INFINITY : allPairs / lowerMean;
+		return new SizeEstimate(allPairs / numPairs, lowerBound, upperBound, numSamples);
+	}
+
+	/** Samples shared between the walkers. */
+	private class Samples {
+
+		/** Number of times each key has been sampled, by a hash of the key. */
+		private final ConcurrentMap<Long, AtomicInteger> mCounts =
+				new ConcurrentHashMap<Long, AtomicInteger>();
+		private final AtomicLong mNumSamples = new AtomicLong();
+		private final AtomicLong mNumPairs = new AtomicLong();
+		private final AtomicBoolean mInfinite = new AtomicBoolean();
+		/** Set once the walkers should stop. */
+		private final AtomicBoolean mDone = new AtomicBoolean();
+
+		/**
+		 * Record a sample, using a 64 bit hash of the 128 bit key. Two different quivers only share
+		 * a hash with negligible probability for the number of samples taken.
+		 */
+		void add(final long[] key) {
+			Long hash = Long.valueOf(QuiverEncoder.hash(key, 0, QuiverCanonicaliser.KEY_WORDS));
+			AtomicInteger count = mCounts.get(hash);
+			if (count == null) {
+				AtomicInteger existing = mCounts.putIfAbsent(hash, new AtomicInteger(1));
+				if (existing == null) {
+					mNumSamples.incrementAndGet();
+					return;
+				}
+				count = existing;
+			}
+			// Each earlier sample of the same key makes a new pair
+			mNumPairs.addAndGet(count.getAndIncrement());
+			mNumSamples.incrementAndGet();
+			if (mNumPairs.get() >= mTargetPairs) {
+				mDone.set(true);
+			}
+		}
+
+		boolean shouldRun() {
+			return mShouldRun && !mDone.get() && !Thread.currentThread().isInterrupted();
+		}
+	}
+
+	/** Random walk taking samples of the class. */
+	private class Walker implements Runnable {
+
+		private final Samples mSamples;
+		private final int mSize;
+		private final QuiverCanonicaliser mCanonicaliser;
+		private final Random mRandom = new Random();
+
+		/** Key of the current quiver. */
+		private long[] mKey = new long[QuiverCanonicaliser.KEY_WORDS];
+		/** Keys of the mutations of the current quiver at each vertex. */
+		private long[] mNeighbourKeys;
+		/** Key of the proposed quiver. */
+		private long[] mProposedKey = new long[QuiverCanonicaliser.KEY_WORDS];
+		/** Keys of the mutations of the proposed quiver. */
+		private long[] mProposedNeighbourKeys;
+
+		Walker(final Samples samples) {
+			mSamples = samples;
+			mSize = Math.min(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols());
+			mCanonicaliser =
+					new QuiverCanonicaliser(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols());
+			mNeighbourKeys = new long[mSize * QuiverCanonicaliser.KEY_WORDS];
+			mProposedNeighbourKeys = new long[mSize * QuiverCanonicaliser.KEY_WORDS];
+		}
+
+		@Override
+		public void run() {
+			Pool<QuiverMatrix> pool =
+					Pools.getQuiverMatrixPool(mInitialMatrix.getNumRows(),
+							mInitialMatrix.getNumCols(), QuiverMatrix.class);
+			QuiverMatrix current = pool.getObj();
+			QuiverMatrix proposed = pool.getObj();
+			QuiverMatrix scratch = pool.getObj();
+			try {
+				current.set(mInitialMatrix);
+				mCanonicaliser.getKey(current, mKey, 0, null);
+				if (!neighbourKeys(current, scratch, mNeighbourKeys)) {
+					return;
+				}
+				int interval = mStepsBetweenSamples > 0 ? mStepsBetweenSamples : 4 * mSize;
+				long steps = 0;
+				long nextSample = (long) BURN_IN_SAMPLES * interval;
+				while (mSamples.shouldRun()) {
+					if (steps++ == nextSample) {
+						mSamples.add(mKey);
+						// Vary the gap so that the walk cannot fall into step with the graph
+						nextSample = steps + interval + mRandom.nextInt(interval);
+					}
+					int k = mRandom.nextInt(mSize);
+					current.mutate(k, proposed);
+					System.arraycopy(mNeighbourKeys, k * QuiverCanonicaliser.KEY_WORDS,
+							mProposedKey, 0, QuiverCanonicaliser.KEY_WORDS);
+					if (!neighbourKeys(proposed, scratch, mProposedNeighbourKeys)) {
+						return;
+					}
+					int forward = count(mNeighbourKeys, mProposedKey);
+					int back = count(mProposedNeighbourKeys, mKey);
+					if (back >= forward || mRandom.nextInt(forward) < back) {
+						QuiverMatrix temp = current;
+						current = proposed;
+						proposed = temp;
+						long[] tempKey = mKey;
+						mKey = mProposedKey;
+						mProposedKey = tempKey;
+						long[] tempKeys = mNeighbourKeys;
+						mNeighbourKeys = mProposedNeighbourKeys;
+						mProposedNeighbourKeys = tempKeys;
+					}
+				}
+			} finally {
+				pool.returnObj(current);
+				pool.returnObj(proposed);
+				pool.returnObj(scratch);
+			}
+		}
+
+		/**
+		 * Compute the key of the mutation of the matrix at each vertex.
+		 * 
+		 * @return false if a mutation is infinite, in which case the walk should stop
+		 */
+		private boolean neighbourKeys(final QuiverMatrix matrix, final QuiverMatrix scratch,
+				final long[] keys) {
+			for (int i = 0; i < mSize; i++) {
+				matrix.mutate(i, scratch);
+				if (scratch.isInfinite()) {
+					log.debug("Infinite matrix found {} in class of {}", scratch, mInitialMatrix);
+					mSamples.mInfinite.set(true);
+					mSamples.mDone.set(true);
+					return false;
+				}
+				mCanonicaliser.getKey(scratch, keys, i * QuiverCanonicaliser.KEY_WORDS, null);
+			}
+			return true;
+		}
+
+		/**
+		 * Count the keys in the array equal to {@code key}.
+		 */
+		private int count(final long[] keys, final long[] key) {
+			int count = 0;
+			for (int i = 0; i < mSize; i++) {
+				if (keys[i * QuiverCanonicaliser.KEY_WORDS] == key[0]
+						&& keys[i * QuiverCanonicaliser.KEY_WORDS + 1] == key[1]) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DepthFirstMutClassSizeTask.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverKeySet;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * Finds the number of matrices in the mutation class of the initial matrix by walking the exchange
+ * graph depth first.
+ * 
+ * <p>
+ * Only a single matrix is used, which is mutated in place using
+ * {@link QuiverMatrix#mutateInPlace(int)}. As mutation is an involution, moving back up the search
+ * is just another mutation at the same vertex. The only things stored are the encoded keys of the
+ * matrices seen so far, in a {@link QuiverKeySet}, and the mutations along the current path, so no
+ * matrices are taken from pools and there is no queue of matrices waiting to be handled.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to find the mutation class size of
+ */
+public class DepthFirstMutClassSizeTask<T extends QuiverMatrix> implements MatrixTask<T> {
+
+	/** Initial length of the path stack. */
+	private static final int INITIAL_DEPTH = 64;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Initial matrix to find the mutation class of. */
+	private T mInitialMatrix;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task with the specified initial matrix.
+	 * 
+	 * @param matrix Matrix to calculate the mutation class size of
+	 */
+	public DepthFirstMutClassSizeTask(final T matrix) {
+		setMatrix(matrix);
+	}
+
+	@Override
+	public final void setMatrix(final T matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("DepthFirstMutClassSizeTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		result.setMutationClassSize(getMutationClassSize());
+		return result;
+	}
+
+	/**
+	 * Calculate the size of the mutation class.
+	 * 
+	 * @return Size of the mutation class, {@link AbstractMutClassSizeTask#INFINITE} if infinite or
+	 *         {@link AbstractMutClassSizeTask#STOP} if stopped early
+	 */
+	private int getMutationClassSize() {
+		if (mInitialMatrix.isInfinite()) {
+			return AbstractMutClassSizeTask.INFINITE;
+		}
+		int rows = mInitialMatrix.getNumRows();
+		int cols = mInitialMatrix.getNumCols();
+		int size = Math.min(rows, cols);
+
+		QuiverMatrix current = new QuiverMatrix(rows, cols);
+		current.set(mInitialMatrix);
+		QuiverEncoder encoder = new QuiverEncoder(rows, cols);
+		long[] key = new long[encoder.getNumWords()];
+		QuiverKeySet visited = new QuiverKeySet(encoder.getNumWords(), 0);
+
+		encoder.encode(current, key, 0);
+		visited.add(key, 0);
+
+		/* Mutation used to reach each matrix on the path, and the next mutation to try from it. */
+		int[] pathMutation = new int[INITIAL_DEPTH];
+		int[] nextMutation = new int[INITIAL_DEPTH];
+		int depth = 0;
+		pathMutation[0] = -1;
+		nextMutation[0] = 0;
+
+		while (depth >= 0 && mShouldRun) {
+			if (nextMutation[depth] < size) {
+				int k = nextMutation[depth]++;
+				if (k == pathMutation[depth]) {
+					// Mutating here just goes back along the path
+					continue;
+				}
+				current.mutateInPlace(k);
+				// Infinite matrices can have entries too large to encode, so check them first
+				if (current.isInfinite()) {
+					log.debug("Infinite matrix found {} in class of {}", current, mInitialMatrix);
+					return AbstractMutClassSizeTask.INFINITE;
+				}
+				encoder.encode(current, key, 0);
+				if (visited.add(key, 0)) {
+					depth++;
+					if (depth == pathMutation.length) {
+						pathMutation = Arrays.copyOf(pathMutation, depth * 2);
+						nextMutation = Arrays.copyOf(nextMutation, depth * 2);
+					}
+					pathMutation[depth] = k;
+					nextMutation[depth] = 0;
+				} else {
+					current.mutateInPlace(k);
+				}
+			} else {
+				if (pathMutation[depth] >= 0) {
+					current.mutateInPlace(pathMutation[depth]);
+				}
+				depth--;
+			}
+		}
+		log.debug("Graph completed. Vertices: {}", visited.size());
+		return mShouldRun ? visited.size() : AbstractMutClassSizeTask.STOP;
+	}
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DistributedEquivMutClassSizeTask.java is part of JCluster. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * Finds the number of quivers in the mutation class of the initial quiver up to permutations of
+ * the vertices, split between a number of worker processes which talk over TCP sockets. This
+ * allows classes too large for the heap of one JVM to be found, and the workers could be spread
+ * across machines, although the task only starts them on this one.
+ * 
+ * <p>
+ * As in {@link ShardedEquivMutClassSizeTask} each quiver is owned by one worker, chosen by a hash
+ * of its {@link uk.co.jwlawson.jcluster.data.QuiverCanonicaliser} key, and only the owner stores
+ * it. Workers send the quivers they find to their owners in batches, see {@link DistributedWorker}.
+ * 
+ * <p>
+ * This task acts as the coordinator. It starts the workers, sends each the initial quiver and the
+ * addresses of the others, then repeatedly asks every worker whether it is idle and how many
+ * quivers it has sent to and received from the others. The search is finished once two rounds in a
+ * row find every worker idle with the same counts, and the total sent equals the total received.
+ * A worker which was idle in both rounds and whose counts did not change received nothing in
+ * between, so no quiver can still be on its way.
+ * 
+ * <p>
+ * By default each worker is a new JVM, started with the same class path as this one. The workers
+ * can instead be run as threads of this JVM, still talking over sockets, which is useful for
+ * testing.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to find the mutation class size of
+ */
+public class DistributedEquivMutClassSizeTask<T extends QuiverMatrix> implements MatrixTask<T> {
+
+	/** Time to wait for the workers to connect. */
+	private static final int CONNECT_TIMEOUT_MS = 60000;
+	/** Time between asking the workers for their status. */
+	private static final long STATUS_INTERVAL_MS = 10;
+	/** Time to wait for the workers to exit once told to stop. */
+	private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Initial matrix to find the mutation class of. */
+	private T mInitialMatrix;
+	/** Number of workers to split the quivers between. */
+	private int mNumWorkers;
+	/** True if each worker should be a new process. */
+	private boolean mUseProcesses = true;
+	/** Extra arguments to give the JVM of each worker. */
+	private String[] mJvmArgs = new String[0];
+	/** Number of quivers each worker can keep in memory in its frontier. */
+	private int mMaxInMemory = SpillingFrontier.UNLIMITED;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task with the specified number of workers.
+	 * 
+	 * @param matrix Matrix to calculate the mutation class size of
+	 * @param numWorkers Number of workers to use
+	 */
+	public DistributedEquivMutClassSizeTask(final T matrix, final int numWorkers) {
+		if (numWorkers < 1) {
+			throw new IllegalArgumentException("Need at least one worker, not " + numWorkers);
+		}
+		setMatrix(matrix);
+		mNumWorkers = numWorkers;
+	}
+
+	@Override
+	public final void setMatrix(final T matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	/**
+	 * Set whether each worker is run in a new JVM, or as a thread of this one.
+	 * 
+	 * @param useProcesses true to start a process for each worker
+	 */
+	public void setUseProcesses(final boolean useProcesses) {
+		mUseProcesses = useProcesses;
+	}
+
+	/**
+	 * Set extra arguments for the JVM of each worker process, such as its heap size.
+	 * 
+	 * @param args Arguments to pass to the JVM
+	 */
+	public void setJvmArgs(final String... args) {
+		mJvmArgs = args.clone();
+	}
+
+	/**
+	 * Set the number of quivers each worker can keep in its frontier before the rest are written to
+	 * disk, see {@link SpillingFrontier}.
+	 * 
+	 * @param maxInMemory Number of quivers to keep in memory
+	 */
+	public void setMaxInMemory(final int maxInMemory) {
+		mMaxInMemory = maxInMemory;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("DistributedEquivMutClassSizeTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		result.setEquivMutationClassSize(getMutationClassSize());
+		return result;
+	}
+
+	/**
+	 * Calculate the size of the mutation class.
+	 * 
+	 * @return Size of the mutation class, {@link AbstractMutClassSizeTask#INFINITE} if infinite or
+	 *         {@link AbstractMutClassSizeTask#STOP} if stopped early
+	 * @throws Exception if the workers fail
+	 */
+	private int getMutationClassSize() throws Exception {
+		if (mInitialMatrix.isInfinite()) {
+			return AbstractMutClassSizeTask.INFINITE;
+		}
+		ServerSocket server = new ServerSocket(0, mNumWorkers, InetAddress.getLoopbackAddress());
+		server.setSoTimeout(CONNECT_TIMEOUT_MS);
+		List<Process> processes = new ArrayList<Process>();
+		ExecutorService exec = null;
+		Socket[] sockets = new Socket[mNumWorkers];
+		DataOutputStream[] outs = new DataOutputStream[mNumWorkers];
+		try {
+			String host = server.getInetAddress().getHostAddress();
+			if (mUseProcesses) {
+				for (int w = 0; w < mNumWorkers; w++) {
+					processes.add(startProcess(host, server.getLocalPort(), w));
+				}
+			} else {
+				exec =
+						Executors.newFixedThreadPool(mNumWorkers, new NamingThreadFactory(getClass()
+								.getSimpleName()));
+				for (int w = 0; w < mNumWorkers; w++) {
+					exec.submit(new DistributedWorker(host, server.getLocalPort(), w));
+				}
+			}
+
+			DataInputStream[] ins = new DataInputStream[mNumWorkers];
+			String[] hosts = new String[mNumWorkers];
+			int[] ports = new int[mNumWorkers];
+			for (int n = 0; n < mNumWorkers; n++) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				DataInputStream in =
+						new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int index = in.readInt();
+				sockets[index] = socket;
+				ins[index] = in;
+				outs[index] =
+						new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				hosts[index] = socket.getInetAddress().getHostAddress();
+				ports[index] = in.readInt();
+			}
+			for (DataOutputStream out : outs) {
+				sendConfig(out, hosts, ports);
+			}
+			log.debug("All {} workers connected", mNumWorkers);
+			return waitForWorkers(outs, ins);
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to talk to the workers", e);
+		} finally {
+			for (DataOutputStream out : outs) {
+				stopWorker(out);
+			}
+			for (Socket socket : sockets) {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+			server.close();
+			for (Process process : processes) {
+				waitForProcess(process);
+			}
+			if (exec != null) {
+				exec.shutdown();
+				if (!exec.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					exec.shutdownNow();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ask the workers for their status until the search is finished.
+	 * 
+	 * @return Size of the mutation class
+	 */
+	private int waitForWorkers(final DataOutputStream[] outs, final DataInputStream[] ins)
+			throws IOException, InterruptedException {
+		long[] sent = new long[mNumWorkers];
+		long[] received = new long[mNumWorkers];
+		long[] lastSent = new long[mNumWorkers];
+		long[] lastReceived = new long[mNumWorkers];
+		boolean lastIdle = false;
+		while (mShouldRun) {
+			for (DataOutputStream out : outs) {
+				out.writeByte(DistributedWorker.MSG_STATUS);
+				out.flush();
+			}
+			boolean idle = true;
+			boolean infinite = false;
+			long totalSent = 0;
+			long totalReceived = 0;
+			int size = 0;
+			for (int w = 0; w < mNumWorkers; w++) {
+				idle &= ins[w].readBoolean();
+				infinite |= ins[w].readBoolean();
+				sent[w] = ins[w].readLong();
+				received[w] = ins[w].readLong();
+				size += ins[w].readInt();
+				totalSent += sent[w];
+				totalReceived += received[w];
+			}
+			if (infinite) {
+				log.debug("Infinite matrix found in class of {}", mInitialMatrix);
+				return AbstractMutClassSizeTask.INFINITE;
+			}
+			if (idle && lastIdle && totalSent == totalReceived && Arrays.equals(sent, lastSent)
+					&& Arrays.equals(received, lastReceived)) {
+				log.debug("Graph completed. Vertices: {}", size);
+				return size;
+			}
+			lastIdle = idle;
+			System.arraycopy(sent, 0, lastSent, 0, mNumWorkers);
+			System.arraycopy(received, 0, lastReceived, 0, mNumWorkers);
+			Thread.sleep(STATUS_INTERVAL_MS);
+		}
+		return AbstractMutClassSizeTask.STOP;
+	}
+
+	/**
+	 * Send the addresses of all workers, the initial quiver and the frontier limit to a worker.
+	 */
+	private void sendConfig(final DataOutputStream out, final String[] hosts, final int[] ports)
+			throws IOException {
+		out.writeByte(DistributedWorker.MSG_CONFIG);
+		out.writeInt(mNumWorkers);
+		for (int w = 0; w < mNumWorkers; w++) {
+			out.writeUTF(hosts[w]);
+			out.writeInt(ports[w]);
+		}
+		out.writeInt(mInitialMatrix.getNumRows());
+		out.writeInt(mInitialMatrix.getNumCols());
+		for (int i = 0; i < mInitialMatrix.getNumRows(); i++) {
+			for (int j = 0; j < mInitialMatrix.getNumCols(); j++) {
+				out.writeInt(mInitialMatrix.get(i, j));
+			}
+		}
+		out.writeInt(mMaxInMemory);
+		out.flush();
+	}
+
+	/**
+	 * Start a new JVM running a worker.
+	 */
+	private Process startProcess(final String host, final int port, final int index)
+			throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+				+ "java");
+		command.addAll(Arrays.asList(mJvmArgs));
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DistributedWorker.class.getName());
+		command.add(host);
+		command.add(String.valueOf(port));
+		command.add(String.valueOf(index));
+		return new ProcessBuilder(command).inheritIO().start();
+	}
+
+	/**
+	 * Tell a worker to stop, ignoring any failure as the worker may already have gone.
+	 */
+	private void stopWorker(final DataOutputStream out) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(DistributedWorker.MSG_STOP);
+			out.flush();
+		} catch (IOException e) {
+			log.debug("Failed to stop worker", e);
+		}
+	}
+
+	/**
+	 * Wait for a worker process to exit, killing it if it takes too long.
+	 */
+	private void waitForProcess(final Process process) throws InterruptedException {
+		long end = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+		while (System.currentTimeMillis() < end) {
+			try {
+				int exit = process.exitValue();
+				if (exit != 0) {
+					log.warn("Worker exited with code {}", exit);
+				}
+				return;
+			} catch (IllegalThreadStateException e) {
+				Thread.sleep(STATUS_INTERVAL_MS);
+			}
+		}
+		log.warn("Worker did not stop, killing it");
+		process.destroy();
+	}
+}
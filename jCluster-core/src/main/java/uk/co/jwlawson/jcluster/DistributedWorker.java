@@ -0,0 +1,529 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DistributedWorker.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.LinkTable;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverLinkTable;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverPacker;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * One worker of a {@link DistributedEquivMutClassSizeTask}, usually run in its own process through
+ * {@link DistributedWorker#main(String[])}.
+ * 
+ * <p>
+ * Each worker owns the quivers whose {@link QuiverCanonicaliser} key hashes to its index, and is
+ * the only one to store them. It takes quivers from its own frontier and mutates them at each
+ * vertex. Results it owns are checked against its seen table straight away, while the rest are
+ * collected into a batch for their owner and sent over a socket once the batch is full or the
+ * worker runs out of work. Each quiver is sent as its key followed by the quiver packed by a
+ * {@link QuiverPacker}, so the owner does not need to compute the key again.
+ * 
+ * <p>
+ * The worker connects to the coordinator, sends its index and the port it accepts other workers
+ * on, and receives the initial quiver and the addresses of the other workers. It then answers each
+ * status request of the coordinator with whether it is idle and how many quivers it has sent and
+ * received, until the coordinator tells it to stop.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class DistributedWorker implements Callable<Integer> {
+
+	/** Message from the coordinator with the initial quiver and the other workers. */
+	static final byte MSG_CONFIG = 1;
+	/** Message from the coordinator asking for the worker's status. */
+	static final byte MSG_STATUS = 2;
+	/** Message from the coordinator telling the worker to stop. */
+	static final byte MSG_STOP = 3;
+
+	/** Number of quivers sent to another worker at once. */
+	private static final int BATCH_SIZE = 512;
+	/** Number of connections from other workers which can wait to be accepted. */
+	private static final int ACCEPT_BACKLOG = 50;
+	/** Number of quivers taken from the frontier between checking for messages. */
+	private static final int WORK_CHUNK = 64;
+	/** Time to wait for a new batch once the frontier is empty. */
+	private static final long POLL_TIMEOUT_MS = 5;
+	/** Buffer size of the socket streams in bytes. */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Initial number of quivers in each array of the frontier. */
+	private static final int INITIAL_QUEUE_CAPACITY = 256;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Host the coordinator is listening on. */
+	private final String mHost;
+	/** Port the coordinator is listening on. */
+	private final int mPort;
+	/** Index of this worker. */
+	private final int mIndex;
+
+	/** Sockets and server sockets to close once finished. */
+	private final List<Closeable> mCloseables = Collections
+			.synchronizedList(new ArrayList<Closeable>());
+	/** Batches received from the other workers. */
+	private final BlockingQueue<long[]> mInbox = new LinkedBlockingQueue<long[]>();
+	/** Number of quivers received from the other workers. */
+	private final AtomicLong mReceived = new AtomicLong();
+	/** Set when the coordinator asks for the status. */
+	private volatile boolean mStatusRequested;
+	/** Set when the coordinator tells the worker to stop. */
+	private volatile boolean mStopped;
+
+	private int mNumWorkers;
+	private QuiverMatrix mInitialMatrix;
+	private int mSize;
+	private QuiverCanonicaliser mCanonicaliser;
+	private QuiverPacker mPacker;
+	private Pool<QuiverMatrix> mPool;
+	/** Number of longs used for each quiver sent. */
+	private int mEntryWords;
+	/** Quivers owned by this worker which have been seen. */
+	private LinkTable mSeen;
+	/** Quivers owned by this worker which are still to be mutated. */
+	private SpillingFrontier<QuiverMatrix> mFrontier;
+	/** Port each worker accepts other workers on. */
+	private int[] mPorts;
+	/** Streams to each other worker, with null for this worker. */
+	private DataOutputStream[] mPeers;
+	/** Batch being collected for each other worker. */
+	private long[][] mBatches;
+	/** Number of quivers in each batch. */
+	private int[] mBatchSizes;
+	/** Number of quivers sent to the other workers. */
+	private long mSent;
+	/** True once an infinite quiver has been found. */
+	private boolean mInfinite;
+	/** Key of the quiver being handled. */
+	private final long[] mKey = new long[QuiverCanonicaliser.KEY_WORDS];
+
+	/**
+	 * Create a new worker which connects to the coordinator at the host and port.
+	 * 
+	 * @param host Host of the coordinator
+	 * @param port Port of the coordinator
+	 * @param index Index of this worker
+	 */
+	public DistributedWorker(final String host, final int port, final int index) {
+		mHost = host;
+		mPort = port;
+		mIndex = index;
+	}
+
+	/**
+	 * Run a worker, with the host and port of the coordinator and the index of the worker as
+	 * arguments.
+	 * 
+	 * @param args Command line arguments
+	 * @throws Exception if the worker fails
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("Usage: DistributedWorker <host> <port> <index>");
+			System.exit(1);
+		}
+		new DistributedWorker(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2])).call();
+		System.exit(0);
+	}
+
+	/**
+	 * Get the index of the worker which owns the quiver with the key. This uses the top bits of the
+	 * hash, as the seen tables use the bottom bits.
+	 * 
+	 * @param key Key of the quiver
+	 * @param offset Index of the key in the array
+	 * @param numWorkers Number of workers
+	 * @return Index of the owning worker
+	 */
+	static int ownerOf(final long[] key, final int offset, final int numWorkers) {
+		long hash = QuiverEncoder.hash(key, offset, QuiverCanonicaliser.KEY_WORDS);
+		return (int) ((hash >>> 32) % numWorkers);
+	}
+
+	/**
+	 * Connect to the coordinator and run until told to stop.
+	 * 
+	 * @return Number of quivers owned by this worker
+	 */
+	@Override
+	public Integer call() throws Exception {
+		ExecutorService exec =
+				Executors.newCachedThreadPool(new NamingThreadFactory("DistributedWorker-"
+						+ mIndex));
+		try {
+			Socket control = new Socket(mHost, mPort);
+			mCloseables.add(control);
+			control.setTcpNoDelay(true);
+			// Other workers are sent the address the coordinator sees this worker connect from, so
+			// only listen on that interface
+			ServerSocket server = new ServerSocket(0, ACCEPT_BACKLOG, control.getLocalAddress());
+			mCloseables.add(server);
+			DataOutputStream controlOut =
+					new DataOutputStream(new BufferedOutputStream(control.getOutputStream()));
+			DataInputStream controlIn =
+					new DataInputStream(new BufferedInputStream(control.getInputStream()));
+			controlOut.writeInt(mIndex);
+			controlOut.writeInt(server.getLocalPort());
+			controlOut.flush();
+
+			String[] hosts = readConfig(controlIn);
+			exec.submit(new Acceptor(server, exec));
+			connectToPeers(hosts);
+			exec.submit(new ControlReader(controlIn));
+			log.debug("Worker {} of {} started", mIndex, mNumWorkers);
+			run(controlOut);
+			return mSeen.size();
+		} catch (IOException e) {
+			if (mStopped) {
+				// Connections closed by the coordinator as it finished
+				return mSeen == null ? 0 : mSeen.size();
+			}
+			throw new IllegalStateException("Worker " + mIndex + " failed", e);
+		} finally {
+			mStopped = true;
+			synchronized (mCloseables) {
+				for (Closeable closeable : mCloseables) {
+					try {
+						closeable.close();
+					} catch (IOException e) {
+						log.debug("Failed to close connection", e);
+					}
+				}
+			}
+			exec.shutdownNow();
+			if (mFrontier != null) {
+				mFrontier.close();
+			}
+			if (mSeen != null) {
+				mSeen.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the configuration sent by the coordinator and set up the search.
+	 * 
+	 * @return Host of each worker
+	 */
+	private String[] readConfig(final DataInputStream in) throws IOException {
+		byte msg = in.readByte();
+		if (msg != MSG_CONFIG) {
+			throw new IllegalStateException("Expected configuration but got message " + msg);
+		}
+		mNumWorkers = in.readInt();
+		String[] hosts = new String[mNumWorkers];
+		int[] ports = new int[mNumWorkers];
+		for (int w = 0; w < mNumWorkers; w++) {
+			hosts[w] = in.readUTF();
+			ports[w] = in.readInt();
+		}
+		int rows = in.readInt();
+		int cols = in.readInt();
+		int[] values = new int[rows * cols];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readInt();
+		}
+		int maxInMemory = in.readInt();
+
+		mInitialMatrix = new QuiverMatrix(rows, cols, values);
+		mSize = Math.min(rows, cols);
+		mCanonicaliser = new QuiverCanonicaliser(rows, cols);
+		mPacker = QuiverPacker.forMatrix(mInitialMatrix);
+		mPool = Pools.getQuiverMatrixPool(rows, cols, QuiverMatrix.class);
+		mEntryWords = QuiverCanonicaliser.KEY_WORDS + mPacker.getNumWords();
+		mSeen =
+				new QuiverLinkTable(QuiverCanonicaliser.KEY_WORDS, 0, INITIAL_QUEUE_CAPACITY, false);
+		mFrontier =
+				new SpillingFrontier<QuiverMatrix>(mPacker, mPool, null, INITIAL_QUEUE_CAPACITY);
+		mFrontier.setMaxInMemory(maxInMemory);
+		mBatches = new long[mNumWorkers][BATCH_SIZE * mEntryWords];
+		mBatchSizes = new int[mNumWorkers];
+
+		mCanonicaliser.getKey(mInitialMatrix, mKey, 0, null);
+		if (ownerOf(mKey, 0, mNumWorkers) == mIndex) {
+			mSeen.putIfAbsent(mKey, 0, 0);
+			QuiverMatrix initial = mPool.getObj();
+			initial.set(mInitialMatrix);
+			mFrontier.offer(initial);
+		}
+		mPorts = ports;
+		return hosts;
+	}
+
+	/**
+	 * Open a connection to each other worker.
+	 */
+	private void connectToPeers(final String[] hosts) throws IOException {
+		mPeers = new DataOutputStream[mNumWorkers];
+		for (int w = 0; w < mNumWorkers; w++) {
+			if (w == mIndex) {
+				continue;
+			}
+			Socket socket = new Socket(hosts[w], mPorts[w]);
+			mCloseables.add(socket);
+			socket.setTcpNoDelay(true);
+			mPeers[w] =
+					new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(),
+							BUFFER_SIZE));
+		}
+	}
+
+	/**
+	 * Handle quivers until told to stop, answering any status requests.
+	 */
+	private void run(final DataOutputStream controlOut) throws IOException, InterruptedException {
+		while (!mStopped) {
+			if (mStatusRequested) {
+				mStatusRequested = false;
+				sendStatus(controlOut);
+			}
+			long[] batch = mInbox.poll();
+			while (batch != null) {
+				receive(batch);
+				batch = mInbox.poll();
+			}
+			if (!mFrontier.isEmpty() && !mInfinite) {
+				for (int n = 0; n < WORK_CHUNK && !mFrontier.isEmpty() && !mInfinite; n++) {
+					expand(mFrontier.poll());
+				}
+			} else {
+				flushAll();
+				batch = mInbox.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				if (batch != null) {
+					receive(batch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tell the coordinator whether this worker is idle, whether an infinite quiver has been found,
+	 * the number of quivers sent and received and the number owned.
+	 */
+	private void sendStatus(final DataOutputStream out) throws IOException {
+		if (mFrontier.isEmpty()) {
+			flushAll();
+		}
+		// Read the count first, as a batch is only counted once it is in the inbox
+		long received = mReceived.get();
+		boolean idle = (mFrontier.isEmpty() || mInfinite) && mInbox.isEmpty();
+		out.writeBoolean(idle);
+		out.writeBoolean(mInfinite);
+		out.writeLong(mSent);
+		out.writeLong(received);
+		out.writeInt(mSeen.size());
+		out.flush();
+	}
+
+	/**
+	 * Add the quivers in a batch from another worker which have not been seen to the frontier.
+	 */
+	private void receive(final long[] batch) {
+		for (int offset = 0; offset < batch.length; offset += mEntryWords) {
+			if (mSeen.putIfAbsent(batch, offset, 0)) {
+				QuiverMatrix matrix = mPool.getObj();
+				mPacker.unpack(batch, offset + QuiverCanonicaliser.KEY_WORDS, matrix);
+				mFrontier.offer(matrix);
+			}
+		}
+	}
+
+	/**
+	 * Mutate the quiver at each vertex, keeping any new quivers owned by this worker and sending
+	 * the rest to their owners.
+	 */
+	private void expand(final QuiverMatrix matrix) throws IOException {
+		for (int i = 0; i < mSize; i++) {
+			QuiverMatrix next = matrix.mutate(i, mPool.getObj());
+			if (next.isInfinite()) {
+				log.debug("Infinite matrix found {} in class of {}", next, mInitialMatrix);
+				mInfinite = true;
+				mPool.returnObj(next);
+				break;
+			}
+			mCanonicaliser.getKey(next, mKey, 0, null);
+			int owner = ownerOf(mKey, 0, mNumWorkers);
+			if (owner == mIndex) {
+				if (mSeen.putIfAbsent(mKey, 0, 0)) {
+					mFrontier.offer(next);
+				} else {
+					mPool.returnObj(next);
+				}
+			} else {
+				long[] batch = mBatches[owner];
+				int offset = mBatchSizes[owner]++ * mEntryWords;
+				System.arraycopy(mKey, 0, batch, offset, QuiverCanonicaliser.KEY_WORDS);
+				mPacker.pack(next, batch, offset + QuiverCanonicaliser.KEY_WORDS);
+				mPool.returnObj(next);
+				if (mBatchSizes[owner] == BATCH_SIZE) {
+					flush(owner);
+				}
+			}
+		}
+		mPool.returnObj(matrix);
+	}
+
+	private void flushAll() throws IOException {
+		for (int w = 0; w < mNumWorkers; w++) {
+			if (mBatchSizes[w] > 0) {
+				flush(w);
+			}
+		}
+	}
+
+	/**
+	 * Send the batch collected for a worker.
+	 */
+	private void flush(final int worker) throws IOException {
+		int count = mBatchSizes[worker];
+		long[] batch = mBatches[worker];
+		DataOutputStream out = mPeers[worker];
+		out.writeInt(count);
+		for (int i = 0; i < count * mEntryWords; i++) {
+			out.writeLong(batch[i]);
+		}
+		out.flush();
+		mSent += count;
+		mBatchSizes[worker] = 0;
+	}
+
+	/**
+	 * Accepts the connections from the other workers.
+	 */
+	private class Acceptor implements Runnable {
+
+		private final ServerSocket mServer;
+		private final ExecutorService mExec;
+
+		Acceptor(final ServerSocket server, final ExecutorService exec) {
+			mServer = server;
+			mExec = exec;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int w = 1; w < mNumWorkers; w++) {
+					Socket socket = mServer.accept();
+					mCloseables.add(socket);
+					mExec.submit(new PeerReader(socket));
+				}
+			} catch (IOException e) {
+				if (!mStopped) {
+					log.error("Worker " + mIndex + " failed to accept a connection", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads batches of quivers from another worker into the inbox.
+	 */
+	private class PeerReader implements Runnable {
+
+		private final Socket mSocket;
+
+		PeerReader(final Socket socket) {
+			mSocket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in =
+						new DataInputStream(new BufferedInputStream(mSocket.getInputStream(),
+								BUFFER_SIZE));
+				while (true) {
+					int count = in.readInt();
+					if (count < 0 || count > BATCH_SIZE) {
+						throw new IOException("Invalid batch of " + count + " quivers");
+					}
+					long[] batch = new long[count * mEntryWords];
+					for (int i = 0; i < batch.length; i++) {
+						batch[i] = in.readLong();
+					}
+					mInbox.add(batch);
+					mReceived.addAndGet(count);
+				}
+			} catch (EOFException e) {
+				// The other worker has finished
+			} catch (IOException e) {
+				if (!mStopped) {
+					log.error("Worker " + mIndex + " failed to read from another worker", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the messages sent by the coordinator.
+	 */
+	private class ControlReader implements Runnable {
+
+		private final DataInputStream mIn;
+
+		ControlReader(final DataInputStream in) {
+			mIn = in;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!mStopped) {
+					byte msg = mIn.readByte();
+					if (msg == MSG_STATUS) {
+						mStatusRequested = true;
+					} else if (msg == MSG_STOP) {
+						break;
+					} else {
+						log.error("Worker {} got unknown message {}", mIndex, msg);
+					}
+				}
+			} catch (IOException e) {
+				log.debug("Worker {} lost the connection to the coordinator", mIndex);
+			} finally {
+				mStopped = true;
+			}
+		}
+	}
+}
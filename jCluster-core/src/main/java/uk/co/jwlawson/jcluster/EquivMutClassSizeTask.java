@@ -14,30 +14,40 @@
  */
 package uk.co.jwlawson.jcluster;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
-
 import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
-import uk.co.jwlawson.jcluster.data.IntMatrix;
-import uk.co.jwlawson.jcluster.data.LinkHolder;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.MutationClassRegistry;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
-import uk.co.jwlawson.jcluster.pool.Pool;
 
 /**
  * Task to find the number of quivers in the mutation class of the initial quiver up to permutations
- * of the vertices of the quivers. This uses much less memory than {@link MutClassSizeTask} but can
- * be slower as the check for equivalence is slow.
+ * of the vertices of the quivers. This uses much less memory than {@link MutClassSizeTask}.
+ * 
+ * <p>
+ * Each quiver is stored only by the 128 bit key given by a {@link QuiverCanonicaliser}, which is
+ * the same for any equivalent quivers, so a single lookup in the link table tells whether a quiver
+ * has been seen and which of its mutations have been considered. Links are stored against the
+ * vertices of the canonical form, so are shared between equivalent quivers. No matrices are kept
+ * once they have been handled.
+ * 
+ * <p>
+ * If a {@link MutationClassRegistry} is set then every quiver found is registered as being in the
+ * class of the initial quiver, and the result is recorded against the class once known.
  * 
  * @author John Lawson
  * 
  */
 public class EquivMutClassSizeTask extends MutClassSizeTask<EquivQuiverMatrix> {
 
-	/** Set of all seen matrices. */
-	private final Set<EquivQuiverMatrix> mList;
+	/** Computes the keys of the quivers. */
+	private QuiverCanonicaliser mCanonicaliser;
+	/** Registry to record the class in, or null. */
+	private MutationClassRegistry mRegistry;
+	/** Key of the initial quiver, used when registering quivers. */
+	private final long[] mInitialKey = new long[QuiverCanonicaliser.KEY_WORDS];
+	/** Key of the latest quiver to register. */
+	private final long[] mRegisterKey = new long[QuiverCanonicaliser.KEY_WORDS];
 
 	/**
 	 * Create a new task to find the mutation class size up to reordering rows and columns of the
@@ -47,7 +57,6 @@ public class EquivMutClassSizeTask extends MutClassSizeTask<EquivQuiverMatrix> {
 	 */
 	public EquivMutClassSizeTask(final EquivQuiverMatrix matrix) {
 		super(matrix);
-		mList = new HashSet<EquivQuiverMatrix>();
 		setIterationsBetweenStats(100);
 	}
 
@@ -61,94 +70,65 @@ public class EquivMutClassSizeTask extends MutClassSizeTask<EquivQuiverMatrix> {
 		this(new EquivQuiverMatrix(matrix));
 	}
 
+	/**
+	 * Set a registry to record every quiver in the class in, along with the result.
+	 * 
+	 * @param registry Registry to use, or null to not register the class
+	 */
+	public void setRegistry(final MutationClassRegistry registry) {
+		mRegistry = registry;
+	}
+
 	@Override
 	protected void setUp(final EquivQuiverMatrix m) {
 		super.setUp(m);
-		mList.add(m);
+		mCanonicaliser = new QuiverCanonicaliser(m.getNumRows(), m.getNumCols());
+		if (mRegistry != null) {
+			mCanonicaliser.getKey(m, mInitialKey, 0, null);
+			mRegistry.union(getRows(), getCols(), mInitialKey, 0, mInitialKey, 0);
+		}
 	}
 
 	@Override
-	public void reset() {
-		super.reset();
-		mList.clear();
+	protected void handleUnseenMatrix(final EquivQuiverMatrix newMatrix) {
+		super.handleUnseenMatrix(newMatrix);
+		if (mRegistry != null) {
+			mCanonicaliser.getKey(newMatrix, mRegisterKey, 0, null);
+			mRegistry.union(getRows(), getCols(), mInitialKey, 0, mRegisterKey, 0);
+		}
 	}
 
 	@Override
 	protected MatrixInfo handleResult(final MatrixInfo info, final int result) {
 		info.setEquivMutationClassSize(result);
-		return info;
-	}
-
-	@Override
-	protected boolean matrixSeenBefore(final EquivQuiverMatrix newMatrix,
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet) {
-		return mList.contains(newMatrix) || super.matrixSeenBefore(newMatrix, matrixSet);
-	}
-
-	@Override
-	protected void handleSeenMatrix(
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet,
-			final EquivQuiverMatrix mat, final EquivQuiverMatrix newMatrix, final int i) {
-		LinkHolder<EquivQuiverMatrix> newHolder = matrixSet.get(newMatrix);
-		LinkHolder<EquivQuiverMatrix> oldHolder = matrixSet.get(mat);
-		oldHolder.setLinkAt(i);
-		if (newHolder == null) {
-			// Matrix seen before, but no longer in map as all links mutated
-			return;
+		if (mRegistry != null && result != STOP) {
+			MatrixInfo classInfo = new MatrixInfo(info.getMatrix());
+			if (result == INFINITE) {
+				classInfo.setFinite(false);
+			} else {
+				classInfo.setFinite(true);
+				classInfo.setEquivMutationClassSize(result);
+			}
+			// The initial key is not set up if the initial matrix was already infinite, and the
+			// registry ignores an initial matrix with entries too large to have a key
+			mRegistry.setInfo(info.getMatrix(), classInfo);
 		}
-		if (IntMatrix.areEqual(newMatrix, newHolder.getQuiverMatrix())) {
-			// Matrices are equal, not just equivalent so update the stored matrix link
-			newHolder.setLinkAt(i);
-		}
-	}
-
-
-	@Override
-	protected void removeHandledQuiver(final EquivQuiverMatrix remove,
-			final Pool<EquivQuiverMatrix> quiverPool,
-			final Pool<LinkHolder<EquivQuiverMatrix>> holderPool,
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet) {
-
-		LinkHolder<EquivQuiverMatrix> holder = matrixSet.remove(remove);
-		holderPool.returnObj(holder);
+		return info;
 	}
 
 	@Override
-	protected void removeComplete(final EquivQuiverMatrix remove,
-			final Pool<EquivQuiverMatrix> quiverPool,
-			final Pool<LinkHolder<EquivQuiverMatrix>> holderPool,
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet) {
-
-		LinkHolder<EquivQuiverMatrix> holder = matrixSet.remove(remove);
-		EquivQuiverMatrix key = holder.getQuiverMatrix();
-		holderPool.returnObj(holder);
-		// TODO Check if necessary to check this.
-		// I think this always runs
-		if (key != remove) {
-			quiverPool.returnObj(remove);
-		}
+	protected int getKeyLength() {
+		return QuiverCanonicaliser.KEY_WORDS;
 	}
 
 	@Override
-	protected void handleUnseenMatrix(
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet,
-			final Queue<EquivQuiverMatrix> incompleteQuivers,
-			final Pool<LinkHolder<EquivQuiverMatrix>> holderPool, final EquivQuiverMatrix mat,
-			final EquivQuiverMatrix newMatrix, final int i) {
-
-		mList.add(newMatrix);
-		super.handleUnseenMatrix(matrixSet, incompleteQuivers, holderPool, mat, newMatrix, i);
+	protected void getKey(final EquivQuiverMatrix matrix, final long[] key, final int[] vertexMap) {
+		mCanonicaliser.getKey(matrix, key, 0, vertexMap);
 	}
 
 	@Override
-	protected void teardown(final Pool<EquivQuiverMatrix> quiverPool,
-			final Pool<LinkHolder<EquivQuiverMatrix>> holderPool,
-			final Map<EquivQuiverMatrix, LinkHolder<EquivQuiverMatrix>> matrixSet) {
-
-		for (EquivQuiverMatrix m : mList) {
-			quiverPool.returnObj(m);
-		}
-		mList.clear();
-		super.teardown(quiverPool, holderPool, matrixSet);
+	protected boolean shouldRemoveCompleteQuivers() {
+		// Complete quivers can be reached again through a different equivalent quiver
+		return false;
 	}
 }
@@ -0,0 +1,348 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ExternalMutClassSizeTask.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.KeyFileReader;
+import uk.co.jwlawson.jcluster.data.KeyFileWriter;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * Finds the number of matrices in the mutation class of the initial matrix using a breadth first
+ * search which keeps almost everything on disk, so that mutation classes far larger than the
+ * available memory can be explored.
+ * 
+ * <p>
+ * Each level of the search is stored as a file of encoded keys in sorted order. The children of a
+ * level are collected into a buffer, which is sorted and written out as a run file whenever it
+ * fills. Duplicates are removed once the level is finished, by merging the runs with the files of
+ * the current and previous levels. As the exchange graph is undirected, any child seen before must
+ * lie in one of these two levels, so the result of the merge is exactly the next level. All reads
+ * and writes are sequential.
+ * 
+ * <p>
+ * As with {@link MutClassSizeTask} the matrices are compared exactly.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to find the mutation class size of
+ */
+public class ExternalMutClassSizeTask<T extends QuiverMatrix> implements MatrixTask<T> {
+
+	/** Default number of keys held in memory before a run is written. */
+	private static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Directory to write the level and run files to. */
+	private final File mDirectory;
+	/** Initial matrix to find the mutation class of. */
+	private T mInitialMatrix;
+	/** Number of keys held in memory before a run is written. */
+	private int mRunSize = DEFAULT_RUN_SIZE;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task which stores its files in {@code directory}.
+	 * 
+	 * @param matrix Matrix to calculate the mutation class size of
+	 * @param directory Directory to write temporary files to
+	 */
+	public ExternalMutClassSizeTask(final T matrix, final File directory) {
+		setMatrix(matrix);
+		mDirectory = directory;
+	}
+
+	@Override
+	public final void setMatrix(final T matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	/**
+	 * Set the number of keys to collect in memory before sorting them and writing them to disk.
+	 * 
+	 * @param runSize Number of keys in each run
+	 */
+	public final void setRunSize(final int runSize) {
+		if (runSize < 1) {
+			throw new IllegalArgumentException("Run size must be positive, not " + runSize);
+		}
+		mRunSize = runSize;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("ExternalMutClassSizeTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		long size = getMutationClassSize();
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Mutation class size " + size
+					+ " is too large to store in MatrixInfo");
+		}
+		result.setMutationClassSize((int) size);
+		return result;
+	}
+
+	/**
+	 * Calculate the size of the mutation class.
+	 * 
+	 * @return Size of the mutation class, {@link AbstractMutClassSizeTask#INFINITE} if infinite or
+	 *         {@link AbstractMutClassSizeTask#STOP} if stopped early
+	 * @throws IOException if the files cannot be read or written
+	 */
+	public long getMutationClassSize() throws IOException {
+		if (mInitialMatrix.isInfinite()) {
+			return AbstractMutClassSizeTask.INFINITE;
+		}
+		int rows = mInitialMatrix.getNumRows();
+		int cols = mInitialMatrix.getNumCols();
+		QuiverEncoder encoder = new QuiverEncoder(rows, cols);
+		int numWords = encoder.getNumWords();
+
+		long[] key = new long[numWords];
+		encoder.encode(mInitialMatrix, key, 0);
+		File previous = null;
+		File current = newFile("level");
+		KeyFileWriter writer = new KeyFileWriter(current, numWords);
+		try {
+			writer.write(key, 0);
+		} finally {
+			writer.close();
+		}
+
+		long numMatrices = 1;
+		int depth = 0;
+		try {
+			while (mShouldRun) {
+				List<File> runs = new ArrayList<File>();
+				try {
+					if (!expandLevel(current, encoder, runs)) {
+						log.debug("Infinite matrix found in class of {}", mInitialMatrix);
+						return AbstractMutClassSizeTask.INFINITE;
+					}
+					File next = newFile("level");
+					long levelSize = merge(runs, current, previous, next, numWords);
+					delete(previous);
+					previous = current;
+					current = next;
+					if (levelSize == 0) {
+						break;
+					}
+					numMatrices += levelSize;
+					depth++;
+					log.debug("Level {} complete with {} matrices. Found {} matrices", depth,
+							levelSize, numMatrices);
+				} finally {
+					for (File run : runs) {
+						delete(run);
+					}
+				}
+			}
+		} finally {
+			delete(previous);
+			delete(current);
+		}
+		log.debug("Graph completed. Vertices: {}", numMatrices);
+		return mShouldRun ? numMatrices : AbstractMutClassSizeTask.STOP;
+	}
+
+	/**
+	 * Mutate every matrix in the level at every vertex, writing the children to sorted runs.
+	 * 
+	 * @param level File containing the level
+	 * @param encoder Encoder for the matrices
+	 * @param runs List to add the run files to
+	 * @return false if an infinite matrix was found
+	 * @throws IOException if the files cannot be read or written
+	 */
+	private boolean expandLevel(final File level, final QuiverEncoder encoder,
+			final List<File> runs) throws IOException {
+		int numWords = encoder.getNumWords();
+		int size = Math.min(encoder.getNumRows(), encoder.getNumCols());
+		QuiverMatrix matrix = new QuiverMatrix(encoder.getNumRows(), encoder.getNumCols());
+		long[] buffer = new long[mRunSize * numWords];
+		int count = 0;
+
+		KeyFileReader reader = new KeyFileReader(level, numWords);
+		try {
+			while (reader.next() && mShouldRun) {
+				encoder.decode(reader.getKey(), 0, matrix);
+				for (int i = 0; i < size; i++) {
+					matrix.mutateInPlace(i);
+					if (matrix.isInfinite()) {
+						return false;
+					}
+					if (count == mRunSize) {
+						runs.add(writeRun(buffer, count, numWords));
+						count = 0;
+					}
+					encoder.encode(matrix, buffer, count * numWords);
+					count++;
+					matrix.mutateInPlace(i);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (count > 0) {
+			runs.add(writeRun(buffer, count, numWords));
+		}
+		return true;
+	}
+
+	/**
+	 * Sort the keys in the buffer and write the distinct ones to a new run file.
+	 */
+	private File writeRun(final long[] buffer, final int count, final int numWords)
+			throws IOException {
+		int unique = QuiverEncoder.sortUnique(buffer, count, numWords);
+		File run = newFile("run");
+		KeyFileWriter writer = new KeyFileWriter(run, numWords);
+		try {
+			for (int k = 0; k < unique; k++) {
+				writer.write(buffer, k * numWords);
+			}
+		} finally {
+			writer.close();
+		}
+		return run;
+	}
+
+	/**
+	 * Merge the runs into the next level, dropping any keys which are in the current or previous
+	 * level.
+	 * 
+	 * @return Number of keys in the next level
+	 */
+	private long merge(final List<File> runs, final File current, final File previous,
+			final File next, final int numWords) throws IOException {
+		List<KeyFileReader> readers = new ArrayList<KeyFileReader>(runs.size() + 2);
+		KeyFileWriter writer = new KeyFileWriter(next, numWords);
+		try {
+			PriorityQueue<KeyFileReader> queue =
+					new PriorityQueue<KeyFileReader>(Math.max(1, runs.size()),
+							new ReaderComparator(numWords));
+			for (File run : runs) {
+				KeyFileReader reader = new KeyFileReader(run, numWords);
+				readers.add(reader);
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			KeyFileReader seenCurrent = new KeyFileReader(current, numWords);
+			readers.add(seenCurrent);
+			seenCurrent.next();
+			KeyFileReader seenPrevious = null;
+			if (previous != null) {
+				seenPrevious = new KeyFileReader(previous, numWords);
+				readers.add(seenPrevious);
+				seenPrevious.next();
+			}
+
+			long[] last = new long[numWords];
+			boolean haveLast = false;
+			while (!queue.isEmpty()) {
+				KeyFileReader reader = queue.poll();
+				long[] key = reader.getKey();
+				if (!haveLast || QuiverEncoder.compare(key, 0, last, 0, numWords) != 0) {
+					System.arraycopy(key, 0, last, 0, numWords);
+					haveLast = true;
+					if (!skipTo(seenCurrent, key, numWords) && !skipTo(seenPrevious, key, numWords)) {
+						writer.write(key, 0);
+					}
+				}
+				if (reader.next()) {
+					queue.add(reader);
+				}
+			}
+			return writer.getCount();
+		} finally {
+			writer.close();
+			for (KeyFileReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Move the sorted reader forward to the first key not less than {@code key}.
+	 * 
+	 * @return true if the reader contains {@code key}
+	 */
+	private boolean skipTo(final KeyFileReader reader, final long[] key, final int numWords)
+			throws IOException {
+		if (reader == null) {
+			return false;
+		}
+		while (!reader.isFinished()) {
+			int cmp = QuiverEncoder.compare(reader.getKey(), 0, key, 0, numWords);
+			if (cmp >= 0) {
+				return cmp == 0;
+			}
+			reader.next();
+		}
+		return false;
+	}
+
+	private File newFile(final String prefix) throws IOException {
+		return File.createTempFile(prefix, ".keys", mDirectory);
+	}
+
+	private void delete(final File file) {
+		if (file != null && !file.delete()) {
+			log.warn("Unable to delete {}", file);
+		}
+	}
+
+	/**
+	 * Orders readers by their current key.
+	 */
+	private static class ReaderComparator implements Comparator<KeyFileReader> {
+
+		private final int mNumWords;
+
+		ReaderComparator(final int numWords) {
+			mNumWords = numWords;
+		}
+
+		@Override
+		public int compare(final KeyFileReader a, final KeyFileReader b) {
+			return QuiverEncoder.compare(a.getKey(), 0, b.getKey(), 0, mNumWords);
+		}
+	}
+}
@@ -15,13 +15,23 @@
 package uk.co.jwlawson.jcluster;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.co.jwlawson.jcluster.data.InfiniteCertificate;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
 import uk.co.jwlawson.jcluster.pool.Pool;
 import uk.co.jwlawson.jcluster.pool.Pools;
@@ -30,6 +40,21 @@ import uk.co.jwlawson.jcluster.pool.Pools;
  * Checks whether the initial matrix is infinite. This can prove that the matrix is infinite, but
  * cannot prove it is finite, rather that it is probably finite.
  * 
+ * <p>
+ * The check takes random walks through the mutation class, looking for a matrix with an entry of 3
+ * or more. By default a single walk is run in the calling thread. Several independent walks can be
+ * run at once in a thread pool, in which case all are stopped as soon as one finds an infinite
+ * matrix. Each walk has its own seed, derived from the seed of the check. When the seed is set
+ * every walk runs to its own end instead, so that how far the others get does not depend on when
+ * the first infinite matrix was found, and the walks can be repeated exactly. The seeds used and
+ * the number of steps each walk took are available after each call, see {@link #getWalkStats()}.
+ * 
+ * <p>
+ * Before walking, the matrix is checked for a sub-quiver which is known to be infinite, see
+ * {@link InfiniteCertificate}. If one is found no walks are run, and the certificate is returned.
+ * Callers which have already looked for a certificate can skip this, see
+ * {@link #setCheckCertificates(boolean)}.
+ * 
  * @author John Lawson
  * 
  */
@@ -39,17 +64,36 @@ public class FastInfiniteCheck implements MatrixTask<QuiverMatrix> {
 
 	/** Number of random mutations to try before giving up. */
 	private static final int MAX_NUMBER_MUTATIONS = 3000;
+	/** Value of the maximum number of mutations which means keep walking until stopped. */
+	public static final int UNLIMITED = -1;
+	/** Mask of the step counter, the time limit is checked whenever these bits are zero. */
+	private static final int TIME_CHECK_MASK = 0x3F;
 
 	/** Initial matrix to check. */
 	private QuiverMatrix mMatrix;
-	/** Array holding two matrices to put the mutations into. */
-	private final QuiverMatrix[] mutated;
 	/** Listeners called when the task has finished. */
 	private final List<CheckInfListener> mListeners;
+	/** Number of random mutations to try, or {@link #UNLIMITED}. */
+	private int mMaxMutations = MAX_NUMBER_MUTATIONS;
+	/** Number of walks to run. */
+	private int mNumWalks = 1;
+	/** Longest time to walk for in nanoseconds, or 0 for no limit. */
+	private long mTimeLimit;
+	/** True if the seed has been set, otherwise a new one is chosen for each call. */
+	private boolean mSeeded;
+	/** Seed the seed of each walk is derived from. */
+	private long mSeed;
+	/** True if the matrix should be checked for an infinite certificate before walking. */
+	private boolean mCheckCertificates = true;
+	/** Pool to run the walks in, or null to create one for each call. */
+	private ExecutorService mExecutor;
+	/** Statistics of each walk in the last call. */
+	private volatile List<WalkStats> mWalkStats = Collections.emptyList();
+	/** True if the walk should be continued. */
+	private volatile boolean mShouldRun = true;
 
 	/** Create a new instance. */
 	public FastInfiniteCheck() {
-		mutated = new QuiverMatrix[2];
 		mListeners = new ArrayList<FastInfiniteCheck.CheckInfListener>(1);
 	}
 
@@ -69,7 +113,92 @@ public class FastInfiniteCheck implements MatrixTask<QuiverMatrix> {
 	}
 
 	@Override
-	public void reset() {}
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	/**
+	 * Set the number of random mutations to try before giving up. With {@link #UNLIMITED} the walk
+	 * only finishes once an infinite matrix is found or the task is requested to stop, so should
+	 * only be used alongside some other check which will stop it.
+	 * 
+	 * @param maxMutations Number of mutations to try, or {@link #UNLIMITED}
+	 */
+	public void setMaxMutations(final int maxMutations) {
+		mMaxMutations = maxMutations;
+	}
+
+	/**
+	 * Set the number of independent walks to run. A single walk is run in the calling thread, while
+	 * more are run in the pool set by {@link #setExecutor(ExecutorService)}, or in a new pool with a
+	 * thread for each walk.
+	 * 
+	 * @param numWalks Number of walks
+	 */
+	public void setNumWalks(final int numWalks) {
+		if (numWalks < 1) {
+			throw new IllegalArgumentException("Need at least one walk, not " + numWalks);
+		}
+		mNumWalks = numWalks;
+	}
+
+	/**
+	 * Set the longest time to walk for. Each walk stops once either this or the number of mutations
+	 * set by {@link #setMaxMutations(int)} is reached.
+	 * 
+	 * @param time Time limit, or 0 for no limit
+	 * @param unit Unit of the time
+	 */
+	public void setTimeLimit(final long time, final TimeUnit unit) {
+		mTimeLimit = unit.toNanos(time);
+	}
+
+	/**
+	 * Set the seed of the walks. Walk {@code i} always uses the same seed derived from this one.
+	 * Seeded walks are not stopped when another walk finds an infinite matrix, so with a limit on
+	 * the number of mutations and no time limit each walk is repeated exactly, at the cost of
+	 * walking for longer. Without a seed, a new one is chosen for each call and can be found from
+	 * {@link #getWalkStats()}.
+	 * 
+	 * @param seed Seed of the walks
+	 */
+	public void setSeed(final long seed) {
+		mSeed = seed;
+		mSeeded = true;
+	}
+
+	/**
+	 * Set the pool to run the walks in when there is more than one. The pool is not shut down by
+	 * this task.
+	 * 
+	 * <p>
+	 * The calling thread blocks until every walk has finished. Do not call this task from a task
+	 * running in the same pool: if the pool has no free threads left for the walks it deadlocks.
+	 * 
+	 * @param executor Pool to use, or null to create a new pool for each call
+	 */
+	public void setExecutor(final ExecutorService executor) {
+		mExecutor = executor;
+	}
+
+	/**
+	 * Set whether to look for an {@link InfiniteCertificate} before walking. This is on by default,
+	 * and can be turned off by a caller which has already looked.
+	 * 
+	 * @param check true to look for a certificate
+	 */
+	public void setCheckCertificates(final boolean check) {
+		mCheckCertificates = check;
+	}
+
+	/**
+	 * Get the statistics of each walk in the last call, in the order of the walks.
+	 * 
+	 * @return Statistics of each walk
+	 */
+	public List<WalkStats> getWalkStats() {
+		return mWalkStats;
+	}
 
 	/**
 	 * Add a listener which will be called once the task completes.
@@ -89,7 +218,14 @@ public class FastInfiniteCheck implements MatrixTask<QuiverMatrix> {
 	@Override
 	public MatrixInfo call() throws Exception {
 		MatrixInfo result = new MatrixInfo(mMatrix);
-		if (isInfinte()) {
+		InfiniteCertificate certificate =
+				mCheckCertificates ? InfiniteCertificate.find(mMatrix) : null;
+		if (certificate != null) {
+			log.trace("Found {} for {}", certificate, mMatrix);
+			mWalkStats = Collections.emptyList();
+			notifyListeners();
+			result.setInfiniteCertificate(certificate);
+		} else if (isInfinte()) {
 			result.setFinite(false);
 		}
 		return result;
@@ -103,51 +239,202 @@ public class FastInfiniteCheck implements MatrixTask<QuiverMatrix> {
 	 * that means the matrix is probably mutation finite, but that is not known for sure.
 	 * 
 	 * @return true if the matrix is mutation infinite
+	 * @throws Exception if one of the walks fails
 	 */
-	private boolean isInfinte() {
-		Pool<QuiverMatrix> matrixPool =
-				Pools.getQuiverMatrixPool(mMatrix.getNumRows(), mMatrix.getNumCols(), QuiverMatrix.class);
-
+	private boolean isInfinte() throws Exception {
 		try {
-			// All 2x2 matrices are mutation finite
-			if (mMatrix.getNumRows() == 2 && mMatrix.getNumCols() == 2) {
+			// All 2x2 matrices are mutation finite, and with fewer than two vertices there is no
+			// walk to take
+			if ((mMatrix.getNumRows() == 2 && mMatrix.getNumCols() == 2)
+					|| Math.min(mMatrix.getNumRows(), mMatrix.getNumCols()) < 2) {
+				mWalkStats = Collections.emptyList();
 				return false;
 			}
-
-			for (int i = 0; i < 2; i++) {
-				QuiverMatrix matrix = matrixPool.getObj();
-				matrix.set(mMatrix);
-				mutated[i] = matrix;
+			long seed = mSeeded ? mSeed : ThreadLocalRandom.current().nextLong();
+			long deadline = mTimeLimit > 0 ? System.nanoTime() + mTimeLimit : 0;
+			AtomicBoolean found = new AtomicBoolean(false);
+			List<Walk> walks = new ArrayList<Walk>(mNumWalks);
+			for (int i = 0; i < mNumWalks; i++) {
+				walks.add(new Walk(i, walkSeed(seed, i), deadline, found, !mSeeded));
 			}
-
-			int lastMutation = -1;
-			int counter = 0;
-
-			while (counter < MAX_NUMBER_MUTATIONS) {
-				int rand;
-				do {
-					rand = ThreadLocalRandom.current().nextInt(0, mMatrix.getNumRows());
-				} while (rand == lastMutation);
-
-				/* Alternate between mutating the two matrices in the array. */
-				mutated[counter % 2].mutate(rand, mutated[++counter % 2]);
-				if (mutated[counter % 2].isInfinite()) {
-					log.trace("Infinite matrix found {} for initial {}", mutated[counter % 2], mMatrix);
-					return true;
+			List<WalkStats> stats = new ArrayList<WalkStats>(mNumWalks);
+			if (mNumWalks == 1) {
+				stats.add(walks.get(0).call());
+			} else {
+				ExecutorService exec = mExecutor;
+				if (exec == null) {
+					exec =
+							Executors.newFixedThreadPool(mNumWalks, new NamingThreadFactory(getClass()
+									.getSimpleName()));
+				}
+				try {
+					for (Future<WalkStats> future : exec.invokeAll(walks)) {
+						stats.add(future.get());
+					}
+				} finally {
+					if (exec != mExecutor) {
+						exec.shutdownNow();
+					}
 				}
-				lastMutation = rand;
 			}
+			mWalkStats = Collections.unmodifiableList(stats);
+			return found.get();
 		} finally {
-			for (int i = 0; i < 2; i++) {
-				if (null != mutated[i]) {
-					matrixPool.returnObj(mutated[i]);
+			notifyListeners();
+		}
+	}
+
+	private void notifyListeners() {
+		for (CheckInfListener l : mListeners) {
+			l.matrixChecked(mMatrix);
+		}
+	}
+
+	/**
+	 * Get the seed of a walk. The seeds of neighbouring walks are mixed so that their random
+	 * sequences are unrelated.
+	 * 
+	 * @param seed Seed of the check
+	 * @param index Index of the walk
+	 * @return Seed of the walk
+	 */
+	static long walkSeed(final long seed, final int index) {
+		return QuiverEncoder.mix(seed + index * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * A single random walk, which mutates at a random vertex other than the last one each step.
+	 */
+	private class Walk implements Callable<WalkStats> {
+
+		private final int mIndex;
+		private final long mWalkSeed;
+		private final long mDeadline;
+		private final AtomicBoolean mFound;
+		/** True if the walk should stop once any walk has found an infinite matrix. */
+		private final boolean mStopOnFound;
+
+		Walk(final int index, final long seed, final long deadline, final AtomicBoolean found,
+				final boolean stopOnFound) {
+			mIndex = index;
+			mWalkSeed = seed;
+			mDeadline = deadline;
+			mFound = found;
+			mStopOnFound = stopOnFound;
+		}
+
+		@Override
+		public WalkStats call() {
+			long start = System.nanoTime();
+			Pool<QuiverMatrix> matrixPool =
+					Pools.getQuiverMatrixPool(mMatrix.getNumRows(), mMatrix.getNumCols(),
+							QuiverMatrix.class);
+			Random random = new Random(mWalkSeed);
+			int size = Math.min(mMatrix.getNumRows(), mMatrix.getNumCols());
+			/* Two matrices to alternate between mutating. */
+			QuiverMatrix[] mutated = new QuiverMatrix[2];
+			int lastMutation = -1;
+			int current = 0;
+			long counter = 0;
+			boolean infinite = false;
+			try {
+				for (int i = 0; i < 2; i++) {
+					mutated[i] = matrixPool.getObj();
+					mutated[i].set(mMatrix);
+				}
+				while ((mMaxMutations == UNLIMITED || counter < mMaxMutations) && mShouldRun
+						&& !(mStopOnFound && mFound.get())) {
+					if (mDeadline != 0 && (counter & TIME_CHECK_MASK) == 0
+							&& System.nanoTime() - mDeadline > 0) {
+						break;
+					}
+					int rand;
+					do {
+						rand = random.nextInt(size);
+					} while (rand == lastMutation);
+
+					mutated[current].mutate(rand, mutated[1 - current]);
+					current = 1 - current;
+					counter++;
+					if (mutated[current].isInfinite()) {
+						log.trace("Infinite matrix found {} for initial {} after {} mutations",
+								mutated[current], mMatrix, counter);
+						infinite = true;
+						mFound.set(true);
+						break;
+					}
+					lastMutation = rand;
+				}
+			} finally {
+				for (int i = 0; i < 2; i++) {
+					if (null != mutated[i]) {
+						matrixPool.returnObj(mutated[i]);
+					}
 				}
 			}
-			for (CheckInfListener l : mListeners) {
-				l.matrixChecked(mMatrix);
-			}
+			return new WalkStats(mIndex, mWalkSeed, counter, System.nanoTime() - start, infinite);
+		}
+	}
+
+	/** Statistics of a single walk, useful for tuning the number and length of walks. */
+	public static class WalkStats {
+
+		private final int mIndex;
+		private final long mSeed;
+		private final long mSteps;
+		private final long mNanos;
+		private final boolean mInfinite;
+
+		WalkStats(final int index, final long seed, final long steps, final long nanos,
+				final boolean infinite) {
+			mIndex = index;
+			mSeed = seed;
+			mSteps = steps;
+			mNanos = nanos;
+			mInfinite = infinite;
+		}
+
+		/**
+		 * @return Index of the walk
+		 */
+		public int getIndex() {
+			return mIndex;
+		}
+
+		/**
+		 * @return Seed the walk's random numbers were generated from
+		 */
+		public long getSeed() {
+			return mSeed;
+		}
+
+		/**
+		 * @return Number of mutations made
+		 */
+		public long getSteps() {
+			return mSteps;
+		}
+
+		/**
+		 * @param unit Unit to return the time in
+		 * @return Time the walk took
+		 */
+		public long getTime(final TimeUnit unit) {
+			return unit.convert(mNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @return true if this walk found an infinite matrix
+		 */
+		public boolean foundInfinite() {
+			return mInfinite;
+		}
+
+		@Override
+		public String toString() {
+			return "Walk " + mIndex + " seed " + mSeed + ": " + mSteps + " steps in "
+					+ getTime(TimeUnit.MICROSECONDS) + "us" + (mInfinite ? ", found infinite" : "");
 		}
-		return false;
 	}
 
 	/** Listener called once the calculation is complete. */
@@ -161,6 +448,8 @@ public class FastInfiniteCheck implements MatrixTask<QuiverMatrix> {
 	}
 
 	@Override
-	public void requestStop() {}
+	public void requestStop() {
+		mShouldRun = false;
+	}
 
 }
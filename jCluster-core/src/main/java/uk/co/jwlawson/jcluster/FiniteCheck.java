@@ -14,36 +14,84 @@
  */
 package uk.co.jwlawson.jcluster;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.co.jwlawson.jcluster.data.DynkinRecogniser;
 import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.InfiniteCertificate;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.MutationClassRegistry;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
 
 /**
  * Task to check whether a matrix is mutation finite or not.
  * 
+ * <p>
+ * Results are recorded in a {@link MutationClassRegistry}, by default the one shared by the whole
+ * process, so once a class has been explored any quiver in it is answered straight away.
+ * 
+ * <p>
+ * Quivers with a sub-quiver known to be infinite are found without any mutations, see
+ * {@link InfiniteCertificate}. Quivers of type A and D are recognised from their structure, which
+ * gives the size of their class without exploring it. Otherwise a short random walk is tried
+ * first. If that does not find an infinite matrix then the exhaustive
+ * {@link EquivMutClassSizeTask} is raced against a number of random walks which keep going until
+ * stopped. Whichever finishes first decides the result and the others are stopped, so infinite
+ * matrices which the short walk missed are usually found long before the search would find them.
+ * 
  * @author John Lawson
  * 
  * @param <T> Type of matrix which is being checked
  */
 public class FiniteCheck<T extends QuiverMatrix> implements MatrixTask<T> {
 
+	/** Default number of random walks raced against the mutation class search. */
+	private static final int DEFAULT_NUM_WALKERS = 2;
+	/** Milliseconds to wait between stop requests when finishing the race. */
+	private static final long STOP_POLL_MILLIS = 10;
+
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
 	/** Matrix to check. */
 	private T mMatrix;
+	/** Registry of classes already explored, or null. */
+	private MutationClassRegistry mRegistry = MutationClassRegistry.getShared();
+	/** Recogniser for quivers of type A and D. */
+	private final DynkinRecogniser mRecogniser;
 	/** Fast check task. */
 	private final FastInfiniteCheck mFastCheck;
 	/** Slower mutation class check. Loaded lazily as not always needed. */
 	private EquivMutClassSizeTask mSlowCheck;
+	/** Number of random walks raced against the slow check. */
+	private int mNumWalkers = DEFAULT_NUM_WALKERS;
+	/** Pool to run the race in, or null to create a new pool for each race. */
+	private ExecutorService mExecutor;
+	/** Random walks currently racing the slow check. */
+	private final List<FastInfiniteCheck> mWalkers;
+	/** True if the check should be continued. */
+	private volatile boolean mShouldRun = true;
 
 	/**
 	 * Create a new task to check whether a matrix is finite.
 	 */
 	public FiniteCheck() {
+		mRecogniser = new DynkinRecogniser();
 		mFastCheck = new FastInfiniteCheck();
+		// call() has already looked for a certificate by the time the fast check runs
+		mFastCheck.setCheckCertificates(false);
+		mWalkers = new ArrayList<FastInfiniteCheck>();
 	}
 
 	@Override
@@ -55,18 +103,90 @@ public class FiniteCheck<T extends QuiverMatrix> implements MatrixTask<T> {
 		mMatrix = matrix;
 	}
 
+	/**
+	 * Set the number of random walks which are run alongside the mutation class search. With no
+	 * walkers the search is run on its own in the calling thread.
+	 * 
+	 * @param numWalkers Number of random walks
+	 */
+	public void setNumWalkers(final int numWalkers) {
+		if (numWalkers < 0) {
+			throw new IllegalArgumentException("Cannot have a negative number of walkers: "
+					+ numWalkers);
+		}
+		mNumWalkers = numWalkers;
+	}
+
+	/**
+	 * Set the registry used to look up and record the classes of the matrices checked.
+	 * 
+	 * @param registry Registry to use, or null to not use one
+	 */
+	public void setRegistry(final MutationClassRegistry registry) {
+		mRegistry = registry;
+	}
+
+	/**
+	 * Set the pool to run the mutation class search and random walks in. The pool is not shut down
+	 * by this task. It needs a free thread for the search and each walker, otherwise the race
+	 * cannot finish until other tasks in the pool do.
+	 * 
+	 * @param executor Pool to use, or null to create a new pool for each check
+	 */
+	public void setExecutor(final ExecutorService executor) {
+		mExecutor = executor;
+	}
+
 	@Override
-	public void reset() {}
+	public void reset() {
+		mShouldRun = true;
+	}
 
 	@Override
 	public MatrixInfo call() throws Exception {
+		if (mMatrix.isInfinite()) {
+			// Entries this large cannot be stored in the registry, and need no further checks
+			log.debug("Matrix {} is infinite", mMatrix);
+			MatrixInfo result = new MatrixInfo(mMatrix);
+			result.setFinite(false);
+			return result;
+		}
+		if (mRegistry != null) {
+			MatrixInfo registered = mRegistry.getInfo(mMatrix);
+			if (registered != null) {
+				log.debug("Class of {} found in registry", mMatrix);
+				return registered;
+			}
+		}
+		InfiniteCertificate certificate = InfiniteCertificate.find(mMatrix);
+		if (certificate != null) {
+			log.debug("Found {} for {}", certificate, mMatrix);
+			MatrixInfo result = new MatrixInfo(mMatrix);
+			result.setInfiniteCertificate(certificate);
+			registerInfinite();
+			return result;
+		}
+		MatrixInfo known = new MatrixInfo(mMatrix);
+		if (mRecogniser.fillInfo(known)) {
+			log.debug("Recognised {} as type A or D", mMatrix);
+			return known;
+		}
 		MatrixInfo result = tryFastCheck();
-		if (!result.hasFiniteSet()) {
-			MatrixInfo sizeInfo = tryMutClassTask();
+		if (result.hasFiniteSet()) {
+			registerInfinite();
+			return result;
+		}
+		if (mShouldRun) {
+			MatrixInfo sizeInfo = mNumWalkers == 0 ? tryMutClassTask() : raceMutClassTask();
+			if (sizeInfo.hasFiniteSet() && !sizeInfo.isFinite()) {
+				result.setFinite(false);
+				registerInfinite();
+				return result;
+			}
 			int size = sizeInfo.getEquivMutationClassSize();
-			if (size == -1) {
+			if (size == AbstractMutClassSizeTask.INFINITE) {
 				result.setFinite(false);
-			} else {
+			} else if (size != AbstractMutClassSizeTask.STOP) {
 				result.setEquivMutationClassSize(size);
 				result.setFinite(true);
 			}
@@ -93,16 +213,140 @@ public class FiniteCheck<T extends QuiverMatrix> implements MatrixTask<T> {
 	 * @throws Exception if something goes wrong
 	 */
 	private MatrixInfo tryMutClassTask() throws Exception {
+		prepareSlowCheck();
+		return mSlowCheck.call();
+	}
+
+	/**
+	 * Run the longer check alongside a number of unlimited random walks. The first to reach a
+	 * conclusion wins and the rest are stopped.
+	 * 
+	 * @return MatrixInfo object with the results, either the equivalence class size from the slow
+	 *         check or marked as infinite by one of the walks
+	 * @throws Exception if something goes wrong
+	 */
+	private MatrixInfo raceMutClassTask() throws Exception {
+		prepareSlowCheck();
+		ExecutorService exec = mExecutor;
+		boolean ownPool = exec == null;
+		if (ownPool) {
+			exec =
+					Executors.newFixedThreadPool(mNumWalkers + 1, new NamingThreadFactory(getClass()
+							.getSimpleName()));
+		}
+		CompletionService<MatrixInfo> race = new ExecutorCompletionService<MatrixInfo>(exec);
+		Future<MatrixInfo> slowFuture = null;
+		List<Future<MatrixInfo>> walkerFutures = new ArrayList<Future<MatrixInfo>>(mNumWalkers);
+		try {
+			slowFuture = race.submit(mSlowCheck);
+			synchronized (mWalkers) {
+				for (int i = 0; i < mNumWalkers; i++) {
+					FastInfiniteCheck walker = new FastInfiniteCheck(mMatrix);
+					walker.setMaxMutations(FastInfiniteCheck.UNLIMITED);
+					walker.setCheckCertificates(false);
+					if (!mShouldRun) {
+						walker.requestStop();
+					}
+					mWalkers.add(walker);
+					walkerFutures.add(race.submit(walker));
+				}
+			}
+			for (int i = 0; i <= mNumWalkers; i++) {
+				Future<MatrixInfo> future = race.take();
+				MatrixInfo info = future.get();
+				if (future == slowFuture) {
+					log.debug("Mutation class search finished first for {}", mMatrix);
+					return info;
+				}
+				if (info.hasFiniteSet()) {
+					log.debug("Random walk found {} to be infinite", mMatrix);
+					return info;
+				}
+			}
+			// Everything was stopped before reaching a conclusion
+			return new MatrixInfo(mMatrix);
+		} finally {
+			stopRace();
+			// Walkers still queued in a shared pool would only start to stop straight away
+			for (Future<MatrixInfo> future : walkerFutures) {
+				future.cancel(false);
+			}
+			if (ownPool) {
+				exec.shutdown();
+			}
+			awaitSlowCheck(slowFuture);
+		}
+	}
+
+	/**
+	 * Wait for the slow check to finish after it has been stopped. The check clears any stop
+	 * requested before it starts running, so the request is repeated until it finishes. This
+	 * ensures it is no longer running when it is next reused.
+	 * 
+	 * @param slowFuture Future of the slow check, or null if it was never submitted
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void awaitSlowCheck(final Future<MatrixInfo> slowFuture) throws InterruptedException {
+		if (slowFuture == null) {
+			return;
+		}
+		while (!slowFuture.isDone()) {
+			mSlowCheck.requestStop();
+			try {
+				slowFuture.get(STOP_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// Still running, so ask again
+			} catch (ExecutionException e) {
+				log.debug("Slow check failed after being stopped", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Set up the slow check to run on the current matrix.
+	 */
+	private void prepareSlowCheck() {
 		if (mSlowCheck == null) {
 			mSlowCheck = new EquivMutClassSizeTask(mMatrix);
 		} else {
 			mSlowCheck.reset();
 			mSlowCheck.setMatrix(new EquivQuiverMatrix(mMatrix));
 		}
-		return mSlowCheck.call();
+		mSlowCheck.setRegistry(mRegistry);
+	}
+
+	/**
+	 * Record in the registry that the class of the matrix is infinite.
+	 */
+	private void registerInfinite() {
+		if (mRegistry != null) {
+			MatrixInfo classInfo = new MatrixInfo(mMatrix);
+			classInfo.setFinite(false);
+			mRegistry.setInfo(mMatrix, classInfo);
+		}
+	}
+
+	/**
+	 * Stop the slow check and all random walks.
+	 */
+	private void stopRace() {
+		if (mSlowCheck != null) {
+			mSlowCheck.requestStop();
+		}
+		synchronized (mWalkers) {
+			for (FastInfiniteCheck walker : mWalkers) {
+				walker.requestStop();
+			}
+			mWalkers.clear();
+		}
 	}
 
 	@Override
-	public void requestStop() {}
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+		mFastCheck.requestStop();
+		stopRace();
+	}
 
 }
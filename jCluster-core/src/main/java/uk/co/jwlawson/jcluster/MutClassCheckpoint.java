@@ -0,0 +1,282 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutClassCheckpoint.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import uk.co.jwlawson.jcluster.data.LinkTable;
+
+/**
+ * Saved state of an {@link AbstractMutClassSizeTask}, from which the calculation can be resumed.
+ * 
+ * <p>
+ * The state is the entries of the link table, the frontier of quivers not yet handled, packed by a
+ * {@link uk.co.jwlawson.jcluster.data.QuiverPacker}, and the number of quivers handled so far. The
+ * key of the initial matrix and the name of the task class are also stored, so that a checkpoint is
+ * not resumed by a task started from a different matrix or one which builds its link table keys
+ * differently.
+ * 
+ * <p>
+ * Only the number of quivers handled is saved from the task's
+ * {@link AbstractMutClassSizeTask.Stats}. The timings and iteration count restart from zero when a
+ * task is resumed.
+ * 
+ * <p>
+ * A checkpoint holds snapshots of the link table and frontier rather than copies, so it is cheap
+ * to create on the search thread. The entries are streamed from the snapshots as the file is
+ * written, and streamed back into the table and frontier by a {@link MutClassCheckpoint.Reader},
+ * so neither side needs the whole state on the heap at once.
+ * 
+ * <p>
+ * The file is a header followed by the entries and then the frontier, each preceded by its length.
+ * It is written to a temporary file which then replaces the checkpoint, so an existing checkpoint
+ * is never left half written.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class MutClassCheckpoint implements Closeable {
+
+	/** Marks the start of a checkpoint file. */
+	private static final int MAGIC = 0x4A434B50;
+	/** Version of the file format. */
+	private static final int VERSION = 3;
+	/** Buffer size for the file streams in bytes. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final String mTaskType;
+	private final int mRows;
+	private final int mCols;
+	private final int mKeyLength;
+	private final long[] mInitialKey;
+	private final int mNumHandled;
+	private final LinkTable.Snapshot mEntries;
+	private final SpillingFrontier<?>.Snapshot mFrontier;
+	private final int mFrontierWords;
+
+	/**
+	 * Create a new checkpoint. The snapshots are closed when the checkpoint is.
+	 * 
+	 * @param taskType Name of the class of task which wrote the checkpoint
+	 * @param rows Number of rows in the matrices
+	 * @param cols Number of columns in the matrices
+	 * @param keyLength Number of longs in each link table key
+	 * @param initialKey Encoding of the initial matrix
+	 * @param numHandled Number of quivers handled so far
+	 * @param entries Snapshot of the link table
+	 * @param frontier Snapshot of the quivers not yet handled
+	 * @param frontierWords Number of longs in each packed quiver of the frontier
+	 */
+	MutClassCheckpoint(final String taskType, final int rows, final int cols,
+			final int keyLength, final long[] initialKey, final int numHandled,
+			final LinkTable.Snapshot entries, final SpillingFrontier<?>.Snapshot frontier,
+			final int frontierWords) {
+		mTaskType = taskType;
+		mRows = rows;
+		mCols = cols;
+		mKeyLength = keyLength;
+		mInitialKey = initialKey;
+		mNumHandled = numHandled;
+		mEntries = entries;
+		mFrontier = frontier;
+		mFrontierWords = frontierWords;
+	}
+
+	/**
+	 * Write the checkpoint to {@code file}, replacing any existing checkpoint. This can be called
+	 * on a different thread to the one using the link table and frontier, but only once.
+	 * 
+	 * @param file File to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(final File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),
+						BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(mTaskType);
+			out.writeInt(mRows);
+			out.writeInt(mCols);
+			out.writeInt(mKeyLength);
+			out.writeInt(mNumHandled);
+			out.writeInt(mInitialKey.length);
+			for (long word : mInitialKey) {
+				out.writeLong(word);
+			}
+			out.writeLong(mEntries.size());
+			mEntries.writeTo(out);
+			out.writeInt(mFrontierWords);
+			out.writeLong(mFrontier.size());
+			mFrontier.writeTo(out);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Close the snapshots, so the link table and frontier stop keeping the parts they change.
+	 */
+	@Override
+	public void close() {
+		mEntries.close();
+		mFrontier.close();
+	}
+
+	/**
+	 * Open a checkpoint file and read its header.
+	 * 
+	 * @param file File to read from
+	 * @return Reader positioned at the link table entries
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	public static Reader open(final File file) throws IOException {
+		DataInputStream in =
+				new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+						BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version);
+			}
+			return new Reader(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a checkpoint file back. The header is read when the file is opened, then the entries
+	 * are put into a link table by {@link Reader#readEntries(LinkTable)} and the frontier into a
+	 * queue by {@link Reader#readFrontier(SpillingFrontier)}, in that order.
+	 */
+	public static class Reader implements Closeable {
+
+		private final DataInputStream mIn;
+		private final String mTaskType;
+		private final int mRows;
+		private final int mCols;
+		private final int mKeyLength;
+		private final int mNumHandled;
+		private final long[] mInitialKey;
+
+		private Reader(final DataInputStream in) throws IOException {
+			mIn = in;
+			mTaskType = in.readUTF();
+			mRows = in.readInt();
+			mCols = in.readInt();
+			mKeyLength = in.readInt();
+			mNumHandled = in.readInt();
+			mInitialKey = new long[in.readInt()];
+			for (int i = 0; i < mInitialKey.length; i++) {
+				mInitialKey[i] = in.readLong();
+			}
+		}
+
+		/**
+		 * Check that this checkpoint was saved by a task of the same type with the same initial
+		 * matrix and keys.
+		 * 
+		 * @param taskType Name of the class of task resuming from the checkpoint
+		 * @param rows Number of rows in the matrices
+		 * @param cols Number of columns in the matrices
+		 * @param keyLength Number of longs in each link table key
+		 * @param initialKey Encoding of the initial matrix
+		 * @return true if the checkpoint can be resumed
+		 */
+		public boolean matches(final String taskType, final int rows, final int cols,
+				final int keyLength, final long[] initialKey) {
+			return mTaskType.equals(taskType) && mRows == rows && mCols == cols
+					&& mKeyLength == keyLength && Arrays.equals(mInitialKey, initialKey);
+		}
+
+		/**
+		 * Get the number of quivers handled before the checkpoint.
+		 * 
+		 * @return Number of quivers handled
+		 */
+		public int getNumHandled() {
+			return mNumHandled;
+		}
+
+		/**
+		 * Put each saved entry into the link table.
+		 * 
+		 * @param table Table to add the entries to
+		 * @return Number of entries read
+		 * @throws IOException if the file cannot be read
+		 */
+		public long readEntries(final LinkTable table) throws IOException {
+			long count = mIn.readLong();
+			long[] entry = new long[mKeyLength + 1];
+			for (long n = 0; n < count; n++) {
+				for (int w = 0; w < entry.length; w++) {
+					entry[w] = mIn.readLong();
+				}
+				table.putIfAbsent(entry, 0, entry[mKeyLength]);
+			}
+			return count;
+		}
+
+		/**
+		 * Add each saved quiver to the end of the frontier, which must pack quivers in the same
+		 * way as the one saved. The link table entries must have been read first.
+		 * 
+		 * @param frontier Queue to add the quivers to
+		 * @return Number of quivers read
+		 * @throws IOException if the file cannot be read or the quivers were packed differently
+		 */
+		long readFrontier(final SpillingFrontier<?> frontier) throws IOException {
+			int numWords = mIn.readInt();
+			if (numWords != frontier.getNumWords()) {
+				throw new IOException("Checkpoint frontier has " + numWords
+						+ " words for each quiver, expected " + frontier.getNumWords());
+			}
+			long count = mIn.readLong();
+			long[] packed = new long[numWords];
+			for (long n = 0; n < count; n++) {
+				for (int w = 0; w < numWords; w++) {
+					packed[w] = mIn.readLong();
+				}
+				frontier.addPacked(packed);
+			}
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			mIn.close();
+		}
+	}
+}
@@ -16,14 +16,11 @@ package uk.co.jwlawson.jcluster;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import uk.co.jwlawson.jcluster.data.LinkHolder;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
 import uk.co.jwlawson.jcluster.pool.Pool;
@@ -64,69 +61,26 @@ public class MutClassSizeTask<T extends QuiverMatrix> extends AbstractMutClassSi
 	}
 
 	@Override
-	protected void removeHandledQuiver(final T remove, final Pool<T> quiverPool,
-			final Pool<LinkHolder<T>> holderPool, final Map<T, LinkHolder<T>> matrixSet) {
-
-		LinkHolder<T> holder = matrixSet.remove(remove);
-		holderPool.returnObj(holder);
-		returnMatrix(remove, quiverPool);
-	}
-
-	@Override
-	protected void removeComplete(final T remove, final Pool<T> quiverPool,
-			final Pool<LinkHolder<T>> holderPool, final Map<T, LinkHolder<T>> matrixSet) {
-
-		LinkHolder<T> holder = matrixSet.remove(remove);
-		holderPool.returnObj(holder);
+	protected void removeHandledQuiver(final T remove, final Pool<T> quiverPool) {
 		returnMatrix(remove, quiverPool);
 	}
 
 	@Override
-	protected void handleUnseenMatrix(final Map<T, LinkHolder<T>> matrixSet,
-			final Queue<T> incompleteQuivers, final Pool<LinkHolder<T>> holderPool, final T mat,
-			final T newMatrix, final int i) {
+	protected void handleUnseenMatrix(final T newMatrix) {
 		for (NewMatrixSeenListener<T> lis : mListeners) {
 			lis.newMatrixSeen(newMatrix);
 		}
-		incompleteQuivers.add(newMatrix);
-		LinkHolder<T> newHolder = holderPool.getObj();
-		newHolder.setMatrix(newMatrix);
-		newHolder.setLinkAt(i);
-		LinkHolder<T> oldHolder = matrixSet.get(mat);
-		oldHolder.setLinkAt(i);
-		matrixSet.put(newMatrix, newHolder);
-	}
-
-	@Override
-	protected void handleSeenMatrix(final Map<T, LinkHolder<T>> matrixSet, final T mat,
-			final T newMatrix, final int i) {
-		LinkHolder<T> newHolder = matrixSet.get(newMatrix);
-		newHolder.setLinkAt(i);
-		LinkHolder<T> oldHolder = matrixSet.get(mat);
-		oldHolder.setLinkAt(i);
-	}
-
-	@Override
-	protected Map<T, LinkHolder<T>> getMatrixMap(final int size) {
-		return new ConcurrentHashMap<T, LinkHolder<T>>((int) Math.pow(2, 3 * size - 3), 0.7f);
-	}
-
-	@Override
-	protected boolean matrixSeenBefore(final T newMatrix, final Map<T, LinkHolder<T>> matrixSet) {
-		return matrixSet.containsKey(newMatrix);
 	}
 
 	@Override
-	protected void teardown(final Pool<T> quiverPool, final Pool<LinkHolder<T>> holderPool,
-			final Map<T, LinkHolder<T>> matrixSet) {
+	protected void teardown(final Pool<T> quiverPool, final Queue<T> incompleteQuivers) {
 
 		for (NewMatrixSeenListener<T> lis : mListeners) {
 			lis.allMatricesSeen();
 		}
-		for (T matrix : matrixSet.keySet()) {
-			LinkHolder<T> holder = matrixSet.remove(matrix);
-			holderPool.returnObj(holder);
-			quiverPool.returnObj(matrix);
+		T matrix;
+		while ((matrix = incompleteQuivers.poll()) != null) {
+			removeHandledQuiver(matrix, quiverPool);
 		}
 	}
 
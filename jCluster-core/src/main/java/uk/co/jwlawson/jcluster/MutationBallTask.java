@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationBallTask.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * Finds every matrix within a given number of mutations of the initial matrix, the ball of that
+ * radius in the exchange graph. This is useful for classes which are infinite or too large to
+ * explore completely, when only the local structure around a quiver is needed.
+ * 
+ * <p>
+ * The result is a list of the levels of the ball, where level {@code d} holds the matrices first
+ * reached after {@code d} mutations, so level 0 is just the initial matrix. Unlike the mutation
+ * class tasks, matrices with large entries are kept and expanded like any other, so the search
+ * only stops at the radius. In an infinite class the entries can grow very quickly with the
+ * radius, and the search fails rather than mutating a matrix whose entries could overflow.
+ * 
+ * <p>
+ * As in {@link ParallelMutClassSizeTask}, each level is split between a number of threads which
+ * share a set of the matrices seen so far. Matrices are compared with their
+ * {@link Object#equals(Object)} method, so the ball is found up to permuting vertices if the
+ * initial matrix is an {@link uk.co.jwlawson.jcluster.data.EquivQuiverMatrix} and exactly
+ * otherwise. The matrices returned are taken from the quiver pools of the threads which found
+ * them and are never given back, so they belong to the caller and should not be returned to a
+ * pool.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to explore from
+ */
+public class MutationBallTask<T extends QuiverMatrix> implements Callable<List<List<T>>> {
+
+	/** Number of matrices each thread takes from the level at a time. */
+	private static final int CHUNK_SIZE = 64;
+	/** Largest entry which can be mutated without the products in the mutation overflowing. */
+	private static final int MAX_SAFE_ENTRY = (1 << 15) - 1;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Matrix at the centre of the ball. */
+	private final T mInitialMatrix;
+	/** Number of mutations to go out from the initial matrix. */
+	private final int mRadius;
+	/** Number of threads to use. */
+	private int mNumThreads = Runtime.getRuntime().availableProcessors();
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task to find the ball of {@code radius} around the matrix.
+	 * 
+	 * @param matrix Matrix at the centre of the ball
+	 * @param radius Largest number of mutations from the matrix
+	 */
+	public MutationBallTask(final T matrix, final int radius) {
+		if (radius < 0) {
+			throw new IllegalArgumentException("Radius cannot be negative: " + radius);
+		}
+		mInitialMatrix = matrix;
+		mRadius = radius;
+	}
+
+	/**
+	 * Set the number of threads which each level of the search is split between. By default one
+	 * thread is used for each available processor.
+	 * 
+	 * @param numThreads Number of threads
+	 */
+	public void setNumThreads(final int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, not " + numThreads);
+		}
+		mNumThreads = numThreads;
+	}
+
+	/**
+	 * Request that the search stops at the end of the current level. The levels found so far are
+	 * returned.
+	 */
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	/**
+	 * Find the ball.
+	 * 
+	 * @return Levels of the ball, level {@code d} holding the matrices {@code d} mutations from the
+	 *         initial matrix
+	 * @throws ArithmeticException if a matrix inside the radius has entries too large to mutate
+	 * @throws Exception if one of the threads fails
+	 */
+	@Override
+	public List<List<T>> call() throws Exception {
+		mShouldRun = true;
+		int size = Math.min(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols());
+		Set<T> seen = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+		List<List<T>> levels = new ArrayList<List<T>>(mRadius + 1);
+
+		T initial = getQuiverPool().getObj();
+		initial.set(mInitialMatrix);
+		seen.add(initial);
+		levels.add(Collections.singletonList(initial));
+
+		ExecutorService exec =
+				Executors.newFixedThreadPool(mNumThreads, new NamingThreadFactory(getClass()
+						.getSimpleName()));
+		try {
+			List<T> level = levels.get(0);
+			while (levels.size() <= mRadius && !level.isEmpty() && mShouldRun) {
+				AtomicInteger next = new AtomicInteger(0);
+				List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(mNumThreads);
+				for (int t = 0; t < mNumThreads; t++) {
+					futures.add(exec.submit(new LevelWorker(level, next, seen, size)));
+				}
+				List<T> nextLevel = new ArrayList<T>();
+				for (Future<List<T>> future : futures) {
+					try {
+						nextLevel.addAll(future.get());
+					} catch (ExecutionException e) {
+						if (e.getCause() instanceof ArithmeticException) {
+							throw (ArithmeticException) e.getCause();
+						}
+						throw e;
+					}
+				}
+				if (!mShouldRun) {
+					break;
+				}
+				levels.add(nextLevel);
+				level = nextLevel;
+				log.debug("Level {} complete with {} matrices", levels.size() - 1, nextLevel.size());
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+		return levels;
+	}
+
+	/**
+	 * Get the {@link Pool} which provides matrices for the calling thread.
+	 * 
+	 * @return Pool of quiver objects
+	 */
+	private Pool<T> getQuiverPool() {
+		@SuppressWarnings("unchecked")
+		Class<T> clazz = (Class<T>) mInitialMatrix.getClass();
+		return Pools.getQuiverMatrixPool(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols(),
+				clazz);
+	}
+
+	/**
+	 * Expands chunks of one level of the search, collecting any new matrices into its own buffer.
+	 */
+	private class LevelWorker implements Callable<List<T>> {
+
+		private final List<T> mLevel;
+		private final AtomicInteger mNext;
+		private final Set<T> mSeen;
+		private final int mSize;
+
+		LevelWorker(final List<T> level, final AtomicInteger next, final Set<T> seen,
+				final int size) {
+			mLevel = level;
+			mNext = next;
+			mSeen = seen;
+			mSize = size;
+		}
+
+		@Override
+		public List<T> call() throws Exception {
+			Pool<T> pool = getQuiverPool();
+			List<T> children = new ArrayList<T>();
+			int levelSize = mLevel.size();
+			int start;
+			while ((start = mNext.getAndAdd(CHUNK_SIZE)) < levelSize && mShouldRun) {
+				int end = Math.min(start + CHUNK_SIZE, levelSize);
+				for (int m = start; m < end; m++) {
+					T mat = mLevel.get(m);
+					if (mat.isInfinite()) {
+						checkEntries(mat);
+					}
+					for (int i = 0; i < mSize; i++) {
+						T newMatrix = mat.mutate(i, pool.getObj());
+						if (mSeen.add(newMatrix)) {
+							children.add(newMatrix);
+						} else {
+							pool.returnObj(newMatrix);
+						}
+					}
+				}
+			}
+			return children;
+		}
+
+		private void checkEntries(final T mat) {
+			for (int i = 0; i < mat.getNumRows() * mat.getNumCols(); i++) {
+				if (Math.abs(mat.unsafeGet(i)) > MAX_SAFE_ENTRY) {
+					throw new ArithmeticException("Entries of " + mat
+							+ " are too large to mutate without overflowing");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationClass.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.Iterator;
+import java.util.List;
+
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * Convenience methods to iterate over the members of a mutation class without running a task.
+ * 
+ * <p>
+ * The class is explored lazily by the thread consuming the members, so nothing is computed until it
+ * is asked for and stopping part way through, for example once a matching matrix is found, stops
+ * the exploration too. To consume the members from several threads use
+ * {@link MutationClassIterator#trySplit()}.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class MutationClass {
+
+	private MutationClass() {}
+
+	/**
+	 * Get an iterator over the mutation class of the matrix, starting with the matrix itself.
+	 * 
+	 * @param matrix Initial matrix of the class
+	 * @return Iterator over the members of the class
+	 * @see MutationClassIterator
+	 */
+	public static <T extends QuiverMatrix> MutationClassIterator<T> iterator(final T matrix) {
+		return new MutationClassIterator<T>(matrix);
+	}
+
+	/**
+	 * Get an {@link Iterable} over the mutation class of the matrix, for use in for-each loops. Each
+	 * call to {@link Iterable#iterator()} explores the class again from the start.
+	 * 
+	 * @param matrix Initial matrix of the class
+	 * @return Iterable over the members of the class
+	 */
+	public static <T extends QuiverMatrix> Iterable<T> members(final T matrix) {
+		return new Iterable<T>() {
+
+			@Override
+			public Iterator<T> iterator() {
+				return MutationClass.iterator(matrix);
+			}
+		};
+	}
+
+	/**
+	 * Find every matrix within {@code radius} mutations of the matrix, using a
+	 * {@link MutationBallTask} with one thread for each processor.
+	 * 
+	 * @param matrix Matrix at the centre of the ball
+	 * @param radius Largest number of mutations from the matrix
+	 * @return Levels of the ball, level {@code d} holding the matrices {@code d} mutations away
+	 * @throws Exception if the search fails
+	 */
+	public static <T extends QuiverMatrix> List<List<T>> ball(final T matrix, final int radius)
+			throws Exception {
+		return new MutationBallTask<T>(matrix, radius).call();
+	}
+
+	/**
+	 * Find a shortest sequence of mutations from one quiver to another, up to permuting vertices,
+	 * using a {@link MutationPathFinder} with its default limits.
+	 * 
+	 * @param from Quiver to start from
+	 * @param to Quiver to finish at
+	 * @return Vertices of {@code from} to mutate at in order, or null if none was found
+	 */
+	public static int[] findMutationSequence(final QuiverMatrix from, final QuiverMatrix to) {
+		return new MutationPathFinder().findPath(from, to);
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationClassIterator.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverKeySet;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Iterator over the members of a mutation class which explores the class only as members are
+ * requested. Each call to {@link #next()} takes one matrix from the frontier of a breadth first
+ * search, mutates it at every vertex to add any new matrices to the frontier and returns it.
+ * 
+ * <p>
+ * Matrices are compared in the same way as the mutation class tasks: {@link EquivQuiverMatrix}
+ * instances are the same if they are equal up to permuting the vertices, as in
+ * {@link EquivMutClassSizeTask}, and other matrices only if they are equal, as in
+ * {@link MutClassSizeTask}. Every matrix seen is kept in a set of keys, so memory use grows with
+ * the number of members visited.
+ * 
+ * <p>
+ * The search stops once a matrix is found which shows the class is infinite, see
+ * {@link QuiverMatrix#isInfinite()}. That matrix is not returned as a member, but is available from
+ * {@link #getInfiniteMatrix()} once the iterator is exhausted. If the initial matrix is itself
+ * infinite then no members are returned at all.
+ * 
+ * <p>
+ * The matrices returned are new objects which belong to the caller. A single iterator is not thread
+ * safe, but {@link #trySplit()} hands part of the frontier to a new iterator which can be consumed
+ * on another thread. Together the iterators return each member of the class exactly once.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix in the class
+ */
+public class MutationClassIterator<T extends QuiverMatrix> extends AbstractIterator<T> {
+
+	/** Expected number of members, used to size the set of keys. */
+	private static final int EXPECTED_SIZE = 1024;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** State shared with any iterators split off from this one. */
+	private final Shared<T> mShared;
+	/** Matrices seen but not yet returned. */
+	private final ArrayDeque<T> mFrontier;
+	/** Encoder used for exact keys. */
+	private final QuiverEncoder mEncoder;
+	/** Canonicaliser used for keys up to equivalence, or null if exact keys are used. */
+	private final QuiverCanonicaliser mCanonicaliser;
+	/** Buffer holding the key of the current matrix. */
+	private final long[] mKey;
+
+	/**
+	 * Create a new iterator over the mutation class of the matrix.
+	 * 
+	 * @param matrix Initial matrix of the class
+	 */
+	public MutationClassIterator(final T matrix) {
+		this(new Shared<T>(matrix));
+		T initial = newMatrix();
+		initial.set(matrix);
+		if (initial.isInfinite()) {
+			mShared.mInfinite.set(initial);
+		} else {
+			claim(initial);
+		}
+	}
+
+	private MutationClassIterator(final Shared<T> shared) {
+		mShared = shared;
+		mFrontier = new ArrayDeque<T>();
+		int rows = shared.mInitial.getNumRows();
+		int cols = shared.mInitial.getNumCols();
+		mEncoder = new QuiverEncoder(rows, cols);
+		mCanonicaliser = shared.mEquiv ? new QuiverCanonicaliser(rows, cols) : null;
+		mKey = new long[shared.mKeyLength];
+	}
+
+	/**
+	 * Split off part of the remaining members into a new iterator. The two iterators share the
+	 * record of matrices seen, so neither will return a matrix returned by the other.
+	 * 
+	 * @return New iterator over part of the class, or null if there is not enough left to split
+	 */
+	public MutationClassIterator<T> trySplit() {
+		int half = mFrontier.size() / 2;
+		if (half == 0 || mShared.mInfinite.get() != null) {
+			return null;
+		}
+		MutationClassIterator<T> split = new MutationClassIterator<T>(mShared);
+		for (int i = 0; i < half; i++) {
+			split.mFrontier.addFirst(mFrontier.pollLast());
+		}
+		return split;
+	}
+
+	@Override
+	protected T computeNext() {
+		T mat = mFrontier.poll();
+		if (mat == null) {
+			return endOfData();
+		}
+		if (mShared.mInfinite.get() != null) {
+			mFrontier.clear();
+			return endOfData();
+		}
+		Pool<T> pool = getPool();
+		int size = Math.min(mat.getNumRows(), mat.getNumCols());
+		for (int i = 0; i < size; i++) {
+			T newMatrix = mat.mutate(i, pool.getObj());
+			if (newMatrix.isInfinite()) {
+				if (mShared.mInfinite.compareAndSet(null, newMatrix)) {
+					log.debug("Infinite matrix found {} in class of {}", newMatrix,
+							mShared.mInitial);
+				} else {
+					pool.returnObj(newMatrix);
+				}
+				mFrontier.clear();
+				break;
+			}
+			if (!claim(newMatrix)) {
+				pool.returnObj(newMatrix);
+			}
+		}
+		return mat;
+	}
+
+	/**
+	 * Get the matrix which showed that the class is infinite. This is shared with any iterators
+	 * split off from this one, and is only set once some iterator has found such a matrix.
+	 * 
+	 * @return Infinite matrix in the class, or null if none has been found
+	 */
+	public T getInfiniteMatrix() {
+		return mShared.mInfinite.get();
+	}
+
+	/**
+	 * Add the matrix to the frontier if it has not been seen before by this or any related
+	 * iterator.
+	 * 
+	 * @param matrix Matrix to add
+	 * @return true if the matrix was added
+	 */
+	private boolean claim(final T matrix) {
+		if (mCanonicaliser != null) {
+			mCanonicaliser.getKey(matrix, mKey, 0, null);
+		} else {
+			mEncoder.encode(matrix, mKey, 0);
+		}
+		boolean added;
+		synchronized (mShared.mSeen) {
+			added = mShared.mSeen.add(mKey, 0);
+		}
+		if (added) {
+			mFrontier.add(matrix);
+		}
+		return added;
+	}
+
+	/**
+	 * Get a new matrix of the same type and size as the initial matrix.
+	 * 
+	 * @return New matrix
+	 */
+	private T newMatrix() {
+		return getPool().getObj();
+	}
+
+	/**
+	 * Get the {@link Pool} which provides matrices for the calling thread.
+	 * 
+	 * @return Pool of quiver objects
+	 */
+	private Pool<T> getPool() {
+		return Pools.getQuiverMatrixPool(mShared.mInitial.getNumRows(),
+				mShared.mInitial.getNumCols(), mShared.mClass);
+	}
+
+	/**
+	 * State shared between an iterator and those split off from it.
+	 */
+	private static class Shared<T extends QuiverMatrix> {
+
+		private final T mInitial;
+		private final Class<T> mClass;
+		private final boolean mEquiv;
+		private final int mKeyLength;
+		/** Keys of every matrix which has been added to a frontier. */
+		private final QuiverKeySet mSeen;
+		/** First infinite matrix found, or null if none has been found. */
+		private final AtomicReference<T> mInfinite = new AtomicReference<T>();
+
+		@SuppressWarnings("unchecked")
+		Shared(final T initial) {
+			mInitial = initial;
+			mClass = (Class<T>) initial.getClass();
+			mEquiv = initial instanceof EquivQuiverMatrix;
+			mKeyLength =
+					mEquiv ? QuiverCanonicaliser.KEY_WORDS : new QuiverEncoder(initial.getNumRows(),
+							initial.getNumCols()).getNumWords();
+			mSeen = new QuiverKeySet(mKeyLength, EXPECTED_SIZE);
+		}
+	}
+}
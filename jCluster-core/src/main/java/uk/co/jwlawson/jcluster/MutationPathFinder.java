@@ -0,0 +1,409 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationPathFinder.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.DynkinRecogniser;
+import uk.co.jwlawson.jcluster.data.IntMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
+import uk.co.jwlawson.jcluster.data.QuiverEncoder;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * Decides whether two quivers are mutation equivalent, up to permuting their vertices in the same
+ * sense as {@link uk.co.jwlawson.jcluster.data.EquivQuiverMatrix}, and finds a shortest sequence of
+ * mutations from one to the other.
+ * 
+ * <p>
+ * The search is a breadth first search from both quivers at once, with the quivers on each side
+ * stored by their {@link QuiverCanonicaliser} key. Each step expands a whole level of the smaller
+ * frontier, and the search stops at the end of the first level in which the two sides meet.
+ * 
+ * <p>
+ * Before searching, some cheap mutation invariants are compared: the rank of the matrices modulo a
+ * few primes, which is unchanged by mutation as mutating multiplies the matrix on each side by an
+ * integer matrix of determinant &plusmn;1, and whether the quivers are recognised as type A or D by
+ * a {@link DynkinRecogniser}. If these differ then no search is needed.
+ * 
+ * <p>
+ * Quivers with entries too large for a {@link QuiverEncoder} are in infinite mutation classes and
+ * are not expanded, so for such classes a path may be missed. The search also gives up after
+ * {@link MutationPathFinder#setMaxMatrices(int)} quivers, see
+ * {@link MutationPathFinder#isConclusive()}.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class MutationPathFinder {
+
+	/** Value of the maximum number of quivers to search without a limit. */
+	public static final int UNLIMITED = -1;
+	/** Default maximum number of quivers to search. */
+	public static final int DEFAULT_MAX_MATRICES = 1 << 20;
+
+	/** Primes to compare the rank of the matrices modulo. */
+	private static final long[] RANK_PRIMES = { 2, 3, 2147483647 };
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final DynkinRecogniser mRecogniser = new DynkinRecogniser();
+	/** Maximum number of quivers to store, or {@link MutationPathFinder#UNLIMITED}. */
+	private int mMaxMatrices = DEFAULT_MAX_MATRICES;
+	/** True if the last result is known to be correct. */
+	private boolean mConclusive;
+
+	private QuiverCanonicaliser mCanonicaliser;
+	private QuiverEncoder mEncoder;
+	private int mSize;
+	private long[] mKey;
+	private int[] mVertexMap;
+
+	/**
+	 * Set the maximum number of quivers stored by the search, across both sides. If reached, the
+	 * search gives up and the result is not conclusive.
+	 * 
+	 * @param maxMatrices Maximum number of quivers, or {@link MutationPathFinder#UNLIMITED}
+	 */
+	public void setMaxMatrices(final int maxMatrices) {
+		if (maxMatrices < 1 && maxMatrices != UNLIMITED) {
+			throw new IllegalArgumentException("Need to search at least one matrix, not "
+					+ maxMatrices);
+		}
+		mMaxMatrices = maxMatrices;
+	}
+
+	/**
+	 * Check whether the last call to {@link MutationPathFinder#findPath(QuiverMatrix, QuiverMatrix)}
+	 * gave a definite answer. A path is always conclusive. No path is conclusive if the invariants
+	 * differ or the whole mutation class of one of the quivers was searched, but not if the search
+	 * gave up or skipped quivers it could not encode.
+	 * 
+	 * @return true if the last result is definite
+	 */
+	public boolean isConclusive() {
+		return mConclusive;
+	}
+
+	/**
+	 * Check whether the two quivers are mutation equivalent.
+	 * 
+	 * @param from First quiver
+	 * @param to Second quiver
+	 * @return true if a path was found between them
+	 * @see MutationPathFinder#findPath(QuiverMatrix, QuiverMatrix)
+	 */
+	public boolean areEquivalent(final QuiverMatrix from, final QuiverMatrix to) {
+		return findPath(from, to) != null;
+	}
+
+	/**
+	 * Find a shortest sequence of mutations taking {@code from} to a quiver which is the same as
+	 * {@code to} up to permuting the vertices. The vertices of the sequence are those of
+	 * {@code from}, mutated in turn from the start of the array.
+	 * 
+	 * @param from Quiver to start from
+	 * @param to Quiver to finish at
+	 * @return Vertices to mutate at in order, empty if the quivers are already equivalent, or null
+	 *         if no path was found
+	 * @throws IllegalArgumentException if either quiver has entries too large to encode
+	 */
+	public int[] findPath(final QuiverMatrix from, final QuiverMatrix to) {
+		mConclusive = true;
+		int rows = from.getNumRows();
+		int cols = from.getNumCols();
+		if (rows != to.getNumRows() || cols != to.getNumCols()) {
+			return null;
+		}
+		mEncoder = new QuiverEncoder(rows, cols);
+		if (!mEncoder.canEncode(from) || !mEncoder.canEncode(to)) {
+			throw new IllegalArgumentException("Cannot search from a matrix with large entries");
+		}
+		if (!invariantsMatch(from, to)) {
+			log.debug("Invariants of {} and {} differ", from, to);
+			return null;
+		}
+		mCanonicaliser = new QuiverCanonicaliser(rows, cols);
+		mSize = Math.min(rows, cols);
+		mKey = new long[QuiverCanonicaliser.KEY_WORDS];
+		mVertexMap = new int[mSize];
+
+		Side forward = new Side(from);
+		Side backward = new Side(to);
+		Node meet = backward.mSeen.get(forward.mRoot.mKey);
+		if (meet != null && isSameQuiver(forward.mRoot, meet)) {
+			return buildPath(forward.mRoot, meet);
+		}
+		while (true) {
+			Side expand = forward.mFrontier.size() <= backward.mFrontier.size() ? forward : backward;
+			Side other = expand == forward ? backward : forward;
+			if (expand.mFrontier.isEmpty()) {
+				// Every quiver of the class has been seen without meeting the other side
+				mConclusive = !expand.mTruncated;
+				return null;
+			}
+			if (mMaxMatrices != UNLIMITED
+					&& forward.mSeen.size() + backward.mSeen.size() >= mMaxMatrices) {
+				log.debug("Gave up after {} matrices", forward.mSeen.size() + backward.mSeen.size());
+				mConclusive = false;
+				return null;
+			}
+			Node[] best = expand.expandLevel(other);
+			if (best != null) {
+				return expand == forward ? buildPath(best[0], best[1]) : buildPath(best[1], best[0]);
+			}
+		}
+	}
+
+	/**
+	 * Compare the cheap mutation invariants of the two quivers.
+	 */
+	private boolean invariantsMatch(final QuiverMatrix a, final QuiverMatrix b) {
+		for (long p : RANK_PRIMES) {
+			if (rankModulo(a, p) != rankModulo(b, p)) {
+				return false;
+			}
+		}
+		return mRecogniser.recognise(a) == mRecogniser.recognise(b);
+	}
+
+	/**
+	 * Rank of the matrix over the integers modulo the prime {@code p}.
+	 */
+	static int rankModulo(final IntMatrix matrix, final long p) {
+		int rows = matrix.getNumRows();
+		int cols = matrix.getNumCols();
+		long[][] m = new long[rows][cols];
+		for (int i = 0; i < rows; i++) {
+			for (int j = 0; j < cols; j++) {
+				m[i][j] = ((matrix.unsafeGet(i, j) % p) + p) % p;
+			}
+		}
+		int rank = 0;
+		for (int col = 0; col < cols && rank < rows; col++) {
+			int pivot = rank;
+			while (pivot < rows && m[pivot][col] == 0) {
+				pivot++;
+			}
+			if (pivot == rows) {
+				continue;
+			}
+			long[] temp = m[pivot];
+			m[pivot] = m[rank];
+			m[rank] = temp;
+			long inv = inverse(m[rank][col], p);
+			for (int i = rank + 1; i < rows; i++) {
+				long factor = m[i][col] * inv % p;
+				if (factor == 0) {
+					continue;
+				}
+				for (int j = col; j < cols; j++) {
+					m[i][j] = ((m[i][j] - factor * m[rank][j]) % p + p) % p;
+				}
+			}
+			rank++;
+		}
+		return rank;
+	}
+
+	/**
+	 * Inverse of {@code a} modulo the prime {@code p}, by Fermat's little theorem.
+	 */
+	private static long inverse(final long a, final long p) {
+		long result = 1;
+		long base = a;
+		for (long e = p - 2; e > 0; e >>= 1) {
+			if ((e & 1) != 0) {
+				result = result * base % p;
+			}
+			base = base * base % p;
+		}
+		return result;
+	}
+
+	/**
+	 * Check that two quivers with the same key really are the same up to permuting vertices, in
+	 * case the key is a hash.
+	 */
+	private boolean isSameQuiver(final Node a, final Node b) {
+		int[] toA = positionsToVertices(a.mMatrix);
+		int[] bMap = new int[mSize];
+		mCanonicaliser.getKey(b.mMatrix, mKey, 0, bMap);
+		for (int i = 0; i < a.mMatrix.getNumRows(); i++) {
+			int ai = i < mSize ? toA[bMap[i]] : i;
+			for (int j = 0; j < a.mMatrix.getNumCols(); j++) {
+				int aj = j < mSize ? toA[bMap[j]] : j;
+				if (a.mMatrix.unsafeGet(ai, aj) != b.mMatrix.unsafeGet(i, j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the vertex of the matrix at each position of its canonical form.
+	 */
+	private int[] positionsToVertices(final QuiverMatrix matrix) {
+		mCanonicaliser.getKey(matrix, mKey, 0, mVertexMap);
+		int[] result = new int[mSize];
+		for (int v = 0; v < mSize; v++) {
+			result[mVertexMap[v]] = v;
+		}
+		return result;
+	}
+
+	/**
+	 * Join the path from the start to {@code fromSide} with the path from {@code toSide} back to
+	 * the end, relabelling the second part to the vertices of the first.
+	 */
+	private int[] buildPath(final Node fromSide, final Node toSide) {
+		int[] path = new int[fromSide.mDepth + toSide.mDepth];
+		Node node = fromSide;
+		for (int i = fromSide.mDepth - 1; i >= 0; i--) {
+			path[i] = node.mVertex;
+			node = node.mParent;
+		}
+		int[] toFrom = positionsToVertices(fromSide.mMatrix);
+		int[] toMap = new int[mSize];
+		mCanonicaliser.getKey(toSide.mMatrix, mKey, 0, toMap);
+		node = toSide;
+		for (int i = fromSide.mDepth; i < path.length; i++) {
+			path[i] = toFrom[toMap[node.mVertex]];
+			node = node.mParent;
+		}
+		return path;
+	}
+
+	/** Quiver reached by the search, with the mutation which first reached it. */
+	private static class Node {
+
+		private final QuiverMatrix mMatrix;
+		private final Key mKey;
+		private final Node mParent;
+		/** Vertex of the parent mutated to reach this quiver, or -1 for the root. */
+		private final int mVertex;
+		/** Number of mutations from the root. */
+		private final int mDepth;
+
+		Node(final QuiverMatrix matrix, final Key key, final Node parent, final int vertex) {
+			mMatrix = matrix;
+			mKey = key;
+			mParent = parent;
+			mVertex = vertex;
+			mDepth = parent == null ? 0 : parent.mDepth + 1;
+		}
+	}
+
+	/** One side of the search. */
+	private class Side {
+
+		private final Node mRoot;
+		private final Map<Key, Node> mSeen = new HashMap<Key, Node>();
+		private ArrayDeque<Node> mFrontier = new ArrayDeque<Node>();
+		/** True if a quiver could not be encoded so was not expanded. */
+		private boolean mTruncated;
+
+		Side(final QuiverMatrix start) {
+			QuiverMatrix copy = new QuiverMatrix(start.getNumRows(), start.getNumCols());
+			copy.set(start);
+			mRoot = new Node(copy, keyOf(copy), null, -1);
+			mSeen.put(mRoot.mKey, mRoot);
+			mFrontier.add(mRoot);
+		}
+
+		/**
+		 * Expand every quiver in the frontier.
+		 * 
+		 * @param other The other side of the search
+		 * @return The pair of nodes on this side and the other giving the shortest path, or null if
+		 *         the sides have not met
+		 */
+		Node[] expandLevel(final Side other) {
+			ArrayDeque<Node> next = new ArrayDeque<Node>();
+			Node[] best = null;
+			for (Node node : mFrontier) {
+				for (int i = 0; i < mSize; i++) {
+					if (i == node.mVertex) {
+						// Mutating back gives the parent
+						continue;
+					}
+					QuiverMatrix mutated = node.mMatrix.mutate(i);
+					if (!mEncoder.canEncode(mutated)) {
+						mTruncated = true;
+						continue;
+					}
+					Key key = keyOf(mutated);
+					if (mSeen.containsKey(key)) {
+						continue;
+					}
+					Node child = new Node(mutated, key, node, i);
+					mSeen.put(key, child);
+					next.add(child);
+					Node meet = other.mSeen.get(key);
+					if (meet != null && isSameQuiver(child, meet)
+							&& (best == null || meet.mDepth < best[1].mDepth)) {
+						best = new Node[] { child, meet };
+					}
+				}
+			}
+			mFrontier = next;
+			return best;
+		}
+
+		private Key keyOf(final QuiverMatrix matrix) {
+			mCanonicaliser.getKey(matrix, mKey, 0, null);
+			return new Key(mKey[0], mKey[1]);
+		}
+	}
+
+	/** Canonical key of a quiver, for use in a map. */
+	private static class Key {
+
+		private final long mFirst;
+		private final long mSecond;
+
+		Key(final long first, final long second) {
+			mFirst = first;
+			mSecond = second;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key rhs = (Key) obj;
+			return mFirst == rhs.mFirst && mSecond == rhs.mSecond;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = QuiverEncoder.mix(mFirst * 31 + mSecond);
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
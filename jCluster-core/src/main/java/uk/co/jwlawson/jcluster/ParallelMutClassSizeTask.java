@@ -0,0 +1,291 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ParallelMutClassSizeTask.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.LinkMask;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * Finds the number of matrices in the mutation class of the initial matrix using a level
+ * synchronous breadth first search, where each level of the search is split between a number of
+ * threads.
+ * 
+ * <p>
+ * All threads share a {@link ConcurrentMap} of the matrices which are not yet complete, along with
+ * a {@link LinkMask} for each recording which mutations have been considered. Each thread collects
+ * the new matrices it finds into its own buffer, and these are combined to give the next level of
+ * the search. Complete matrices are only removed from the map between levels, so a matrix is never
+ * seen as new twice.
+ * 
+ * <p>
+ * As with {@link MutClassSizeTask} the matrices are compared using their
+ * {@link Object#equals(Object)} method. This relies on each mutation being an exact involution, so
+ * should not be used with matrices which are only compared up to equivalence.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix to find the mutation class size of
+ */
+public class ParallelMutClassSizeTask<T extends QuiverMatrix> implements MatrixTask<T> {
+
+	/** Number of matrices each thread takes from the level at a time. */
+	private static final int CHUNK_SIZE = 64;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Initial matrix to find the mutation class of. */
+	private T mInitialMatrix;
+	/** Number of threads to use. */
+	private int mNumThreads;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+
+	/**
+	 * Create a new task using one thread for each available processor.
+	 * 
+	 * @param matrix Matrix to calculate the mutation class size of
+	 */
+	public ParallelMutClassSizeTask(final T matrix) {
+		this(matrix, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a new task using the specified number of threads.
+	 * 
+	 * @param matrix Matrix to calculate the mutation class size of
+	 * @param numThreads Number of threads to split each level between
+	 */
+	public ParallelMutClassSizeTask(final T matrix, final int numThreads) {
+		setMatrix(matrix);
+		setNumThreads(numThreads);
+	}
+
+	@Override
+	public final void setMatrix(final T matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	/**
+	 * Set the number of threads which each level of the search is split between.
+	 * 
+	 * @param numThreads Number of threads
+	 */
+	public final void setNumThreads(final int numThreads) {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, not " + numThreads);
+		}
+		mNumThreads = numThreads;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("ParallelMutClassSizeTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		result.setMutationClassSize(getMutationClassSize());
+		return result;
+	}
+
+	/**
+	 * Calculate the size of the mutation class.
+	 * 
+	 * @return Size of the mutation class, {@link AbstractMutClassSizeTask#INFINITE} if infinite or
+	 *         {@link AbstractMutClassSizeTask#STOP} if stopped early
+	 * @throws Exception if one of the threads fails
+	 */
+	private int getMutationClassSize() throws Exception {
+		final int size = Math.min(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols());
+		if (mInitialMatrix.isInfinite()) {
+			return AbstractMutClassSizeTask.INFINITE;
+		}
+		ConcurrentMap<T, LinkMask> matrixMap = new ConcurrentHashMap<T, LinkMask>();
+		List<T> level = new ArrayList<T>();
+
+		T initial = newMatrix();
+		initial.set(mInitialMatrix);
+		matrixMap.put(initial, new LinkMask(size));
+		level.add(initial);
+
+		AtomicBoolean infinite = new AtomicBoolean(false);
+		int numMatrices = 1;
+		int depth = 0;
+
+		ExecutorService exec =
+				Executors.newFixedThreadPool(mNumThreads, new NamingThreadFactory(getClass()
+						.getSimpleName()));
+		try {
+			while (!level.isEmpty() && mShouldRun) {
+				AtomicInteger next = new AtomicInteger(0);
+				List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(mNumThreads);
+				for (int t = 0; t < mNumThreads; t++) {
+					futures.add(exec.submit(new LevelWorker(level, next, matrixMap, size, infinite)));
+				}
+				List<T> nextLevel = new ArrayList<T>();
+				for (Future<List<T>> future : futures) {
+					nextLevel.addAll(future.get());
+				}
+				if (infinite.get()) {
+					log.debug("Infinite matrix found in class of {}", mInitialMatrix);
+					return AbstractMutClassSizeTask.INFINITE;
+				}
+				removeComplete(matrixMap);
+				numMatrices += nextLevel.size();
+				level = nextLevel;
+				depth++;
+				log.debug("Level {} complete. Found {} matrices, {} incomplete", depth, numMatrices,
+						matrixMap.size());
+			}
+		} finally {
+			exec.shutdownNow();
+		}
+		log.debug("Graph completed. Vertices: {}", numMatrices);
+		return mShouldRun ? numMatrices : AbstractMutClassSizeTask.STOP;
+	}
+
+	/**
+	 * Remove all matrices from the map whose links are all set. Each neighbour of such a matrix
+	 * already knows about the link, so the matrix will never be reached again.
+	 * 
+	 * @param matrixMap Map to remove matrices from
+	 */
+	private void removeComplete(final Map<T, LinkMask> matrixMap) {
+		Iterator<Map.Entry<T, LinkMask>> it = matrixMap.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getValue().isComplete()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get a new matrix of the same type and size as the initial matrix.
+	 * 
+	 * @return New matrix
+	 */
+	private T newMatrix() {
+		return getQuiverPool().getObj();
+	}
+
+	/**
+	 * Get the {@link Pool} which provides matrices for the calling thread.
+	 * 
+	 * @return Pool of quiver objects
+	 */
+	private Pool<T> getQuiverPool() {
+		@SuppressWarnings("unchecked")
+		Class<T> clazz = (Class<T>) mInitialMatrix.getClass();
+		return Pools.getQuiverMatrixPool(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols(),
+				clazz);
+	}
+
+	/**
+	 * Expands chunks of one level of the search, collecting any new matrices into its own buffer.
+	 */
+	private class LevelWorker implements Callable<List<T>> {
+
+		private final List<T> mLevel;
+		private final AtomicInteger mNext;
+		private final ConcurrentMap<T, LinkMask> mMatrixMap;
+		private final int mSize;
+		private final AtomicBoolean mInfinite;
+
+		LevelWorker(final List<T> level, final AtomicInteger next,
+				final ConcurrentMap<T, LinkMask> matrixMap, final int size,
+				final AtomicBoolean infinite) {
+			mLevel = level;
+			mNext = next;
+			mMatrixMap = matrixMap;
+			mSize = size;
+			mInfinite = infinite;
+		}
+
+		@Override
+		public List<T> call() throws Exception {
+			Pool<T> pool = getQuiverPool();
+			List<T> children = new ArrayList<T>();
+			int levelSize = mLevel.size();
+			int start;
+			while ((start = mNext.getAndAdd(CHUNK_SIZE)) < levelSize) {
+				int end = Math.min(start + CHUNK_SIZE, levelSize);
+				for (int m = start; m < end && mShouldRun && !mInfinite.get(); m++) {
+					expand(mLevel.get(m), pool, children);
+				}
+			}
+			return children;
+		}
+
+		/**
+		 * Mutate the matrix at each vertex not yet considered.
+		 * 
+		 * @param mat Matrix to expand
+		 * @param pool Pool to get new matrices from
+		 * @param children Buffer to add new matrices to
+		 */
+		private void expand(final T mat, final Pool<T> pool, final List<T> children) {
+			LinkMask links = mMatrixMap.get(mat);
+			if (links == null) {
+				// Already complete and removed
+				return;
+			}
+			for (int i = 0; i < mSize; i++) {
+				if (!links.setLinkAt(i)) {
+					continue;
+				}
+				T newMatrix = mat.mutate(i, pool.getObj());
+				LinkMask existing = mMatrixMap.putIfAbsent(newMatrix, new LinkMask(mSize, i));
+				if (existing == null) {
+					if (newMatrix.isInfinite()) {
+						log.debug("Infinite matrix found {} in class of {}", newMatrix, mInitialMatrix);
+						mInfinite.set(true);
+						return;
+					}
+					children.add(newMatrix);
+				} else {
+					existing.setLinkAt(i);
+					pool.returnObj(newMatrix);
+				}
+			}
+		}
+	}
+}
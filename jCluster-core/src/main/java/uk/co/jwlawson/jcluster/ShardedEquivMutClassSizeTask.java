@@ -0,0 +1,323 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ShardedEquivMutClassSizeTask.java is part of JCluster. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * Finds the number of quivers in the mutation class of the initial quiver up to permutations of
+ * the vertices, splitting the work between a number of shards which each run in their own thread.
+ * 
+ * <p>
+ * Each quiver is owned by the shard given by its {@link EquivQuiverMatrix#hashCode()}, which only
+ * depends on the sorted row and column sums so is the same for all equivalent quivers. Each shard
+ * keeps its own set of seen quivers which only its thread ever touches, so the equivalence checks
+ * need no locking. When a shard mutates a new quiver, the results are sent to the shards which own
+ * them through bounded queues. If a queue is full the sender waits for space, but while waiting it
+ * keeps taking quivers from its own queue. Those already seen are dropped and new ones are kept to
+ * be mutated later, which sends nothing. So two shards waiting on each other always make progress,
+ * and apart from the bounded queues the only quivers held are new ones, which are also in the
+ * owner's set of seen quivers.
+ * 
+ * <p>
+ * Every quiver sent is counted until its owner has finished with it, so the calculation is finished
+ * once that count drops to zero.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class ShardedEquivMutClassSizeTask implements MatrixTask<EquivQuiverMatrix> {
+
+	/** Default number of quivers each shard's queue can hold. */
+	private static final int DEF_QUEUE_SIZE = 1024;
+	/** Time to wait for a new quiver before checking whether the calculation is finished. */
+	private static final long POLL_TIMEOUT_MS = 10;
+	/** Time to wait for space in a full queue before taking in more quivers. */
+	private static final long SEND_WAIT_US = 100;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Initial matrix to find the mutation class of. */
+	private EquivQuiverMatrix mInitialMatrix;
+	/** Number of shards to split the quivers between. */
+	private final int mNumShards;
+	/** Capacity of each shard's queue. */
+	private final int mQueueSize;
+	/** True if the calculation should be continued. */
+	private volatile boolean mShouldRun = true;
+	/** Largest number of quivers sent but not yet mutated during the last calculation. */
+	private long mMaxInFlight;
+
+	/**
+	 * Create a new task with one shard for each available processor.
+	 * 
+	 * @param matrix Initial matrix to find the mutation class of
+	 */
+	public ShardedEquivMutClassSizeTask(final QuiverMatrix matrix) {
+		this(matrix, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Create a new task with the specified number of shards.
+	 * 
+	 * @param matrix Initial matrix to find the mutation class of
+	 * @param numShards Number of shards, and so threads, to use
+	 */
+	public ShardedEquivMutClassSizeTask(final QuiverMatrix matrix, final int numShards) {
+		this(matrix, numShards, DEF_QUEUE_SIZE);
+	}
+
+	/**
+	 * Create a new task with the specified number of shards and queue size.
+	 * 
+	 * @param matrix Initial matrix to find the mutation class of
+	 * @param numShards Number of shards, and so threads, to use
+	 * @param queueSize Number of quivers each shard's queue can hold
+	 */
+	public ShardedEquivMutClassSizeTask(final QuiverMatrix matrix, final int numShards,
+			final int queueSize) {
+		if (numShards < 1 || queueSize < 1) {
+			throw new IllegalArgumentException("Need at least one shard with a non-empty queue");
+		}
+		mNumShards = numShards;
+		mQueueSize = queueSize;
+		setMatrix(new EquivQuiverMatrix(matrix));
+	}
+
+	@Override
+	public final void setMatrix(final EquivQuiverMatrix matrix) {
+		mInitialMatrix = matrix;
+	}
+
+	@Override
+	public void reset() {
+		mShouldRun = true;
+	}
+
+	@Override
+	public void requestStop() {
+		log.debug("{} has been requested to stop", getClass().getSimpleName());
+		mShouldRun = false;
+	}
+
+	@Override
+	public MatrixInfo call() throws Exception {
+		log.debug("ShardedEquivMutClassSizeTask started for {}", mInitialMatrix);
+		MatrixInfo result = new MatrixInfo(mInitialMatrix);
+		result.setEquivMutationClassSize(getMutationClassSize());
+		return result;
+	}
+
+	/**
+	 * Calculate the size of the mutation class.
+	 * 
+	 * @return Size of the mutation class, {@link AbstractMutClassSizeTask#INFINITE} if infinite or
+	 *         {@link AbstractMutClassSizeTask#STOP} if stopped early
+	 * @throws Exception if one of the shards fails
+	 */
+	private int getMutationClassSize() throws Exception {
+		List<BlockingQueue<EquivQuiverMatrix>> queues =
+				new ArrayList<BlockingQueue<EquivQuiverMatrix>>(mNumShards);
+		for (int s = 0; s < mNumShards; s++) {
+			queues.add(new ArrayBlockingQueue<EquivQuiverMatrix>(mQueueSize));
+		}
+		AtomicLong inFlight = new AtomicLong(1);
+		AtomicBoolean infinite = new AtomicBoolean(false);
+		mMaxInFlight = 1;
+		queues.get(shardOf(mInitialMatrix)).add(mInitialMatrix);
+
+		ExecutorService exec =
+				Executors.newFixedThreadPool(mNumShards, new NamingThreadFactory(getClass()
+						.getSimpleName()));
+		try {
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>(mNumShards);
+			for (int s = 0; s < mNumShards; s++) {
+				futures.add(exec.submit(new Shard(s, queues, inFlight, infinite)));
+			}
+			int numMatrices = 0;
+			for (Future<Integer> future : futures) {
+				numMatrices += future.get();
+			}
+			if (infinite.get()) {
+				return AbstractMutClassSizeTask.INFINITE;
+			}
+			log.debug("Graph completed. Vertices: {}", numMatrices);
+			return mShouldRun ? numMatrices : AbstractMutClassSizeTask.STOP;
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the largest number of quivers which were sent but not yet mutated at any one time during
+	 * the last calculation. This includes quivers which turned out to be already seen.
+	 * 
+	 * @return Largest number of quivers in flight
+	 */
+	synchronized long getMaxInFlight() {
+		return mMaxInFlight;
+	}
+
+	private synchronized void recordMaxInFlight(final long inFlight) {
+		mMaxInFlight = Math.max(mMaxInFlight, inFlight);
+	}
+
+	/**
+	 * Get the index of the shard which owns the matrix.
+	 * 
+	 * @param matrix Matrix to find the owner of
+	 * @return Index of the owning shard
+	 */
+	int shardOf(final EquivQuiverMatrix matrix) {
+		return (matrix.hashCode() & Integer.MAX_VALUE) % mNumShards;
+	}
+
+	/**
+	 * Owns all quivers routed to one shard, and is the only thread to touch its set of seen
+	 * quivers.
+	 */
+	private class Shard implements Callable<Integer> {
+
+		private final int mIndex;
+		private final List<BlockingQueue<EquivQuiverMatrix>> mQueues;
+		private final AtomicLong mInFlight;
+		private final AtomicBoolean mInfinite;
+		/** All quivers seen by this shard. */
+		private final Set<EquivQuiverMatrix> mSeen;
+		/** New quivers owned by this shard which are still to be mutated. */
+		private final Queue<EquivQuiverMatrix> mFrontier;
+		/** Queue of quivers sent to this shard. */
+		private final BlockingQueue<EquivQuiverMatrix> mInbox;
+		/** Largest number of quivers in flight seen by this shard. */
+		private long mMaxSeen;
+
+		Shard(final int index, final List<BlockingQueue<EquivQuiverMatrix>> queues,
+				final AtomicLong inFlight, final AtomicBoolean infinite) {
+			mIndex = index;
+			mQueues = queues;
+			mInFlight = inFlight;
+			mInfinite = infinite;
+			mSeen = new HashSet<EquivQuiverMatrix>();
+			mFrontier = new ArrayDeque<EquivQuiverMatrix>();
+			mInbox = queues.get(index);
+		}
+
+		@Override
+		public Integer call() throws Exception {
+			Pool<EquivQuiverMatrix> pool =
+					Pools.getQuiverMatrixPool(mInitialMatrix.getNumRows(),
+							mInitialMatrix.getNumCols(), EquivQuiverMatrix.class);
+			int size = Math.min(mInitialMatrix.getNumRows(), mInitialMatrix.getNumCols());
+
+			try {
+				while (mShouldRun && !mInfinite.get() && mInFlight.get() > 0) {
+					EquivQuiverMatrix mat = mFrontier.poll();
+					if (mat == null) {
+						EquivQuiverMatrix received =
+								mInbox.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+						if (received != null) {
+							receive(received);
+						}
+						continue;
+					}
+					// Keep the inbox moving so shards sending here rarely have to wait
+					drainInbox();
+					for (int i = 0; i < size; i++) {
+						// Count before sending so the total can not drop to zero too early
+						mMaxSeen = Math.max(mMaxSeen, mInFlight.incrementAndGet());
+						send(mat.mutate(i, pool.getObj()));
+					}
+					mInFlight.decrementAndGet();
+				}
+			} finally {
+				recordMaxInFlight(mMaxSeen);
+			}
+			return mSeen.size();
+		}
+
+		/**
+		 * Handle a quiver owned by this shard. New quivers are kept to be mutated later, while
+		 * those already seen are finished with.
+		 * 
+		 * @param matrix Quiver owned by this shard
+		 */
+		private void receive(final EquivQuiverMatrix matrix) {
+			if (!mSeen.add(matrix)) {
+				mInFlight.decrementAndGet();
+			} else if (matrix.isInfinite()) {
+				log.debug("Infinite matrix found {} in class of {}", matrix, mInitialMatrix);
+				mInfinite.set(true);
+			} else {
+				mFrontier.add(matrix);
+			}
+		}
+
+		/**
+		 * Take every quiver currently waiting in this shard's queue.
+		 */
+		private void drainInbox() {
+			EquivQuiverMatrix received;
+			while ((received = mInbox.poll()) != null) {
+				receive(received);
+			}
+		}
+
+		/**
+		 * Send a quiver to the shard which owns it. If that shard's queue is full then wait for
+		 * space, taking in quivers sent to this shard in the meantime.
+		 * 
+		 * @param matrix Quiver to send
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		private void send(final EquivQuiverMatrix matrix) throws InterruptedException {
+			int owner = shardOf(matrix);
+			if (owner == mIndex) {
+				receive(matrix);
+				return;
+			}
+			BlockingQueue<EquivQuiverMatrix> queue = mQueues.get(owner);
+			while (!queue.offer(matrix, SEND_WAIT_US, TimeUnit.MICROSECONDS)) {
+				if (!mShouldRun || mInfinite.get()) {
+					// The calculation is finishing, so the quiver is no longer needed
+					return;
+				}
+				drainInbox();
+			}
+		}
+	}
+}
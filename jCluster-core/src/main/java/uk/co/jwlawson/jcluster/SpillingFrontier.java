@@ -0,0 +1,678 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * SpillingFrontier.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverPacker;
+import uk.co.jwlawson.jcluster.pool.Pool;
+
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Queue of the matrices still to be handled in a breadth first search. The matrices are not kept as
+ * objects: each is packed into a few longs by a {@link QuiverPacker} when added, and the matrix
+ * object returned to the pool. Polling unpacks the next matrix into a matrix from the pool, which
+ * the search returns once it is handled, so only a handful of matrix objects are ever in use. The
+ * packed matrices are stored in large arrays of longs, so a wide level of the search takes a
+ * fraction of the memory and no garbage collection work.
+ * 
+ * <p>
+ * The queue can also keep at most a set number of matrices in memory. Once that number is exceeded
+ * the most recently added matrices, which are the last to be needed, are written to a compressed
+ * file. The files are read back in the order they were written once the matrices ahead of them
+ * have been taken from the queue, so the order of the queue is unchanged. Each file is deleted once
+ * read, and any left are deleted by {@link #close()}.
+ * 
+ * <p>
+ * A {@link SpillingFrontier.Snapshot} of the queue can be written out on another thread while the
+ * search carries on. It shares the arrays and spill files of the queue rather than copying them, so
+ * while it is open emptied arrays are not reused and spill files are not deleted until it closes.
+ * 
+ * <p>
+ * The matrices are held in three parts: the head, which is taken from first, the spilled files and
+ * the tail, which is added to. Only the tail is ever spilled, so each file holds matrices which
+ * come after those in the head and the earlier files, and before those in the tail.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ * @param <T> Type of matrix in the queue
+ */
+class SpillingFrontier<T extends QuiverMatrix> extends AbstractQueue<T> implements Closeable {
+
+	/** Value of the limit when the queue should never spill. */
+	static final int UNLIMITED = Integer.MAX_VALUE;
+
+	/** Buffer size for the spill streams in bytes. */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Fraction of the limit the tail must reach before it is spilled. */
+	private static final int SPILL_FRACTION = 4;
+	/** Largest number of matrices in each array of the in memory parts. */
+	private static final int MAX_SEGMENT_ENTRIES = 4096;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	private final QuiverPacker mPacker;
+	private final Pool<T> mPool;
+	/** Directory to write the spill files to. */
+	private final File mDirectory;
+	/** Buffer for a single packed matrix. */
+	private final long[] mPacked;
+
+	/** Matrices to take from next. */
+	private PackedDeque mHead;
+	/** Most recently added matrices. */
+	private PackedDeque mTail;
+	/** Spill files in the order they are to be read. */
+	private final ArrayDeque<File> mSpilled;
+	/** Number of matrices held in the spill files. */
+	private long mNumSpilled;
+	/** Number of matrices which can be held in memory before spilling. */
+	private int mMaxInMemory = UNLIMITED;
+	/** Snapshot sharing the arrays and spill files, or null. */
+	private Snapshot mSnapshot;
+
+	/**
+	 * Create a new queue.
+	 * 
+	 * @param packer Packer to store the matrices with
+	 * @param pool Pool to return added matrices to and take polled matrices from
+	 * @param directory Directory to write spill files to, or null to use the system temporary
+	 *        directory
+	 * @param initialCapacity Number of matrices in the first array of each in memory part
+	 */
+	SpillingFrontier(final QuiverPacker packer, final Pool<T> pool, final File directory,
+			final int initialCapacity) {
+		mPacker = packer;
+		mPool = pool;
+		mDirectory = directory;
+		mPacked = new long[packer.getNumWords()];
+		mHead = new PackedDeque(packer.getNumWords(), initialCapacity);
+		mTail = new PackedDeque(packer.getNumWords(), initialCapacity);
+		mSpilled = new ArrayDeque<File>();
+	}
+
+	/**
+	 * Set the number of matrices which can be kept in memory. The limit is checked as matrices are
+	 * added, so lowering it does not spill any matrices straight away.
+	 * 
+	 * @param maxInMemory Maximum number of matrices in memory, or {@link SpillingFrontier#UNLIMITED}
+	 */
+	void setMaxInMemory(final int maxInMemory) {
+		mMaxInMemory = Math.max(1, maxInMemory);
+	}
+
+	/**
+	 * Get the number of bytes used to store each matrix held in memory.
+	 * 
+	 * @return Bytes for each matrix
+	 */
+	int getBytesPerMatrix() {
+		return 8 * mPacker.getNumWords();
+	}
+
+	/**
+	 * Get the number of longs each matrix is packed into.
+	 * 
+	 * @return Number of longs in each packed matrix
+	 */
+	int getNumWords() {
+		return mPacker.getNumWords();
+	}
+
+	/**
+	 * Get the number of matrices currently held in spill files.
+	 * 
+	 * @return Number of spilled matrices
+	 */
+	long getNumSpilled() {
+		return mNumSpilled;
+	}
+
+	/**
+	 * Add the matrix to the end of the queue. The matrix is returned to the pool, so should not be
+	 * used afterwards.
+	 */
+	@Override
+	public boolean offer(final T matrix) {
+		mPacker.pack(matrix, mPacked, 0);
+		mPool.returnObj(matrix);
+		addPacked(mPacked);
+		return true;
+	}
+
+	/**
+	 * Add a matrix which is already packed to the end of the queue, for example when restoring a
+	 * snapshot.
+	 * 
+	 * @param packed Array holding the packed matrix, from index 0
+	 */
+	void addPacked(final long[] packed) {
+		mTail.addLast(packed);
+		if (mMaxInMemory != UNLIMITED && mHead.size() + mTail.size() > mMaxInMemory
+				&& mTail.size() >= Math.max(1, mMaxInMemory / SPILL_FRACTION)) {
+			spillTail();
+		}
+	}
+
+	/**
+	 * Put a matrix back at the front of the queue, for example when the search is stopped part way
+	 * through handling it. The matrix is returned to the pool.
+	 * 
+	 * @param matrix Matrix to add
+	 */
+	void addFirst(final T matrix) {
+		mPacker.pack(matrix, mPacked, 0);
+		mPool.returnObj(matrix);
+		mHead.addFirst(mPacked);
+	}
+
+	/**
+	 * Take the next matrix from the queue, unpacked into a matrix from the pool.
+	 */
+	@Override
+	public T poll() {
+		if (mHead.isEmpty()) {
+			refillHead();
+			if (mHead.isEmpty()) {
+				return null;
+			}
+		}
+		mHead.pollFirst(mPacked);
+		return unpack(mPacked, 0);
+	}
+
+	/**
+	 * Get a copy of the next matrix in the queue, unpacked into a matrix from the pool.
+	 */
+	@Override
+	public T peek() {
+		if (mHead.isEmpty()) {
+			refillHead();
+			if (mHead.isEmpty()) {
+				return null;
+			}
+		}
+		mHead.peekFirst(mPacked);
+		return unpack(mPacked, 0);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mHead.isEmpty() && mNumSpilled == 0 && mTail.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(Integer.MAX_VALUE, mHead.size() + mNumSpilled + mTail.size());
+	}
+
+	/**
+	 * Iterate over the queue in order. Each matrix is unpacked into a new matrix from the pool,
+	 * which is not returned to it, so this should only be used for small queues.
+	 * 
+	 * @return Iterator over the queue
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		final long[] packed = getPacked();
+		final int numWords = mPacker.getNumWords();
+		return new AbstractIterator<T>() {
+
+			private int mOffset;
+
+			@Override
+			protected T computeNext() {
+				if (mOffset == packed.length) {
+					return endOfData();
+				}
+				T result = unpack(packed, mOffset);
+				mOffset += numWords;
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * Take a snapshot of the queue, which can be written out on another thread while the queue is
+	 * still used. Nothing is copied: the snapshot shares the arrays holding the matrices in memory
+	 * and the spill files.
+	 * 
+	 * @return Snapshot of the queue as it is now
+	 * @throws IllegalStateException if the previous snapshot has not been closed
+	 */
+	Snapshot snapshot() {
+		if (mSnapshot != null) {
+			releaseSnapshot();
+			if (mSnapshot != null) {
+				throw new IllegalStateException("The previous snapshot has not been closed");
+			}
+		}
+		mSnapshot = new Snapshot(mHead.share(), new ArrayList<File>(mSpilled), mTail.share());
+		return mSnapshot;
+	}
+
+	/**
+	 * Delete any spill files. The matrices in them are dropped from the queue, leaving only those
+	 * held in memory.
+	 */
+	@Override
+	public void close() {
+		for (File file : mSpilled) {
+			deleteSpill(file);
+		}
+		mSpilled.clear();
+		mNumSpilled = 0;
+	}
+
+	private T unpack(final long[] packed, final int offset) {
+		T matrix = mPool.getObj();
+		mPacker.unpack(packed, offset, matrix);
+		return matrix;
+	}
+
+	/**
+	 * Copy every packed matrix in the queue, in order, into a single array.
+	 */
+	private long[] getPacked() {
+		int numWords = mPacker.getNumWords();
+		long[] result = new long[size() * numWords];
+		int offset = mHead.copyTo(result, 0);
+		for (File file : mSpilled) {
+			try {
+				DataInputStream in = openSpill(file);
+				try {
+					int count = in.readInt();
+					for (int i = 0; i < count * numWords; i++) {
+						result[offset++] = in.readLong();
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Unable to read spilled frontier from " + file, e);
+			}
+		}
+		mTail.copyTo(result, offset);
+		return result;
+	}
+
+	/**
+	 * Write the tail to a new spill file.
+	 */
+	private void spillTail() {
+		int count = mTail.size();
+		File file = null;
+		try {
+			file = File.createTempFile("frontier", ".spill", mDirectory);
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DataOutputStream out =
+					new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(
+							new FileOutputStream(file), deflater), BUFFER_SIZE));
+			try {
+				out.writeInt(count);
+				while (!mTail.isEmpty()) {
+					mTail.pollFirst(mPacked);
+					for (long word : mPacked) {
+						out.writeLong(word);
+					}
+				}
+			} finally {
+				out.close();
+				deflater.end();
+			}
+			mSpilled.add(file);
+			mNumSpilled += count;
+			log.debug("Spilled {} matrices to {}, {} now spilled", count, file, mNumSpilled);
+		} catch (IOException e) {
+			if (file != null && !file.delete()) {
+				log.warn("Unable to delete spill file {}", file);
+			}
+			throw new IllegalStateException("Unable to spill frontier to " + mDirectory, e);
+		}
+	}
+
+	/**
+	 * Fill the empty head from the oldest spill file, or from the tail if nothing is spilled.
+	 */
+	private void refillHead() {
+		releaseSnapshot();
+		File file = mSpilled.poll();
+		if (file == null) {
+			PackedDeque temp = mHead;
+			mHead = mTail;
+			mTail = temp;
+			return;
+		}
+		try {
+			DataInputStream in = openSpill(file);
+			try {
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					for (int w = 0; w < mPacked.length; w++) {
+						mPacked[w] = in.readLong();
+					}
+					mHead.addLast(mPacked);
+				}
+				mNumSpilled -= count;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read spilled frontier from " + file, e);
+		}
+		deleteSpill(file);
+	}
+
+	/**
+	 * Delete a spill file the queue has finished with, unless the open snapshot still needs it.
+	 */
+	private void deleteSpill(final File file) {
+		if (mSnapshot == null || !mSnapshot.deleteLater(file)) {
+			if (!file.delete()) {
+				log.warn("Unable to delete spill file {}", file);
+			}
+		}
+	}
+
+	/**
+	 * Forget the snapshot once it has been closed, so emptied arrays are reused again.
+	 */
+	private void releaseSnapshot() {
+		if (mSnapshot != null && mSnapshot.isClosed()) {
+			mSnapshot = null;
+			mHead.unshare();
+			mTail.unshare();
+		}
+	}
+
+	private DataInputStream openSpill(final File file) throws IOException {
+		return new DataInputStream(new BufferedInputStream(new InflaterInputStream(
+				new FileInputStream(file)), BUFFER_SIZE));
+	}
+
+	/**
+	 * Double ended queue of fixed length entries of longs, stored one after another in a list of
+	 * arrays. New arrays start small and double in size up to {@link #MAX_SEGMENT_ENTRIES} entries,
+	 * and the last array emptied is kept for reuse.
+	 */
+	private static class PackedDeque {
+
+		private final int mWidth;
+		private final int mMinEntries;
+		private final ArrayDeque<long[]> mSegments = new ArrayDeque<long[]>();
+		/** Index in the first array of the first word of the first entry. */
+		private int mFirst;
+		/** Index in the last array after the last word of the last entry. */
+		private int mEnd;
+		private int mSize;
+		/** Emptied array kept for reuse, or null. */
+		private long[] mSpare;
+		/** True if a snapshot may be reading the arrays, so emptied arrays must not be reused. */
+		private boolean mShared;
+		/** First array since the deque was shared which no snapshot reads, or null. */
+		private long[] mFrontSegment;
+
+		PackedDeque(final int width, final int minEntries) {
+			mWidth = width;
+			mMinEntries = Math.max(1, minEntries);
+		}
+
+		int size() {
+			return mSize;
+		}
+
+		boolean isEmpty() {
+			return mSize == 0;
+		}
+
+		void addLast(final long[] entry) {
+			if (mSegments.isEmpty() || mEnd == mSegments.peekLast().length) {
+				mSegments.addLast(newSegment());
+				mEnd = 0;
+				if (mSize == 0) {
+					mFirst = 0;
+				}
+			}
+			System.arraycopy(entry, 0, mSegments.peekLast(), mEnd, mWidth);
+			mEnd += mWidth;
+			mSize++;
+		}
+
+		void addFirst(final long[] entry) {
+			if (mShared && !mSegments.isEmpty() && mSegments.peekFirst() != mFrontSegment) {
+				// A snapshot may still read the space before the first entry, so write into a copy
+				mFrontSegment = mSegments.pollFirst().clone();
+				mSegments.addFirst(mFrontSegment);
+			}
+			if (mSegments.isEmpty() || mFirst == 0) {
+				long[] segment = newSegment();
+				mSegments.addFirst(segment);
+				mFrontSegment = segment;
+				mFirst = segment.length;
+				if (mSize == 0) {
+					mEnd = segment.length;
+				}
+			}
+			mFirst -= mWidth;
+			System.arraycopy(entry, 0, mSegments.peekFirst(), mFirst, mWidth);
+			mSize++;
+		}
+
+		void peekFirst(final long[] dest) {
+			System.arraycopy(mSegments.peekFirst(), mFirst, dest, 0, mWidth);
+		}
+
+		void pollFirst(final long[] dest) {
+			long[] segment = mSegments.peekFirst();
+			System.arraycopy(segment, mFirst, dest, 0, mWidth);
+			mFirst += mWidth;
+			mSize--;
+			if (mSize == 0) {
+				mSpare = mShared ? null : segment;
+				mSegments.clear();
+			} else if (mFirst == segment.length) {
+				mSegments.pollFirst();
+				mSpare = mShared ? null : segment;
+				mFirst = 0;
+			}
+		}
+
+		/**
+		 * Copy every entry in order into {@code dest} starting at {@code offset}.
+		 * 
+		 * @return Index after the last word copied
+		 */
+		int copyTo(final long[] dest, final int offset) {
+			int index = offset;
+			int remaining = mSize * mWidth;
+			int start = mFirst;
+			for (long[] segment : mSegments) {
+				int length = Math.min(segment.length - start, remaining);
+				System.arraycopy(segment, start, dest, index, length);
+				index += length;
+				remaining -= length;
+				start = 0;
+			}
+			return index;
+		}
+
+		/**
+		 * Get a view of the entries which stays unchanged as this deque is used, until
+		 * {@link #unshare()} is called.
+		 */
+		Slice share() {
+			mShared = true;
+			return new Slice(mSegments.toArray(new long[mSegments.size()][]), mFirst,
+					(long) mSize * mWidth);
+		}
+
+		/**
+		 * Allow emptied arrays to be reused again once the snapshot is closed.
+		 */
+		void unshare() {
+			mShared = false;
+			mFrontSegment = null;
+		}
+
+		private long[] newSegment() {
+			if (mSpare != null) {
+				long[] segment = mSpare;
+				mSpare = null;
+				return segment;
+			}
+			int entries = mMinEntries;
+			while (entries < mSize && entries < MAX_SEGMENT_ENTRIES) {
+				entries *= 2;
+			}
+			return new long[Math.min(entries, MAX_SEGMENT_ENTRIES) * mWidth];
+		}
+	}
+
+	/**
+	 * Entries of a {@link PackedDeque} when it was shared, in its arrays.
+	 */
+	private static class Slice {
+
+		private final long[][] mSegments;
+		private final int mFirst;
+		private final long mLength;
+
+		Slice(final long[][] segments, final int first, final long length) {
+			mSegments = segments;
+			mFirst = first;
+			mLength = length;
+		}
+
+		void writeTo(final DataOutput out) throws IOException {
+			long remaining = mLength;
+			int start = mFirst;
+			for (long[] segment : mSegments) {
+				int end = (int) Math.min(segment.length, start + remaining);
+				for (int i = start; i < end; i++) {
+					out.writeLong(segment[i]);
+				}
+				remaining -= end - start;
+				start = 0;
+			}
+		}
+	}
+
+	/**
+	 * Matrices in the queue when {@link SpillingFrontier#snapshot()} was called. The snapshot can
+	 * be written on a different thread to the one using the queue, and should be closed once
+	 * written.
+	 */
+	final class Snapshot implements Closeable {
+
+		private final Slice mHeadSlice;
+		private final List<File> mFiles;
+		private final Slice mTailSlice;
+		private final long mSize;
+		/** Spill files the queue has finished with, to delete on closing. Guarded by this. */
+		private final List<File> mDeferred = new ArrayList<File>();
+		private volatile boolean mClosed;
+
+		Snapshot(final Slice head, final List<File> files, final Slice tail) {
+			mHeadSlice = head;
+			mFiles = files;
+			mTailSlice = tail;
+			mSize = (head.mLength + tail.mLength) / mPacker.getNumWords() + mNumSpilled;
+		}
+
+		/**
+		 * Get the number of matrices in the snapshot.
+		 * 
+		 * @return Number of matrices
+		 */
+		long size() {
+			return mSize;
+		}
+
+		/**
+		 * Write the packed matrices, in order, as longs.
+		 * 
+		 * @param out Output to write to
+		 * @throws IOException if the output cannot be written or a spill file read
+		 */
+		void writeTo(final DataOutput out) throws IOException {
+			mHeadSlice.writeTo(out);
+			for (File file : mFiles) {
+				DataInputStream in = openSpill(file);
+				try {
+					long words = (long) in.readInt() * mPacker.getNumWords();
+					for (long i = 0; i < words; i++) {
+						out.writeLong(in.readLong());
+					}
+				} finally {
+					in.close();
+				}
+			}
+			mTailSlice.writeTo(out);
+		}
+
+		boolean isClosed() {
+			return mClosed;
+		}
+
+		/**
+		 * Keep a spill file until the snapshot is closed, if it is one the snapshot needs.
+		 * 
+		 * @return true if the file will be deleted on closing, false if it can be deleted now
+		 */
+		synchronized boolean deleteLater(final File file) {
+			if (mClosed || !mFiles.contains(file)) {
+				return false;
+			}
+			mDeferred.add(file);
+			return true;
+		}
+
+		@Override
+		public synchronized void close() {
+			mClosed = true;
+			for (File file : mDeferred) {
+				if (!file.delete()) {
+					log.warn("Unable to delete spill file {}", file);
+				}
+			}
+			mDeferred.clear();
+		}
+	}
+}
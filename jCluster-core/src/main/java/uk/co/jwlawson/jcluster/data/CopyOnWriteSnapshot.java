@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * CopyOnWriteSnapshot.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * {@link LinkTable.Snapshot} of an open addressing table which copies the slots a block at a time.
+ * 
+ * <p>
+ * The slots of the table are split into one or more regions, such as the current and old arrays of
+ * a table which is part way through growing, and each region into blocks of
+ * {@link CopyOnWriteSnapshot#BLOCK_SLOTS} slots. The writer copies each block in turn straight out
+ * of the table and writes its entries. The table calls
+ * {@link CopyOnWriteSnapshot#beforeWrite(int, long)} before changing a slot, and if the writer has
+ * not reached that block yet it is copied first, so the writer sees the table exactly as it was
+ * when the snapshot was taken. Only the blocks changed while the snapshot is being written are ever
+ * copied onto the heap.
+ * 
+ * @author John Lawson
+ * 
+ */
+abstract class CopyOnWriteSnapshot implements LinkTable.Snapshot {
+
+	/** Number of slots in each block. */
+	static final int BLOCK_SLOTS = 1 << 10;
+
+	/** The writer has not reached the block and the table has not changed it. */
+	private static final int UNSAVED = 0;
+	/** The block was copied before the table changed it. */
+	private static final int COPIED = 1;
+	/** The writer has finished with the block. */
+	private static final int SAVED = 2;
+
+	/** First word of an empty slot. */
+	private static final long EMPTY = 0L;
+	/** First word of a slot whose entry has been removed. */
+	private static final long REMOVED = 1L;
+
+	/** Number of longs in each slot. */
+	private final int mStride;
+	/** Number of entries in the table when the snapshot was taken. */
+	private final long mSize;
+	/** Number of slots in each region. */
+	private final long[] mRegionSlots;
+	/** Index of the first block of each region. */
+	private final int[] mFirstBlock;
+	/** State of each block. */
+	private final AtomicIntegerArray mStates;
+	/** Blocks copied before the table changed them, by block index. Guarded by this. */
+	private final Map<Integer, long[]> mCopies = new HashMap<Integer, long[]>();
+
+	private volatile boolean mClosed;
+	private boolean mWritten;
+
+	/**
+	 * Create a new snapshot.
+	 * 
+	 * @param stride Number of longs in each slot
+	 * @param size Number of entries in the table
+	 * @param regionSlots Number of slots in each region
+	 */
+	CopyOnWriteSnapshot(final int stride, final long size, final long... regionSlots) {
+		mStride = stride;
+		mSize = size;
+		mRegionSlots = regionSlots;
+		mFirstBlock = new int[regionSlots.length];
+		long numBlocks = 0;
+		for (int r = 0; r < regionSlots.length; r++) {
+			mFirstBlock[r] = (int) numBlocks;
+			numBlocks += (regionSlots[r] + BLOCK_SLOTS - 1) / BLOCK_SLOTS;
+		}
+		if (numBlocks > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many slots to snapshot: " + numBlocks
+					+ " blocks");
+		}
+		mStates = new AtomicIntegerArray((int) numBlocks);
+	}
+
+	/**
+	 * Copy slots of a region into {@code dest}. This is always called with the lock on this
+	 * snapshot held, either by the writer or by the table before changing the slots.
+	 * 
+	 * @param region Index of the region
+	 * @param first Index in the region of the first slot to copy
+	 * @param count Number of slots to copy
+	 * @param dest Array to copy the slots into
+	 */
+	protected abstract void copySlots(int region, long first, int count, long[] dest);
+
+	/**
+	 * Called by the table before it changes a slot of a region.
+	 * 
+	 * @param region Index of the region
+	 * @param slot Index of the slot in the region
+	 */
+	final void beforeWrite(final int region, final long slot) {
+		int block = mFirstBlock[region] + (int) (slot / BLOCK_SLOTS);
+		if (mStates.get(block) != UNSAVED) {
+			return;
+		}
+		synchronized (this) {
+			if (mStates.get(block) == UNSAVED && !mClosed) {
+				long[] copy = new long[slotsIn(region, block) * mStride];
+				copySlots(region, firstSlot(region, block), slotsIn(region, block), copy);
+				mCopies.put(block, copy);
+				mStates.set(block, COPIED);
+			}
+		}
+	}
+
+	/**
+	 * Check whether the snapshot has been closed, in which case the table no longer needs to tell
+	 * it about changes.
+	 * 
+	 * @return true if closed
+	 */
+	final boolean isClosed() {
+		return mClosed;
+	}
+
+	@Override
+	public long size() {
+		return mSize;
+	}
+
+	@Override
+	public void writeTo(final DataOutput out) throws IOException {
+		synchronized (this) {
+			if (mClosed || mWritten) {
+				throw new IllegalStateException("Snapshot can only be written once, before closing"
+						+ " it");
+			}
+			mWritten = true;
+		}
+		long[] buffer = new long[BLOCK_SLOTS * mStride];
+		long written = 0;
+		for (int r = 0; r < mRegionSlots.length; r++) {
+			int end = r + 1 < mFirstBlock.length ? mFirstBlock[r + 1] : mStates.length();
+			for (int block = mFirstBlock[r]; block < end; block++) {
+				long[] slots = takeBlock(r, block, buffer);
+				int length = slotsIn(r, block) * mStride;
+				for (int start = 0; start < length; start += mStride) {
+					long first = slots[start];
+					if (first != EMPTY && first != REMOVED) {
+						for (int w = 0; w < mStride; w++) {
+							out.writeLong(slots[start + w]);
+						}
+						written++;
+					}
+				}
+			}
+		}
+		if (written != mSize) {
+			throw new IllegalStateException("Snapshot held " + written + " entries, not " + mSize);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		mClosed = true;
+		mCopies.clear();
+	}
+
+	/**
+	 * Get the slots of a block as they were when the snapshot was taken, and mark it as saved so
+	 * the table can change it freely.
+	 */
+	private synchronized long[] takeBlock(final int region, final int block, final long[] buffer) {
+		long[] slots;
+		if (mStates.get(block) == COPIED) {
+			slots = mCopies.remove(block);
+		} else {
+			copySlots(region, firstSlot(region, block), slotsIn(region, block), buffer);
+			slots = buffer;
+		}
+		mStates.set(block, SAVED);
+		return slots;
+	}
+
+	private long firstSlot(final int region, final int block) {
+		return (long) (block - mFirstBlock[region]) * BLOCK_SLOTS;
+	}
+
+	private int slotsIn(final int region, final int block) {
+		return (int) Math.min(BLOCK_SLOTS, mRegionSlots[region] - firstSlot(region, block));
+	}
+}
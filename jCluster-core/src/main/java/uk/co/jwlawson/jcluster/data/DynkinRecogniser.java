@@ -0,0 +1,649 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DynkinRecogniser.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Recognises quivers which are mutation equivalent to a Dynkin diagram of type A or D, using the
+ * description of those mutation classes by their structure rather than exploring the class.
+ * 
+ * <p>
+ * A connected quiver is of type A_n if and only if every block of its underlying graph is either a
+ * single arrow or an oriented 3-cycle, and every vertex lies in at most two blocks (Buan and
+ * Vatne). A vertex in at most one block is a connecting vertex, at which another arrow can be
+ * attached without leaving type A.
+ * 
+ * <p>
+ * A quiver is of type D_n if and only if it is one of Vatne's four types, each made from a small
+ * central piece with quivers of type A attached at their connecting vertices:
+ * <ol>
+ * <li>two single arrows between a connecting vertex c and new vertices a and b;</li>
+ * <li>two oriented 3-cycles c, a, c' and c, b, c' sharing the arrow between c and c';</li>
+ * <li>an oriented 4-cycle c, a, c', b;</li>
+ * <li>an oriented cycle of length at least 3, where each arrow may be completed to an oriented
+ * 3-cycle by a new vertex, and only those new vertices have type A quivers attached.</li>
+ * </ol>
+ * 
+ * <p>
+ * The sizes of these classes up to equivalence, as counted by
+ * {@link uk.co.jwlawson.jcluster.EquivMutClassSizeTask}, are known: the number of triangulations of
+ * an (n+3)-gon up to rotation for A_n (Torkildsen) and
+ * {@code (1/2n) sum_{d|n} phi(n/d) binomial(2d, d)} for D_n with n at least 5 (Buan and
+ * Torkildsen).
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class DynkinRecogniser {
+
+	/** Types of quiver which can be recognised. */
+	public enum Type {
+		/** Mutation equivalent to A_n. */
+		A,
+		/** Mutation equivalent to D_n. */
+		D
+	}
+
+	/** Size of the mutation class of D_4 up to equivalence, where the general formula fails. */
+	private static final int D4_CLASS_SIZE = 6;
+
+	/** Number of vertices of the quiver being checked. */
+	private int mSize;
+	/** Arrows of the quiver being checked, 1 for an arrow i to j, -1 for j to i and 0 for none. */
+	private int[][] mArrows;
+	/** Number of blocks containing each vertex, filled by {@link #isTypeA(boolean[])}. */
+	private int[] mBlockCount;
+
+	/* Working arrays for the block search. */
+	private int[] mDisc;
+	private int[] mLow;
+	private int[] mEdgeStack;
+	private int mEdgeTop;
+	private int mTime;
+	private List<int[]> mBlocks;
+
+	/**
+	 * Check whether the matrix is the exchange matrix of a connected quiver of type A or D.
+	 * 
+	 * @param matrix Matrix to check
+	 * @return Type of the quiver, or null if it is not recognised as type A or D
+	 */
+	public Type recognise(final IntMatrix matrix) {
+		if (!load(matrix)) {
+			return null;
+		}
+		boolean[] all = new boolean[mSize];
+		Arrays.fill(all, true);
+		if (isTypeA(all)) {
+			return Type.A;
+		}
+		if (mSize >= 4 && isTypeD()) {
+			return Type.D;
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether the matrix is of type A or D and if so fill in the class size and diagram.
+	 * 
+	 * @param info MatrixInfo to fill in, containing the matrix to check
+	 * @return true if the matrix was recognised
+	 */
+	public boolean fillInfo(final MatrixInfo info) {
+		QuiverMatrix matrix = info.getMatrix();
+		Type type = recognise(matrix);
+		if (type == null) {
+			return false;
+		}
+		int n = matrix.getNumRows();
+		info.setFinite(true);
+		BigInteger size = getEquivClassSize(type, n);
+		if (size.bitLength() < Integer.SIZE) {
+			info.setEquivMutationClassSize(size.intValue());
+		}
+		DynkinDiagram diagram = getDiagram(type, n);
+		if (diagram != null) {
+			info.setDynkinDiagram(diagram);
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of quivers, up to permuting the vertices, in the mutation class of the Dynkin
+	 * diagram.
+	 * 
+	 * @param type Type of the diagram
+	 * @param n Number of vertices
+	 * @return Size of the mutation class up to equivalence
+	 */
+	public static BigInteger getEquivClassSize(final Type type, final int n) {
+		switch (type) {
+			case A:
+				return triangulationsUpToRotation(n + 3);
+			case D:
+				if (n < 4) {
+					throw new IllegalArgumentException("D_n needs at least 4 vertices, not " + n);
+				}
+				if (n == 4) {
+					return BigInteger.valueOf(D4_CLASS_SIZE);
+				}
+				BigInteger sum = BigInteger.ZERO;
+				for (int d = 1; d <= n; d++) {
+					if (n % d == 0) {
+						sum = sum.add(binomial(2 * d, d).multiply(BigInteger.valueOf(phi(n / d))));
+					}
+				}
+				return sum.divide(BigInteger.valueOf(2 * n));
+			default:
+				throw new IllegalArgumentException("Unknown type " + type);
+		}
+	}
+
+	/**
+	 * Get the {@link DynkinDiagram} of the type, if there is one.
+	 * 
+	 * @param type Type of the diagram
+	 * @param n Number of vertices
+	 * @return The diagram, or null if not one of the diagrams provided
+	 */
+	public static DynkinDiagram getDiagram(final Type type, final int n) {
+		String name = type.name() + n;
+		for (DynkinDiagram d : DynkinDiagram.values()) {
+			if (d.name().equals(name)) {
+				return d;
+			}
+		}
+		return null;
+	}
+
+	/** Number of triangulations of an m-gon up to rotation. */
+	private static BigInteger triangulationsUpToRotation(final int m) {
+		// Burnside's lemma: only the identity, half turns and third turns fix any triangulation
+		BigInteger sum = catalan(m - 2).multiply(BigInteger.valueOf(6));
+		if (m % 2 == 0) {
+			sum = sum.add(catalan(m / 2 - 1).multiply(BigInteger.valueOf(3 * m)));
+		}
+		if (m % 3 == 0) {
+			sum = sum.add(catalan(m / 3 - 1).multiply(BigInteger.valueOf(4 * m)));
+		}
+		return sum.divide(BigInteger.valueOf(6 * m));
+	}
+
+	private static BigInteger catalan(final int k) {
+		return binomial(2 * k, k).divide(BigInteger.valueOf(k + 1));
+	}
+
+	private static BigInteger binomial(final int n, final int k) {
+		BigInteger result = BigInteger.ONE;
+		for (int i = 0; i < k; i++) {
+			result = result.multiply(BigInteger.valueOf(n - i)).divide(BigInteger.valueOf(i + 1));
+		}
+		return result;
+	}
+
+	private static int phi(final int n) {
+		int result = n;
+		int m = n;
+		for (int p = 2; p * p <= m; p++) {
+			if (m % p == 0) {
+				while (m % p == 0) {
+					m /= p;
+				}
+				result -= result / p;
+			}
+		}
+		if (m > 1) {
+			result -= result / m;
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the arrows of the matrix, checking that it is the exchange matrix of a connected quiver
+	 * with only single arrows.
+	 */
+	private boolean load(final IntMatrix matrix) {
+		int n = matrix.getNumRows();
+		if (n == 0 || n != matrix.getNumCols()) {
+			return false;
+		}
+		if (mArrows == null || mArrows.length != n) {
+			mSize = n;
+			mArrows = new int[n][n];
+			mBlockCount = new int[n];
+			mDisc = new int[n];
+			mLow = new int[n];
+			mEdgeStack = new int[2 * n * n];
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				int val = matrix.unsafeGet(i, j);
+				if (val < -1 || val > 1 || val != -matrix.unsafeGet(j, i)) {
+					return false;
+				}
+				mArrows[i][j] = val;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the quiver on the vertices in {@code in} is of type A, filling
+	 * {@link #mBlockCount} for those vertices.
+	 */
+	private boolean isTypeA(final boolean[] in) {
+		if (!findBlocks(in)) {
+			return false;
+		}
+		for (int[] block : mBlocks) {
+			if (!isArrowOrTriangle(block)) {
+				return false;
+			}
+		}
+		for (int v = 0; v < mSize; v++) {
+			if (in[v] && mBlockCount[v] > 2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether the vertices form a type A quiver in which {@code c} is a connecting vertex.
+	 */
+	private boolean isTypeAConnecting(final boolean[] in, final int c) {
+		return isTypeA(in) && mBlockCount[c] <= 1;
+	}
+
+	private boolean isArrowOrTriangle(final int[] block) {
+		if (block.length == 2) {
+			return true;
+		}
+		return block.length == 3 && isOrientedCycle(block[0], block[1], block[2]);
+	}
+
+	/** Check whether the three vertices form an oriented 3-cycle. */
+	private boolean isOrientedCycle(final int a, final int b, final int c) {
+		int dir = mArrows[a][b];
+		return dir != 0 && mArrows[b][c] == dir && mArrows[c][a] == dir;
+	}
+
+	private boolean isTypeD() {
+		boolean[] in = new boolean[mSize];
+		return isTypeI(in) || isTypeIIorIII(in) || isTypeIV(in);
+	}
+
+	/** Two single arrows attached to a connecting vertex of a type A quiver. */
+	private boolean isTypeI(final boolean[] in) {
+		for (int c = 0; c < mSize; c++) {
+			for (int a = 0; a < mSize; a++) {
+				if (mArrows[c][a] == 0 || degree(a) != 1) {
+					continue;
+				}
+				for (int b = a + 1; b < mSize; b++) {
+					if (mArrows[c][b] == 0 || degree(b) != 1) {
+						continue;
+					}
+					Arrays.fill(in, true);
+					in[a] = false;
+					in[b] = false;
+					if (isTypeAConnecting(in, c)) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Two vertices a and b with the same two neighbours c and c', forming either two oriented
+	 * 3-cycles with the arrow between c and c' or an oriented 4-cycle.
+	 */
+	private boolean isTypeIIorIII(final boolean[] in) {
+		int[] nbrs = new int[2];
+		for (int a = 0; a < mSize; a++) {
+			if (!twoNeighbours(a, nbrs)) {
+				continue;
+			}
+			int c = nbrs[0];
+			int cc = nbrs[1];
+			for (int b = a + 1; b < mSize; b++) {
+				if (mArrows[b][c] == 0 || mArrows[b][cc] == 0 || degree(b) != 2) {
+					continue;
+				}
+				int saved = mArrows[c][cc];
+				if (saved != 0) {
+					// Type II
+					if (!isOrientedCycle(c, a, cc) || !isOrientedCycle(c, b, cc)) {
+						continue;
+					}
+					mArrows[c][cc] = 0;
+					mArrows[cc][c] = 0;
+				} else if (mArrows[c][a] == 0 || mArrows[c][a] != mArrows[a][cc]
+						|| mArrows[a][cc] != mArrows[cc][b] || mArrows[cc][b] != mArrows[b][c]) {
+					// Not an oriented 4-cycle, so not type III
+					continue;
+				}
+				Arrays.fill(in, true);
+				in[a] = false;
+				in[b] = false;
+				boolean[] other = componentOf(in, cc);
+				boolean found = false;
+				if (!other[c]) {
+					for (int v = 0; v < mSize; v++) {
+						in[v] = in[v] && !other[v];
+					}
+					found = isTypeAConnecting(in, c) && isTypeAConnecting(other, cc);
+				}
+				mArrows[c][cc] = saved;
+				mArrows[cc][c] = -saved;
+				if (found) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A central oriented cycle of length at least 3, with some of its arrows completed to oriented
+	 * 3-cycles by spike vertices, and type A quivers attached to the spikes.
+	 */
+	private boolean isTypeIV(final boolean[] in) {
+		Arrays.fill(in, true);
+		if (!findBlocks(in)) {
+			return false;
+		}
+		int[] central = null;
+		for (int[] block : mBlocks) {
+			if (!isArrowOrTriangle(block)) {
+				if (central != null) {
+					return false;
+				}
+				central = block;
+			}
+		}
+		if (central == null) {
+			return false;
+		}
+		boolean[] inBlock = new boolean[mSize];
+		for (int v : central) {
+			inBlock[v] = true;
+		}
+		// Spikes lie on a triangle with two neighbours in the block, as do the vertices of a
+		// central 3-cycle, so try each of those as part of the cycle in turn
+		boolean[] cycle = new boolean[mSize];
+		List<Integer> ambiguous = new ArrayList<Integer>();
+		for (int v : central) {
+			cycle[v] = !isSpikeCandidate(v, inBlock);
+			if (!cycle[v] && degree(v) == 2) {
+				ambiguous.add(v);
+			}
+		}
+		if (isTypeIV(central, inBlock, cycle)) {
+			return true;
+		}
+		for (int v : ambiguous) {
+			cycle[v] = true;
+			if (isTypeIV(central, inBlock, cycle)) {
+				return true;
+			}
+			cycle[v] = false;
+		}
+		return false;
+	}
+
+	/** Check whether the vertex has two adjacent neighbours in the block and no others there. */
+	private boolean isSpikeCandidate(final int v, final boolean[] inBlock) {
+		int[] nbrs = new int[2];
+		int count = 0;
+		for (int u = 0; u < mSize; u++) {
+			if (inBlock[u] && mArrows[v][u] != 0) {
+				if (count < 2) {
+					nbrs[count] = u;
+				}
+				count++;
+			}
+		}
+		return count == 2 && mArrows[nbrs[0]][nbrs[1]] != 0;
+	}
+
+	/**
+	 * Check whether the block is a central cycle on the vertices in {@code cycle} with the other
+	 * vertices of the block as spikes, and that the rest of the quiver is made of type A quivers
+	 * attached to the spikes.
+	 */
+	private boolean isTypeIV(final int[] block, final boolean[] inBlock, final boolean[] cycle) {
+		int cycleLength = 0;
+		int start = -1;
+		for (int v : block) {
+			if (!cycle[v]) {
+				continue;
+			}
+			cycleLength++;
+			start = v;
+			int cycleNbrs = 0;
+			for (int u = 0; u < mSize; u++) {
+				if (mArrows[v][u] == 0) {
+					continue;
+				}
+				if (!inBlock[u]) {
+					return false;
+				}
+				if (cycle[u]) {
+					cycleNbrs++;
+				}
+			}
+			if (cycleNbrs != 2) {
+				return false;
+			}
+		}
+		if (cycleLength < 3) {
+			return false;
+		}
+		// Walk round the cycle following the arrows
+		int prev = -1;
+		int current = start;
+		int dir = 0;
+		for (int step = 0; step < cycleLength; step++) {
+			int next = -1;
+			for (int u = 0; u < mSize; u++) {
+				if (cycle[u] && u != prev && mArrows[current][u] != 0
+						&& (dir == 0 || mArrows[current][u] == dir)) {
+					next = u;
+					break;
+				}
+			}
+			if (next < 0) {
+				return false;
+			}
+			dir = mArrows[current][next];
+			prev = current;
+			current = next;
+		}
+		if (current != start) {
+			return false;
+		}
+		// Each spike completes a different arrow of the cycle to an oriented 3-cycle
+		boolean[] used = new boolean[mSize * mSize];
+		boolean[] rest = new boolean[mSize];
+		for (int s : block) {
+			if (cycle[s]) {
+				continue;
+			}
+			int[] nbrs = new int[2];
+			int count = 0;
+			for (int u = 0; u < mSize; u++) {
+				if (inBlock[u] && mArrows[s][u] != 0) {
+					if (count == 2 || !cycle[u]) {
+						return false;
+					}
+					nbrs[count++] = u;
+				}
+			}
+			if (count != 2 || !isOrientedCycle(s, nbrs[0], nbrs[1])) {
+				return false;
+			}
+			int edge = nbrs[0] * mSize + nbrs[1];
+			if (used[edge]) {
+				return false;
+			}
+			used[edge] = true;
+			Arrays.fill(rest, true);
+			for (int v : block) {
+				rest[v] = v == s;
+			}
+			if (!isTypeAConnecting(componentOf(rest, s), s)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int degree(final int v) {
+		int count = 0;
+		for (int u = 0; u < mSize; u++) {
+			if (mArrows[v][u] != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/** Check whether the vertex has exactly two neighbours, putting them in {@code nbrs}. */
+	private boolean twoNeighbours(final int v, final int[] nbrs) {
+		int count = 0;
+		for (int u = 0; u < mSize; u++) {
+			if (mArrows[v][u] != 0) {
+				if (count == 2) {
+					return false;
+				}
+				nbrs[count++] = u;
+			}
+		}
+		return count == 2;
+	}
+
+	/** Get the vertices of {@code in} connected to {@code v}. */
+	private boolean[] componentOf(final boolean[] in, final int v) {
+		boolean[] seen = new boolean[mSize];
+		int[] stack = new int[mSize];
+		int top = 0;
+		stack[top++] = v;
+		seen[v] = true;
+		while (top > 0) {
+			int u = stack[--top];
+			for (int w = 0; w < mSize; w++) {
+				if (in[w] && !seen[w] && mArrows[u][w] != 0) {
+					seen[w] = true;
+					stack[top++] = w;
+				}
+			}
+		}
+		return seen;
+	}
+
+	/**
+	 * Split the quiver on the vertices in {@code in} into blocks, which are the maximal pieces with
+	 * no cut vertex, and count the blocks containing each vertex.
+	 * 
+	 * @return false if the vertices do not form a connected quiver
+	 */
+	private boolean findBlocks(final boolean[] in) {
+		mBlocks = new ArrayList<int[]>();
+		Arrays.fill(mDisc, 0);
+		Arrays.fill(mBlockCount, 0);
+		mTime = 0;
+		mEdgeTop = 0;
+		int root = -1;
+		int count = 0;
+		for (int v = 0; v < mSize; v++) {
+			if (in[v]) {
+				count++;
+				if (root < 0) {
+					root = v;
+				}
+			}
+		}
+		if (root < 0) {
+			return false;
+		}
+		searchBlocks(in, root, -1);
+		return mTime == count;
+	}
+
+	private void searchBlocks(final boolean[] in, final int u, final int parent) {
+		mDisc[u] = ++mTime;
+		mLow[u] = mDisc[u];
+		for (int v = 0; v < mSize; v++) {
+			if (!in[v] || mArrows[u][v] == 0) {
+				continue;
+			}
+			if (mDisc[v] == 0) {
+				pushEdge(u, v);
+				searchBlocks(in, v, u);
+				mLow[u] = Math.min(mLow[u], mLow[v]);
+				if (mLow[v] >= mDisc[u]) {
+					popBlock(u, v);
+				}
+			} else if (v != parent && mDisc[v] < mDisc[u]) {
+				pushEdge(u, v);
+				mLow[u] = Math.min(mLow[u], mDisc[v]);
+			}
+		}
+	}
+
+	private void pushEdge(final int u, final int v) {
+		mEdgeStack[mEdgeTop++] = u;
+		mEdgeStack[mEdgeTop++] = v;
+	}
+
+	/** Pop the edges of a block off the stack, down to and including the edge u v. */
+	private void popBlock(final int u, final int v) {
+		boolean[] inBlock = new boolean[mSize];
+		int size = 0;
+		int x;
+		int y;
+		do {
+			y = mEdgeStack[--mEdgeTop];
+			x = mEdgeStack[--mEdgeTop];
+			if (!inBlock[x]) {
+				inBlock[x] = true;
+				size++;
+			}
+			if (!inBlock[y]) {
+				inBlock[y] = true;
+				size++;
+			}
+		} while (x != u || y != v);
+		int[] block = new int[size];
+		int index = 0;
+		for (int w = 0; w < mSize; w++) {
+			if (inBlock[w]) {
+				block[index++] = w;
+				mBlockCount[w]++;
+			}
+		}
+		mBlocks.add(block);
+	}
+}
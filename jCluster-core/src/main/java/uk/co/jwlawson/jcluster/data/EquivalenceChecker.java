@@ -27,8 +27,8 @@ import com.google.common.cache.Weigher;
  * columns. Results are cached as the calculation can be slow especially for large matrices.
  * 
  * <p>
- * Instances of {@link EquivalenceChecker} are cached as each instance contains all permutation
- * matrices of the size of the {@link EquivalenceChecker}.
+ * Instances of {@link EquivalenceChecker} are cached as each instance contains a cache of
+ * previously checked pairs of matrices of the size of the {@link EquivalenceChecker}.
  * 
  * @author John Lawson
  * 
@@ -38,15 +38,15 @@ public abstract class EquivalenceChecker {
 	/**
 	 * The cache which stores {@link EquivalenceChecker} instances. There is a maximum bound on it
 	 * to prevent unused instances filling memory, which roughly corresponds to how much memory is
-	 * being used by the instance.
+	 * being used by the instance's cache of checked pairs.
 	 */
 	private static LoadingCache<Integer, EquivalenceChecker> sInstanceCache = CacheBuilder
-			.newBuilder().maximumWeight(400000000) // Max num for 10x10 is 363 million
+			.newBuilder().maximumWeight(2000)
 			.weigher(new Weigher<Integer, EquivalenceChecker>() {
 
 				@Override
 				public int weigh(final Integer key, final EquivalenceChecker value) {
-					return factorial(key) * key * key;
+					return key * key;
 				}
 			}).build(new CacheLoader<Integer, EquivalenceChecker>() {
 				private final Logger log = LoggerFactory.getLogger(getClass());
@@ -58,7 +58,7 @@ public abstract class EquivalenceChecker {
 						return new EquivalenceCheckerZero();
 					}
 					log.debug("New EquivalenceChecker of size {} created", key);
-					return new EquivalenceCheckerImpl(key);
+					return new EquivalenceCheckerImpl();
 				}
 
 			});
@@ -75,22 +75,6 @@ public abstract class EquivalenceChecker {
 		return sInstanceCache.getUnchecked(size);
 	}
 
-	/**
-	 * Find the value of num!
-	 * 
-	 * @param num Number to start calculating from
-	 * @return The value of num factorial
-	 */
-	private static int factorial(final int num) {
-		if (num == 1) {
-			return 1;
-		}
-		if (num == 0) {
-			return 0;
-		}
-		return num * factorial(num - 1);
-	}
-
 	/**
 	 * Check whether two matrices are equivalent up to permutations of the rows and columns.
 	 * 
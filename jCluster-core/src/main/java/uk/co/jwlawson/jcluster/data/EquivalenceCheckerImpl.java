@@ -14,7 +14,12 @@
  */
 package uk.co.jwlawson.jcluster.data;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +36,8 @@ import com.google.common.cache.LoadingCache;
  * columns. Results are cached as the calculation can be slow especially for large matrices.
  * 
  * <p>
- * Instances of {@link EquivalenceCheckerImpl} are cached as each instance contains all permutation
- * matrices of the size of the {@link EquivalenceCheckerImpl}.
+ * Instances of {@link EquivalenceCheckerImpl} are cached as each instance contains a cache of
+ * previously checked pairs of matrices.
  * 
  * @author John Lawson
  * 
@@ -42,12 +47,9 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 	/** Logger. */
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
-	/** Constant value which represents an invalid permutation. */
-	private static final int[] NO_PERMUTATION = new int[0];
-
 	/**
 	 * Cache storing previously checked equivalences between pairs of matrices. For larger matrices
-	 * the time spent multiplying matrices together becomes prohibitive, so caching helps to speed
+	 * the time spent searching for permutations becomes prohibitive, so caching helps to speed
 	 * up the checks.
 	 */
 	private final LoadingCache<IntMatrixPair, Boolean> mPermCache = CacheBuilder.newBuilder()
@@ -74,95 +76,26 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 
 			});
 
-	/** Array of all permutation matrices of this size. */
-	private IntMatrix[] mPermMatrices;
-	/** Matrix storing the multiplication. */
-	private final IntMatrix mMatrixAP;
-	/** Matrix string the multiplication. */
-	private final IntMatrix mMatrixPB;
-	/** Pool of matrix pairs. */
-	private final Pool<IntMatrixPair> mPairPool;
-
-
 	/**
-	 * Class to test whether matrices are equivalent up to permutation of their rows and columns.
-	 * Constructor creates all permutation matrices of the required size, so should not be
-	 * instantiated many times but rather cached.
-	 * 
-	 * @param size The size of the matrices which will be checked for equivalence
+	 * Estimated number of candidate mappings above which the mapping search is split across the
+	 * shared {@link ForkJoinPool}. Below this the overhead of forking outweighs any gain.
 	 */
-	protected EquivalenceCheckerImpl(final int size) {
-		setPermutations(size);
+	private static final double PARALLEL_THRESHOLD = 40320;
 
-		mMatrixAP = new IntMatrix(size, size);
-		mMatrixPB = new IntMatrix(size, size);
-		mPairPool = Pools.getIntMatrixPairPool();
-	}
+	/** Pool shared by all checkers to run large mapping searches. */
+	private static final ForkJoinPool sSearchPool = new ForkJoinPool();
 
-	/**
-	 * Generate all permutation matrices of the required size.
-	 * 
-	 * @param size The size of the matrices to construct
-	 */
-	private void setPermutations(final int size) {
-		int fac = factorial(size);
-		mPermMatrices = new IntMatrix[fac];
-		int count = 0;
-		for (int i = 0; i < Math.pow(size, size); i++) {
-			int[] vals = getPermValues(size, i);
-			if (vals == NO_PERMUTATION) {
-				continue;
-			}
-			mPermMatrices[count] = new IntMatrix(size, size);
-			for (int j = 0; j < size; j++) {
-				mPermMatrices[count].set(j, vals[j], 1);
-			}
-			count++;
-		}
-		if (count != fac) {
-			throw new RuntimeException("Wrong number of permutations");
-		}
-	}
+	/** Pool of matrix pairs. */
+	private final Pool<IntMatrixPair> mPairPool;
 
-	/**
-	 * Calculate the columns that the 1 in each row of the permutation matrix should go into. If the
-	 * provided id is not a valid permutation then the constant
-	 * {@link EquivalenceCheckerImpl.NO_PERMUTATION} is returned.
-	 * 
-	 * @param size Size of the permutation matrix required
-	 * @param i Id for the permutation matrix
-	 * @return An array of column numbers indicating the positions of the 1s, or NO_PERMUTATION if
-	 *         an invalid id is provided
-	 */
-	private int[] getPermValues(final int size, final int i) {
-		int[] result = new int[size];
-		int id = i;
-		for (int j = 0; j < size; j++) {
-			result[j] = id % (size);
-			for (int k = 0; k < j; k++) {
-				if (result[j] == result[k]) {
-					return NO_PERMUTATION;
-				}
-			}
-			id /= size;
-		}
-		return result;
-	}
 
 	/**
-	 * Find the value of num!
-	 * 
-	 * @param num Number to start calculating from
-	 * @return The value of num factorial
+	 * Class to test whether matrices are equivalent up to permutation of their rows and columns.
+	 * Nothing depends on the size of the matrices checked, but a separate instance is still used for
+	 * each size so that each has its own cache.
 	 */
-	private static int factorial(final int num) {
-		if (num == 1) {
-			return 1;
-		}
-		if (num == 0) {
-			return 0;
-		}
-		return num * factorial(num - 1);
+	protected EquivalenceCheckerImpl() {
+		mPairPool = Pools.getIntMatrixPairPool();
 	}
 
 	/**
@@ -170,11 +103,15 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 	 * without looking up in the cache.
 	 * 
 	 * <p>
-	 * A lot of calculation is done before blindly multiplying matrices as for larger matrices this
+	 * A lot of calculation is done before searching for a permutation as for larger matrices this
 	 * is horrifically slow. As the sum of each row is invariant under permutations of rows and
 	 * columns these values are calculated and it is checked that each matrix has the same number of
-	 * rows with the same sum. These also show narrow which permutations could potentially be the
-	 * right ones so the invalid ones are not considered.
+	 * rows with the same sum. These also narrow down which vertices each vertex could be mapped to,
+	 * so the invalid mappings are not considered.
+	 * 
+	 * <p>
+	 * If the number of possible mappings left is large, the search is split across a
+	 * {@link ForkJoinPool}.
 	 * 
 	 * @param a The first matrix
 	 * @param b The second matrix
@@ -186,6 +123,10 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 		}
 		int aRows = a.getNumRows();
 		int aCols = a.getNumCols();
+		if (aRows != aCols || b.getNumRows() != aRows || b.getNumCols() != aCols) {
+			// Only square matrices can have their rows and columns permuted simultaneously
+			return false;
+		}
 		int[] aRowSum = new int[aRows];
 		int[] aColSum = new int[aCols];
 		int[] aAbsRowSum = new int[aRows];
@@ -223,169 +164,122 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 			return false;
 		}
 
-		int[] rowMappings = getMappingArray(aRows);
-		int[] colMappings = getMappingArray(aCols);
-
-		boolean rowsMatch =
-				checkRowsMatch(a, b, aRows, aRowSum, aAbsRowSum, bRowSum, bAbsRowSum, rowMappings);
-		if (!rowsMatch) {
+		int[][] candidates =
+				getCandidates(a, b, aRows, aRowSum, aAbsRowSum, aColSum, aAbsColSum, bRowSum,
+						bAbsRowSum, bColSum, bAbsColSum);
+		if (candidates == null) {
 			return false;
 		}
+		int[] order = getSearchOrder(candidates);
+		double[] remaining = getRemainingEstimates(candidates, order);
 
-		boolean columnsMatch =
-				checkColumnsMatch(a, b, aCols, aColSum, aAbsColSum, bColSum, bAbsColSum,
-						colMappings);
-		if (!columnsMatch) {
-			return false;
+		MappingSearch search = new MappingSearch(a, b, candidates, order, remaining);
+		if (remaining[0] < PARALLEL_THRESHOLD) {
+			return search.searchSequentially();
 		}
-		int[] colCopy = colMappings.clone();
-		for (IntMatrix p : mPermMatrices) {
-			for (int i = 0; i < rowMappings.length; i++) {
-				colCopy[i] = colMappings[i];
-			}
-			boolean notValid = !isPermutationValid(aRows, aCols, colCopy, p);
-			if (notValid) {
-				continue;
-			}
-			// Check if PA == BP or PAP^(-1) == B
-			synchronized (this) {
-				a.multRight(p, mMatrixAP);
-				b.multLeft(p, mMatrixPB);
-				if (IntMatrix.areEqual(mMatrixPB, mMatrixAP)) {
-					return true;
-				}
-			}
-		}
-		return false;
-	}
-
-	/**
-	 * Get an array to store the mapping information in.
-	 * 
-	 * @param length Length of the array
-	 * @return Array
-	 */
-	private int[] getMappingArray(final int length) {
-		int[] arr = new int[length];
-		for (int i = 0; i < length; i++) {
-			arr[i] = 57;
-		}
-		return arr;
+		log.trace("Splitting mapping search of estimated size {} across pool", remaining[0]);
+		return sSearchPool.invoke(search);
 	}
 
 	/**
-	 * Check that the columns in the matrices match up to permutations.
+	 * Find, for each vertex of the first matrix, the vertices of the second matrix which it could
+	 * be mapped to. Two vertices can only be mapped to each other if their rows and their columns
+	 * are equivalent up to reordering.
 	 * 
 	 * @param a First matrix
 	 * @param b Second matrix
-	 * @param aCols number of columns
+	 * @param size Number of vertices in each matrix
+	 * @param aRowSum Sums of the first matrices rows
+	 * @param aAbsRowSum Sums of the abs value of the first matrices rows
 	 * @param aColSum Sums of the first matrices columns
 	 * @param aAbsColSum Sums of the abs value of the first matrices columns
+	 * @param bRowSum Sums of the second matrices rows
+	 * @param bAbsRowSum Sums of the abs value of the second matrices rows
 	 * @param bColSum Sums of the second matrices columns
 	 * @param bAbsColSum Sums of the abs value of the second matrices columns
-	 * @param colMappings Array of column mappings to update
-	 * @return true if the matrices have matching columns
+	 * @return Array of candidate vertices for each vertex, or null if some vertex has no candidates
 	 */
-	private boolean checkColumnsMatch(final IntMatrix a, final IntMatrix b, final int aCols,
-			final int[] aColSum, final int[] aAbsColSum, final int[] bColSum,
-			final int[] bAbsColSum, final int[] colMappings) {
-		boolean columnsMatch = true;
-		for (int aInd = 0; aInd < aCols; aInd++) {
-			int inCol = numberIn(bColSum, aColSum[aInd]);
-			int index = -1;
-			int[] aColVals = a.getCol(aInd);
-			boolean foundEquiv = false;
-			for (int i = 0; i < inCol; i++) {
-				index = getNextIndexOf(bColSum, aColSum[aInd], index);
-				if (bAbsColSum[index] != aAbsColSum[aInd]) {
-					// Columns will only be equivalent if they have the same absolute value sum
+	private int[][] getCandidates(final IntMatrix a, final IntMatrix b, final int size,
+			final int[] aRowSum, final int[] aAbsRowSum, final int[] aColSum,
+			final int[] aAbsColSum, final int[] bRowSum, final int[] bAbsRowSum,
+			final int[] bColSum, final int[] bAbsColSum) {
+		int[][] bRows = new int[size][];
+		int[][] bCols = new int[size][];
+		for (int j = 0; j < size; j++) {
+			bRows[j] = sortedCopy(b.getRow(j));
+			bCols[j] = sortedCopy(b.getCol(j));
+		}
+		int[][] candidates = new int[size][];
+		int[] buffer = new int[size];
+		for (int i = 0; i < size; i++) {
+			int[] aRow = sortedCopy(a.getRow(i));
+			int[] aCol = sortedCopy(a.getCol(i));
+			int count = 0;
+			for (int j = 0; j < size; j++) {
+				if (aRowSum[i] != bRowSum[j] || aAbsRowSum[i] != bAbsRowSum[j]
+						|| aColSum[i] != bColSum[j] || aAbsColSum[i] != bAbsColSum[j]) {
 					continue;
 				}
-				int[] bColVals = b.getCol(index);
-				if (areArraysEquivalent(aColVals, bColVals)) {
-					foundEquiv = true;
-					updateMapping(aCols, colMappings, index, aInd);
-				}
-			}
-			if (!foundEquiv) {
-				columnsMatch = false;
-			}
-		}
-		return columnsMatch;
-	}
-
-	private boolean checkRowsMatch(final IntMatrix a, final IntMatrix b, final int aRows,
-			final int[] aRowSum, final int[] aAbsRowSum, final int[] bRowSum,
-			final int[] bAbsRowSum, final int[] rowMappings) {
-		boolean rowsMatch = true;
-		for (int aInd = 0; aInd < aRows && rowsMatch; aInd++) {
-			int inRow = numberIn(bRowSum, aRowSum[aInd]);
-			int index = -1;
-			int[] aRowVals = a.getRow(aInd);
-			boolean foundEquiv = false;
-			for (int i = 0; i < inRow; i++) {
-				index = getNextIndexOf(bRowSum, aRowSum[aInd], index);
-				if (bAbsRowSum[index] != aAbsRowSum[aInd]) {
-					// Rows will only be equivalent if they have the same absolute value sum
+				if (a.unsafeGet(i, i) != b.unsafeGet(j, j)) {
 					continue;
 				}
-				int[] bRowVals = b.getRow(index);
-				if (areArraysEquivalent(aRowVals, bRowVals)) {
-					foundEquiv = true;
-					updateMapping(aRows, rowMappings, aInd, index);
+				if (Arrays.equals(aRow, bRows[j]) && Arrays.equals(aCol, bCols[j])) {
+					buffer[count++] = j;
 				}
 			}
-			if (!foundEquiv) {
-				rowsMatch = false;
+			if (count == 0) {
+				return null;
 			}
+			candidates[i] = Arrays.copyOf(buffer, count);
 		}
-		return rowsMatch;
-	}
-
-	private void updateMapping(final int numRows, final int[] rowMappings, final int aIndex,
-			final int bIndex) {
-		rowMappings[bIndex] *= numRows;
-		rowMappings[bIndex] += aIndex;
+		return candidates;
 	}
 
-	private boolean isPermutationValid(final int aRows, final int aCols, final int[] colMappings,
-			final IntMatrix p) {
-		for (int i = 0; i < colMappings.length; i++) {
-			if (!isColumnValid(aCols, colMappings, p, i)) {
-				return false;
-			}
-		}
-		return true;
-	}
-
-	private boolean isColumnValid(final int num, final int[] mappings, final IntMatrix perm,
-			final int index) {
-		while (mappings[index] != 57) {
-			if (perm.unsafeGet(index, mappings[index] % num) == 1) {
-				return true;
+	/**
+	 * Get the order in which to assign the vertices in the search. Vertices with fewest candidates
+	 * are assigned first, so that the search tree is pruned as early as possible.
+	 * 
+	 * @param candidates Candidates for each vertex
+	 * @return Array of vertices in the order they should be assigned
+	 */
+	private int[] getSearchOrder(final int[][] candidates) {
+		int size = candidates.length;
+		int[] order = new int[size];
+		boolean[] added = new boolean[size];
+		for (int k = 0; k < size; k++) {
+			int best = -1;
+			for (int i = 0; i < size; i++) {
+				if (!added[i] && (best == -1 || candidates[i].length < candidates[best].length)) {
+					best = i;
+				}
 			}
-			mappings[index] /= num;
+			added[best] = true;
+			order[k] = best;
 		}
-		return false;
+		return order;
 	}
 
-	private int numberIn(final int[] arr, final int val) {
-		int count = 0;
-		for (int i : arr) {
-			if (i == val) {
-				count++;
-			}
+	/**
+	 * Estimate the size of the search tree below each depth of the search. This is the product of
+	 * the number of candidates for each vertex still to be assigned, so is an over estimate.
+	 * 
+	 * @param candidates Candidates for each vertex
+	 * @param order Order in which vertices are assigned
+	 * @return Array of estimates indexed by depth
+	 */
+	private double[] getRemainingEstimates(final int[][] candidates, final int[] order) {
+		double[] remaining = new double[order.length + 1];
+		remaining[order.length] = 1;
+		for (int k = order.length - 1; k >= 0; k--) {
+			remaining[k] = remaining[k + 1] * candidates[order[k]].length;
 		}
-		return count;
+		return remaining;
 	}
 
-	private int getNextIndexOf(final int[] arr, final int val, final int prev) {
-		for (int i = prev + 1; i < arr.length; i++) {
-			if (arr[i] == val) {
-				return i;
-			}
-		}
-		return -1;
+	private int[] sortedCopy(final int[] arr) {
+		int[] copy = Arrays.copyOf(arr, arr.length);
+		Arrays.sort(copy);
+		return copy;
 	}
 
 	private boolean areArraysEquivalent(final int[] a, final int[] b) {
@@ -420,4 +314,159 @@ public final class EquivalenceCheckerImpl extends EquivalenceChecker {
 			}
 		}
 	}
+
+	/**
+	 * Search for a mapping between the vertices of two matrices which takes one matrix to the
+	 * other.
+	 * 
+	 * <p>
+	 * Vertices are assigned in the order given, each one to a candidate vertex which is consistent
+	 * with all the assignments made so far. When run in a {@link ForkJoinPool} the top of the search
+	 * tree is split into subtasks until the estimated size of each subtree falls below
+	 * {@link EquivalenceCheckerImpl#PARALLEL_THRESHOLD}. All subtasks share a flag which is set as
+	 * soon as any of them finds a valid mapping, at which point the rest stop searching.
+	 */
+	private static final class MappingSearch extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** First matrix. */
+		private final IntMatrix mA;
+		/** Second matrix. */
+		private final IntMatrix mB;
+		/** Candidate vertices in the second matrix for each vertex in the first. */
+		private final int[][] mCandidates;
+		/** Order in which the vertices are assigned. */
+		private final int[] mOrder;
+		/** Estimated size of the search tree below each depth. */
+		private final double[] mRemaining;
+		/** Current mapping from vertices of the first matrix to the second, -1 if unassigned. */
+		private final int[] mMap;
+		/** Which vertices of the second matrix have already been mapped to. */
+		private final boolean[] mUsed;
+		/** Number of vertices assigned so far. */
+		private final int mDepth;
+		/** Set once any task has found a valid mapping. */
+		private final AtomicBoolean mFound;
+
+		/**
+		 * Create a new search from the root of the search tree.
+		 * 
+		 * @param a First matrix
+		 * @param b Second matrix
+		 * @param candidates Candidate vertices for each vertex
+		 * @param order Order in which to assign vertices
+		 * @param remaining Estimated size of the search tree below each depth
+		 */
+		MappingSearch(final IntMatrix a, final IntMatrix b, final int[][] candidates,
+				final int[] order, final double[] remaining) {
+			this(a, b, candidates, order, remaining, newEmptyMap(order.length),
+					new boolean[order.length], 0, new AtomicBoolean(false));
+		}
+
+		private MappingSearch(final IntMatrix a, final IntMatrix b, final int[][] candidates,
+				final int[] order, final double[] remaining, final int[] map, final boolean[] used,
+				final int depth, final AtomicBoolean found) {
+			mA = a;
+			mB = b;
+			mCandidates = candidates;
+			mOrder = order;
+			mRemaining = remaining;
+			mMap = map;
+			mUsed = used;
+			mDepth = depth;
+			mFound = found;
+		}
+
+		private static int[] newEmptyMap(final int size) {
+			int[] map = new int[size];
+			Arrays.fill(map, -1);
+			return map;
+		}
+
+		/**
+		 * Run the whole search in the current thread.
+		 * 
+		 * @return true if a valid mapping exists
+		 */
+		boolean searchSequentially() {
+			return search(mDepth);
+		}
+
+		@Override
+		protected Boolean compute() {
+			if (mFound.get()) {
+				return false;
+			}
+			if (mDepth == mOrder.length || mRemaining[mDepth] < PARALLEL_THRESHOLD) {
+				return search(mDepth);
+			}
+			int vertex = mOrder[mDepth];
+			List<MappingSearch> subtasks = new ArrayList<MappingSearch>();
+			for (int cand : mCandidates[vertex]) {
+				if (mUsed[cand] || !isConsistent(vertex, cand, mDepth)) {
+					continue;
+				}
+				int[] map = mMap.clone();
+				boolean[] used = mUsed.clone();
+				map[vertex] = cand;
+				used[cand] = true;
+				subtasks.add(new MappingSearch(mA, mB, mCandidates, mOrder, mRemaining, map, used,
+						mDepth + 1, mFound));
+			}
+			invokeAll(subtasks);
+			return mFound.get();
+		}
+
+		/**
+		 * Depth first search through the remaining assignments.
+		 * 
+		 * @param depth Number of vertices already assigned
+		 * @return true if this search found a valid mapping
+		 */
+		private boolean search(final int depth) {
+			if (mFound.get()) {
+				return false;
+			}
+			if (depth == mOrder.length) {
+				mFound.set(true);
+				return true;
+			}
+			int vertex = mOrder[depth];
+			for (int cand : mCandidates[vertex]) {
+				if (mUsed[cand] || !isConsistent(vertex, cand, depth)) {
+					continue;
+				}
+				mMap[vertex] = cand;
+				mUsed[cand] = true;
+				if (search(depth + 1)) {
+					return true;
+				}
+				mUsed[cand] = false;
+				mMap[vertex] = -1;
+			}
+			return false;
+		}
+
+		/**
+		 * Check whether mapping {@code vertex} to {@code cand} agrees with all the vertices which
+		 * have already been assigned.
+		 * 
+		 * @param vertex Vertex in the first matrix
+		 * @param cand Vertex in the second matrix
+		 * @param depth Number of vertices already assigned
+		 * @return true if the assignment is consistent
+		 */
+		private boolean isConsistent(final int vertex, final int cand, final int depth) {
+			for (int k = 0; k < depth; k++) {
+				int prev = mOrder[k];
+				int prevImage = mMap[prev];
+				if (mA.unsafeGet(vertex, prev) != mB.unsafeGet(cand, prevImage)
+						|| mA.unsafeGet(prev, vertex) != mB.unsafeGet(prevImage, cand)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
 }
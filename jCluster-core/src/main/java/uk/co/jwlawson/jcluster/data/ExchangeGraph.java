@@ -0,0 +1,506 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ExchangeGraph.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.co.jwlawson.jcluster.NamingThreadFactory;
+
+/**
+ * Exchange graph of a mutation class, stored in compressed sparse row form. Each vertex has a dense
+ * integer id and exactly {@code degree} neighbour slots, where slot {@code i} holds the id of the
+ * vertex reached by mutating at the vertex whose link index is {@code i}, as in a
+ * {@link LinkTable}. The key of each vertex is also kept so that ids can be matched up with
+ * matrices.
+ * 
+ * <p>
+ * When the graph was recorded using keys up to equivalence, the link index of a quiver vertex is
+ * its position in the canonical form, so paths are given in terms of the canonical vertex order of
+ * each matrix along the way. Mutating can give back an equivalent matrix, in which case a vertex is
+ * its own neighbour.
+ * 
+ * <p>
+ * The graph is stored in buffers which are either on the heap or mapped from a file written by
+ * {@link #write(File)}, so a large class only needs exploring once and can then be analysed many
+ * times. The graph cannot be changed, so it is safe to query from many threads.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class ExchangeGraph {
+
+	/** Value of a neighbour slot which was never filled. */
+	public static final int NO_NEIGHBOUR = -1;
+
+	/** First int of a graph file. */
+	private static final int MAGIC = 0x4a434c47;
+	/** Version of the file format. */
+	private static final int VERSION = 1;
+	/** Number of bytes before the keys in a graph file, a multiple of 8 to keep the keys aligned. */
+	private static final int HEADER_BYTES = 24;
+	/** Number of vertices each thread takes at a time in parallel queries. */
+	private static final int CHUNK_SIZE = 16;
+
+	/** Number of vertices. */
+	private final int mNumVertices;
+	/** Number of neighbour slots of each vertex. */
+	private final int mDegree;
+	/** Number of longs in each key. */
+	private final int mNumWords;
+	/** Keys of the vertices in id order. */
+	private final LongBuffer mKeys;
+	/** Neighbours of the vertices in id order. */
+	private final IntBuffer mNeighbours;
+
+	ExchangeGraph(final int numVertices, final int degree, final int numWords,
+			final LongBuffer keys, final IntBuffer neighbours) {
+		mNumVertices = numVertices;
+		mDegree = degree;
+		mNumWords = numWords;
+		mKeys = keys;
+		mNeighbours = neighbours;
+	}
+
+	/**
+	 * Get the number of vertices in the graph, which is the size of the mutation class.
+	 * 
+	 * @return Number of vertices
+	 */
+	public int getNumVertices() {
+		return mNumVertices;
+	}
+
+	/**
+	 * Get the number of neighbour slots of each vertex.
+	 * 
+	 * @return Degree of the graph
+	 */
+	public int getDegree() {
+		return mDegree;
+	}
+
+	/**
+	 * Get the number of longs in each key.
+	 * 
+	 * @return Length of the keys
+	 */
+	public int getNumWords() {
+		return mNumWords;
+	}
+
+	/**
+	 * Copy the key of a vertex into {@code dest}.
+	 * 
+	 * @param vertex Id of the vertex
+	 * @param dest Array to copy the key into
+	 * @param offset Index to write the first word to
+	 */
+	public void getKey(final int vertex, final long[] dest, final int offset) {
+		int start = vertex * mNumWords;
+		for (int w = 0; w < mNumWords; w++) {
+			dest[offset + w] = mKeys.get(start + w);
+		}
+	}
+
+	/**
+	 * Get the neighbour of a vertex.
+	 * 
+	 * @param vertex Id of the vertex
+	 * @param index Index of the link
+	 * @return Id of the neighbour, or {@link #NO_NEIGHBOUR}
+	 */
+	public int getNeighbour(final int vertex, final int index) {
+		return mNeighbours.get(vertex * mDegree + index);
+	}
+
+	/**
+	 * Find the distance from {@code source} to every vertex.
+	 * 
+	 * @param source Id of the vertex to start from
+	 * @return Distance to each vertex, or -1 if it cannot be reached
+	 */
+	public int[] getDistances(final int source) {
+		int[] dist = new int[mNumVertices];
+		bfs(source, dist, new int[mNumVertices], null);
+		return dist;
+	}
+
+	/**
+	 * Find a shortest sequence of mutations from one vertex to another.
+	 * 
+	 * @param from Id of the first vertex
+	 * @param to Id of the last vertex
+	 * @return Link index of each mutation in turn, or null if {@code to} cannot be reached
+	 */
+	public int[] getShortestPath(final int from, final int to) {
+		int[] dist = new int[mNumVertices];
+		int[] parent = new int[mNumVertices];
+		bfs(from, dist, new int[mNumVertices], parent);
+		if (dist[to] < 0) {
+			return null;
+		}
+		int[] path = new int[dist[to]];
+		int vertex = to;
+		for (int step = path.length - 1; step >= 0; step--) {
+			int prev = parent[vertex];
+			path[step] = linkTo(prev, vertex);
+			vertex = prev;
+		}
+		return path;
+	}
+
+	/**
+	 * Find the diameter of the graph using one thread for each available processor.
+	 * 
+	 * @return Largest distance between any two vertices which are connected
+	 * @throws Exception if one of the threads fails
+	 */
+	public int getDiameter() throws Exception {
+		return getDiameter(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Find the diameter of the graph, running a breadth first search from every vertex split between
+	 * {@code numThreads} threads.
+	 * 
+	 * @param numThreads Number of threads to use
+	 * @return Largest distance between any two vertices which are connected
+	 * @throws Exception if one of the threads fails
+	 */
+	public int getDiameter(final int numThreads) throws Exception {
+		return (int) runParallel(numThreads, new VertexQueryFactory() {
+
+			@Override
+			public VertexQuery newQuery() {
+				return new EccentricityQuery();
+			}
+		}, false);
+	}
+
+	/**
+	 * Count the cycles of a given length using one thread for each available processor.
+	 * 
+	 * @param length Length of the cycles, at least 3
+	 * @return Number of cycles
+	 * @throws Exception if one of the threads fails
+	 * @see #countCycles(int, int)
+	 */
+	public long countCycles(final int length) throws Exception {
+		return countCycles(length, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Count the cycles of a given length, split between {@code numThreads} threads. A cycle visits
+	 * {@code length} distinct vertices, and cycles which only differ by their starting vertex or
+	 * direction are counted once. Loops and repeated edges between the same vertices are ignored.
+	 * 
+	 * @param length Length of the cycles, at least 3
+	 * @param numThreads Number of threads to use
+	 * @return Number of cycles
+	 * @throws Exception if one of the threads fails
+	 */
+	public long countCycles(final int length, final int numThreads) throws Exception {
+		if (length < 3) {
+			throw new IllegalArgumentException("Cycles must have length at least 3, not " + length);
+		}
+		// Each cycle is found once in each direction from its smallest vertex
+		return runParallel(numThreads, new VertexQueryFactory() {
+
+			@Override
+			public VertexQuery newQuery() {
+				return new CycleQuery(length);
+			}
+		}, true) / 2;
+	}
+
+	/**
+	 * Write the graph to a file which can be mapped back using {@link #read(File)}.
+	 * 
+	 * @param file File to write to
+	 * @throws IOException if the file cannot be written or the graph is too large to map
+	 */
+	public void write(final File file) throws IOException {
+		long length = fileLength(mNumVertices, mDegree, mNumWords);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(mNumVertices);
+			buffer.putInt(mDegree);
+			buffer.putInt(mNumWords);
+			buffer.position(HEADER_BYTES);
+			LongBuffer keys = mKeys.duplicate();
+			keys.clear();
+			buffer.asLongBuffer().put(keys);
+			buffer.position(HEADER_BYTES + keysBytes(mNumVertices, mNumWords));
+			IntBuffer neighbours = mNeighbours.duplicate();
+			neighbours.clear();
+			buffer.asIntBuffer().put(neighbours);
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Map a graph written by {@link #write(File)}. The graph is read straight from the mapped file
+	 * rather than copied onto the heap.
+	 * 
+	 * @param file File to read
+	 * @return Graph stored in the file
+	 * @throws IOException if the file cannot be read or is not a graph file
+	 */
+	public static ExchangeGraph read(final File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+				throw new IOException("File " + file + " is not an exchange graph");
+			}
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("File " + file + " is not an exchange graph");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported exchange graph version " + version);
+			}
+			int numVertices = buffer.getInt();
+			int degree = buffer.getInt();
+			int numWords = buffer.getInt();
+			if (fileLength(numVertices, degree, numWords) != length) {
+				throw new IOException("Exchange graph file " + file + " has the wrong length");
+			}
+			int keysBytes = keysBytes(numVertices, numWords);
+			LongBuffer keys = slice(buffer, HEADER_BYTES, keysBytes).asLongBuffer();
+			IntBuffer neighbours =
+					slice(buffer, HEADER_BYTES + keysBytes, numVertices * degree * 4).asIntBuffer();
+			return new ExchangeGraph(numVertices, degree, numWords, keys, neighbours);
+		} finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	private static ByteBuffer slice(final ByteBuffer buffer, final int start, final int length) {
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(start);
+		dup.limit(start + length);
+		return dup.slice();
+	}
+
+	private static int keysBytes(final int numVertices, final int numWords) {
+		return numVertices * numWords * 8;
+	}
+
+	private static long fileLength(final int numVertices, final int degree, final int numWords)
+			throws IOException {
+		long length = HEADER_BYTES + 8L * numVertices * numWords + 4L * numVertices * degree;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Exchange graph of " + numVertices + " vertices is too large to map");
+		}
+		return length;
+	}
+
+	/**
+	 * Get the index of a link from one vertex to another.
+	 */
+	private int linkTo(final int from, final int to) {
+		for (int i = 0; i < mDegree; i++) {
+			if (getNeighbour(from, i) == to) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Vertex " + to + " is not a neighbour of " + from);
+	}
+
+	/**
+	 * Breadth first search from {@code source}.
+	 * 
+	 * @param source Vertex to start from
+	 * @param dist Filled with the distance to each vertex, or -1 if not reached
+	 * @param queue Array to use as the queue, at least as long as the number of vertices
+	 * @param parent If not null, filled with the vertex each vertex was reached from
+	 * @return Largest distance found
+	 */
+	private int bfs(final int source, final int[] dist, final int[] queue, final int[] parent) {
+		Arrays.fill(dist, -1);
+		dist[source] = 0;
+		queue[0] = source;
+		int head = 0;
+		int tail = 1;
+		int max = 0;
+		while (head < tail) {
+			int vertex = queue[head++];
+			int d = dist[vertex] + 1;
+			for (int i = 0; i < mDegree; i++) {
+				int next = getNeighbour(vertex, i);
+				if (next != NO_NEIGHBOUR && dist[next] < 0) {
+					dist[next] = d;
+					max = d;
+					if (parent != null) {
+						parent[next] = vertex;
+					}
+					queue[tail++] = next;
+				}
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Run a query from every vertex, split between a number of threads.
+	 * 
+	 * @param numThreads Number of threads
+	 * @param factory Provides a query for each thread
+	 * @param sum true to add up the results, false to take the maximum
+	 * @return Combined result
+	 */
+	private long runParallel(final int numThreads, final VertexQueryFactory factory,
+			final boolean sum) throws Exception {
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("Need at least one thread, not " + numThreads);
+		}
+		final AtomicInteger next = new AtomicInteger(0);
+		ExecutorService exec =
+				Executors.newFixedThreadPool(numThreads, new NamingThreadFactory(getClass()
+						.getSimpleName()));
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>(numThreads);
+			for (int t = 0; t < numThreads; t++) {
+				final VertexQuery query = factory.newQuery();
+				futures.add(exec.submit(new Callable<Long>() {
+
+					@Override
+					public Long call() {
+						long result = 0;
+						int start;
+						while ((start = next.getAndAdd(CHUNK_SIZE)) < mNumVertices) {
+							int end = Math.min(start + CHUNK_SIZE, mNumVertices);
+							for (int v = start; v < end; v++) {
+								long value = query.query(v);
+								result = sum ? result + value : Math.max(result, value);
+							}
+						}
+						return result;
+					}
+				}));
+			}
+			long result = 0;
+			for (Future<Long> future : futures) {
+				long value = future.get();
+				result = sum ? result + value : Math.max(result, value);
+			}
+			return result;
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+
+	/** Provides a new query for each thread, holding that thread's working arrays. */
+	private interface VertexQueryFactory {
+		VertexQuery newQuery();
+	}
+
+	/** Query run from a single vertex. */
+	private interface VertexQuery {
+		long query(int vertex);
+	}
+
+	/** Finds the largest distance from a vertex. */
+	private class EccentricityQuery implements VertexQuery {
+
+		private final int[] mDist = new int[mNumVertices];
+		private final int[] mQueue = new int[mNumVertices];
+
+		@Override
+		public long query(final int vertex) {
+			return bfs(vertex, mDist, mQueue, null);
+		}
+	}
+
+	/** Counts the cycles whose smallest vertex is the start vertex, in both directions. */
+	private class CycleQuery implements VertexQuery {
+
+		private final int mLength;
+		private final boolean[] mOnPath = new boolean[mNumVertices];
+
+		CycleQuery(final int length) {
+			mLength = length;
+		}
+
+		@Override
+		public long query(final int vertex) {
+			mOnPath[vertex] = true;
+			long count = extend(vertex, vertex, 1);
+			mOnPath[vertex] = false;
+			return count;
+		}
+
+		/**
+		 * Count the ways to finish a cycle from the current end of the path.
+		 * 
+		 * @param start First vertex of the path, the smallest in the cycle
+		 * @param end Last vertex of the path
+		 * @param length Number of vertices in the path
+		 */
+		private long extend(final int start, final int end, final int length) {
+			long count = 0;
+			for (int i = 0; i < mDegree; i++) {
+				int next = getNeighbour(end, i);
+				if (next < start || next == end || isRepeatedLink(end, i, next)) {
+					continue;
+				}
+				if (next == start) {
+					if (length == mLength) {
+						count++;
+					}
+				} else if (length < mLength && !mOnPath[next]) {
+					mOnPath[next] = true;
+					count += extend(start, next, length + 1);
+					mOnPath[next] = false;
+				}
+			}
+			return count;
+		}
+
+		/** Check whether an earlier link of the vertex goes to the same neighbour. */
+		private boolean isRepeatedLink(final int vertex, final int index, final int neighbour) {
+			for (int j = 0; j < index; j++) {
+				if (getNeighbour(vertex, j) == neighbour) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
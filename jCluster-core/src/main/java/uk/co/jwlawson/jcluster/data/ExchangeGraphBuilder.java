@@ -0,0 +1,170 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ExchangeGraphBuilder.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the vertices and edges of an exchange graph while a mutation class is explored, then
+ * builds an {@link ExchangeGraph}.
+ * 
+ * <p>
+ * Each new key is given the next integer id, starting from 0. The keys are kept in id order in a
+ * single array, with an open addressing table of ids used to look them up.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class ExchangeGraphBuilder {
+
+	/** Smallest number of slots in the id table. */
+	private static final int MIN_CAPACITY = 16;
+	/** Maximum fraction of slots used before the id table is grown. */
+	private static final double MAX_LOAD = 0.5;
+
+	/** Number of longs in each key. */
+	private final int mNumWords;
+	/** Number of neighbours of each vertex. */
+	private final int mDegree;
+	/** Keys of the vertices in id order. */
+	private long[] mKeys;
+	/** Neighbours of the vertices in id order, {@code mDegree} for each vertex. */
+	private int[] mNeighbours;
+	/** Number of vertices added. */
+	private int mNumVertices;
+	/** Table of one more than the id of each key, with 0 marking an empty slot. */
+	private int[] mSlots;
+	/** Number of slots in the id table, always a power of two. */
+	private int mCapacity;
+
+	/**
+	 * Create a new builder.
+	 * 
+	 * @param numWords Number of longs in each key
+	 * @param degree Number of neighbours of each vertex
+	 * @param expectedSize Expected number of vertices, used to size the arrays
+	 */
+	public ExchangeGraphBuilder(final int numWords, final int degree, final int expectedSize) {
+		mNumWords = numWords;
+		mDegree = degree;
+		int size = Math.max(expectedSize, 1);
+		mKeys = new long[size * numWords];
+		mNeighbours = new int[size * degree];
+		Arrays.fill(mNeighbours, ExchangeGraph.NO_NEIGHBOUR);
+		mCapacity = MIN_CAPACITY;
+		while (mCapacity * MAX_LOAD < size) {
+			mCapacity *= 2;
+		}
+		mSlots = new int[mCapacity];
+	}
+
+	/**
+	 * Get the number of vertices added so far.
+	 * 
+	 * @return Number of vertices
+	 */
+	public int getNumVertices() {
+		return mNumVertices;
+	}
+
+	/**
+	 * Get the id of the vertex with the key, adding a new vertex if the key has not been seen.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return Id of the vertex
+	 */
+	public int getId(final long[] key, final int offset) {
+		int slot = findSlot(key, offset);
+		if (mSlots[slot] != 0) {
+			return mSlots[slot] - 1;
+		}
+		int id = mNumVertices++;
+		ensureVertexCapacity(mNumVertices);
+		System.arraycopy(key, offset, mKeys, id * mNumWords, mNumWords);
+		mSlots[slot] = id + 1;
+		if (mNumVertices > mCapacity * MAX_LOAD) {
+			growSlots();
+		}
+		return id;
+	}
+
+	/**
+	 * Set the neighbour of a vertex reached by mutating at {@code index}.
+	 * 
+	 * @param vertex Id of the vertex
+	 * @param index Index of the link
+	 * @param neighbour Id of the neighbouring vertex
+	 */
+	public void setNeighbour(final int vertex, final int index, final int neighbour) {
+		mNeighbours[vertex * mDegree + index] = neighbour;
+	}
+
+	/**
+	 * Build the graph from the vertices and edges added so far. The builder should not be used
+	 * afterwards.
+	 * 
+	 * @return New graph
+	 */
+	public ExchangeGraph build() {
+		long[] keys = Arrays.copyOf(mKeys, mNumVertices * mNumWords);
+		int[] neighbours = Arrays.copyOf(mNeighbours, mNumVertices * mDegree);
+		return new ExchangeGraph(mNumVertices, mDegree, mNumWords, LongBuffer.wrap(keys),
+				IntBuffer.wrap(neighbours));
+	}
+
+	private int findSlot(final long[] key, final int offset) {
+		int mask = mCapacity - 1;
+		int slot = (int) QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		while (mSlots[slot] != 0 && !equalAt(mSlots[slot] - 1, key, offset)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equalAt(final int id, final long[] key, final int offset) {
+		int start = id * mNumWords;
+		for (int w = 0; w < mNumWords; w++) {
+			if (mKeys[start + w] != key[offset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void ensureVertexCapacity(final int numVertices) {
+		if (numVertices * mNumWords > mKeys.length) {
+			int newSize = Math.max(numVertices, 2 * (mKeys.length / mNumWords));
+			mKeys = Arrays.copyOf(mKeys, newSize * mNumWords);
+			int oldLength = mNeighbours.length;
+			mNeighbours = Arrays.copyOf(mNeighbours, newSize * mDegree);
+			Arrays.fill(mNeighbours, oldLength, mNeighbours.length, ExchangeGraph.NO_NEIGHBOUR);
+		}
+	}
+
+	private void growSlots() {
+		mCapacity *= 2;
+		mSlots = new int[mCapacity];
+		for (int id = 0; id < mNumVertices; id++) {
+			int slot = findSlot(mKeys, id * mNumWords);
+			mSlots[slot] = id + 1;
+		}
+	}
+}
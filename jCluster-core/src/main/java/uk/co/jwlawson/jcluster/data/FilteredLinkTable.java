@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * FilteredLinkTable.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.IOException;
+
+/**
+ * {@link LinkTable} which keeps a small Bloom filter of the keys added in front of another table.
+ * Most quivers met at the edge of a search are new, and for those the filter usually answers that
+ * the key is not present from a single word, without probing the much larger table behind it. Only
+ * keys which might be present are looked up in the table, so the answers are always exact.
+ * 
+ * <p>
+ * The filter is blocked: each key sets {@link FilteredLinkTable#BITS_PER_KEY} bits of a single
+ * long, so a lookup touches one cache line. Keys removed from the table are not removed from the
+ * filter, which only costs a wasted lookup. Once more keys have been added than the filter was
+ * sized for it is rebuilt from the entries still in the table, sized for twice as many. As removed
+ * keys are dropped the filter shrinks again when most entries have been removed.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class FilteredLinkTable implements LinkTable {
+
+	/** Number of bits set in the filter for each key. */
+	public static final int BITS_PER_KEY = 4;
+
+	/** Bits of filter for each key it is sized for. */
+	private static final int FILTER_BITS_PER_KEY = 16;
+	/** Smallest number of words in the filter. */
+	private static final int MIN_WORDS = 16;
+	/** Added to the table hash so that the filter bits are independent of the table slot. */
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+
+	private final LinkTable mTable;
+	private final int mNumWords;
+
+	private long[] mFilter;
+	/** Number of keys which can be added before the filter is rebuilt. */
+	private int mCapacity;
+	/** Number of keys added since the filter was built. */
+	private int mAdded;
+
+	/**
+	 * Create a filter in front of {@code table}, which should be empty.
+	 * 
+	 * @param table Table to hold the entries
+	 * @param numWords Number of longs in each key
+	 * @param expectedSize Expected number of entries, used to size the filter
+	 */
+	public FilteredLinkTable(final LinkTable table, final int numWords, final int expectedSize) {
+		mTable = table;
+		mNumWords = numWords;
+		allocate(expectedSize);
+	}
+
+	@Override
+	public int size() {
+		return mTable.size();
+	}
+
+	/**
+	 * Check whether the key might be in the table, without looking in the table.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return false if the key is definitely not present
+	 */
+	public boolean mightContain(final long[] key, final int offset) {
+		long h = QuiverEncoder.mix(QuiverEncoder.hash(key, offset, mNumWords) + SEED);
+		long bits = bitsFor(h);
+		return (mFilter[(int) h & (mFilter.length - 1)] & bits) == bits;
+	}
+
+	@Override
+	public boolean contains(final long[] key, final int offset) {
+		return mightContain(key, offset) && mTable.contains(key, offset);
+	}
+
+	@Override
+	public long getLinks(final long[] key, final int offset) {
+		return mightContain(key, offset) ? mTable.getLinks(key, offset) : NO_ENTRY;
+	}
+
+	@Override
+	public boolean putIfAbsent(final long[] key, final int offset, final long links) {
+		if (!mTable.putIfAbsent(key, offset, links)) {
+			return false;
+		}
+		if (mAdded >= mCapacity) {
+			// Rebuilding adds every key in the table, including this one
+			rebuild();
+		} else {
+			add(key, offset);
+		}
+		return true;
+	}
+
+	@Override
+	public int setLinkAt(final long[] key, final int offset, final int index) {
+		return mightContain(key, offset) ? mTable.setLinkAt(key, offset, index) : NOT_FOUND;
+	}
+
+	@Override
+	public boolean remove(final long[] key, final int offset) {
+		return mightContain(key, offset) && mTable.remove(key, offset);
+	}
+
+	@Override
+	public Cursor cursor() {
+		return mTable.cursor();
+	}
+
+	@Override
+	public Snapshot snapshot() {
+		return mTable.snapshot();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mTable.close();
+	}
+
+	private void add(final long[] key, final int offset) {
+		long h = QuiverEncoder.mix(QuiverEncoder.hash(key, offset, mNumWords) + SEED);
+		mFilter[(int) h & (mFilter.length - 1)] |= bitsFor(h);
+		mAdded++;
+	}
+
+	/**
+	 * Bits to set in the word for the hash, taken from the high bits as the low bits pick the word.
+	 */
+	private static long bitsFor(final long h) {
+		return (1L << (h >>> 58)) | (1L << (h >>> 52)) | (1L << (h >>> 46)) | (1L << (h >>> 40));
+	}
+
+	/**
+	 * Get the number of words in the filter.
+	 * 
+	 * @return Size of the filter in longs
+	 */
+	int getFilterWords() {
+		return mFilter.length;
+	}
+
+	/**
+	 * Build a new filter, sized for twice the number of entries still in the table, from the keys
+	 * read in place from the table.
+	 */
+	private void rebuild() {
+		allocate(2 * mTable.size());
+		long[] key = new long[mNumWords];
+		Cursor cursor = mTable.cursor();
+		while (cursor.next()) {
+			cursor.getKey(key, 0);
+			add(key, 0);
+		}
+	}
+
+	private void allocate(final int capacity) {
+		int words = MIN_WORDS;
+		while ((long) words * 64 < (long) capacity * FILTER_BITS_PER_KEY && words < 1 << 30) {
+			words *= 2;
+		}
+		mFilter = new long[words];
+		mCapacity = (int) Math.min(Integer.MAX_VALUE, (long) words * 64 / FILTER_BITS_PER_KEY);
+		mAdded = 0;
+	}
+}
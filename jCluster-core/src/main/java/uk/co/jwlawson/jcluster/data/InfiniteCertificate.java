@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * InfiniteCertificate.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.util.Arrays;
+
+/**
+ * Proof that a quiver is mutation infinite, found by looking at its sub-quivers on three vertices
+ * rather than mutating it. Mutating a quiver at the vertices of a full sub-quiver mutates the
+ * sub-quiver in the same way, so if any sub-quiver is mutation infinite then so is the quiver.
+ * 
+ * <p>
+ * Two kinds of sub-quiver are recognised, both of rank 3 and connected:
+ * <ul>
+ * <li>a pair of vertices i, j with {@code |b_ij b_ji|} at least 5, together with any vertex joined
+ * to one of them. A connected skew-symmetrizable matrix of rank at least 3 is only mutation
+ * finite if every such product is at most 4 (Felikson, Shapiro and Tumarkin). For a quiver this is
+ * an arrow of weight at least 3. The third vertex is needed, as a pair on its own is always
+ * mutation finite;</li>
+ * <li>three vertices of a quiver spanning one of the mutation infinite quivers with weights at most
+ * 2. These are a path containing a double arrow, a triangle containing a double arrow which is not
+ * an oriented cycle, and an oriented cycle with weights 2, 2 and 1. All other connected quivers
+ * on three vertices with weights at most 2 are mutation finite: type A_3, the affine quiver with
+ * single arrows, the oriented cycles with weights 2, 1, 1 and the Markov quiver with weights 2, 2,
+ * 2.</li>
+ * </ul>
+ * Only the mutable vertices are looked at, and all triples are checked, so finding a certificate
+ * takes time cubic in the number of vertices.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class InfiniteCertificate {
+
+	/** Kinds of certificate. */
+	public enum Type {
+		/** A pair of vertices with too large a product of entries, joined to a third vertex. */
+		HEAVY_PAIR,
+		/** Three vertices of a quiver spanning a mutation infinite sub-quiver. */
+		TRIANGLE
+	}
+
+	/** Largest value of {@code |b_ij b_ji|} in a mutation finite matrix of rank at least 3. */
+	private static final int MAX_FINITE_PRODUCT = 4;
+
+	private final Type mType;
+	/** Vertices of the sub-quiver. */
+	private final int[] mVertices;
+	/** Entries b_01, b_02 and b_12 of the sub-quiver on the vertices, in their order. */
+	private final int[] mEntries;
+
+	private InfiniteCertificate(final Type type, final IntMatrix matrix, final int... vertices) {
+		mType = type;
+		mVertices = vertices;
+		mEntries = new int[3];
+		mEntries[0] = matrix.get(vertices[0], vertices[1]);
+		mEntries[1] = matrix.get(vertices[0], vertices[2]);
+		mEntries[2] = matrix.get(vertices[1], vertices[2]);
+	}
+
+	/**
+	 * Look for a certificate that the matrix is mutation infinite.
+	 * 
+	 * @param matrix Matrix to check
+	 * @return Certificate, or null if none is found, in which case the matrix may still be infinite
+	 */
+	public static InfiniteCertificate find(final IntMatrix matrix) {
+		int size = Math.min(matrix.getNumRows(), matrix.getNumCols());
+		if (size < 3) {
+			return null;
+		}
+		for (int i = 0; i < size; i++) {
+			for (int j = i + 1; j < size; j++) {
+				if (Math.abs(matrix.get(i, j) * matrix.get(j, i)) <= MAX_FINITE_PRODUCT) {
+					continue;
+				}
+				for (int k = 0; k < size; k++) {
+					if (k != i && k != j && (matrix.get(i, k) != 0 || matrix.get(j, k) != 0)) {
+						return new InfiniteCertificate(Type.HEAVY_PAIR, matrix, i, j, k);
+					}
+				}
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			for (int j = i + 1; j < size; j++) {
+				for (int k = j + 1; k < size; k++) {
+					if (isInfiniteTriangle(matrix, i, j, k)) {
+						return new InfiniteCertificate(Type.TRIANGLE, matrix, i, j, k);
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether the sub-quiver on three vertices is one of the mutation infinite quivers with
+	 * weights at most 2. Sub-matrices which are not skew-symmetric are never recognised.
+	 */
+	private static boolean isInfiniteTriangle(final IntMatrix matrix, final int i, final int j,
+			final int k) {
+		int ij = matrix.get(i, j);
+		int ik = matrix.get(i, k);
+		int jk = matrix.get(j, k);
+		if (matrix.get(j, i) != -ij || matrix.get(k, i) != -ik || matrix.get(k, j) != -jk) {
+			return false;
+		}
+		int a = Math.abs(ij);
+		int b = Math.abs(ik);
+		int c = Math.abs(jk);
+		if (a > 2 || b > 2 || c > 2) {
+			return false;
+		}
+		int arrows = (a == 0 ? 0 : 1) + (b == 0 ? 0 : 1) + (c == 0 ? 0 : 1);
+		if (arrows < 2) {
+			// Not connected
+			return false;
+		}
+		if (arrows == 2) {
+			// A path, which is of type A_3 with single arrows
+			return a + b + c > 2;
+		}
+		if (a == 1 && b == 1 && c == 1) {
+			return false;
+		}
+		// Oriented cycle i -> j -> k -> i or the reverse
+		boolean cyclic = (ij > 0) == (jk > 0) && (jk > 0) == (ik < 0);
+		if (!cyclic) {
+			return true;
+		}
+		int doubles = (a == 2 ? 1 : 0) + (b == 2 ? 1 : 0) + (c == 2 ? 1 : 0);
+		return doubles == 2;
+	}
+
+	/**
+	 * @return Kind of certificate
+	 */
+	public Type getType() {
+		return mType;
+	}
+
+	/**
+	 * Get the vertices of the sub-quiver which is mutation infinite. For a
+	 * {@link Type#HEAVY_PAIR} the first two are the pair.
+	 * 
+	 * @return Vertices of the sub-quiver
+	 */
+	public int[] getVertices() {
+		return mVertices.clone();
+	}
+
+	@Override
+	public String toString() {
+		return mType + " on vertices " + Arrays.toString(mVertices) + " with b_01, b_02, b_12 = "
+				+ Arrays.toString(mEntries);
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * KeyFileReader.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the keys written by a {@link KeyFileWriter} in order, through a single buffer so that all
+ * reads from the file are large and sequential.
+ * 
+ * <p>
+ * The current key is held in an array which is reused for each key, see
+ * {@link KeyFileReader#getKey()}.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class KeyFileReader implements Closeable {
+
+	/** Size of the buffer in bytes. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileInputStream mStream;
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+	private final int mNumWords;
+	private final long[] mKey;
+	private boolean mEnd;
+
+	/**
+	 * Create a new reader for {@code file}.
+	 * 
+	 * @param file File to read from
+	 * @param numWords Number of longs in each key
+	 * @throws IOException if the file cannot be opened
+	 */
+	public KeyFileReader(final File file, final int numWords) throws IOException {
+		mStream = new FileInputStream(file);
+		mChannel = mStream.getChannel();
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE - BUFFER_SIZE % (8 * numWords));
+		mBuffer.flip();
+		mNumWords = numWords;
+		mKey = new long[numWords];
+	}
+
+	/**
+	 * Move to the next key in the file.
+	 * 
+	 * @return true if there was another key, false at the end of the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean next() throws IOException {
+		if (mEnd) {
+			return false;
+		}
+		if (mBuffer.remaining() < 8 * mNumWords && !fill()) {
+			mEnd = true;
+			return false;
+		}
+		for (int w = 0; w < mNumWords; w++) {
+			mKey[w] = mBuffer.getLong();
+		}
+		return true;
+	}
+
+	/**
+	 * Get the current key. The array is overwritten by each call to {@link KeyFileReader#next()}.
+	 * 
+	 * @return Array holding the current key
+	 */
+	public long[] getKey() {
+		return mKey;
+	}
+
+	/**
+	 * Check whether the end of the file has been reached.
+	 * 
+	 * @return true once {@link KeyFileReader#next()} has returned false
+	 */
+	public boolean isFinished() {
+		return mEnd;
+	}
+
+	private boolean fill() throws IOException {
+		mBuffer.compact();
+		while (mBuffer.position() < 8 * mNumWords) {
+			if (mChannel.read(mBuffer) < 0) {
+				if (mBuffer.position() != 0) {
+					throw new EOFException("Key file ends part way through a key");
+				}
+				mBuffer.flip();
+				return false;
+			}
+		}
+		mBuffer.flip();
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mStream.close();
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * KeyFileWriter.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes fixed length quiver keys one after another to a file, through a single buffer so that all
+ * writes to the file are large and sequential. The file can be read back with a
+ * {@link KeyFileReader}.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class KeyFileWriter implements Closeable {
+
+	/** Size of the buffer in bytes. */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileOutputStream mStream;
+	private final FileChannel mChannel;
+	private final ByteBuffer mBuffer;
+	private final int mNumWords;
+	private long mCount;
+
+	/**
+	 * Create a new writer which overwrites {@code file}.
+	 * 
+	 * @param file File to write to
+	 * @param numWords Number of longs in each key
+	 * @throws IOException if the file cannot be opened
+	 */
+	public KeyFileWriter(final File file, final int numWords) throws IOException {
+		mStream = new FileOutputStream(file);
+		mChannel = mStream.getChannel();
+		mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE - BUFFER_SIZE % (8 * numWords));
+		mNumWords = numWords;
+	}
+
+	/**
+	 * Append a key to the file.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @throws IOException if the buffer cannot be written
+	 */
+	public void write(final long[] key, final int offset) throws IOException {
+		if (mBuffer.remaining() < 8 * mNumWords) {
+			flush();
+		}
+		for (int w = 0; w < mNumWords; w++) {
+			mBuffer.putLong(key[offset + w]);
+		}
+		mCount++;
+	}
+
+	/**
+	 * Get the number of keys written so far.
+	 * 
+	 * @return Number of keys
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	private void flush() throws IOException {
+		mBuffer.flip();
+		while (mBuffer.hasRemaining()) {
+			mChannel.write(mBuffer);
+		}
+		mBuffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mStream.close();
+		}
+	}
+}
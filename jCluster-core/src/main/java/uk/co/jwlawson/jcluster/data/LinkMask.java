@@ -0,0 +1,117 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * LinkMask.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe record of which mutations of a quiver have been considered. This plays the same role
+ * as {@link LinkHolder} but stores the links as bits in a single atomic long, so can be shared
+ * between threads without locking.
+ * 
+ * <p>
+ * Unlike {@link LinkHolder}, setting a link twice is allowed, as two threads can reach the same
+ * link from either end at the same time.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class LinkMask {
+
+	/** Maximum number of links which can be stored. */
+	public static final int MAX_SIZE = 64;
+
+	/** Bits set for each link considered. */
+	private final AtomicLong mLinks;
+	/** Value of the bits once all links are set. */
+	private final long mComplete;
+
+	/**
+	 * Create a new {@link LinkMask} with {@code size} number of links.
+	 * 
+	 * @param size Number of links
+	 * @throws IllegalArgumentException if size is larger than {@link LinkMask#MAX_SIZE}
+	 */
+	public LinkMask(final int size) {
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("LinkMask can hold at most " + MAX_SIZE + " links");
+		}
+		mLinks = new AtomicLong();
+		mComplete = size == MAX_SIZE ? -1L : (1L << size) - 1;
+	}
+
+	/**
+	 * Create a new {@link LinkMask} with {@code size} number of links with the link at
+	 * {@code index} already set.
+	 * 
+	 * @param size Number of links
+	 * @param index Index of link to set
+	 */
+	public LinkMask(final int size, final int index) {
+		this(size);
+		mLinks.set(1L << index);
+	}
+
+	/**
+	 * Check if the link at {@code index} has been considered.
+	 * 
+	 * @param index Index to check
+	 * @return true if the link has been set
+	 */
+	public boolean hasLink(final int index) {
+		return (mLinks.get() & (1L << index)) != 0;
+	}
+
+	/**
+	 * Set the link at {@code index}.
+	 * 
+	 * @param index Index to set
+	 * @return true if this call set the link, false if it was already set
+	 */
+	public boolean setLinkAt(final int index) {
+		long bit = 1L << index;
+		long old;
+		do {
+			old = mLinks.get();
+			if ((old & bit) != 0) {
+				return false;
+			}
+		} while (!mLinks.compareAndSet(old, old | bit));
+		return true;
+	}
+
+	/**
+	 * Check whether all links have been considered.
+	 * 
+	 * @return true if all links are set
+	 */
+	public boolean isComplete() {
+		return mLinks.get() == mComplete;
+	}
+
+	/**
+	 * Get the links as a bitmask, with bit {@code i} set if the link at {@code i} is set.
+	 * 
+	 * @return Bitmask of links
+	 */
+	public long getLinks() {
+		return mLinks.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LinkMask " + Long.toBinaryString(mLinks.get());
+	}
+}
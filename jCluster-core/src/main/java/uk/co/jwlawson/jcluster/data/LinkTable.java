@@ -0,0 +1,181 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * LinkTable.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Table from fixed length quiver keys to a bitmask of which mutations of that quiver have been
+ * considered.
+ * 
+ * <p>
+ * Keys are passed as an array and offset, so that no objects are needed to look them up. The first
+ * word of a key must never be 0 or 1, which is true for keys from {@link QuiverEncoder} and
+ * {@link QuiverCanonicaliser}.
+ * 
+ * @author John Lawson
+ * 
+ */
+public interface LinkTable extends Closeable {
+
+	/** Returned by {@link LinkTable#getLinks(long[], int)} if the key is not present. */
+	long NO_ENTRY = -1L;
+	/** Returned by {@link LinkTable#setLinkAt(long[], int, int)} if the key is not present. */
+	int NOT_FOUND = 0;
+	/** Returned by {@link LinkTable#setLinkAt(long[], int, int)} if the entry is still present. */
+	int LINK_SET = 1;
+	/**
+	 * Returned by {@link LinkTable#setLinkAt(long[], int, int)} if the entry became complete and
+	 * was removed.
+	 */
+	int COMPLETED = 2;
+
+	/**
+	 * Get the number of entries in the table.
+	 * 
+	 * @return Number of entries
+	 */
+	int size();
+
+	/**
+	 * Check whether the key is in the table.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return true if the key is present
+	 */
+	boolean contains(long[] key, int offset);
+
+	/**
+	 * Get the links stored for the key.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return Bitmask of links, or {@link LinkTable#NO_ENTRY} if the key is not present
+	 */
+	long getLinks(long[] key, int offset);
+
+	/**
+	 * Add the key with the given links if it is not already present.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @param links Bitmask of links to store
+	 * @return true if the key was added
+	 */
+	boolean putIfAbsent(long[] key, int offset, long links);
+
+	/**
+	 * Set the link at {@code index} for the key. If this means that all links of the entry are set
+	 * and the table removes complete entries then the entry is removed.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @param index Index of the link to set
+	 * @return {@link LinkTable#NOT_FOUND}, {@link LinkTable#LINK_SET} or
+	 *         {@link LinkTable#COMPLETED}
+	 */
+	int setLinkAt(long[] key, int offset, int index);
+
+	/**
+	 * Remove the key from the table.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return true if the key was present
+	 */
+	boolean remove(long[] key, int offset);
+
+	/**
+	 * Get a cursor which reads the entries in place, in no particular order. The table must not be
+	 * changed while the cursor is in use. Use {@link LinkTable#snapshot()} to read the entries on
+	 * another thread.
+	 * 
+	 * @return Cursor before the first entry
+	 */
+	Cursor cursor();
+
+	/**
+	 * Take a snapshot of the entries which can be written out on another thread while this table
+	 * carries on being used. Nothing is copied when the snapshot is taken. Instead the table copies
+	 * the parts it changes before the snapshot has been written, so saving a large table does not
+	 * pause the thread using it. Only one snapshot can be open at a time.
+	 * 
+	 * @return Snapshot of the table as it is now
+	 * @throws IllegalStateException if the previous snapshot has not been closed
+	 */
+	Snapshot snapshot();
+
+	/**
+	 * Reads the entries of a {@link LinkTable} one at a time, without copying the table.
+	 */
+	interface Cursor {
+
+		/**
+		 * Move to the next entry.
+		 * 
+		 * @return false if there are no more entries
+		 */
+		boolean next();
+
+		/**
+		 * Copy the key of the current entry.
+		 * 
+		 * @param dest Array to copy the key into
+		 * @param offset Index to copy the first word of the key to
+		 */
+		void getKey(long[] dest, int offset);
+
+		/**
+		 * Get the links of the current entry.
+		 * 
+		 * @return Bitmask of links
+		 */
+		long getLinks();
+	}
+
+	/**
+	 * Entries of a {@link LinkTable} at the time {@link LinkTable#snapshot()} was called. The
+	 * snapshot can be used on a different thread to the table. It should be closed once written, so
+	 * the table stops copying the parts it changes.
+	 */
+	interface Snapshot extends Closeable {
+
+		/**
+		 * Get the number of entries in the snapshot.
+		 * 
+		 * @return Number of entries
+		 */
+		long size();
+
+		/**
+		 * Write every entry, the key followed by its links, as longs. Exactly {@code size()}
+		 * entries are written, which can be put back into a table using
+		 * {@link LinkTable#putIfAbsent(long[], int, long)}. This can only be called once.
+		 * 
+		 * @param out Output to write to
+		 * @throws IOException if the output cannot be written
+		 */
+		void writeTo(DataOutput out) throws IOException;
+
+		/**
+		 * Release the snapshot.
+		 */
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,390 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MappedLinkTable.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LinkTable} stored off the heap in a memory mapped file, for mutation classes which are too
+ * large to keep on the heap.
+ * 
+ * <p>
+ * The file is laid out in the same way as the array in {@link QuiverLinkTable}, as an open
+ * addressing table of slots holding a key followed by its links. The file is split into several
+ * mappings, as each mapping can hold at most 2GB. The operating system decides which parts of the
+ * file are kept in memory, so the table keeps working when it is larger than the available memory,
+ * only more slowly.
+ * 
+ * <p>
+ * When the table needs to grow a new file of twice the size is created and mapped, every entry is
+ * copied into it and the old file is deleted. The file is deleted when the table is closed.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class MappedLinkTable implements LinkTable {
+
+	/** Smallest number of slots in the table. */
+	private static final long MIN_CAPACITY = 1 << 12;
+	/** Maximum fraction of slots used, including removed slots, before the table is grown. */
+	private static final double MAX_LOAD = 0.5;
+	/** Largest number of bytes in a single mapping. */
+	private static final long MAX_MAPPING_BYTES = 1L << 30;
+	/** Value of the first word of a slot whose entry has been removed. */
+	private static final long REMOVED = 1L;
+
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/** Directory to create the files in. */
+	private final File mDirectory;
+	/** Number of longs in each key. */
+	private final int mNumWords;
+	/** Number of longs in each slot, the key followed by the links. */
+	private final int mStride;
+	/** Links value once every link is set. */
+	private final long mComplete;
+	/** True if entries are removed once complete. */
+	private final boolean mRemoveComplete;
+
+	/** File currently holding the table. */
+	private File mFile;
+	/** Mapped sections of the file. */
+	private LongBuffer[] mSegments;
+	/** Base 2 log of the number of slots in each segment. */
+	private int mSegmentShift;
+	/** Number of slots in the table. */
+	private long mCapacity;
+	/** Number of slots which are in use or have been removed. */
+	private long mUsed;
+	/** Number of entries in the table. */
+	private int mSize;
+	/** Snapshot which the table copies slots to before changing them, or null. */
+	private MappedSnapshot mSnapshot;
+
+	/**
+	 * Create a new table with its file in {@code directory}.
+	 * 
+	 * @param directory Directory to create the file in
+	 * @param numWords Number of longs in each key
+	 * @param numLinks Number of links for each entry, at most 63
+	 * @param expectedSize Expected number of entries, used to size the table
+	 * @param removeComplete true if entries should be removed once all links are set
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public MappedLinkTable(final File directory, final int numWords, final int numLinks,
+			final long expectedSize, final boolean removeComplete) throws IOException {
+		if (numLinks > 63) {
+			throw new IllegalArgumentException("At most 63 links can be stored, not " + numLinks);
+		}
+		mDirectory = directory;
+		mNumWords = numWords;
+		mStride = numWords + 1;
+		mComplete = (1L << numLinks) - 1;
+		mRemoveComplete = removeComplete;
+		long capacity = MIN_CAPACITY;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity *= 2;
+		}
+		map(capacity);
+	}
+
+	/**
+	 * Create a new file with {@code capacity} slots and map it.
+	 */
+	private void map(final long capacity) throws IOException {
+		long slotsPerSegment = Long.highestOneBit(MAX_MAPPING_BYTES / (8L * mStride));
+		slotsPerSegment = Math.min(slotsPerSegment, capacity);
+		int numSegments = (int) (capacity / slotsPerSegment);
+		long segmentBytes = slotsPerSegment * mStride * 8L;
+
+		File file = File.createTempFile("links", ".map", mDirectory);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+			LongBuffer[] segments = new LongBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				// Mapping past the end of the file extends it with zeros, which are empty slots
+				segments[s] = channel.map(MapMode.READ_WRITE, s * segmentBytes, segmentBytes)
+						.asLongBuffer();
+			}
+			mSegments = segments;
+		} finally {
+			// The mappings stay valid once the file is closed
+			raf.close();
+		}
+		mFile = file;
+		mCapacity = capacity;
+		mSegmentShift = Long.numberOfTrailingZeros(slotsPerSegment);
+		mUsed = 0;
+		log.debug("Mapped {} slots in {}", capacity, file);
+	}
+
+	@Override
+	public int size() {
+		return mSize;
+	}
+
+	@Override
+	public boolean contains(final long[] key, final int offset) {
+		return find(key, offset) >= 0;
+	}
+
+	@Override
+	public long getLinks(final long[] key, final int offset) {
+		long slot = find(key, offset);
+		return slot < 0 ? NO_ENTRY : get(slot, mNumWords);
+	}
+
+	@Override
+	public boolean putIfAbsent(final long[] key, final int offset, final long links) {
+		if (contains(key, offset)) {
+			return false;
+		}
+		if (mUsed + 1 > mCapacity * MAX_LOAD) {
+			grow();
+		}
+		insert(key, offset, links);
+		mSize++;
+		return true;
+	}
+
+	@Override
+	public int setLinkAt(final long[] key, final int offset, final int index) {
+		long slot = find(key, offset);
+		if (slot < 0) {
+			return NOT_FOUND;
+		}
+		long links = get(slot, mNumWords) | (1L << index);
+		beforeWrite(slot);
+		if (links == mComplete && mRemoveComplete) {
+			set(slot, 0, REMOVED);
+			mSize--;
+			return COMPLETED;
+		}
+		set(slot, mNumWords, links);
+		return LINK_SET;
+	}
+
+	@Override
+	public boolean remove(final long[] key, final int offset) {
+		long slot = find(key, offset);
+		if (slot < 0) {
+			return false;
+		}
+		beforeWrite(slot);
+		set(slot, 0, REMOVED);
+		mSize--;
+		return true;
+	}
+
+	@Override
+	public Cursor cursor() {
+		return new Cursor() {
+
+			private long mSlot = -1;
+
+			@Override
+			public boolean next() {
+				while (++mSlot < mCapacity) {
+					long first = get(mSlot, 0);
+					if (first != 0 && first != REMOVED) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public void getKey(final long[] dest, final int offset) {
+				for (int w = 0; w < mNumWords; w++) {
+					dest[offset + w] = get(mSlot, w);
+				}
+			}
+
+			@Override
+			public long getLinks() {
+				return get(mSlot, mNumWords);
+			}
+		};
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * The snapshot reads the slots straight from the mapped file. If the table grows while the
+	 * snapshot is open the old mapping is kept until the snapshot is closed, though the old file is
+	 * still deleted.
+	 */
+	@Override
+	public Snapshot snapshot() {
+		if (mSnapshot != null && !mSnapshot.isClosed()) {
+			throw new IllegalStateException("The previous snapshot has not been closed");
+		}
+		mSnapshot = new MappedSnapshot();
+		return mSnapshot;
+	}
+
+	/**
+	 * Let the snapshot, if there is one, copy the slot before it is changed. Once the table has
+	 * grown the snapshot no longer shares any slots with it.
+	 */
+	private void beforeWrite(final long slot) {
+		if (mSnapshot != null) {
+			if (mSnapshot.isClosed() || mSnapshot.mSnapshotSegments != mSegments) {
+				mSnapshot = null;
+			} else {
+				mSnapshot.beforeWrite(0, slot);
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		mSegments = null;
+		if (mFile != null && !mFile.delete()) {
+			log.warn("Unable to delete {}", mFile);
+		}
+		mFile = null;
+	}
+
+	/**
+	 * Find the slot containing the key.
+	 * 
+	 * @return Index of the slot, or -1 if not present
+	 */
+	private long find(final long[] key, final int offset) {
+		long mask = mCapacity - 1;
+		long slot = QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		while (true) {
+			long first = get(slot, 0);
+			if (first == 0) {
+				return -1;
+			}
+			if (first != REMOVED && equalAt(slot, key, offset)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Put a key which is known not to be present into the first free slot.
+	 */
+	private void insert(final long[] key, final int offset, final long links) {
+		long mask = mCapacity - 1;
+		long slot = QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		long first;
+		while ((first = get(slot, 0)) != 0 && first != REMOVED) {
+			slot = (slot + 1) & mask;
+		}
+		if (first == 0) {
+			mUsed++;
+		}
+		beforeWrite(slot);
+		for (int w = 0; w < mNumWords; w++) {
+			set(slot, w, key[offset + w]);
+		}
+		set(slot, mNumWords, links);
+	}
+
+	private boolean equalAt(final long slot, final long[] key, final int offset) {
+		for (int w = 0; w < mNumWords; w++) {
+			if (get(slot, w) != key[offset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Map a new file twice the size and copy every entry into it. Removed slots are dropped.
+	 */
+	private void grow() {
+		LongBuffer[] oldSegments = mSegments;
+		int oldShift = mSegmentShift;
+		long oldCapacity = mCapacity;
+		File oldFile = mFile;
+		long newCapacity = mSize + 1 > oldCapacity * MAX_LOAD / 2 ? oldCapacity * 2 : oldCapacity;
+		try {
+			map(newCapacity);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to grow mapped link table", e);
+		}
+		long[] entry = new long[mStride];
+		long slotMask = (1L << oldShift) - 1;
+		for (long slot = 0; slot < oldCapacity; slot++) {
+			LongBuffer segment = oldSegments[(int) (slot >>> oldShift)];
+			int start = (int) ((slot & slotMask) * mStride);
+			long first = segment.get(start);
+			if (first != 0 && first != REMOVED) {
+				for (int w = 0; w < mStride; w++) {
+					entry[w] = segment.get(start + w);
+				}
+				insert(entry, 0, entry[mNumWords]);
+			}
+		}
+		if (!oldFile.delete()) {
+			log.warn("Unable to delete {}", oldFile);
+		}
+	}
+
+	private long get(final long slot, final int word) {
+		return mSegments[(int) (slot >>> mSegmentShift)].get(index(slot, word));
+	}
+
+	private void set(final long slot, final int word, final long value) {
+		mSegments[(int) (slot >>> mSegmentShift)].put(index(slot, word), value);
+	}
+
+	private int index(final long slot, final int word) {
+		return (int) ((slot & ((1L << mSegmentShift) - 1)) * mStride) + word;
+	}
+
+	/**
+	 * Snapshot of the mappings of the table when it was taken. The segments are read with absolute
+	 * gets, which are safe alongside the table writing to other slots.
+	 */
+	private class MappedSnapshot extends CopyOnWriteSnapshot {
+
+		private final LongBuffer[] mSnapshotSegments = mSegments;
+		private final int mShift = mSegmentShift;
+
+		MappedSnapshot() {
+			super(mStride, mSize, mCapacity);
+		}
+
+		@Override
+		protected void copySlots(final int region, final long first, final int count,
+				final long[] dest) {
+			LongBuffer segment = mSnapshotSegments[(int) (first >>> mShift)];
+			int start = (int) ((first & ((1L << mShift) - 1)) * mStride);
+			for (int i = 0; i < count * mStride; i++) {
+				dest[i] = segment.get(start + i);
+			}
+		}
+	}
+}
@@ -36,6 +36,10 @@ public class MatrixInfo {
 	private Optional<DynkinDiagram> diagram = Optional.absent();
 	/** Whether all submatrices are finite. */
 	private Optional<Boolean> submatricesFinite = Optional.absent();
+	/** Estimate of the size of the mutation class up to reordering rows and columns. */
+	private Optional<SizeEstimate> equivMutSizeEstimate = Optional.absent();
+	/** Certificate that the matrix is mutation infinite. */
+	private Optional<InfiniteCertificate> infiniteCertificate = Optional.absent();
 
 	/**
 	 * Create a new MatrixInfo for the provided matrix.
@@ -188,6 +192,65 @@ public class MatrixInfo {
 		return equivMutSize.get();
 	}
 
+	/**
+	 * Check whether an estimate of the size of the mutation class up to reordering rows and columns
+	 * has been set.
+	 * 
+	 * @return true if the estimate has been set
+	 */
+	public boolean hasEquivMutationClassSizeEstimate() {
+		return equivMutSizeEstimate.isPresent();
+	}
+
+	/**
+	 * Set an estimate of the size of the mutation class up to reordering rows and columns. As this
+	 * is only an estimate it does not show that the matrix is mutation finite.
+	 * 
+	 * @param estimate Estimate of the size
+	 */
+	public void setEquivMutationClassSizeEstimate(final SizeEstimate estimate) {
+		this.equivMutSizeEstimate = Optional.of(estimate);
+	}
+
+	/**
+	 * Get the estimate of the size of the mutation class up to reordering rows and columns.
+	 * 
+	 * @return Estimate of the size
+	 * @throws IllegalStateException if the estimate has not been set
+	 */
+	public SizeEstimate getEquivMutationClassSizeEstimate() {
+		return equivMutSizeEstimate.get();
+	}
+
+	/**
+	 * Check whether a certificate that the matrix is mutation infinite has been set.
+	 * 
+	 * @return true if the certificate has been set
+	 */
+	public boolean hasInfiniteCertificate() {
+		return infiniteCertificate.isPresent();
+	}
+
+	/**
+	 * Set a certificate that the matrix is mutation infinite. This also sets the matrix as infinite.
+	 * 
+	 * @param certificate Certificate that the matrix is infinite
+	 */
+	public void setInfiniteCertificate(final InfiniteCertificate certificate) {
+		this.infiniteCertificate = Optional.of(certificate);
+		setFinite(false);
+	}
+
+	/**
+	 * Get the certificate that the matrix is mutation infinite.
+	 * 
+	 * @return Certificate that the matrix is infinite
+	 * @throws IllegalStateException if the certificate has not been set
+	 */
+	public InfiniteCertificate getInfiniteCertificate() {
+		return infiniteCertificate.get();
+	}
+
 	/**
 	 * Check whether it is known that the matrix is minimally mutation infinite.
 	 * 
@@ -298,6 +361,12 @@ public class MatrixInfo {
 		if (!hasAllSubmatricesFinite() && info.hasAllSubmatricesFinite()) {
 			noSideSetAllSubmatricesFinite(info.getAllSubmatricesFinite());
 		}
+		if (!hasEquivMutationClassSizeEstimate() && info.hasEquivMutationClassSizeEstimate()) {
+			setEquivMutationClassSizeEstimate(info.getEquivMutationClassSizeEstimate());
+		}
+		if (!hasInfiniteCertificate() && info.hasInfiniteCertificate()) {
+			infiniteCertificate = Optional.of(info.getInfiniteCertificate());
+		}
 	}
 
 	/**
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationClassRegistry.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Records which quivers are known to be in the same mutation class, so that once one class has
+ * been explored any of its members can be looked up rather than explored again.
+ * 
+ * <p>
+ * Quivers are identified by their {@link QuiverCanonicaliser} keys, so equivalent quivers are the
+ * same entry. The entries are joined into classes by a lock free union-find, where each class is
+ * a tree of entries whose root holds what is known about the class. Once the class of a quiver has
+ * been fully explored its size and finiteness can be read in constant time from any member.
+ * 
+ * <p>
+ * Every quiver registered is kept until {@link #clear()} is called, so the memory used grows with
+ * the number of quivers seen. A single registry is shared by the whole process through
+ * {@link #getShared()}, and all methods are thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class MutationClassRegistry {
+
+	/** Updater used to change the parent of a node atomically. */
+	private static final AtomicReferenceFieldUpdater<Node, Node> PARENT =
+			AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "mParent");
+	/** Registry shared by all tasks. */
+	private static final MutationClassRegistry SHARED = new MutationClassRegistry();
+
+	/** Entry for each key registered. */
+	private final ConcurrentMap<Key, Node> mNodes;
+	/** Source of node ids, which order the nodes when joining classes. */
+	private final AtomicLong mNextId;
+
+	/**
+	 * Create a new empty registry.
+	 */
+	public MutationClassRegistry() {
+		mNodes = new ConcurrentHashMap<Key, Node>();
+		mNextId = new AtomicLong();
+	}
+
+	/**
+	 * Get the registry shared by all tasks in this process.
+	 * 
+	 * @return Shared registry
+	 */
+	public static MutationClassRegistry getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Get the number of quivers registered, up to equivalence.
+	 * 
+	 * @return Number of quivers registered
+	 */
+	public int size() {
+		return mNodes.size();
+	}
+
+	/**
+	 * Remove every quiver from the registry.
+	 */
+	public void clear() {
+		mNodes.clear();
+	}
+
+	/**
+	 * Record that two quivers are in the same mutation class.
+	 * 
+	 * @param rows Number of rows of the quivers
+	 * @param cols Number of columns of the quivers
+	 * @param a Array containing the key of the first quiver
+	 * @param aOffset Index of the first word of the first key
+	 * @param b Array containing the key of the second quiver
+	 * @param bOffset Index of the first word of the second key
+	 */
+	public void union(final int rows, final int cols, final long[] a, final int aOffset,
+			final long[] b, final int bOffset) {
+		Node x = getNode(rows, cols, a, aOffset);
+		Node y = getNode(rows, cols, b, bOffset);
+		while (true) {
+			x = find(x);
+			y = find(y);
+			if (x == y) {
+				return;
+			}
+			if (x.mId > y.mId) {
+				Node tmp = x;
+				x = y;
+				y = tmp;
+			}
+			// Always link the root with the smaller id below the other, so no cycles can form
+			if (PARENT.compareAndSet(x, x, y)) {
+				if (y.mInfo == null && x.mInfo != null) {
+					y.mInfo = x.mInfo;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Record what is known about the whole mutation class of a quiver, once it has been explored.
+	 * 
+	 * @param rows Number of rows of the quiver
+	 * @param cols Number of columns of the quiver
+	 * @param key Array containing the key of the quiver
+	 * @param offset Index of the first word of the key
+	 * @param info Information about the class, which should only contain properties shared by
+	 *        every quiver in the class
+	 */
+	public void setClassInfo(final int rows, final int cols, final long[] key, final int offset,
+			final MatrixInfo info) {
+		Node root = find(getNode(rows, cols, key, offset));
+		root.mInfo = info;
+		// The root may have been linked below another while setting the info
+		Node newRoot = find(root);
+		if (newRoot != root && newRoot.mInfo == null) {
+			newRoot.mInfo = info;
+		}
+	}
+
+	/**
+	 * Look up what is known about the mutation class of a quiver.
+	 * 
+	 * @param rows Number of rows of the quiver
+	 * @param cols Number of columns of the quiver
+	 * @param key Array containing the key of the quiver
+	 * @param offset Index of the first word of the key
+	 * @return Information about the class, or null if the class of the quiver has not been explored
+	 */
+	public MatrixInfo getClassInfo(final int rows, final int cols, final long[] key,
+			final int offset) {
+		Node node = mNodes.get(new Key(rows, cols, key, offset));
+		if (node == null) {
+			return null;
+		}
+		return find(node).mInfo;
+	}
+
+	/**
+	 * Look up what is known about the mutation class of a matrix, copied into a new
+	 * {@link MatrixInfo} for that matrix. Nothing is known about a matrix with entries too large
+	 * for a {@link QuiverEncoder}.
+	 * 
+	 * @param matrix Matrix to look up
+	 * @return Information about the class of the matrix, or null if not known
+	 */
+	public MatrixInfo getInfo(final QuiverMatrix matrix) {
+		if (!canEncode(matrix)) {
+			return null;
+		}
+		int rows = matrix.getNumRows();
+		int cols = matrix.getNumCols();
+		long[] key = new long[QuiverCanonicaliser.KEY_WORDS];
+		new QuiverCanonicaliser(rows, cols).getKey(matrix, key, 0, null);
+		MatrixInfo classInfo = getClassInfo(rows, cols, key, 0);
+		if (classInfo == null) {
+			return null;
+		}
+		MatrixInfo result = new MatrixInfo(matrix);
+		if (classInfo.hasFiniteSet()) {
+			result.setFinite(classInfo.isFinite());
+		}
+		if (classInfo.hasEquivMutationClassSize()) {
+			result.setEquivMutationClassSize(classInfo.getEquivMutationClassSize());
+		}
+		return result;
+	}
+
+	/**
+	 * Record what is known about the whole mutation class of a matrix. Nothing is recorded for a
+	 * matrix with entries too large for a {@link QuiverEncoder}, as it has no key. Such a matrix is
+	 * infinite, which can be seen from the matrix itself.
+	 * 
+	 * @param matrix Matrix in the class
+	 * @param info Information about the class, which should only contain properties shared by
+	 *        every quiver in the class
+	 */
+	public void setInfo(final QuiverMatrix matrix, final MatrixInfo info) {
+		if (!canEncode(matrix)) {
+			return;
+		}
+		long[] key = new long[QuiverCanonicaliser.KEY_WORDS];
+		new QuiverCanonicaliser(matrix.getNumRows(), matrix.getNumCols()).getKey(matrix, key, 0,
+				null);
+		setClassInfo(matrix.getNumRows(), matrix.getNumCols(), key, 0, info);
+	}
+
+	private static boolean canEncode(final QuiverMatrix matrix) {
+		return new QuiverEncoder(matrix.getNumRows(), matrix.getNumCols()).canEncode(matrix);
+	}
+
+	private Node getNode(final int rows, final int cols, final long[] key, final int offset) {
+		Key k = new Key(rows, cols, key, offset);
+		Node node = mNodes.get(k);
+		if (node == null) {
+			Node created = new Node(mNextId.getAndIncrement());
+			node = mNodes.putIfAbsent(k, created);
+			if (node == null) {
+				node = created;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Find the root of the tree containing the node, halving the path on the way.
+	 */
+	private static Node find(final Node node) {
+		Node x = node;
+		while (true) {
+			Node parent = x.mParent;
+			if (parent == x) {
+				return x;
+			}
+			Node grandparent = parent.mParent;
+			PARENT.compareAndSet(x, parent, grandparent);
+			x = grandparent;
+		}
+	}
+
+	/** Entry in the union-find forest. */
+	private static class Node {
+
+		private final long mId;
+		/** Parent in the tree, or this node if a root. Not private so the updater can reach it. */
+		volatile Node mParent;
+		/** What is known about the class, only read from roots. */
+		private volatile MatrixInfo mInfo;
+
+		Node(final long id) {
+			mId = id;
+			mParent = this;
+		}
+	}
+
+	/** Key of a quiver along with its size, as keys of different sized quivers can be equal. */
+	private static class Key {
+
+		private final int mRows;
+		private final int mCols;
+		private final long mFirst;
+		private final long mSecond;
+
+		Key(final int rows, final int cols, final long[] key, final int offset) {
+			mRows = rows;
+			mCols = cols;
+			mFirst = key[offset];
+			mSecond = key[offset + 1];
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key rhs = (Key) obj;
+			return mFirst == rhs.mFirst && mSecond == rhs.mSecond && mRows == rhs.mRows
+					&& mCols == rhs.mCols;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = QuiverEncoder.mix(mFirst * 31 + mSecond) + mRows * 131 + mCols;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
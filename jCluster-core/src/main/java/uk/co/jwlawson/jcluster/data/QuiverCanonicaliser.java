@@ -0,0 +1,353 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverCanonicaliser.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Computes a key for a quiver which is the same for any two quivers which are equivalent up to
+ * permuting their vertices, in the same sense as {@link EquivQuiverMatrix}.
+ * 
+ * <p>
+ * The canonical form of a square matrix is the smallest matrix which can be reached by permuting
+ * its rows and columns, where matrices are compared shell by shell: first the top left entry, then
+ * the entries in the second row and column with index at most 1 and so on. Only permutations which
+ * order the vertices by a colour refinement of the quiver are considered, and vertices which can be
+ * swapped without changing the quiver are only tried once, so the search is usually very small.
+ * 
+ * <p>
+ * The key is 128 bits long. If the canonical matrix fits in two words of a {@link QuiverEncoder}
+ * then the key is exactly that encoding, otherwise it is a 128 bit hash of the encoding. Matrices
+ * which are not square can only be equivalent if they are equal, so their key is computed from the
+ * matrix itself.
+ * 
+ * <p>
+ * This is not thread safe, as it holds arrays used during the search.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class QuiverCanonicaliser {
+
+	/** Number of longs in each key. */
+	public static final int KEY_WORDS = 2;
+
+	/** Rows in the matrices. */
+	private final int mRows;
+	/** Columns in the matrices. */
+	private final int mCols;
+	/** Number of vertices which can be permuted. */
+	private final int mSize;
+	/** Encoder for the canonical matrices. */
+	private final QuiverEncoder mEncoder;
+	/** Encoding of the canonical matrix. */
+	private final long[] mEncoded;
+	/** Matrix holding the canonical form. */
+	private final QuiverMatrix mCanonical;
+
+	/** Matrix currently being canonicalised. */
+	private IntMatrix mMatrix;
+	/** Colour of each vertex. */
+	private final int[] mColour;
+	/** Colour which must be placed at each position. */
+	private final int[] mPositionColour;
+	/** Smallest vertex which can be swapped with each vertex without changing the quiver. */
+	private final int[] mTwin;
+	/** Vertex placed at each position in the current branch of the search. */
+	private final int[] mPerm;
+	/** Vertex placed at each position in the best permutation found. */
+	private final int[] mBestPerm;
+	/** True if the vertex is placed in the current branch. */
+	private final boolean[] mPlaced;
+	/** Entries of the best matrix found, in shell order. */
+	private final int[] mBest;
+	/** True once any permutation has been found. */
+	private boolean mHaveBest;
+
+	/**
+	 * Create a new instance for matrices of the given size.
+	 * 
+	 * @param rows Number of rows
+	 * @param cols Number of columns
+	 */
+	public QuiverCanonicaliser(final int rows, final int cols) {
+		mRows = rows;
+		mCols = cols;
+		mSize = rows == cols ? rows : 0;
+		mEncoder = new QuiverEncoder(rows, cols);
+		mEncoded = new long[Math.max(KEY_WORDS, mEncoder.getNumWords())];
+		mCanonical = new QuiverMatrix(rows, cols);
+		mColour = new int[mSize];
+		mPositionColour = new int[mSize];
+		mTwin = new int[mSize];
+		mPerm = new int[mSize];
+		mBestPerm = new int[mSize];
+		mPlaced = new boolean[mSize];
+		mBest = new int[mSize * mSize];
+	}
+
+	/**
+	 * Compute the key of the matrix.
+	 * 
+	 * @param matrix Matrix to compute the key of
+	 * @param dest Array to write the {@link QuiverCanonicaliser#KEY_WORDS} words of the key to
+	 * @param offset Index of the first word to write
+	 * @param vertexMap If not null, filled with the position of each vertex in the canonical matrix
+	 */
+	public void getKey(final IntMatrix matrix, final long[] dest, final int offset,
+			final int[] vertexMap) {
+		if (matrix.getNumRows() != mRows || matrix.getNumCols() != mCols) {
+			throw new IllegalArgumentException("Expected a " + mRows + "x" + mCols + " matrix, not "
+					+ matrix);
+		}
+		if (mSize == 0) {
+			mEncoder.encode(matrix, mEncoded, 0);
+			if (vertexMap != null) {
+				for (int i = 0; i < Math.min(mRows, mCols); i++) {
+					vertexMap[i] = i;
+				}
+			}
+		} else {
+			canonicalise(matrix);
+			for (int a = 0; a < mSize; a++) {
+				for (int b = 0; b < mSize; b++) {
+					mCanonical.unsafeSet(a, b, matrix.unsafeGet(mBestPerm[a], mBestPerm[b]));
+				}
+				if (vertexMap != null) {
+					vertexMap[mBestPerm[a]] = a;
+				}
+			}
+			mCanonical.reset();
+			mEncoder.encode(mCanonical, mEncoded, 0);
+		}
+		int numWords = mEncoder.getNumWords();
+		if (numWords <= KEY_WORDS) {
+			for (int w = 0; w < KEY_WORDS; w++) {
+				dest[offset + w] = w < numWords ? mEncoded[w] : 0;
+			}
+		} else {
+			// Top bit is set so that the key is never zero
+			dest[offset] = QuiverEncoder.hash(mEncoded, 0, numWords) | Long.MIN_VALUE;
+			dest[offset + 1] = secondHash(numWords);
+		}
+	}
+
+	/**
+	 * Hash of the encoding independent of {@link QuiverEncoder#hash(long[], int, int)}.
+	 */
+	private long secondHash(final int numWords) {
+		long h = 0xC2B2AE3D27D4EB4FL;
+		for (int w = numWords - 1; w >= 0; w--) {
+			h = QuiverEncoder.mix(h + mEncoded[w] * 0x165667B19E3779F9L);
+		}
+		return h;
+	}
+
+	/**
+	 * Find the best permutation of the matrix, storing it in mBestPerm.
+	 */
+	private void canonicalise(final IntMatrix matrix) {
+		mMatrix = matrix;
+		refineColours();
+		int[] sorted = Arrays.copyOf(mColour, mSize);
+		Arrays.sort(sorted);
+		System.arraycopy(sorted, 0, mPositionColour, 0, mSize);
+		findTwins();
+		Arrays.fill(mPlaced, false);
+		mHaveBest = false;
+		search(0, false);
+		mMatrix = null;
+	}
+
+	/**
+	 * Colour the vertices so that vertices with different colours can never be swapped. Each round
+	 * a vertex is given a new colour from its old colour and the colours of its neighbours along
+	 * with the arrows to them, until the number of colours stops increasing.
+	 */
+	private void refineColours() {
+		Arrays.fill(mColour, 0);
+		int[][] signatures = new int[mSize][];
+		Integer[] order = new Integer[mSize];
+		int numColours = 1;
+		while (true) {
+			for (int v = 0; v < mSize; v++) {
+				int[] sig = new int[2 * mSize + 1];
+				sig[0] = mColour[v];
+				for (int u = 0; u < mSize; u++) {
+					sig[1 + u] = encodeArrow(mColour[u], mMatrix.unsafeGet(v, u));
+					sig[1 + mSize + u] = encodeArrow(mColour[u], mMatrix.unsafeGet(u, v));
+				}
+				Arrays.sort(sig, 1, 1 + mSize);
+				Arrays.sort(sig, 1 + mSize, sig.length);
+				signatures[v] = sig;
+				order[v] = v;
+			}
+			final int[][] sigs = signatures;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(final Integer a, final Integer b) {
+					return compareSignatures(sigs[a], sigs[b]);
+				}
+			});
+			int colour = 0;
+			for (int k = 0; k < mSize; k++) {
+				if (k > 0 && compareSignatures(sigs[order[k - 1]], sigs[order[k]]) != 0) {
+					colour++;
+				}
+				mColour[order[k]] = colour;
+			}
+			if (colour + 1 == numColours) {
+				return;
+			}
+			numColours = colour + 1;
+		}
+	}
+
+	private static int encodeArrow(final int colour, final int value) {
+		return colour * 256 + value + 128;
+	}
+
+	private static int compareSignatures(final int[] a, final int[] b) {
+		for (int k = 0; k < a.length; k++) {
+			if (a[k] != b[k]) {
+				return a[k] < b[k] ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Find vertices which can be swapped without changing the quiver, as they have no arrows
+	 * between them and the same arrows to every other vertex.
+	 */
+	private void findTwins() {
+		for (int v = 0; v < mSize; v++) {
+			mTwin[v] = v;
+			for (int u = 0; u < v; u++) {
+				if (mTwin[u] == u && areTwins(u, v)) {
+					mTwin[v] = u;
+					break;
+				}
+			}
+		}
+	}
+
+	private boolean areTwins(final int u, final int v) {
+		if (mColour[u] != mColour[v] || mMatrix.unsafeGet(u, v) != 0
+				|| mMatrix.unsafeGet(v, u) != 0) {
+			return false;
+		}
+		for (int x = 0; x < mSize; x++) {
+			if (x == u || x == v) {
+				continue;
+			}
+			if (mMatrix.unsafeGet(u, x) != mMatrix.unsafeGet(v, x)
+					|| mMatrix.unsafeGet(x, u) != mMatrix.unsafeGet(x, v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Place a vertex at position {@code pos}, then continue the search.
+	 * 
+	 * @param pos Position to fill
+	 * @param less true if the entries placed so far are already smaller than the best found
+	 */
+	private void search(final int pos, final boolean less) {
+		if (pos == mSize) {
+			if (less) {
+				System.arraycopy(mPerm, 0, mBestPerm, 0, mSize);
+				mHaveBest = true;
+			}
+			return;
+		}
+		int shellStart = pos * pos;
+		boolean prefixLess = less;
+		for (int v = 0; v < mSize; v++) {
+			if (mPlaced[v] || mColour[v] != mPositionColour[pos] || !isFirstUnplacedTwin(v)) {
+				continue;
+			}
+			mPerm[pos] = v;
+			int cmp = prefixLess || !mHaveBest ? -1 : compareShell(pos, shellStart);
+			if (cmp > 0) {
+				continue;
+			}
+			if (cmp < 0) {
+				// This branch beats the best found, so its shell becomes the best one
+				writeShell(pos, shellStart);
+			}
+			mPlaced[v] = true;
+			search(pos + 1, cmp < 0);
+			mPlaced[v] = false;
+			// The best now shares this prefix, so later branches must be compared against it
+			prefixLess = false;
+		}
+	}
+
+	/**
+	 * Check that no smaller unplaced vertex can be swapped with {@code v}, as placing it would give
+	 * the same result.
+	 */
+	private boolean isFirstUnplacedTwin(final int v) {
+		int twin = mTwin[v];
+		for (int u = twin; u < v; u++) {
+			if (mTwin[u] == twin && !mPlaced[u]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compare the shell at {@code pos} given by the current permutation with the best one.
+	 */
+	private int compareShell(final int pos, final int shellStart) {
+		int index = shellStart;
+		for (int j = 0; j <= pos; j++) {
+			int cmp = compareEntry(shellEntry(pos, j), mBest[index++]);
+			if (cmp != 0) {
+				return cmp;
+			}
+			if (j < pos) {
+				cmp = compareEntry(shellEntry(j, pos), mBest[index++]);
+				if (cmp != 0) {
+					return cmp;
+				}
+			}
+		}
+		return 0;
+	}
+
+	private void writeShell(final int pos, final int shellStart) {
+		int index = shellStart;
+		for (int j = 0; j <= pos; j++) {
+			mBest[index++] = shellEntry(pos, j);
+			if (j < pos) {
+				mBest[index++] = shellEntry(j, pos);
+			}
+		}
+	}
+
+	private int shellEntry(final int row, final int col) {
+		return mMatrix.unsafeGet(mPerm[row], mPerm[col]);
+	}
+
+	private static int compareEntry(final int a, final int b) {
+		return a == b ? 0 : (a < b ? -1 : 1);
+	}
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverEncoder.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import java.util.Arrays;
+
+/**
+ * Packs the entries of a matrix into a fixed number of longs, so that large numbers of matrices can
+ * be stored without an object for each one.
+ * 
+ * <p>
+ * Each entry is stored in {@link QuiverEncoder#BITS_PER_ENTRY} bits, so only entries between
+ * {@link QuiverEncoder#MIN_ENTRY} and {@link QuiverEncoder#MAX_ENTRY} can be encoded. This is
+ * enough for any matrix in a mutation class which is not yet known to be infinite, as any entry
+ * with absolute value 3 or more shows that the class is infinite.
+ * 
+ * <p>
+ * The top bit of the first word of each key is always set, so a key is never all zeros. This
+ * allows tables of keys to use zero to mark an empty slot.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class QuiverEncoder {
+
+	/** Number of bits used to store each entry. */
+	public static final int BITS_PER_ENTRY = 3;
+	/** Smallest entry which can be encoded. */
+	public static final int MIN_ENTRY = -4;
+	/** Largest entry which can be encoded. */
+	public static final int MAX_ENTRY = 3;
+
+	/** Number of entries stored in each long. */
+	private static final int ENTRIES_PER_WORD = 63 / BITS_PER_ENTRY;
+	/** Mask to get a single entry. */
+	private static final long ENTRY_MASK = (1L << BITS_PER_ENTRY) - 1;
+	/** Bit which is always set in the first word. */
+	private static final long MARKER = 1L << 63;
+
+	private final int mRows;
+	private final int mCols;
+	private final int mNumWords;
+
+	/**
+	 * Create an encoder for matrices of the given size.
+	 * 
+	 * @param rows Number of rows in the matrices
+	 * @param cols Number of columns in the matrices
+	 */
+	public QuiverEncoder(final int rows, final int cols) {
+		mRows = rows;
+		mCols = cols;
+		mNumWords = Math.max(1, (rows * cols + ENTRIES_PER_WORD - 1) / ENTRIES_PER_WORD);
+	}
+
+	/**
+	 * Get the number of rows in the matrices this encoder handles.
+	 * 
+	 * @return Number of rows
+	 */
+	public int getNumRows() {
+		return mRows;
+	}
+
+	/**
+	 * Get the number of columns in the matrices this encoder handles.
+	 * 
+	 * @return Number of columns
+	 */
+	public int getNumCols() {
+		return mCols;
+	}
+
+	/**
+	 * Get the number of longs needed to store each matrix.
+	 * 
+	 * @return Number of longs in each key
+	 */
+	public int getNumWords() {
+		return mNumWords;
+	}
+
+	/**
+	 * Check whether every entry of the matrix can be encoded.
+	 * 
+	 * @param matrix Matrix to check
+	 * @return true if the matrix can be encoded
+	 */
+	public boolean canEncode(final IntMatrix matrix) {
+		if (matrix.getNumRows() != mRows || matrix.getNumCols() != mCols) {
+			return false;
+		}
+		for (int i = 0; i < mRows * mCols; i++) {
+			int val = matrix.unsafeGet(i);
+			if (val < MIN_ENTRY || val > MAX_ENTRY) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encode the matrix into {@code dest} starting at {@code offset}.
+	 * 
+	 * @param matrix Matrix to encode
+	 * @param dest Array to store the key in
+	 * @param offset Index of the first word to write
+	 * @throws IllegalArgumentException if an entry is too large to be encoded
+	 */
+	public void encode(final IntMatrix matrix, final long[] dest, final int offset) {
+		int size = mRows * mCols;
+		int index = 0;
+		for (int w = 0; w < mNumWords; w++) {
+			long word = w == 0 ? MARKER : 0;
+			for (int e = 0; e < ENTRIES_PER_WORD && index < size; e++, index++) {
+				int val = matrix.unsafeGet(index);
+				if (val < MIN_ENTRY || val > MAX_ENTRY) {
+					throw new IllegalArgumentException("Cannot encode entry " + val + " in " + matrix);
+				}
+				word |= ((long) (val - MIN_ENTRY)) << (e * BITS_PER_ENTRY);
+			}
+			dest[offset + w] = word;
+		}
+	}
+
+	/**
+	 * Decode the key stored in {@code src} at {@code offset} into the matrix.
+	 * 
+	 * @param src Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @param matrix Matrix to put the entries into
+	 */
+	public void decode(final long[] src, final int offset, final IntMatrix matrix) {
+		int size = mRows * mCols;
+		int index = 0;
+		for (int w = 0; w < mNumWords; w++) {
+			long word = src[offset + w];
+			for (int e = 0; e < ENTRIES_PER_WORD && index < size; e++, index++) {
+				int val = (int) ((word >>> (e * BITS_PER_ENTRY)) & ENTRY_MASK) + MIN_ENTRY;
+				matrix.unsafeSet(index / mCols, index % mCols, val);
+			}
+		}
+		matrix.reset();
+	}
+
+	/**
+	 * Compute a well mixed hash of the key stored in {@code src} at {@code offset}.
+	 * 
+	 * @param src Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @param numWords Number of words in the key
+	 * @return Hash of the key
+	 */
+	public static long hash(final long[] src, final int offset, final int numWords) {
+		long h = 0x9E3779B97F4A7C15L;
+		for (int w = 0; w < numWords; w++) {
+			h = mix(h ^ src[offset + w]);
+		}
+		return h;
+	}
+
+	/**
+	 * Mix the bits of a long so that every input bit affects every output bit.
+	 * 
+	 * @param value Value to mix
+	 * @return Mixed value
+	 */
+	public static long mix(final long value) {
+		long h = value;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Compare two keys word by word. This is a total order on keys, but is not related to any
+	 * ordering of the matrices.
+	 * 
+	 * @param a Array containing the first key
+	 * @param aOffset Index of the first word of the first key
+	 * @param b Array containing the second key
+	 * @param bOffset Index of the first word of the second key
+	 * @param numWords Number of words in the keys
+	 * @return Negative, zero or positive as the first key is less than, equal to or greater than
+	 *         the second
+	 */
+	public static int compare(final long[] a, final int aOffset, final long[] b, final int bOffset,
+			final int numWords) {
+		for (int w = 0; w < numWords; w++) {
+			long x = a[aOffset + w];
+			long y = b[bOffset + w];
+			if (x != y) {
+				return x < y ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Sort the keys stored one after another at the start of {@code keys} and remove any
+	 * duplicates.
+	 * 
+	 * @param keys Array containing the keys
+	 * @param count Number of keys in the array
+	 * @param numWords Number of words in each key
+	 * @return Number of distinct keys, which are now at the start of the array
+	 */
+	public static int sortUnique(final long[] keys, final int count, final int numWords) {
+		if (numWords == 1) {
+			Arrays.sort(keys, 0, count);
+		} else {
+			sortRecords(keys, 0, count - 1, numWords, new long[numWords]);
+		}
+		int unique = 0;
+		for (int k = 0; k < count; k++) {
+			if (unique == 0
+					|| compare(keys, (unique - 1) * numWords, keys, k * numWords, numWords) != 0) {
+				if (unique != k) {
+					System.arraycopy(keys, k * numWords, keys, unique * numWords, numWords);
+				}
+				unique++;
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * Quicksort of the keys with indices from {@code lo} to {@code hi} inclusive.
+	 */
+	private static void sortRecords(final long[] keys, final int lo, final int hi,
+			final int numWords, final long[] pivot) {
+		int low = lo;
+		int high = hi;
+		while (high - low > 16) {
+			int mid = (low + high) >>> 1;
+			System.arraycopy(keys, mid * numWords, pivot, 0, numWords);
+			int i = low;
+			int j = high;
+			while (i <= j) {
+				while (compare(keys, i * numWords, pivot, 0, numWords) < 0) {
+					i++;
+				}
+				while (compare(keys, j * numWords, pivot, 0, numWords) > 0) {
+					j--;
+				}
+				if (i <= j) {
+					swap(keys, i, j, numWords);
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller half so the stack stays shallow
+			if (j - low < high - i) {
+				sortRecords(keys, low, j, numWords, pivot);
+				low = i;
+			} else {
+				sortRecords(keys, i, high, numWords, pivot);
+				high = j;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low
+					&& compare(keys, (j - 1) * numWords, keys, j * numWords, numWords) > 0; j--) {
+				swap(keys, j - 1, j, numWords);
+			}
+		}
+	}
+
+	private static void swap(final long[] keys, final int i, final int j, final int numWords) {
+		int a = i * numWords;
+		int b = j * numWords;
+		for (int w = 0; w < numWords; w++) {
+			long tmp = keys[a + w];
+			keys[a + w] = keys[b + w];
+			keys[b + w] = tmp;
+		}
+	}
+}
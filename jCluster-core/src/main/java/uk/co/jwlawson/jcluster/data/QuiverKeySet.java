@@ -0,0 +1,153 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverKeySet.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+/**
+ * Set of keys produced by a {@link QuiverEncoder}, stored in a single open addressing table of
+ * longs. Adding and looking up keys does not create any objects, and each key only takes up the
+ * space of its encoding.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class QuiverKeySet {
+
+	/** Smallest number of slots in the table. */
+	private static final int MIN_CAPACITY = 16;
+	/** Maximum fraction of slots used before the table is grown. */
+	private static final double MAX_LOAD = 0.5;
+
+	/** Number of longs in each key. */
+	private final int mNumWords;
+	/** Table of keys, with each slot taking {@code mNumWords} longs. */
+	private long[] mTable;
+	/** Number of slots in the table, always a power of two. */
+	private int mCapacity;
+	/** Number of keys stored. */
+	private int mSize;
+
+	/**
+	 * Create a new set for keys of the given length.
+	 * 
+	 * @param numWords Number of longs in each key
+	 * @param expectedSize Expected number of keys, used to size the table
+	 */
+	public QuiverKeySet(final int numWords, final int expectedSize) {
+		mNumWords = numWords;
+		mCapacity = capacityFor(expectedSize);
+		mTable = new long[mCapacity * mNumWords];
+	}
+
+	/**
+	 * Get the number of keys in the set.
+	 * 
+	 * @return Number of keys
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * Check whether the key is in the set.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return true if the key is in the set
+	 */
+	public boolean contains(final long[] key, final int offset) {
+		return mTable[findSlot(mTable, mCapacity, key, offset) * mNumWords] != 0;
+	}
+
+	/**
+	 * Add the key to the set.
+	 * 
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return true if the key was not already in the set
+	 */
+	public boolean add(final long[] key, final int offset) {
+		int slot = findSlot(mTable, mCapacity, key, offset);
+		int start = slot * mNumWords;
+		if (mTable[start] != 0) {
+			return false;
+		}
+		System.arraycopy(key, offset, mTable, start, mNumWords);
+		mSize++;
+		if (mSize > mCapacity * MAX_LOAD) {
+			grow();
+		}
+		return true;
+	}
+
+	/**
+	 * Find the slot which either contains the key or is the empty slot where it should go.
+	 * 
+	 * @param table Table to search
+	 * @param capacity Number of slots in the table
+	 * @param key Array containing the key
+	 * @param offset Index of the first word of the key
+	 * @return Index of the slot
+	 */
+	private int findSlot(final long[] table, final int capacity, final long[] key,
+			final int offset) {
+		int mask = capacity - 1;
+		int slot = (int) QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		while (true) {
+			int start = slot * mNumWords;
+			if (table[start] == 0 || equalAt(table, start, key, offset)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private boolean equalAt(final long[] table, final int start, final long[] key,
+			final int offset) {
+		for (int w = 0; w < mNumWords; w++) {
+			if (table[start + w] != key[offset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Double the size of the table and reinsert all keys.
+	 */
+	private void grow() {
+		int newCapacity = mCapacity * 2;
+		long[] newTable = new long[newCapacity * mNumWords];
+		for (int slot = 0; slot < mCapacity; slot++) {
+			int start = slot * mNumWords;
+			if (mTable[start] != 0) {
+				int newSlot = findSlot(newTable, newCapacity, mTable, start);
+				System.arraycopy(mTable, start, newTable, newSlot * mNumWords, mNumWords);
+			}
+		}
+		mTable = newTable;
+		mCapacity = newCapacity;
+	}
+
+	private static int capacityFor(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+}
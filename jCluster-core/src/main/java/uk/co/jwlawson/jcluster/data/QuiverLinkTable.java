@@ -0,0 +1,410 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverLinkTable.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+/**
+ * Open addressing table from quiver keys, as produced by a {@link QuiverEncoder}, to a bitmask of
+ * which mutations of that quiver have been considered. This replaces a map from matrices to
+ * {@link LinkHolder} objects: each entry is just the key followed by a long of links, all stored in
+ * one array, so looking up and updating entries does not create any objects.
+ * 
+ * <p>
+ * By default, once every link of an entry is set it is removed from the table, see
+ * {@link LinkTable#setLinkAt(long[], int, int)}. If the table is instead used as the record
+ * of every quiver seen then complete entries can be kept.
+ * 
+ * <p>
+ * When the table needs to grow a new table is allocated, and the entries are moved over a few at a
+ * time during the following operations rather than all at once. Until the move is finished both
+ * tables are searched.
+ * 
+ * <p>
+ * This is not thread safe.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class QuiverLinkTable implements LinkTable {
+
+	/** Smallest number of slots in the table. */
+	private static final int MIN_CAPACITY = 16;
+	/** Maximum fraction of slots used, including removed slots, before the table is grown. */
+	private static final double MAX_LOAD = 0.5;
+	/** Number of slots of the old table moved during each operation. */
+	private static final int MIGRATE_STEP = 8;
+	/** Value of the first word of a slot whose entry has been removed. */
+	private static final long REMOVED = 1L;
+
+	/** Number of longs in each key. */
+	private final int mNumWords;
+	/** Number of longs in each slot, the key followed by the links. */
+	private final int mStride;
+	/** Links value once every link is set. */
+	private final long mComplete;
+	/** True if entries are removed once complete. */
+	private final boolean mRemoveComplete;
+
+	/** Current table. */
+	private long[] mTable;
+	/** Number of slots in the current table. */
+	private int mCapacity;
+	/** Number of slots in the current table which are in use or have been removed. */
+	private int mUsed;
+	/** Table being moved into the current one, or null if not growing. */
+	private long[] mOld;
+	/** Number of slots in the old table. */
+	private int mOldCapacity;
+	/** Next slot of the old table to move. */
+	private int mMigrateIndex;
+	/** Number of entries in the table. */
+	private int mSize;
+	/** Snapshot which the table copies slots to before changing them, or null. */
+	private ArraySnapshot mSnapshot;
+
+	/**
+	 * Create a new table which removes entries once complete.
+	 * 
+	 * @param numWords Number of longs in each key
+	 * @param numLinks Number of links for each entry, at most 63
+	 * @param expectedSize Expected number of entries, used to size the table
+	 */
+	public QuiverLinkTable(final int numWords, final int numLinks, final int expectedSize) {
+		this(numWords, numLinks, expectedSize, true);
+	}
+
+	/**
+	 * Create a new table.
+	 * 
+	 * @param numWords Number of longs in each key
+	 * @param numLinks Number of links for each entry, at most 63
+	 * @param expectedSize Expected number of entries, used to size the table
+	 * @param removeComplete true if entries should be removed once all links are set
+	 */
+	public QuiverLinkTable(final int numWords, final int numLinks, final int expectedSize,
+			final boolean removeComplete) {
+		if (numLinks > 63) {
+			throw new IllegalArgumentException("At most 63 links can be stored, not " + numLinks);
+		}
+		mNumWords = numWords;
+		mStride = numWords + 1;
+		mComplete = (1L << numLinks) - 1;
+		mRemoveComplete = removeComplete;
+		mCapacity = capacityFor(expectedSize);
+		mTable = new long[mCapacity * mStride];
+	}
+
+	@Override
+	public int size() {
+		return mSize;
+	}
+
+	@Override
+	public boolean contains(final long[] key, final int offset) {
+		return getLinks(key, offset) != NO_ENTRY;
+	}
+
+	@Override
+	public long getLinks(final long[] key, final int offset) {
+		migrateStep();
+		int slot = find(mTable, mCapacity, key, offset);
+		if (slot >= 0) {
+			return mTable[slot * mStride + mNumWords];
+		}
+		if (mOld != null) {
+			slot = find(mOld, mOldCapacity, key, offset);
+			if (slot >= 0) {
+				return mOld[slot * mStride + mNumWords];
+			}
+		}
+		return NO_ENTRY;
+	}
+
+	@Override
+	public boolean putIfAbsent(final long[] key, final int offset, final long links) {
+		if (contains(key, offset)) {
+			return false;
+		}
+		if (mUsed + 1 > mCapacity * MAX_LOAD) {
+			startGrowing();
+		}
+		int slot = findInsertSlot(mTable, mCapacity, key, offset);
+		int start = slot * mStride;
+		if (mTable[start] == 0) {
+			mUsed++;
+		}
+		beforeWrite(mTable, slot);
+		System.arraycopy(key, offset, mTable, start, mNumWords);
+		mTable[start + mNumWords] = links;
+		mSize++;
+		return true;
+	}
+
+	@Override
+	public int setLinkAt(final long[] key, final int offset, final int index) {
+		migrateStep();
+		long[] table = mTable;
+		int slot = find(mTable, mCapacity, key, offset);
+		if (slot < 0 && mOld != null) {
+			table = mOld;
+			slot = find(mOld, mOldCapacity, key, offset);
+		}
+		if (slot < 0) {
+			return NOT_FOUND;
+		}
+		beforeWrite(table, slot);
+		int start = slot * mStride;
+		long links = table[start + mNumWords] | (1L << index);
+		if (links == mComplete && mRemoveComplete) {
+			table[start] = REMOVED;
+			mSize--;
+			return COMPLETED;
+		}
+		table[start + mNumWords] = links;
+		return LINK_SET;
+	}
+
+	@Override
+	public boolean remove(final long[] key, final int offset) {
+		migrateStep();
+		int slot = find(mTable, mCapacity, key, offset);
+		if (slot >= 0) {
+			beforeWrite(mTable, slot);
+			mTable[slot * mStride] = REMOVED;
+			mSize--;
+			return true;
+		}
+		if (mOld != null) {
+			slot = find(mOld, mOldCapacity, key, offset);
+			if (slot >= 0) {
+				beforeWrite(mOld, slot);
+				mOld[slot * mStride] = REMOVED;
+				mSize--;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the slot containing the key.
+	 * 
+	 * @return Index of the slot, or -1 if not present
+	 */
+	private int find(final long[] table, final int capacity, final long[] key, final int offset) {
+		int mask = capacity - 1;
+		int slot = (int) QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		while (true) {
+			int start = slot * mStride;
+			long first = table[start];
+			if (first == 0) {
+				return -1;
+			}
+			if (first != REMOVED && equalAt(table, start, key, offset)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Find the first empty or removed slot for a key which is known not to be present.
+	 */
+	private int findInsertSlot(final long[] table, final int capacity, final long[] key,
+			final int offset) {
+		int mask = capacity - 1;
+		int slot = (int) QuiverEncoder.hash(key, offset, mNumWords) & mask;
+		while (table[slot * mStride] != 0 && table[slot * mStride] != REMOVED) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean equalAt(final long[] table, final int start, final long[] key,
+			final int offset) {
+		for (int w = 0; w < mNumWords; w++) {
+			if (table[start + w] != key[offset + w]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Allocate a new table and start moving entries into it. If the previous move has not finished
+	 * then it is completed first.
+	 */
+	private void startGrowing() {
+		while (mOld != null) {
+			migrateStep();
+		}
+		mOld = mTable;
+		mOldCapacity = mCapacity;
+		mMigrateIndex = 0;
+		// Removed slots are dropped in the move, so size the new table on the live entries
+		mCapacity = Math.max(mCapacity, capacityFor(2 * mSize + 1));
+		mTable = new long[mCapacity * mStride];
+		mUsed = 0;
+	}
+
+	/**
+	 * Move a few entries from the old table into the current one.
+	 */
+	private void migrateStep() {
+		if (mOld == null) {
+			return;
+		}
+		int end = Math.min(mMigrateIndex + MIGRATE_STEP, mOldCapacity);
+		for (int slot = mMigrateIndex; slot < end; slot++) {
+			int start = slot * mStride;
+			long first = mOld[start];
+			if (first != 0 && first != REMOVED) {
+				int newSlot = findInsertSlot(mTable, mCapacity, mOld, start);
+				int newStart = newSlot * mStride;
+				if (mTable[newStart] == 0) {
+					mUsed++;
+				}
+				beforeWrite(mTable, newSlot);
+				beforeWrite(mOld, slot);
+				System.arraycopy(mOld, start, mTable, newStart, mStride);
+				// Mark as removed rather than empty so probe chains in the old table stay intact
+				mOld[start] = REMOVED;
+			}
+		}
+		mMigrateIndex = end;
+		if (mMigrateIndex == mOldCapacity) {
+			mOld = null;
+		}
+	}
+
+	@Override
+	public Cursor cursor() {
+		return new ArrayCursor();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>
+	 * The snapshot keeps the current and old arrays, so if the table grows while the snapshot is
+	 * open the arrays are not freed until it is closed.
+	 */
+	@Override
+	public Snapshot snapshot() {
+		if (mSnapshot != null && !mSnapshot.isClosed()) {
+			throw new IllegalStateException("The previous snapshot has not been closed");
+		}
+		mSnapshot = new ArraySnapshot(mTable, mCapacity, mOld, mOldCapacity);
+		return mSnapshot;
+	}
+
+	/**
+	 * Let the snapshot, if there is one, copy the slot before it is changed.
+	 */
+	private void beforeWrite(final long[] table, final int slot) {
+		if (mSnapshot != null) {
+			if (mSnapshot.isClosed()) {
+				mSnapshot = null;
+			} else {
+				mSnapshot.beforeWrite(table, slot);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to release, the arrays are left to the garbage collector
+	}
+
+	/**
+	 * Cursor over the current table followed by the old table, if the table is growing.
+	 */
+	private class ArrayCursor implements Cursor {
+
+		private long[] mCursorTable = mTable;
+		private int mCursorCapacity = mCapacity;
+		/** Index of the first word of the current slot. */
+		private int mStart = -mStride;
+
+		@Override
+		public boolean next() {
+			while (true) {
+				mStart += mStride;
+				if (mStart == mCursorCapacity * mStride) {
+					if (mCursorTable != mTable || mOld == null) {
+						return false;
+					}
+					mCursorTable = mOld;
+					mCursorCapacity = mOldCapacity;
+					mStart = 0;
+				}
+				long first = mCursorTable[mStart];
+				if (first != 0 && first != REMOVED) {
+					return true;
+				}
+			}
+		}
+
+		@Override
+		public void getKey(final long[] dest, final int offset) {
+			System.arraycopy(mCursorTable, mStart, dest, offset, mNumWords);
+		}
+
+		@Override
+		public long getLinks() {
+			return mCursorTable[mStart + mNumWords];
+		}
+	}
+
+	/**
+	 * Snapshot of the current table and, if the table is growing, the old table. Arrays allocated
+	 * after the snapshot was taken are not part of it.
+	 */
+	private class ArraySnapshot extends CopyOnWriteSnapshot {
+
+		private final long[] mSnapshotTable;
+		private final long[] mSnapshotOld;
+
+		ArraySnapshot(final long[] table, final int capacity, final long[] old,
+				final int oldCapacity) {
+			super(mStride, mSize, old == null ? new long[] { capacity } : new long[] { capacity,
+					oldCapacity });
+			mSnapshotTable = table;
+			mSnapshotOld = old;
+		}
+
+		void beforeWrite(final long[] table, final int slot) {
+			if (table == mSnapshotTable) {
+				beforeWrite(0, slot);
+			} else if (table == mSnapshotOld) {
+				beforeWrite(1, slot);
+			}
+		}
+
+		@Override
+		protected void copySlots(final int region, final long first, final int count,
+				final long[] dest) {
+			long[] table = region == 0 ? mSnapshotTable : mSnapshotOld;
+			System.arraycopy(table, (int) first * mStride, dest, 0, count * mStride);
+		}
+	}
+
+	private static int capacityFor(final int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+}
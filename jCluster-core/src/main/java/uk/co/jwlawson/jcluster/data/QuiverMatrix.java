@@ -97,6 +97,51 @@ public class QuiverMatrix extends IntMatrix {
 		return result;
 	}
 
+	/**
+	 * Mutates this matrix at the k-th entry, changing this matrix rather than creating a new one.
+	 * 
+	 * <p>
+	 * As mutation is an involution, calling this twice with the same index returns the matrix to its
+	 * original state. This allows mutations to be undone without needing to keep a copy of the
+	 * matrix.
+	 * 
+	 * @param k Index to mutate on.
+	 * @return This matrix, after the mutation.
+	 */
+	public QuiverMatrix mutateInPlace(int k) {
+		int rows = getNumRows();
+		int cols = getNumCols();
+		checkParam(k < 0 || k >= Math.min(rows, cols),
+				"Index needs to be within the unfrozen vaules of the matrix. Expected: %d to %d Actual: %d",
+				0, Math.min(rows, cols) - 1, k);
+		for (int i = 0; i < rows; i++) {
+			if (i == k) {
+				continue;
+			}
+			int ik = unsafeGet(i, k);
+			if (ik == 0) {
+				continue;
+			}
+			for (int j = 0; j < cols; j++) {
+				if (j == k) {
+					continue;
+				}
+				int kj = unsafeGet(k, j);
+				unsafeSet(i, j, unsafeGet(i, j) + (Math.abs(ik) * kj + ik * Math.abs(kj)) / 2);
+			}
+		}
+		for (int j = 0; j < cols; j++) {
+			unsafeSet(k, j, -1 * unsafeGet(k, j));
+		}
+		for (int i = 0; i < rows; i++) {
+			if (i != k) {
+				unsafeSet(i, k, -1 * unsafeGet(i, k));
+			}
+		}
+		reset();
+		return this;
+	}
+
 	/**
 	 * Mutates this matrix at the k-th entry and put the result into the provided matrix. No bound
 	 * checks or size checks are performed.
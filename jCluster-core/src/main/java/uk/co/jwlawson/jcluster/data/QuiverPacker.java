@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverPacker.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+/**
+ * Packs the entries of a matrix into as few longs as possible, for storing matrices which only need
+ * to be read back rather than compared. Each entry takes {@link QuiverEncoder#BITS_PER_ENTRY} bits,
+ * as in a {@link QuiverEncoder}.
+ * 
+ * <p>
+ * If the square part of the matrices is skew-symmetric, which is kept by mutation, then only the
+ * entries above its diagonal are stored along with the frozen rows and columns. This halves the
+ * size of the packed matrices. Unlike a {@link QuiverEncoder} no marker bit is set, so a packed
+ * matrix can be all zeros.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class QuiverPacker {
+
+	/** Number of entries stored in each long. */
+	private static final int ENTRIES_PER_WORD = 64 / QuiverEncoder.BITS_PER_ENTRY;
+	/** Mask to get a single entry. */
+	private static final long ENTRY_MASK = (1L << QuiverEncoder.BITS_PER_ENTRY) - 1;
+
+	private final int mRows;
+	private final int mCols;
+	/** Number of rows and columns in the square part. */
+	private final int mSize;
+	private final boolean mSkew;
+	private final int mNumWords;
+
+	/**
+	 * Create a packer for matrices of the given size.
+	 * 
+	 * @param rows Number of rows in the matrices
+	 * @param cols Number of columns in the matrices
+	 * @param skewSymmetric true if the square part of every matrix packed is skew-symmetric
+	 */
+	public QuiverPacker(final int rows, final int cols, final boolean skewSymmetric) {
+		mRows = rows;
+		mCols = cols;
+		mSize = Math.min(rows, cols);
+		mSkew = skewSymmetric;
+		int entries = skewSymmetric ? rows * cols - mSize * (mSize + 1) / 2 : rows * cols;
+		mNumWords = Math.max(1, (entries + ENTRIES_PER_WORD - 1) / ENTRIES_PER_WORD);
+	}
+
+	/**
+	 * Create a packer for matrices of the same size as {@code matrix}, which only stores half of
+	 * the square part if it is skew-symmetric in {@code matrix}.
+	 * 
+	 * @param matrix Matrix of the type to be packed, for example the first of a mutation class
+	 * @return New packer
+	 */
+	public static QuiverPacker forMatrix(final IntMatrix matrix) {
+		return new QuiverPacker(matrix.getNumRows(), matrix.getNumCols(), isSkewSymmetric(matrix));
+	}
+
+	/**
+	 * Check whether the square part of the matrix is skew-symmetric.
+	 * 
+	 * @param matrix Matrix to check
+	 * @return true if the square part is skew-symmetric
+	 */
+	public static boolean isSkewSymmetric(final IntMatrix matrix) {
+		int size = Math.min(matrix.getNumRows(), matrix.getNumCols());
+		for (int i = 0; i < size; i++) {
+			for (int j = i; j < size; j++) {
+				if (matrix.unsafeGet(i, j) != -matrix.unsafeGet(j, i)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of longs in each packed matrix.
+	 * 
+	 * @return Number of longs
+	 */
+	public int getNumWords() {
+		return mNumWords;
+	}
+
+	/**
+	 * Pack the matrix into {@code dest} starting at {@code offset}.
+	 * 
+	 * @param matrix Matrix to pack
+	 * @param dest Array to write to
+	 * @param offset Index of the first word to write
+	 * @throws IllegalArgumentException if an entry is too large to be packed
+	 */
+	public void pack(final IntMatrix matrix, final long[] dest, final int offset) {
+		for (int w = 0; w < mNumWords; w++) {
+			dest[offset + w] = 0;
+		}
+		int index = 0;
+		for (int i = 0; i < mRows; i++) {
+			for (int j = firstStored(i); j < mCols; j++) {
+				int val = matrix.unsafeGet(i, j);
+				if (val < QuiverEncoder.MIN_ENTRY || val > QuiverEncoder.MAX_ENTRY) {
+					throw new IllegalArgumentException("Cannot pack entry " + val + " in " + matrix);
+				}
+				dest[offset + index / ENTRIES_PER_WORD] |=
+						((long) (val - QuiverEncoder.MIN_ENTRY)) << (index % ENTRIES_PER_WORD)
+								* QuiverEncoder.BITS_PER_ENTRY;
+				index++;
+			}
+		}
+	}
+
+	/**
+	 * Unpack the matrix stored in {@code src} at {@code offset}.
+	 * 
+	 * @param src Array containing the packed matrix
+	 * @param offset Index of the first word
+	 * @param matrix Matrix to put the entries into
+	 */
+	public void unpack(final long[] src, final int offset, final IntMatrix matrix) {
+		int index = 0;
+		for (int i = 0; i < mRows; i++) {
+			if (mSkew && i < mSize) {
+				matrix.unsafeSet(i, i, 0);
+			}
+			for (int j = firstStored(i); j < mCols; j++) {
+				int val =
+						(int) ((src[offset + index / ENTRIES_PER_WORD] >>> (index % ENTRIES_PER_WORD)
+								* QuiverEncoder.BITS_PER_ENTRY) & ENTRY_MASK)
+								+ QuiverEncoder.MIN_ENTRY;
+				matrix.unsafeSet(i, j, val);
+				if (mSkew && i < mSize && j < mSize) {
+					matrix.unsafeSet(j, i, -val);
+				}
+				index++;
+			}
+		}
+		matrix.reset();
+	}
+
+	/**
+	 * First column stored in row {@code i}, which skips the diagonal and below in the square part
+	 * of a skew-symmetric matrix.
+	 */
+	private int firstStored(final int i) {
+		return mSkew && i < mSize ? i + 1 : 0;
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * SizeEstimate.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+/**
+ * Approximate size of a mutation class found by sampling, along with bounds which contain the true
+ * size with roughly 95% confidence.
+ * 
+ * <p>
+ * If no repeated samples were seen then there is no estimate, only a lower bound, and
+ * {@link SizeEstimate#getEstimate()} and {@link SizeEstimate#getUpperBound()} are infinite.
+ * 
+ * @author John Lawson
+ * 
+ */
+public class SizeEstimate {
+
+	private final double mEstimate;
+	private final double mLowerBound;
+	private final double mUpperBound;
+	private final long mNumSamples;
+
+	/**
+	 * Create a new estimate.
+	 * 
+	 * @param estimate Estimated size
+	 * @param lowerBound Lower end of the confidence interval
+	 * @param upperBound Upper end of the confidence interval
+	 * @param numSamples Number of samples the estimate is based on
+	 */
+	public SizeEstimate(final double estimate, final double lowerBound, final double upperBound,
+			final long numSamples) {
+		mEstimate = estimate;
+		mLowerBound = lowerBound;
+		mUpperBound = upperBound;
+		mNumSamples = numSamples;
+	}
+
+	/**
+	 * Get the estimated size.
+	 * 
+	 * @return Estimate, or infinity if there were too few samples to give one
+	 */
+	public double getEstimate() {
+		return mEstimate;
+	}
+
+	/**
+	 * Get the lower end of the confidence interval.
+	 * 
+	 * @return Lower bound
+	 */
+	public double getLowerBound() {
+		return mLowerBound;
+	}
+
+	/**
+	 * Get the upper end of the confidence interval.
+	 * 
+	 * @return Upper bound, possibly infinite
+	 */
+	public double getUpperBound() {
+		return mUpperBound;
+	}
+
+	/**
+	 * Get the number of samples the estimate is based on.
+	 * 
+	 * @return Number of samples
+	 */
+	public long getNumSamples() {
+		return mNumSamples;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.4g [%.4g, %.4g] from %d samples", mEstimate, mLowerBound,
+				mUpperBound, mNumSamples);
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * BatchInfiniteCheckTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class BatchInfiniteCheckTest {
+
+	private static final QuiverMatrix INFINITE = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0,
+			-1, 0, 1, 0, -1, -1, 0);
+
+	@Test
+	public void testFiniteClass() throws Exception {
+		List<List<QuiverMatrix>> ball = MutationClass.ball(DynkinDiagram.E6.getMatrix(), 3);
+		List<QuiverMatrix> matrices = new ArrayList<QuiverMatrix>();
+		for (List<QuiverMatrix> level : ball) {
+			matrices.addAll(level);
+		}
+		BatchInfiniteCheck check = new BatchInfiniteCheck(6, 6, 16);
+		assertTrue(check.findInfinite(matrices).isEmpty());
+	}
+
+	@Test
+	public void testMixed() {
+		List<QuiverMatrix> matrices = new ArrayList<QuiverMatrix>();
+		BitSet expected = new BitSet();
+		for (int i = 0; i < 50; i++) {
+			if (i % 3 == 0) {
+				matrices.add(INFINITE.mutate(i % 4));
+				expected.set(i);
+			} else {
+				matrices.add(DynkinDiagram.D4.getMatrix().mutate(i % 4));
+			}
+		}
+		BatchInfiniteCheck check = new BatchInfiniteCheck(4, 4, 8);
+		check.setMaxMutations(5000);
+		assertEquals(expected, check.findInfinite(matrices));
+	}
+
+	@Test
+	public void testLargeEntry() {
+		QuiverMatrix matrix = new QuiverMatrix(3, 3, 0, 3, 0, -3, 0, 1, 0, -1, 0);
+		BatchInfiniteCheck check = new BatchInfiniteCheck(3, 3);
+		check.setMaxMutations(0);
+		BitSet infinite =
+				check.findInfinite(Arrays.asList(DynkinDiagram.A3.getMatrix(), matrix));
+		assertEquals(1, infinite.cardinality());
+		assertTrue(infinite.get(1));
+	}
+
+	@Test
+	public void testSeed() {
+		List<QuiverMatrix> matrices = Collections.nCopies(20, INFINITE);
+		BatchInfiniteCheck check = new BatchInfiniteCheck(4, 4, 4);
+		check.setSeed(3);
+		check.setMaxMutations(2);
+		BitSet first = check.findInfinite(matrices);
+		assertEquals(first, check.findInfinite(matrices));
+	}
+
+	@Test
+	public void testFrozen() {
+		QuiverMatrix matrix = new QuiverMatrix(3, 2, 0, 2, -2, 0, 1, 0);
+		BatchInfiniteCheck check = new BatchInfiniteCheck(3, 2);
+		assertTrue(check.findInfinite(Collections.singletonList(matrix)).get(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongSize() {
+		new BatchInfiniteCheck(4, 4).findInfinite(Collections.singletonList(DynkinDiagram.A3
+				.getMatrix()));
+	}
+}
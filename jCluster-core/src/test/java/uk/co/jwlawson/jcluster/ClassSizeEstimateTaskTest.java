@@ -0,0 +1,91 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ClassSizeEstimateTaskTest.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.SizeEstimate;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class ClassSizeEstimateTaskTest {
+
+	private void assertEstimate(final DynkinDiagram diagram, final int size) throws Exception {
+		ClassSizeEstimateTask<QuiverMatrix> task =
+				new ClassSizeEstimateTask<QuiverMatrix>(diagram.getMatrix());
+		task.setNumWalkers(2);
+		MatrixInfo info = task.call();
+		assertTrue(info.hasEquivMutationClassSizeEstimate());
+		SizeEstimate estimate = info.getEquivMutationClassSizeEstimate();
+		assertTrue(estimate.toString(), estimate.getEstimate() > size / 2.0);
+		assertTrue(estimate.toString(), estimate.getEstimate() < size * 2.0);
+		assertTrue(estimate.getLowerBound() < estimate.getEstimate());
+		assertTrue(estimate.getUpperBound() > estimate.getEstimate());
+	}
+
+	@Test
+	public void testE6() throws Exception {
+		assertEstimate(DynkinDiagram.E6, 67);
+	}
+
+	@Test
+	public void testE7() throws Exception {
+		assertEstimate(DynkinDiagram.E7, 416);
+	}
+
+	@Test
+	public void testD7() throws Exception {
+		assertEstimate(DynkinDiagram.D7, 246);
+	}
+
+	@Test
+	public void testInfinite() throws Exception {
+		QuiverMatrix matrix = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		MatrixInfo info = new ClassSizeEstimateTask<QuiverMatrix>(matrix).call();
+		assertFalse(info.isFinite());
+		assertFalse(info.hasEquivMutationClassSizeEstimate());
+	}
+
+	@Test
+	public void testTimeLimit() throws Exception {
+		ClassSizeEstimateTask<QuiverMatrix> task =
+				new ClassSizeEstimateTask<QuiverMatrix>(DynkinDiagram.E8.getMatrix());
+		task.setTargetPairs(Integer.MAX_VALUE);
+		task.setTimeLimit(200, TimeUnit.MILLISECONDS);
+		MatrixInfo info = task.call();
+		assertTrue(info.hasEquivMutationClassSizeEstimate());
+		assertTrue(info.getEquivMutationClassSizeEstimate().getNumSamples() > 0);
+	}
+
+	@Test
+	public void testEstimate() {
+		SizeEstimate estimate = ClassSizeEstimateTask.estimate(100, 50);
+		assertEquals(99, estimate.getEstimate(), 1e-9);
+		SizeEstimate none = ClassSizeEstimateTask.estimate(100, 0);
+		assertTrue(Double.isInfinite(none.getEstimate()));
+		assertTrue(none.getLowerBound() > 0);
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DepthFirstMutClassSizeTaskTest.java is part of JCluster. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class DepthFirstMutClassSizeTaskTest {
+
+	@Test
+	public void testA4() throws Exception {
+		DepthFirstMutClassSizeTask<QuiverMatrix> task =
+				new DepthFirstMutClassSizeTask<QuiverMatrix>(DynkinDiagram.A4.getMatrix());
+		assertEquals(144, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testD5() throws Exception {
+		DepthFirstMutClassSizeTask<QuiverMatrix> task =
+				new DepthFirstMutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		assertEquals(2184, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testB4() throws Exception {
+		QuiverMatrix matrix = DynkinDiagram.B4.getMatrix();
+		int expected = new MutClassSizeTask<QuiverMatrix>(matrix).call().getMutationClassSize();
+		DepthFirstMutClassSizeTask<QuiverMatrix> task =
+				new DepthFirstMutClassSizeTask<QuiverMatrix>(matrix);
+		assertEquals(expected, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testInf() throws Exception {
+		QuiverMatrix mat =
+				new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		DepthFirstMutClassSizeTask<QuiverMatrix> task =
+				new DepthFirstMutClassSizeTask<QuiverMatrix>(mat);
+		assertEquals(-1, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testInfLargeWeight() throws Exception {
+		// Mutating this gives entries outside the encodable range
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 2, 2, -2, 0, -2, -2, 2, 0);
+		DepthFirstMutClassSizeTask<QuiverMatrix> task =
+				new DepthFirstMutClassSizeTask<QuiverMatrix>(mat);
+		assertEquals(-1, task.call().getMutationClassSize());
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DistributedEquivMutClassSizeTaskTest.java is part of JCluster. Licensed under the Apache
+ * License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class DistributedEquivMutClassSizeTaskTest {
+
+	private int sizeWithThreads(final QuiverMatrix matrix, final int numWorkers) throws Exception {
+		DistributedEquivMutClassSizeTask<QuiverMatrix> task =
+				new DistributedEquivMutClassSizeTask<QuiverMatrix>(matrix, numWorkers);
+		task.setUseProcesses(false);
+		return task.call().getEquivMutationClassSize();
+	}
+
+	@Test
+	public void testA3() throws Exception {
+		assertEquals(4, sizeWithThreads(DynkinDiagram.A3.getMatrix(), 2));
+	}
+
+	@Test
+	public void testOneWorker() throws Exception {
+		assertEquals(67, sizeWithThreads(DynkinDiagram.E6.getMatrix(), 1));
+	}
+
+	@Test
+	public void testE7() throws Exception {
+		assertEquals(416, sizeWithThreads(DynkinDiagram.E7.getMatrix(), 3));
+	}
+
+	@Test
+	public void testD7() throws Exception {
+		assertEquals(246, sizeWithThreads(DynkinDiagram.D7.getMatrix(), 4));
+	}
+
+	@Test
+	public void testSpilling() throws Exception {
+		DistributedEquivMutClassSizeTask<QuiverMatrix> task =
+				new DistributedEquivMutClassSizeTask<QuiverMatrix>(DynkinDiagram.E7.getMatrix(), 2);
+		task.setUseProcesses(false);
+		task.setMaxInMemory(8);
+		assertEquals(416, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testInfinite() throws Exception {
+		QuiverMatrix matrix =
+				new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		DistributedEquivMutClassSizeTask<QuiverMatrix> task =
+				new DistributedEquivMutClassSizeTask<QuiverMatrix>(matrix, 2);
+		task.setUseProcesses(false);
+		MatrixInfo info = task.call();
+		assertFalse(info.isFinite());
+	}
+
+	@Test
+	public void testProcesses() throws Exception {
+		DistributedEquivMutClassSizeTask<QuiverMatrix> task =
+				new DistributedEquivMutClassSizeTask<QuiverMatrix>(DynkinDiagram.E7.getMatrix(), 2);
+		assertEquals(416, task.call().getEquivMutationClassSize());
+	}
+}
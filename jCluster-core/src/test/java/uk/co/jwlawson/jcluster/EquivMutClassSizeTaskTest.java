@@ -16,13 +16,17 @@ package uk.co.jwlawson.jcluster;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import uk.co.jwlawson.jcluster.data.DynkinDiagram;
 import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
@@ -36,6 +40,9 @@ import uk.co.jwlawson.jcluster.data.QuiverMatrix;
  */
 public class EquivMutClassSizeTaskTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@BeforeClass
 	public static void setUp() {
 		// Run so that the caches in EquivalenceChecker are created before any tests are run. This
@@ -155,4 +162,37 @@ public class EquivMutClassSizeTaskTest {
 		}
 	}
 
+	@Test
+	public void testE7MappedTable() throws Exception {
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(DynkinDiagram.E7.getMatrix());
+		task.setWorkingDirectory(folder.getRoot());
+
+		assertEquals(416, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testE7SeenFilter() throws Exception {
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(DynkinDiagram.E7.getMatrix());
+		task.setUseSeenFilter(true);
+
+		assertEquals(416, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testE7StopAndResume() throws Exception {
+		File checkpoint = new File(folder.getRoot(), "e7.checkpoint");
+		final EquivMutClassSizeTask task = new EquivMutClassSizeTask(DynkinDiagram.E7.getMatrix());
+		task.setCheckpointFile(checkpoint, 0, TimeUnit.SECONDS);
+		task.addListener(new AbstractMutClassSizeTask.StatsListener() {
+			@Override
+			public void statsUpdated(final AbstractMutClassSizeTask<?>.Stats stats) {
+				task.requestStop();
+			}
+		});
+		assertEquals(AbstractMutClassSizeTask.STOP, task.call().getEquivMutationClassSize());
+
+		EquivMutClassSizeTask resumed = new EquivMutClassSizeTask(DynkinDiagram.E7.getMatrix());
+		resumed.resumeFrom(checkpoint);
+		assertEquals(416, resumed.call().getEquivMutationClassSize());
+	}
 }
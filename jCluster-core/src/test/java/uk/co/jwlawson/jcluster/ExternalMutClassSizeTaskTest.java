@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ExternalMutClassSizeTaskTest.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class ExternalMutClassSizeTaskTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testA4() throws Exception {
+		ExternalMutClassSizeTask<QuiverMatrix> task =
+				new ExternalMutClassSizeTask<QuiverMatrix>(DynkinDiagram.A4.getMatrix(),
+						folder.getRoot());
+		assertEquals(144, task.call().getMutationClassSize());
+		assertEquals("Files removed", 0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testD5SmallRuns() throws Exception {
+		ExternalMutClassSizeTask<QuiverMatrix> task =
+				new ExternalMutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix(),
+						folder.getRoot());
+		task.setRunSize(100);
+		assertEquals(2184, task.call().getMutationClassSize());
+		assertEquals("Files removed", 0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testE6() throws Exception {
+		// 36 entries, so each key is two words long
+		QuiverMatrix matrix = DynkinDiagram.E6.getMatrix();
+		int expected = new MutClassSizeTask<QuiverMatrix>(matrix).call().getMutationClassSize();
+		ExternalMutClassSizeTask<QuiverMatrix> task =
+				new ExternalMutClassSizeTask<QuiverMatrix>(matrix, folder.getRoot());
+		task.setRunSize(1000);
+		assertEquals(expected, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testInf() throws Exception {
+		QuiverMatrix mat =
+				new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		ExternalMutClassSizeTask<QuiverMatrix> task =
+				new ExternalMutClassSizeTask<QuiverMatrix>(mat, folder.getRoot());
+		assertEquals(-1, task.call().getMutationClassSize());
+		assertEquals("Files removed", 0, folder.getRoot().list().length);
+	}
+}
@@ -14,19 +14,24 @@
  */
 package uk.co.jwlawson.jcluster;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.List;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.co.jwlawson.jcluster.FastInfiniteCheck.WalkStats;
 import uk.co.jwlawson.jcluster.data.DynkinDiagram;
 import uk.co.jwlawson.jcluster.data.MatrixInfo;
 import uk.co.jwlawson.jcluster.data.QuiverMatrix;
@@ -105,4 +110,118 @@ public class FastInfiniteCheckTest {
 			e.printStackTrace();
 		}
 	}
+
+	@Test
+	public void testSeedRepeatsWalk() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		task.setSeed(42);
+		assertFalse(task.call().isFinite());
+		WalkStats first = task.getWalkStats().get(0);
+		assertTrue(first.foundInfinite());
+
+		task.reset();
+		assertFalse(task.call().isFinite());
+		WalkStats second = task.getWalkStats().get(0);
+		assertEquals(first.getSeed(), second.getSeed());
+		assertEquals(first.getSteps(), second.getSteps());
+	}
+
+	@Test
+	public void testParallelWalks() throws Exception {
+		FastInfiniteCheck task = new FastInfiniteCheck(DynkinDiagram.A5.getMatrix());
+		task.setNumWalks(4);
+		task.setMaxMutations(500);
+		task.setSeed(7);
+		assertFalse(task.call().hasFiniteSet());
+
+		List<WalkStats> stats = task.getWalkStats();
+		assertEquals(4, stats.size());
+		for (int i = 0; i < stats.size(); i++) {
+			assertEquals(i, stats.get(i).getIndex());
+			assertEquals(500, stats.get(i).getSteps());
+			assertEquals(FastInfiniteCheck.walkSeed(7, i), stats.get(i).getSeed());
+		}
+		assertNotEquals(stats.get(0).getSeed(), stats.get(1).getSeed());
+	}
+
+	@Test
+	public void testParallelInfinite() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		task.setNumWalks(4);
+		task.setMaxMutations(FastInfiniteCheck.UNLIMITED);
+		ExecutorService exec = Executors.newFixedThreadPool(2);
+		try {
+			task.setExecutor(exec);
+			assertFalse(task.call().isFinite());
+		} finally {
+			exec.shutdown();
+		}
+		boolean found = false;
+		for (WalkStats stats : task.getWalkStats()) {
+			found |= stats.foundInfinite();
+		}
+		assertTrue(found);
+	}
+
+	@Test
+	public void testSeedRepeatsParallelWalks() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		task.setNumWalks(4);
+		task.setSeed(42);
+		assertFalse(task.call().isFinite());
+		List<WalkStats> first = task.getWalkStats();
+
+		task.reset();
+		assertFalse(task.call().isFinite());
+		List<WalkStats> second = task.getWalkStats();
+		for (int i = 0; i < first.size(); i++) {
+			assertTrue(first.get(i).foundInfinite());
+			assertEquals(first.get(i).getSteps(), second.get(i).getSteps());
+		}
+	}
+
+	@Test
+	public void testTimeLimit() throws Exception {
+		FastInfiniteCheck task = new FastInfiniteCheck(DynkinDiagram.A5.getMatrix());
+		task.setNumWalks(2);
+		task.setMaxMutations(FastInfiniteCheck.UNLIMITED);
+		task.setTimeLimit(50, TimeUnit.MILLISECONDS);
+		assertFalse(task.call().hasFiniteSet());
+		for (WalkStats stats : task.getWalkStats()) {
+			assertTrue(stats.getSteps() > 0);
+		}
+	}
+
+	@Test
+	public void testCertificate() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 2, 0, -2, 0, 1, 0, -1, 0);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		MatrixInfo info = task.call();
+		assertFalse(info.isFinite());
+		assertTrue(info.hasInfiniteCertificate());
+		assertTrue(task.getWalkStats().isEmpty());
+	}
+
+	@Test
+	public void testSkipCertificate() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 2, 0, -2, 0, 1, 0, -1, 0);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		task.setCheckCertificates(false);
+		MatrixInfo info = task.call();
+		assertFalse(info.hasInfiniteCertificate());
+		assertEquals(1, task.getWalkStats().size());
+	}
+
+	@Test(timeout = 10000)
+	public void testSingleVertex() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(3, 1, 0, 1, -1);
+		FastInfiniteCheck task = new FastInfiniteCheck(mat);
+		task.setNumWalks(2);
+		MatrixInfo info = task.call();
+		assertFalse(info.hasFiniteSet());
+		assertTrue(task.getWalkStats().isEmpty());
+	}
 }
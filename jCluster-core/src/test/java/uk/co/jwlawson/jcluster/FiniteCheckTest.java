@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * FiniteCheckTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.MatrixInfo;
+import uk.co.jwlawson.jcluster.data.MutationClassRegistry;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class FiniteCheckTest {
+
+	@Test
+	public void testFiniteD5() throws Exception {
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setMatrix(DynkinDiagram.D5.getMatrix());
+
+		MatrixInfo info = task.call();
+		assertTrue(info.isFinite());
+		assertEquals(26, info.getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testFiniteE6Reused() throws Exception {
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setMatrix(DynkinDiagram.A4.getMatrix());
+		assertEquals(6, task.call().getEquivMutationClassSize());
+
+		task.reset();
+		task.setMatrix(DynkinDiagram.E6.getMatrix());
+		MatrixInfo info = task.call();
+		assertTrue(info.isFinite());
+		assertEquals(67, info.getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testInfinite() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setMatrix(mat);
+
+		MatrixInfo info = task.call();
+		assertTrue(info.hasFiniteSet());
+		assertFalse(info.isFinite());
+	}
+
+	@Test
+	public void testLargeEntries() throws Exception {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setRegistry(registry);
+		task.setMatrix(new QuiverMatrix(2, 2, 0, 4, -4, 0));
+		MatrixInfo info = task.call();
+		assertTrue(info.hasFiniteSet());
+		assertFalse(info.isFinite());
+
+		task.reset();
+		task.setMatrix(new QuiverMatrix(3, 3, 0, 5, 0, -1, 0, 1, 0, -1, 0));
+		info = task.call();
+		assertTrue(info.hasFiniteSet());
+		assertFalse(info.isFinite());
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testCertificate() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 2, 1, -2, 0, 0, -1, 0, 0);
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setRegistry(null);
+		task.setMatrix(mat);
+
+		MatrixInfo info = task.call();
+		assertFalse(info.isFinite());
+		assertTrue(info.hasInfiniteCertificate());
+	}
+
+	@Test
+	public void testRegistry() throws Exception {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setRegistry(registry);
+		task.setMatrix(DynkinDiagram.E7.getMatrix());
+		task.call();
+		assertEquals(416, registry.size());
+
+		// Any other quiver in the class is now answered from the registry
+		QuiverMatrix other = DynkinDiagram.E7.getMatrix().mutate(3);
+		task.reset();
+		task.setMatrix(other);
+		MatrixInfo info = task.call();
+		assertTrue(info.isFinite());
+		assertEquals(416, info.getEquivMutationClassSize());
+		assertEquals(416, registry.size());
+	}
+
+	@Test
+	public void testNoWalkers() throws Exception {
+		FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+		task.setRegistry(null);
+		task.setNumWalkers(0);
+		task.setMatrix(DynkinDiagram.E7.getMatrix());
+
+		MatrixInfo info = task.call();
+		assertTrue(info.isFinite());
+		assertEquals(416, info.getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testSharedExecutor() throws Exception {
+		ExecutorService exec = Executors.newFixedThreadPool(3);
+		try {
+			FiniteCheck<QuiverMatrix> task = new FiniteCheck<QuiverMatrix>();
+			task.setRegistry(null);
+			task.setExecutor(exec);
+			task.setMatrix(DynkinDiagram.E7.getMatrix());
+			assertEquals(416, task.call().getEquivMutationClassSize());
+
+			task.reset();
+			task.setMatrix(DynkinDiagram.E6.getMatrix());
+			assertEquals(67, task.call().getEquivMutationClassSize());
+			assertFalse(exec.isShutdown());
+		} finally {
+			exec.shutdownNow();
+		}
+	}
+}
@@ -16,12 +16,16 @@ package uk.co.jwlawson.jcluster;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +41,9 @@ public class MutClassSizeTaskTest {
 
 	private final Logger log = LoggerFactory.getLogger(getClass());
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testA4() {
 		log.debug("Starting test");
@@ -138,4 +145,156 @@ public class MutClassSizeTaskTest {
 		}
 	}
 
+	@Test
+	public void testD5MappedTable() throws Exception {
+		MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setWorkingDirectory(folder.getRoot());
+
+		assertEquals(2184, task.call().getMutationClassSize());
+		assertEquals("Table file removed", 0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testD5ExpectedSize() throws Exception {
+		MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setExpectedSize(2184);
+		assertEquals(2184, task.call().getMutationClassSize());
+
+		// The size is only a hint, so a wrong guess still gives the right answer
+		task.reset();
+		task.setExpectedSize(10);
+		assertEquals(2184, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testD5SeenFilter() throws Exception {
+		MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setUseSeenFilter(true);
+		assertEquals(2184, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testD5MemoryBudget() throws Exception {
+		MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setWorkingDirectory(folder.getRoot());
+		task.setMemoryBudget(1);
+
+		assertEquals(2184, task.call().getMutationClassSize());
+		assertEquals("Spill files removed", 0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testLargeMatrixStartsQuickly() throws Exception {
+		// Used to allocate 2^(3n-3) slots before starting, which overflows for n = 11
+		int[] quiver = { 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0 };
+		QuiverMatrix mat = new QuiverMatrix(11, 11);
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 4; j++) {
+				mat.set(i, j, quiver[4 * i + j]);
+			}
+		}
+		for (int i = 3; i < 10; i++) {
+			mat.set(i, i + 1, 1);
+			mat.set(i + 1, i, -1);
+		}
+		MutClassSizeTask<QuiverMatrix> task = new MutClassSizeTask<QuiverMatrix>(mat);
+		assertEquals(AbstractMutClassSizeTask.INFINITE, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testStopAndResume() throws Exception {
+		File checkpoint = new File(folder.getRoot(), "d5.checkpoint");
+		final MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setIterationsBetweenStats(500);
+		task.setCheckpointFile(checkpoint, 0, TimeUnit.SECONDS);
+		task.addListener(new AbstractMutClassSizeTask.StatsListener() {
+			@Override
+			public void statsUpdated(final AbstractMutClassSizeTask<?>.Stats stats) {
+				task.requestStop();
+			}
+		});
+		assertEquals(AbstractMutClassSizeTask.STOP, task.call().getMutationClassSize());
+
+		MutClassSizeTask<QuiverMatrix> resumed =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		resumed.resumeFrom(checkpoint);
+		assertEquals(2184, resumed.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testStopAndResumeOffHeap() throws Exception {
+		// Large enough for the frontier to spill, so checkpoints stream the spill files
+		File checkpoint = new File(folder.getRoot(), "d6.checkpoint");
+		File work = folder.newFolder("work");
+		final MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D6.getMatrix());
+		task.setWorkingDirectory(work);
+		task.setMemoryBudget(1);
+		task.setIterationsBetweenStats(15000);
+		task.setCheckpointFile(checkpoint, 0, TimeUnit.SECONDS);
+		task.addListener(new AbstractMutClassSizeTask.StatsListener() {
+			@Override
+			public void statsUpdated(final AbstractMutClassSizeTask<?>.Stats stats) {
+				task.requestStop();
+			}
+		});
+		assertEquals(AbstractMutClassSizeTask.STOP, task.call().getMutationClassSize());
+		assertEquals(0, work.list().length);
+
+		MutClassSizeTask<QuiverMatrix> resumed =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D6.getMatrix());
+		resumed.setWorkingDirectory(work);
+		resumed.setMemoryBudget(1);
+		resumed.resumeFrom(checkpoint);
+		assertEquals(40320, resumed.call().getMutationClassSize());
+		assertEquals(0, work.list().length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResumeDifferentMatrix() throws Exception {
+		File checkpoint = new File(folder.getRoot(), "a4.checkpoint");
+		final MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.A4.getMatrix());
+		task.setIterationsBetweenStats(10);
+		task.setCheckpointFile(checkpoint, 1, TimeUnit.HOURS);
+		task.addListener(new AbstractMutClassSizeTask.StatsListener() {
+			@Override
+			public void statsUpdated(final AbstractMutClassSizeTask<?>.Stats stats) {
+				task.requestStop();
+			}
+		});
+		task.call();
+
+		MutClassSizeTask<QuiverMatrix> resumed =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D4.getMatrix());
+		resumed.resumeFrom(checkpoint);
+		resumed.call();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testResumeDifferentTask() throws Exception {
+		// Both tasks use keys of two longs for D5, so only the task type tells them apart
+		File checkpoint = new File(folder.getRoot(), "d5.checkpoint");
+		final MutClassSizeTask<QuiverMatrix> task =
+				new MutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix());
+		task.setIterationsBetweenStats(10);
+		task.setCheckpointFile(checkpoint, 1, TimeUnit.HOURS);
+		task.addListener(new AbstractMutClassSizeTask.StatsListener() {
+			@Override
+			public void statsUpdated(final AbstractMutClassSizeTask<?>.Stats stats) {
+				task.requestStop();
+			}
+		});
+		task.call();
+
+		EquivMutClassSizeTask resumed = new EquivMutClassSizeTask(DynkinDiagram.D5.getMatrix());
+		resumed.resumeFrom(checkpoint);
+		resumed.call();
+	}
+
 }
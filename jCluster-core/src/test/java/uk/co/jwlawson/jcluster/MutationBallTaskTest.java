@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationBallTaskTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class MutationBallTaskTest {
+
+	private static int total(final List<? extends List<?>> levels) {
+		int total = 0;
+		for (List<?> level : levels) {
+			total += level.size();
+		}
+		return total;
+	}
+
+	@Test
+	public void testRadiusZero() throws Exception {
+		List<List<QuiverMatrix>> levels =
+				new MutationBallTask<QuiverMatrix>(DynkinDiagram.A4.getMatrix(), 0).call();
+		assertEquals(1, levels.size());
+		assertEquals(DynkinDiagram.A4.getMatrix(), levels.get(0).get(0));
+	}
+
+	@Test
+	public void testNeighbours() throws Exception {
+		List<List<QuiverMatrix>> levels = MutationClass.ball(DynkinDiagram.A4.getMatrix(), 1);
+		assertEquals(2, levels.size());
+		assertEquals(4, levels.get(1).size());
+	}
+
+	@Test
+	public void testWholeClass() throws Exception {
+		MutationBallTask<QuiverMatrix> task =
+				new MutationBallTask<QuiverMatrix>(DynkinDiagram.A5.getMatrix(), 50);
+		task.setNumThreads(4);
+		List<List<QuiverMatrix>> levels = task.call();
+		assertEquals(1980, total(levels));
+		// Stopped once a level is empty rather than going out to the radius
+		assertTrue(levels.size() < 50);
+	}
+
+	@Test
+	public void testUpToEquivalence() throws Exception {
+		List<List<EquivQuiverMatrix>> levels =
+				MutationClass.ball(new EquivQuiverMatrix(DynkinDiagram.E6.getMatrix()), 50);
+		assertEquals(67, total(levels));
+	}
+
+	@Test
+	public void testInfiniteClass() throws Exception {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		MutationBallTask<QuiverMatrix> single = new MutationBallTask<QuiverMatrix>(mat, 6);
+		single.setNumThreads(1);
+		List<List<QuiverMatrix>> levels = single.call();
+		assertEquals(7, levels.size());
+
+		boolean large = false;
+		for (QuiverMatrix m : levels.get(6)) {
+			large |= m.isInfinite();
+		}
+		assertTrue("Matrices with large entries are explored", large);
+
+		MutationBallTask<QuiverMatrix> parallel = new MutationBallTask<QuiverMatrix>(mat, 6);
+		parallel.setNumThreads(4);
+		List<List<QuiverMatrix>> parallelLevels = parallel.call();
+		for (int d = 0; d < levels.size(); d++) {
+			Set<QuiverMatrix> expected = new HashSet<QuiverMatrix>(levels.get(d));
+			assertEquals(expected, new HashSet<QuiverMatrix>(parallelLevels.get(d)));
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void testEntriesTooLargeToMutate() throws Exception {
+		// Entries of this class grow doubly exponentially with the number of mutations
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 3, 3, -3, 0, 3, -3, -3, 0);
+		MutationBallTask<QuiverMatrix> task = new MutationBallTask<QuiverMatrix>(mat, 20);
+		task.setNumThreads(2);
+		task.call();
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationClassIteratorTest.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class MutationClassIteratorTest {
+
+	@Test
+	public void testA4() {
+		int count = 0;
+		for (QuiverMatrix m : MutationClass.members(DynkinDiagram.A4.getMatrix())) {
+			assertFalse(m.isInfinite());
+			count++;
+		}
+		assertEquals(144, count);
+	}
+
+	@Test
+	public void testD5Equiv() {
+		Set<EquivQuiverMatrix> seen = new HashSet<EquivQuiverMatrix>();
+		for (EquivQuiverMatrix m : MutationClass.members(new EquivQuiverMatrix(
+				DynkinDiagram.D5.getMatrix()))) {
+			assertTrue("Matrix returned twice " + m, seen.add(m));
+		}
+		assertEquals(26, seen.size());
+	}
+
+	@Test
+	public void testFirstIsInitial() {
+		QuiverMatrix initial = DynkinDiagram.A5.getMatrix();
+		assertEquals(initial, MutationClass.iterator(initial).next());
+	}
+
+	@Test
+	public void testInfinite() {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		MutationClassIterator<QuiverMatrix> it = MutationClass.iterator(mat);
+		assertNull(it.getInfiniteMatrix());
+		while (it.hasNext()) {
+			assertFalse(it.next().isInfinite());
+		}
+		assertNotNull(it.getInfiniteMatrix());
+		assertTrue(it.getInfiniteMatrix().isInfinite());
+	}
+
+	@Test
+	public void testInitialInfinite() {
+		QuiverMatrix mat = new QuiverMatrix(3, 3, 0, 3, 0, -3, 0, 1, 0, -1, 0);
+		MutationClassIterator<QuiverMatrix> it = MutationClass.iterator(mat);
+		assertFalse(it.hasNext());
+		assertEquals(mat, it.getInfiniteMatrix());
+	}
+
+	@Test
+	public void testSplit() throws Exception {
+		MutationClassIterator<EquivQuiverMatrix> first =
+				MutationClass.iterator(new EquivQuiverMatrix(DynkinDiagram.E7.getMatrix()));
+		// Take a few members to build up a frontier to split
+		int count = 0;
+		for (int i = 0; i < 10; i++) {
+			first.next();
+			count++;
+		}
+		MutationClassIterator<EquivQuiverMatrix> second = first.trySplit();
+		assertNotNull(second);
+
+		ExecutorService exec = Executors.newFixedThreadPool(2);
+		try {
+			Future<Integer> a = exec.submit(new Counter(first));
+			Future<Integer> b = exec.submit(new Counter(second));
+			count += a.get() + b.get();
+		} finally {
+			exec.shutdown();
+		}
+		assertEquals(416, count);
+	}
+
+	private static class Counter implements Callable<Integer> {
+
+		private final MutationClassIterator<?> mIterator;
+
+		Counter(final MutationClassIterator<?> iterator) {
+			mIterator = iterator;
+		}
+
+		@Override
+		public Integer call() {
+			int count = 0;
+			while (mIterator.hasNext()) {
+				mIterator.next();
+				count++;
+				MutationClassIterator<?> split = mIterator.trySplit();
+				if (split != null) {
+					count += new Counter(split).call();
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationPathFinderTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.QuiverCanonicaliser;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class MutationPathFinderTest {
+
+	private final MutationPathFinder mFinder = new MutationPathFinder();
+
+	private static QuiverMatrix mutateAll(final QuiverMatrix start, final int... vertices) {
+		QuiverMatrix result = start;
+		for (int v : vertices) {
+			result = result.mutate(v);
+		}
+		return result;
+	}
+
+	/** Reorder the vertices of a square matrix, putting vertex i at position perm[i]. */
+	private static QuiverMatrix permute(final QuiverMatrix matrix, final int... perm) {
+		int n = matrix.getNumRows();
+		QuiverMatrix result = new QuiverMatrix(n, n);
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				result.set(perm[i], perm[j], matrix.get(i, j));
+			}
+		}
+		return result;
+	}
+
+	private static void assertEquivalent(final QuiverMatrix expected, final QuiverMatrix actual) {
+		int n = expected.getNumRows();
+		QuiverCanonicaliser canon = new QuiverCanonicaliser(n, expected.getNumCols());
+		long[] a = new long[2];
+		long[] b = new long[2];
+		canon.getKey(expected, a, 0, null);
+		canon.getKey(actual, b, 0, null);
+		assertArrayEquals(a, b);
+	}
+
+	@Test
+	public void testSameQuiver() {
+		QuiverMatrix e6 = DynkinDiagram.E6.getMatrix();
+		assertEquals(0, mFinder.findPath(e6, permute(e6, 5, 4, 3, 2, 1, 0)).length);
+	}
+
+	@Test
+	public void testSingleMutation() {
+		QuiverMatrix a3 = DynkinDiagram.A3.getMatrix();
+		int[] path = mFinder.findPath(a3, a3.mutate(0));
+		assertNotNull(path);
+		assertEquals(1, path.length);
+		assertEquivalent(a3.mutate(0), a3.mutate(path[0]));
+	}
+
+	@Test
+	public void testPathReachesTarget() {
+		QuiverMatrix e7 = DynkinDiagram.E7.getMatrix();
+		QuiverMatrix target = permute(mutateAll(e7, 0, 2, 4, 3, 6), 3, 1, 6, 0, 5, 2, 4);
+		int[] path = mFinder.findPath(e7, target);
+		assertNotNull(path);
+		assertTrue(path.length <= 5);
+		assertEquivalent(target, mutateAll(e7, path));
+		assertTrue(mFinder.isConclusive());
+	}
+
+	@Test
+	public void testInfiniteClass() {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		QuiverMatrix target = mutateAll(mat, 0, 1, 3);
+		int[] path = mFinder.findPath(mat, target);
+		assertNotNull(path);
+		assertEquivalent(target, mutateAll(mat, path));
+	}
+
+	@Test
+	public void testDifferentTypes() {
+		// Same rank, but only A4 is type A
+		assertNull(mFinder.findPath(DynkinDiagram.A4.getMatrix(), DynkinDiagram.D4.getMatrix()));
+		assertTrue(mFinder.isConclusive());
+		assertFalse(mFinder.areEquivalent(DynkinDiagram.E6.getMatrix(), DynkinDiagram.A6
+				.getMatrix()));
+		assertTrue(mFinder.isConclusive());
+	}
+
+	@Test
+	public void testDifferentRank() {
+		assertEquals(4, MutationPathFinder.rankModulo(DynkinDiagram.A4.getMatrix(), 2));
+		assertEquals(2, MutationPathFinder.rankModulo(DynkinDiagram.A3.getMatrix(), 3));
+	}
+
+	@Test
+	public void testWholeClassSearched() {
+		// Neither is type A or D and the ranks agree, so the whole class of E6 is searched
+		QuiverMatrix e6 = DynkinDiagram.E6.getMatrix();
+		QuiverMatrix other = new QuiverMatrix(6, 6);
+		other.set(e6);
+		other.set(0, 5, 1);
+		other.set(5, 0, -1);
+		for (long p : new long[] { 2, 3, 2147483647 }) {
+			assertEquals(MutationPathFinder.rankModulo(e6, p), MutationPathFinder.rankModulo(other, p));
+		}
+		assertNull(mFinder.findPath(e6, other));
+		assertTrue(mFinder.isConclusive());
+	}
+
+	@Test
+	public void testGiveUp() {
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		QuiverMatrix other = mutateAll(mat, 0, 1, 2, 3, 0);
+		mFinder.setMaxMatrices(2);
+		assertNull(mFinder.findPath(mat, other));
+		assertFalse(mFinder.isConclusive());
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ParallelMutClassSizeTaskTest.java is part of JCluster. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class ParallelMutClassSizeTaskTest {
+
+	@Test
+	public void testA3() throws Exception {
+		ParallelMutClassSizeTask<QuiverMatrix> task =
+				new ParallelMutClassSizeTask<QuiverMatrix>(DynkinDiagram.A3.getMatrix(), 4);
+		assertEquals(14, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testA5() throws Exception {
+		ParallelMutClassSizeTask<QuiverMatrix> task =
+				new ParallelMutClassSizeTask<QuiverMatrix>(DynkinDiagram.A5.getMatrix(), 4);
+		assertEquals(1980, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testD5() throws Exception {
+		ParallelMutClassSizeTask<QuiverMatrix> task =
+				new ParallelMutClassSizeTask<QuiverMatrix>(DynkinDiagram.D5.getMatrix(), 4);
+		assertEquals(2184, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testMatchesSingleThreaded() throws Exception {
+		QuiverMatrix matrix = DynkinDiagram.E6.getMatrix();
+		int expected =
+				new MutClassSizeTask<QuiverMatrix>(matrix).call().getMutationClassSize();
+		ParallelMutClassSizeTask<QuiverMatrix> task =
+				new ParallelMutClassSizeTask<QuiverMatrix>(matrix, 4);
+		assertEquals(expected, task.call().getMutationClassSize());
+	}
+
+	@Test
+	public void testInf() throws Exception {
+		QuiverMatrix mat =
+				new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		ParallelMutClassSizeTask<QuiverMatrix> task =
+				new ParallelMutClassSizeTask<QuiverMatrix>(mat, 4);
+		assertEquals(-1, task.call().getMutationClassSize());
+	}
+}
@@ -15,6 +15,7 @@
 package uk.co.jwlawson.jcluster;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -85,6 +86,35 @@ public class RunMutationClassTest {
 		}
 	}
 
+	@Test
+	public void testInfinite() throws Exception {
+		EquivQuiverMatrix mat =
+				new EquivQuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		int members = 0;
+		for (EquivQuiverMatrix m : MutationClass.members(mat)) {
+			members++;
+		}
+		CountTaskFactory<EquivQuiverMatrix> factory = new CountTaskFactory<EquivQuiverMatrix>() {
+
+			@Override
+			public MatrixTask<EquivQuiverMatrix> getTask(final EquivQuiverMatrix matrix) {
+				assertFalse("Task submitted for infinite matrix " + matrix, matrix.isInfinite());
+				return super.getTask(matrix);
+			}
+		};
+		RunMutationClass task = RunMutationClass.getInstance(mat);
+		task.setResultHandler(new ResultHandler());
+		task.addTaskFactory(factory);
+
+		ExecutorService thread = Executors.newSingleThreadExecutor();
+		try {
+			thread.submit(task).get();
+			assertEquals(members - 1, factory.getCount());
+		} finally {
+			thread.shutdown();
+		}
+	}
+
 	/**
 	 * Dummy result handler which does nothing when a new result comes in and just returns null at the
 	 * end.
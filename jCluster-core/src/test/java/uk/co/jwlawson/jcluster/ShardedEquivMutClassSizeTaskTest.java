@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ShardedEquivMutClassSizeTaskTest.java is part of JCluster. Licensed under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.data.DynkinDiagram;
+import uk.co.jwlawson.jcluster.data.EquivQuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class ShardedEquivMutClassSizeTaskTest {
+
+	@Test
+	public void testA3() throws Exception {
+		ShardedEquivMutClassSizeTask task =
+				new ShardedEquivMutClassSizeTask(DynkinDiagram.A3.getMatrix(), 3);
+		assertEquals(4, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testD5() throws Exception {
+		ShardedEquivMutClassSizeTask task =
+				new ShardedEquivMutClassSizeTask(DynkinDiagram.D5.getMatrix(), 3);
+		assertEquals(26, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testE6SmallQueues() throws Exception {
+		// Tiny queues force the shards to hold back quivers while the owner is busy
+		ShardedEquivMutClassSizeTask task =
+				new ShardedEquivMutClassSizeTask(DynkinDiagram.E6.getMatrix(), 4, 2);
+		assertEquals(67, task.call().getEquivMutationClassSize());
+	}
+
+	@Test
+	public void testSkewedShardsBounded() throws Exception {
+		int numShards = 4;
+		int queueSize = 2;
+		// Nearly every quiver is owned by the first shard, so the others are always waiting on it
+		ShardedEquivMutClassSizeTask task =
+				new ShardedEquivMutClassSizeTask(DynkinDiagram.E7.getMatrix(), numShards,
+						queueSize) {
+
+					@Override
+					int shardOf(final EquivQuiverMatrix matrix) {
+						return matrix.hashCode() % 8 == 0 ? super.shardOf(matrix) : 0;
+					}
+				};
+		assertEquals(416, task.call().getEquivMutationClassSize());
+		// Only new quivers are held outside the queues, besides those being sent or mutated
+		long bound = 416 + numShards * (queueSize + 7 + 1);
+		assertTrue("Too many quivers in flight: " + task.getMaxInFlight(),
+				task.getMaxInFlight() <= bound);
+	}
+
+	@Test
+	public void testInf() throws Exception {
+		QuiverMatrix mat =
+				new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		ShardedEquivMutClassSizeTask task = new ShardedEquivMutClassSizeTask(mat, 3);
+		assertEquals(-1, task.call().getEquivMutationClassSize());
+	}
+}
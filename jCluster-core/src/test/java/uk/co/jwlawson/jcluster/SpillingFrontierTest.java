@@ -0,0 +1,220 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * SpillingFrontierTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.co.jwlawson.jcluster.data.QuiverMatrix;
+import uk.co.jwlawson.jcluster.data.QuiverPacker;
+import uk.co.jwlawson.jcluster.pool.Pool;
+import uk.co.jwlawson.jcluster.pool.Pools;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class SpillingFrontierTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Pool<QuiverMatrix> mPool;
+	private SpillingFrontier<QuiverMatrix> mFrontier;
+
+	@Before
+	public void setUp() {
+		mPool = Pools.getQuiverMatrixPool(3, 3, QuiverMatrix.class);
+		mFrontier =
+				new SpillingFrontier<QuiverMatrix>(new QuiverPacker(3, 3, false), mPool,
+						folder.getRoot(), 4);
+	}
+
+	/** Get a different matrix for each index below 64. */
+	private QuiverMatrix matrix(final int index) {
+		QuiverMatrix result = new QuiverMatrix(3, 3);
+		fill(result, index);
+		return result;
+	}
+
+	/** Add the matrix for the index to the frontier, as the search does, through the pool. */
+	private void add(final int index) {
+		QuiverMatrix result = mPool.getObj();
+		fill(result, index);
+		mFrontier.add(result);
+	}
+
+	private void fill(final QuiverMatrix result, final int index) {
+		result.set(0, 1, index % 4);
+		result.set(1, 2, (index / 4) % 4);
+		result.set(0, 2, index / 16);
+	}
+
+	@Test
+	public void testOrderKeptWhenSpilling() {
+		mFrontier.setMaxInMemory(8);
+		for (int i = 0; i < 40; i++) {
+			add(i);
+		}
+		assertTrue(mFrontier.getNumSpilled() > 0);
+		assertTrue(folder.getRoot().list().length > 0);
+		assertEquals(40, mFrontier.size());
+
+		for (int i = 0; i < 20; i++) {
+			assertEquals(matrix(i), mFrontier.poll());
+		}
+		// Add more while some are still spilled
+		for (int i = 40; i < 64; i++) {
+			add(i);
+		}
+		for (int i = 20; i < 64; i++) {
+			assertEquals(matrix(i), mFrontier.poll());
+		}
+		assertTrue(mFrontier.isEmpty());
+		assertEquals("Spill files removed once read", 0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testAddFirst() {
+		mFrontier.setMaxInMemory(4);
+		for (int i = 1; i < 20; i++) {
+			add(i);
+		}
+		QuiverMatrix first = mFrontier.poll();
+		mFrontier.addFirst(first);
+		QuiverMatrix zero = mPool.getObj();
+		fill(zero, 0);
+		mFrontier.addFirst(zero);
+		for (int i = 0; i < 20; i++) {
+			assertEquals(matrix(i), mFrontier.poll());
+		}
+	}
+
+	@Test
+	public void testIterator() {
+		mFrontier.setMaxInMemory(4);
+		for (int i = 0; i < 30; i++) {
+			add(i);
+		}
+		mFrontier.addFirst(mFrontier.poll());
+
+		int i = 0;
+		for (QuiverMatrix m : mFrontier) {
+			assertEquals(matrix(i++), m);
+		}
+		assertEquals(30, i);
+	}
+
+	@Test
+	public void testSnapshotUnchangedByLaterUse() throws Exception {
+		// Put some matrices in the head and spill the rest, so the snapshot shares every part
+		for (int i = 0; i < 10; i++) {
+			add(i);
+		}
+		assertEquals(matrix(0), mFrontier.peek());
+		mFrontier.setMaxInMemory(4);
+		for (int i = 10; i < 30; i++) {
+			add(i);
+		}
+		SpillingFrontier<QuiverMatrix>.Snapshot snapshot = mFrontier.snapshot();
+		assertEquals(30, snapshot.size());
+
+		// Overwrite the space before the head, empty every array and read every spill file
+		mFrontier.poll();
+		QuiverMatrix other = mPool.getObj();
+		fill(other, 63);
+		mFrontier.addFirst(other);
+		while (!mFrontier.isEmpty()) {
+			mPool.returnObj(mFrontier.poll());
+		}
+		assertTrue("Spill files kept for the snapshot", folder.getRoot().list().length > 0);
+		for (int i = 40; i < 64; i++) {
+			add(i);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.writeTo(new DataOutputStream(bytes));
+		snapshot.close();
+
+		SpillingFrontier<QuiverMatrix> restored =
+				new SpillingFrontier<QuiverMatrix>(new QuiverPacker(3, 3, false), mPool, null, 4);
+		DataInputStream in =
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		long[] packed = new long[restored.getNumWords()];
+		for (int i = 0; i < 30; i++) {
+			for (int w = 0; w < packed.length; w++) {
+				packed[w] = in.readLong();
+			}
+			restored.addPacked(packed);
+		}
+		assertEquals(0, in.available());
+		for (int i = 0; i < 30; i++) {
+			assertEquals(matrix(i), restored.poll());
+		}
+
+		// Closing the snapshot deleted the files it kept, the rest go as they are read
+		for (int i = 40; i < 64; i++) {
+			assertEquals(matrix(i), mFrontier.poll());
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testClose() {
+		mFrontier.setMaxInMemory(4);
+		for (int i = 0; i < 30; i++) {
+			add(i);
+		}
+		long spilled = mFrontier.getNumSpilled();
+		mFrontier.close();
+		assertEquals(0, folder.getRoot().list().length);
+		assertEquals(30 - spilled, mFrontier.size());
+	}
+
+	@Test
+	public void testManyArrays() {
+		// Enough to need several arrays in each part, added and taken in turn
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 20000; i++) {
+				add(i % 64);
+			}
+			for (int i = 0; i < 20000; i++) {
+				assertEquals(matrix(i % 64), mFrontier.poll());
+			}
+		}
+		assertTrue(mFrontier.isEmpty());
+		assertNull(mFrontier.poll());
+	}
+
+	@Test
+	public void testUnlimitedNeverSpills() {
+		for (int i = 0; i < 64; i++) {
+			add(i);
+		}
+		assertEquals(0, mFrontier.getNumSpilled());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * DynkinRecogniserTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.MutationClass;
+import uk.co.jwlawson.jcluster.data.DynkinRecogniser.Type;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class DynkinRecogniserTest {
+
+	private final DynkinRecogniser recogniser = new DynkinRecogniser();
+
+	/** Check every quiver in the class is recognised, and the class has the expected size. */
+	private void checkClass(final DynkinDiagram diagram, final Type type) {
+		int count = 0;
+		for (EquivQuiverMatrix m : MutationClass.members(new EquivQuiverMatrix(diagram.getMatrix()))) {
+			assertEquals("Wrong type for " + m, type, recogniser.recognise(m));
+			count++;
+		}
+		if (type != null) {
+			int n = diagram.getMatrix().getNumRows();
+			assertEquals(BigInteger.valueOf(count), DynkinRecogniser.getEquivClassSize(type, n));
+		}
+	}
+
+	@Test
+	public void testTypeA() {
+		checkClass(DynkinDiagram.A3, Type.A);
+		checkClass(DynkinDiagram.A6, Type.A);
+		checkClass(DynkinDiagram.A8, Type.A);
+	}
+
+	@Test
+	public void testTypeD() {
+		checkClass(DynkinDiagram.D4, Type.D);
+		checkClass(DynkinDiagram.D5, Type.D);
+		checkClass(DynkinDiagram.D7, Type.D);
+	}
+
+	@Test
+	public void testTypeE() {
+		checkClass(DynkinDiagram.E6, null);
+		checkClass(DynkinDiagram.E7, null);
+	}
+
+	@Test
+	public void testAffine() {
+		// Non-oriented 4-cycle
+		checkClass(null, new QuiverMatrix(4, 4, 0, 1, 0, 1, -1, 0, 1, 0, 0, -1, 0, -1, -1, 0, 1, 0));
+		// Star with four arms
+		checkClass(null, new QuiverMatrix(5, 5, 0, 1, 1, 1, 1, -1, 0, 0, 0, 0, -1, 0, 0, 0, 0, -1,
+				0, 0, 0, 0, -1, 0, 0, 0, 0));
+	}
+
+	private void checkClass(final Type type, final QuiverMatrix matrix) {
+		for (EquivQuiverMatrix m : MutationClass.members(new EquivQuiverMatrix(matrix))) {
+			assertEquals("Wrong type for " + m, type, recogniser.recognise(m));
+		}
+	}
+
+	@Test
+	public void testNotSimplyLaced() {
+		assertNull(recogniser.recognise(DynkinDiagram.B3.getMatrix()));
+		assertNull(recogniser.recognise(DynkinDiagram.G2.getMatrix()));
+	}
+
+	@Test
+	public void testDisconnected() {
+		assertNull(recogniser.recognise(new QuiverMatrix(3, 3, 0, 1, 0, -1, 0, 0, 0, 0, 0)));
+	}
+
+	@Test
+	public void testLargeSizes() {
+		assertEquals(BigInteger.valueOf(4522), DynkinRecogniser.getEquivClassSize(Type.A, 10));
+		assertEquals(BigInteger.valueOf(9252), DynkinRecogniser.getEquivClassSize(Type.D, 10));
+	}
+
+	@Test
+	public void testFillInfo() {
+		MatrixInfo info = new MatrixInfo(DynkinDiagram.D6.getMatrix());
+		assertTrue(recogniser.fillInfo(info));
+		assertTrue(info.isFinite());
+		assertEquals(80, info.getEquivMutationClassSize());
+		assertEquals(DynkinDiagram.D6, info.getDynkinDiagram());
+
+		info = new MatrixInfo(DynkinDiagram.E6.getMatrix());
+		assertFalse(recogniser.fillInfo(info));
+		assertFalse(info.hasFiniteSet());
+	}
+}
@@ -131,4 +131,40 @@ public class EquivQuiverMatrixTest {
 						0);
 		assertEquals(m1.multRight(perm), m2.multLeft(perm));
 	}
+
+	@Test
+	public void testLargeSymmetricPermuted() {
+		// Star quiver with 9 identical leaves, so every leaf is a candidate for every other leaf
+		int size = 10;
+		int[] perm = { 3, 7, 0, 9, 1, 8, 2, 6, 5, 4 };
+		EquivQuiverMatrix m1 = new EquivQuiverMatrix(size, size);
+		EquivQuiverMatrix m2 = new EquivQuiverMatrix(size, size);
+		for (int i = 1; i < size; i++) {
+			m1.set(0, i, 1);
+			m1.set(i, 0, -1);
+			m2.set(perm[0], perm[i], 1);
+			m2.set(perm[i], perm[0], -1);
+		}
+
+		assertTrue("Permuted star quivers", m1.equals(m2));
+	}
+
+	@Test
+	public void testLargeSameInvariantsNotEquivalent() {
+		// An oriented 9-cycle and three oriented 3-cycles have identical row and column data
+		int size = 9;
+		EquivQuiverMatrix cycle = new EquivQuiverMatrix(size, size);
+		EquivQuiverMatrix triangles = new EquivQuiverMatrix(size, size);
+		for (int i = 0; i < size; i++) {
+			int next = (i + 1) % size;
+			cycle.set(i, next, 1);
+			cycle.set(next, i, -1);
+			int triNext = 3 * (i / 3) + (i + 1) % 3;
+			triangles.set(i, triNext, 1);
+			triangles.set(triNext, i, -1);
+		}
+
+		assertEquals(cycle.hashCode(), triangles.hashCode());
+		assertFalse("Cycle and triangles not equivalent", cycle.equals(triangles));
+	}
 }
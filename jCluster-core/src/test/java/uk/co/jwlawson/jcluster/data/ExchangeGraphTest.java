@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * ExchangeGraphTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import uk.co.jwlawson.jcluster.EquivMutClassSizeTask;
+import uk.co.jwlawson.jcluster.MutClassSizeTask;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class ExchangeGraphTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Cycle of {@code n} vertices, with links 0 and 1 going either way round. */
+	private ExchangeGraph cycle(final int n) {
+		ExchangeGraphBuilder builder = new ExchangeGraphBuilder(1, 2, 0);
+		long[] key = new long[1];
+		for (int v = 0; v < n; v++) {
+			key[0] = v + 1;
+			builder.getId(key, 0);
+		}
+		for (int v = 0; v < n; v++) {
+			builder.setNeighbour(v, 0, (v + 1) % n);
+			builder.setNeighbour(v, 1, (v + n - 1) % n);
+		}
+		return builder.build();
+	}
+
+	@Test
+	public void testBuilderIds() {
+		ExchangeGraphBuilder builder = new ExchangeGraphBuilder(2, 3, 0);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, builder.getId(new long[] { i + 1, 7 }, 0));
+		}
+		assertEquals(42, builder.getId(new long[] { 43, 7 }, 0));
+		ExchangeGraph graph = builder.build();
+		assertEquals(100, graph.getNumVertices());
+		assertEquals(ExchangeGraph.NO_NEIGHBOUR, graph.getNeighbour(99, 2));
+	}
+
+	@Test
+	public void testCycleQueries() throws Exception {
+		ExchangeGraph pentagon = cycle(5);
+		assertEquals(2, pentagon.getDiameter(2));
+		assertEquals(1, pentagon.countCycles(5, 2));
+		assertEquals(0, pentagon.countCycles(4, 2));
+		assertArrayEquals(new int[] { 1, 1 }, pentagon.getShortestPath(0, 3));
+		assertArrayEquals(new int[] { 0, 0 }, pentagon.getShortestPath(0, 2));
+	}
+
+	@Test
+	public void testDisconnected() {
+		ExchangeGraphBuilder builder = new ExchangeGraphBuilder(1, 1, 0);
+		builder.getId(new long[] { 1 }, 0);
+		builder.getId(new long[] { 2 }, 0);
+		ExchangeGraph graph = builder.build();
+		assertNull(graph.getShortestPath(0, 1));
+		assertEquals(-1, graph.getDistances(0)[1]);
+	}
+
+	@Test
+	public void testRecordA4() throws Exception {
+		QuiverMatrix initial = DynkinDiagram.A4.getMatrix();
+		MutClassSizeTask<QuiverMatrix> task = new MutClassSizeTask<QuiverMatrix>(initial);
+		task.setRecordExchangeGraph(true);
+		assertEquals(144, task.call().getMutationClassSize());
+
+		ExchangeGraph graph = task.getExchangeGraph();
+		assertNotNull(graph);
+		assertEquals(144, graph.getNumVertices());
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			for (int i = 0; i < graph.getDegree(); i++) {
+				// Mutation is an involution
+				assertEquals(v, graph.getNeighbour(graph.getNeighbour(v, i), i));
+			}
+		}
+
+		// Follow a shortest path to the furthest matrix and check it arrives at that matrix
+		int[] dist = graph.getDistances(0);
+		int far = 0;
+		for (int v = 0; v < dist.length; v++) {
+			if (dist[v] > dist[far]) {
+				far = v;
+			}
+		}
+		assertTrue(graph.getDiameter(1) >= dist[far]);
+		int[] path = graph.getShortestPath(0, far);
+		assertEquals(dist[far], path.length);
+		QuiverMatrix mat = new QuiverMatrix(initial);
+		for (int i : path) {
+			mat = mat.mutate(i, new QuiverMatrix(4, 4));
+		}
+		QuiverEncoder encoder = new QuiverEncoder(4, 4);
+		long[] expected = new long[graph.getNumWords()];
+		long[] actual = new long[graph.getNumWords()];
+		graph.getKey(far, expected, 0);
+		encoder.encode(mat, actual, 0);
+		assertArrayEquals(expected, actual);
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(DynkinDiagram.E6.getMatrix());
+		task.setRecordExchangeGraph(true);
+		assertEquals(67, task.call().getEquivMutationClassSize());
+		ExchangeGraph graph = task.getExchangeGraph();
+
+		File file = folder.newFile("e6.graph");
+		graph.write(file);
+		ExchangeGraph read = ExchangeGraph.read(file);
+
+		assertEquals(graph.getNumVertices(), read.getNumVertices());
+		assertEquals(graph.getDegree(), read.getDegree());
+		long[] a = new long[graph.getNumWords()];
+		long[] b = new long[graph.getNumWords()];
+		for (int v = 0; v < graph.getNumVertices(); v++) {
+			graph.getKey(v, a, 0);
+			read.getKey(v, b, 0);
+			assertArrayEquals(a, b);
+			for (int i = 0; i < graph.getDegree(); i++) {
+				assertEquals(graph.getNeighbour(v, i), read.getNeighbour(v, i));
+			}
+		}
+		assertEquals(graph.getDiameter(2), read.getDiameter(2));
+		assertEquals(graph.countCycles(4, 2), read.countCycles(4, 2));
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * FilteredLinkTableTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class FilteredLinkTableTest {
+
+	private long[] key(final long value) {
+		return new long[] {Long.MIN_VALUE | value, value * 31};
+	}
+
+	@Test
+	public void testPutAndGet() {
+		FilteredLinkTable table = new FilteredLinkTable(new QuiverLinkTable(2, 3, 0), 2, 0);
+		assertTrue(table.putIfAbsent(key(1), 0, 1L));
+		assertFalse(table.putIfAbsent(key(1), 0, 2L));
+		assertTrue(table.mightContain(key(1), 0));
+		assertEquals(1L, table.getLinks(key(1), 0));
+		assertEquals(LinkTable.NO_ENTRY, table.getLinks(key(2), 0));
+		assertEquals(LinkTable.NOT_FOUND, table.setLinkAt(key(2), 0, 1));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void testNoFalseNegativesWhileGrowing() {
+		FilteredLinkTable table = new FilteredLinkTable(new QuiverLinkTable(2, 2, 0), 2, 0);
+		int num = 20000;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 1L);
+			if (i % 3 == 0) {
+				assertEquals(LinkTable.COMPLETED, table.setLinkAt(key(i), 0, 1));
+			}
+		}
+		for (int i = 0; i < num; i++) {
+			assertEquals(i % 3 != 0, table.contains(key(i), 0));
+			if (i % 3 != 0) {
+				assertTrue(table.mightContain(key(i), 0));
+			}
+		}
+		assertEquals(num - (num + 2) / 3, table.size());
+	}
+
+	@Test
+	public void testFewFalsePositives() {
+		FilteredLinkTable table = new FilteredLinkTable(new QuiverLinkTable(2, 2, 0), 2, 0);
+		int num = 20000;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 0L);
+		}
+		int falsePositives = 0;
+		for (int i = num; i < 2 * num; i++) {
+			if (table.mightContain(key(i), 0)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < num / 50);
+	}
+
+	@Test
+	public void testFilterShrinksWhenEntriesRemoved() {
+		FilteredLinkTable table = new FilteredLinkTable(new QuiverLinkTable(2, 2, 0), 2, 0);
+		int num = 20000;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 0L);
+		}
+		int fullWords = table.getFilterWords();
+		for (int i = 10; i < num; i++) {
+			table.remove(key(i), 0);
+		}
+		// Keep only a few entries live while adding many more
+		for (int i = num; i < 5 * num; i++) {
+			table.putIfAbsent(key(i), 0, 0L);
+			table.remove(key(i), 0);
+		}
+		assertTrue("Filter words: " + table.getFilterWords(),
+				table.getFilterWords() * 16 <= fullWords);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(table.contains(key(i), 0));
+		}
+	}
+}
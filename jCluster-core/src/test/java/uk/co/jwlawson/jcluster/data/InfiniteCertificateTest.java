@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * InfiniteCertificateTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.AbstractMutClassSizeTask;
+import uk.co.jwlawson.jcluster.EquivMutClassSizeTask;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class InfiniteCertificateTest {
+
+	@Test
+	public void testAllRankThree() throws Exception {
+		for (int x = -2; x <= 2; x++) {
+			for (int y = -2; y <= 2; y++) {
+				for (int z = -2; z <= 2; z++) {
+					QuiverMatrix matrix = new QuiverMatrix(3, 3, 0, x, y, -x, 0, z, -y, -z, 0);
+					int size = new EquivMutClassSizeTask(matrix).call().getEquivMutationClassSize();
+					boolean infinite = size == AbstractMutClassSizeTask.INFINITE;
+					boolean certified = InfiniteCertificate.find(matrix) != null;
+					assertEquals(matrix.toString(), infinite, certified);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDynkin() {
+		for (DynkinDiagram diagram : DynkinDiagram.TEST_SET) {
+			assertNull(diagram.toString(), InfiniteCertificate.find(diagram.getMatrix()));
+		}
+	}
+
+	@Test
+	public void testMarkov() {
+		QuiverMatrix markov = new QuiverMatrix(3, 3, 0, 2, -2, -2, 0, 2, 2, -2, 0);
+		assertNull(InfiniteCertificate.find(markov));
+	}
+
+	@Test
+	public void testTriangleInside() {
+		// A double arrow 1 -> 3 followed by an arrow 3 -> 4, next to a single arrow 0 -> 2
+		QuiverMatrix matrix =
+				new QuiverMatrix(5, 5, 0, 0, 1, 0, 0, 0, 0, 0, 2, 0, -1, 0, 0, 0, 0, 0, -2, 0, 0, 1,
+						0, 0, 0, -1, 0);
+		InfiniteCertificate certificate = InfiniteCertificate.find(matrix);
+		assertNotNull(certificate);
+		assertEquals(InfiniteCertificate.Type.TRIANGLE, certificate.getType());
+		assertArrayEquals(new int[] {1, 3, 4}, certificate.getVertices());
+	}
+
+	@Test
+	public void testHeavyPair() {
+		QuiverMatrix matrix = new QuiverMatrix(3, 3, 0, 3, 0, -3, 0, 0, 0, 0, 0);
+		assertNull(InfiniteCertificate.find(matrix));
+
+		matrix = new QuiverMatrix(3, 3, 0, 3, 0, -3, 0, 1, 0, -1, 0);
+		InfiniteCertificate certificate = InfiniteCertificate.find(matrix);
+		assertEquals(InfiniteCertificate.Type.HEAVY_PAIR, certificate.getType());
+		assertArrayEquals(new int[] {0, 1, 2}, certificate.getVertices());
+	}
+
+	@Test
+	public void testSkewSymmetrizable() {
+		// Weight 4 is allowed in finite skew-symmetrizable matrices, weight 6 is not
+		QuiverMatrix four = new QuiverMatrix(3, 3, 0, 4, 0, -1, 0, 1, 0, -1, 0);
+		assertNull(InfiniteCertificate.find(four));
+		QuiverMatrix six = new QuiverMatrix(3, 3, 0, 3, 0, -2, 0, 1, 0, -1, 0);
+		assertNotNull(InfiniteCertificate.find(six));
+	}
+
+	@Test
+	public void testFrozenIgnored() {
+		QuiverMatrix matrix = new QuiverMatrix(4, 3, 0, 1, 0, -1, 0, 1, 0, -1, 0, 2, 2, 2);
+		assertNull(InfiniteCertificate.find(matrix));
+	}
+}
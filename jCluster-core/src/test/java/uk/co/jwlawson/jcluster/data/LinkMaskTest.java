@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * LinkMaskTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class LinkMaskTest {
+
+	@Test
+	public void testSetLink() {
+		LinkMask mask = new LinkMask(3);
+		assertFalse(mask.hasLink(1));
+		assertTrue(mask.setLinkAt(1));
+		assertTrue(mask.hasLink(1));
+		assertFalse(mask.setLinkAt(1));
+		assertEquals(2L, mask.getLinks());
+	}
+
+	@Test
+	public void testComplete() {
+		LinkMask mask = new LinkMask(3, 0);
+		assertTrue(mask.hasLink(0));
+		assertFalse(mask.isComplete());
+		mask.setLinkAt(1);
+		mask.setLinkAt(2);
+		assertTrue(mask.isComplete());
+	}
+
+	@Test
+	public void testMaxSize() {
+		LinkMask mask = new LinkMask(LinkMask.MAX_SIZE);
+		for (int i = 0; i < LinkMask.MAX_SIZE; i++) {
+			assertFalse(mask.isComplete());
+			assertTrue(mask.setLinkAt(i));
+		}
+		assertTrue(mask.isComplete());
+		assertEquals(-1L, mask.getLinks());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLarge() {
+		new LinkMask(LinkMask.MAX_SIZE + 1);
+	}
+
+	@Test
+	public void testConcurrentSet() throws Exception {
+		final int numThreads = 8;
+		final int size = 40;
+		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+		try {
+			for (int round = 0; round < 50; round++) {
+				final LinkMask mask = new LinkMask(size);
+				final CountDownLatch start = new CountDownLatch(1);
+				List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+				for (int t = 0; t < numThreads; t++) {
+					futures.add(exec.submit(new Callable<Integer>() {
+
+						@Override
+						public Integer call() throws Exception {
+							start.await();
+							int set = 0;
+							for (int i = 0; i < size; i++) {
+								if (mask.setLinkAt(i)) {
+									set++;
+								}
+							}
+							return set;
+						}
+					}));
+				}
+				start.countDown();
+				int total = 0;
+				for (Future<Integer> future : futures) {
+					total += future.get();
+				}
+				// Each link is set by exactly one thread
+				assertEquals(size, total);
+				assertTrue(mask.isComplete());
+			}
+		} finally {
+			exec.shutdown();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MappedLinkTableTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class MappedLinkTableTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private long[] key(final long value) {
+		return new long[] {Long.MIN_VALUE | value, value * 31};
+	}
+
+	@Test
+	public void testPutAndRemove() throws Exception {
+		MappedLinkTable table = new MappedLinkTable(folder.getRoot(), 2, 2, 0, true);
+		int num = 5000;
+		for (int i = 0; i < num; i++) {
+			assertTrue(table.putIfAbsent(key(i), 0, 1L));
+			if (i % 3 == 0) {
+				assertEquals(LinkTable.COMPLETED, table.setLinkAt(key(i), 0, 1));
+			}
+		}
+		for (int i = 0; i < num; i++) {
+			assertEquals(i % 3 != 0, table.contains(key(i), 0));
+		}
+		assertEquals(num - (num + 2) / 3, table.size());
+		long[] key = new long[2];
+		int count = 0;
+		LinkTable.Cursor cursor = table.cursor();
+		while (cursor.next()) {
+			cursor.getKey(key, 0);
+			assertTrue(table.contains(key, 0));
+			assertEquals(1L, cursor.getLinks());
+			count++;
+		}
+		assertEquals(table.size(), count);
+		table.close();
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testSnapshotUnchangedByLaterUse() throws Exception {
+		MappedLinkTable table = new MappedLinkTable(folder.getRoot(), 2, 2, 0, true);
+		int num = 1500;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 1L);
+		}
+		LinkTable.Snapshot snapshot = table.snapshot();
+		assertEquals(num, snapshot.size());
+
+		// Change the slots in the snapshot, then grow so the old mapping is dropped
+		for (int i = 0; i < num; i++) {
+			if (i % 3 == 0) {
+				table.setLinkAt(key(i), 0, 1);
+			} else if (i % 3 == 1) {
+				table.remove(key(i), 0);
+			}
+		}
+		for (int i = num; i < 4 * num; i++) {
+			table.putIfAbsent(key(i), 0, 0L);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.writeTo(new DataOutputStream(bytes));
+		snapshot.close();
+		QuiverLinkTable restored = new QuiverLinkTable(2, 2, 0);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		long[] entry = new long[3];
+		for (int i = 0; i < num; i++) {
+			for (int w = 0; w < entry.length; w++) {
+				entry[w] = in.readLong();
+			}
+			assertTrue(restored.putIfAbsent(entry, 0, entry[2]));
+		}
+		assertEquals(0, in.available());
+		for (int i = 0; i < num; i++) {
+			assertEquals(1L, restored.getLinks(key(i), 0));
+		}
+		table.close();
+	}
+}
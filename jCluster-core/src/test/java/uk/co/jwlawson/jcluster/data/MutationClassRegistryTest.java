@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * MutationClassRegistryTest.java is part of JCluster. Licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import uk.co.jwlawson.jcluster.AbstractMutClassSizeTask;
+import uk.co.jwlawson.jcluster.EquivMutClassSizeTask;
+import uk.co.jwlawson.jcluster.MutationClass;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class MutationClassRegistryTest {
+
+	@Test
+	public void testUnion() {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		long[] keys = { 1, 2, 3, 4, 5, 6 };
+		registry.union(3, 3, keys, 0, keys, 2);
+		registry.union(3, 3, keys, 4, keys, 2);
+		assertEquals(3, registry.size());
+		assertNull(registry.getClassInfo(3, 3, keys, 0));
+
+		MatrixInfo info = new MatrixInfo(DynkinDiagram.A3.getMatrix());
+		info.setEquivMutationClassSize(4);
+		registry.setClassInfo(3, 3, keys, 4, info);
+		assertEquals(info, registry.getClassInfo(3, 3, keys, 0));
+		// Same key for a different size of quiver is a different entry
+		assertNull(registry.getClassInfo(4, 4, keys, 0));
+	}
+
+	@Test
+	public void testInfoKeptWhenJoining() {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		long[] keys = { 1, 2, 3, 4 };
+		MatrixInfo info = new MatrixInfo(DynkinDiagram.A3.getMatrix());
+		registry.setClassInfo(3, 3, keys, 0, info);
+		registry.union(3, 3, keys, 2, keys, 0);
+		assertEquals(info, registry.getClassInfo(3, 3, keys, 2));
+	}
+
+	@Test
+	public void testConcurrentUnion() throws Exception {
+		final MutationClassRegistry registry = new MutationClassRegistry();
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final int offset = t;
+				futures.add(exec.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() {
+						long[] key = new long[4];
+						for (int i = 0; i < 10000; i++) {
+							key[0] = i + offset + 1;
+							key[2] = i + 1;
+							registry.union(5, 5, key, 0, key, 2);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				f.get();
+			}
+		} finally {
+			exec.shutdown();
+		}
+		// Every key is now joined to key 1, so info set on one is seen on all
+		long[] key = { 1, 0 };
+		registry.setClassInfo(5, 5, key, 0, new MatrixInfo(DynkinDiagram.A5.getMatrix()));
+		for (int i = 1; i <= 10003; i++) {
+			key[0] = i;
+			assertNotNull("Key " + i, registry.getClassInfo(5, 5, key, 0));
+		}
+	}
+
+	@Test
+	public void testExploredClass() throws Exception {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(DynkinDiagram.E6.getMatrix());
+		task.setRegistry(registry);
+		task.call();
+
+		assertEquals(67, registry.size());
+		for (EquivQuiverMatrix m : MutationClass.members(new EquivQuiverMatrix(DynkinDiagram.E6
+				.getMatrix()))) {
+			MatrixInfo info = registry.getInfo(m);
+			assertTrue(info.isFinite());
+			assertEquals(67, info.getEquivMutationClassSize());
+		}
+		assertNull(registry.getInfo(DynkinDiagram.E7.getMatrix()));
+	}
+
+	@Test
+	public void testInfiniteClass() throws Exception {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		QuiverMatrix mat = new QuiverMatrix(4, 4, 0, 1, 0, 0, -1, 0, 1, 1, 0, -1, 0, 1, 0, -1, -1, 0);
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(mat);
+		task.setRegistry(registry);
+		task.call();
+
+		assertFalse(registry.getInfo(mat).isFinite());
+	}
+
+	@Test
+	public void testInitialMatrixTooLargeToEncode() throws Exception {
+		MutationClassRegistry registry = new MutationClassRegistry();
+		QuiverMatrix mat = new QuiverMatrix(2, 2, 0, 5, -5, 0);
+		EquivMutClassSizeTask task = new EquivMutClassSizeTask(mat);
+		task.setRegistry(registry);
+		MatrixInfo info = task.call();
+
+		assertEquals(AbstractMutClassSizeTask.INFINITE, info.getEquivMutationClassSize());
+		assertNull(registry.getInfo(mat));
+		assertEquals(0, registry.size());
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverCanonicaliserTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class QuiverCanonicaliserTest {
+
+	private long[] getKey(final QuiverMatrix matrix) {
+		QuiverCanonicaliser canon = new QuiverCanonicaliser(matrix.getNumRows(), matrix.getNumCols());
+		long[] key = new long[QuiverCanonicaliser.KEY_WORDS];
+		canon.getKey(matrix, key, 0, new int[matrix.getNumRows()]);
+		return key;
+	}
+
+	private QuiverMatrix permute(final QuiverMatrix matrix, final int[] perm) {
+		int size = matrix.getNumRows();
+		QuiverMatrix result = new QuiverMatrix(size, size);
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				result.set(perm[i], perm[j], matrix.get(i, j));
+			}
+		}
+		return result;
+	}
+
+	private int[] randomPerm(final int size, final Random rand) {
+		int[] perm = new int[size];
+		for (int i = 0; i < size; i++) {
+			int j = rand.nextInt(i + 1);
+			perm[i] = perm[j];
+			perm[j] = i;
+		}
+		return perm;
+	}
+
+	@Test
+	public void testPermutedMutationsHaveSameKey() {
+		Random rand = new Random(17);
+		for (DynkinDiagram diagram : Arrays.asList(DynkinDiagram.A5, DynkinDiagram.D6,
+				DynkinDiagram.E8, DynkinDiagram.A9)) {
+			QuiverMatrix matrix = diagram.getMatrix();
+			int size = matrix.getNumRows();
+			for (int step = 0; step < 20; step++) {
+				matrix = matrix.mutate(rand.nextInt(size));
+				long[] key = getKey(matrix);
+				for (int p = 0; p < 5; p++) {
+					assertArrayEquals(key, getKey(permute(matrix, randomPerm(size, rand))));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPermutedStar() {
+		int size = 10;
+		int[] perm = { 3, 7, 0, 9, 1, 8, 2, 6, 5, 4 };
+		QuiverMatrix star = new QuiverMatrix(size, size);
+		for (int i = 1; i < size; i++) {
+			star.set(0, i, 1);
+			star.set(i, 0, -1);
+		}
+		assertArrayEquals(getKey(star), getKey(permute(star, perm)));
+	}
+
+	@Test
+	public void testSameInvariantsDifferentKeys() {
+		// Oriented 9-cycle against three oriented 3-cycles, which have the same row and column sums
+		int size = 9;
+		QuiverMatrix cycle = new QuiverMatrix(size, size);
+		QuiverMatrix triangles = new QuiverMatrix(size, size);
+		for (int i = 0; i < size; i++) {
+			cycle.set(i, (i + 1) % size, 1);
+			cycle.set((i + 1) % size, i, -1);
+			int next = 3 * (i / 3) + (i + 1) % 3;
+			triangles.set(i, next, 1);
+			triangles.set(next, i, -1);
+		}
+		assertFalse(Arrays.equals(getKey(cycle), getKey(triangles)));
+	}
+}
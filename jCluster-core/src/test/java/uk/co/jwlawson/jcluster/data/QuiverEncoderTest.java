@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverEncoderTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class QuiverEncoderTest {
+
+	private void assertRoundTrip(final QuiverMatrix matrix) {
+		QuiverEncoder encoder = new QuiverEncoder(matrix.getNumRows(), matrix.getNumCols());
+		long[] key = new long[encoder.getNumWords() + 1];
+		encoder.encode(matrix, key, 1);
+		QuiverMatrix result = new QuiverMatrix(matrix.getNumRows(), matrix.getNumCols());
+		encoder.decode(key, 1, result);
+		assertEquals(matrix, result);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		assertRoundTrip(DynkinDiagram.A4.getMatrix());
+		assertRoundTrip(DynkinDiagram.B4.getMatrix());
+	}
+
+	@Test
+	public void testRoundTripMultiWord() {
+		QuiverMatrix e8 = DynkinDiagram.E8.getMatrix();
+		QuiverEncoder encoder = new QuiverEncoder(8, 8);
+		assertTrue(encoder.getNumWords() > 1);
+		assertRoundTrip(e8);
+	}
+
+	@Test
+	public void testRangeLimits() {
+		QuiverMatrix mat =
+				new QuiverMatrix(2, 2, 0, QuiverEncoder.MAX_ENTRY, QuiverEncoder.MIN_ENTRY, 0);
+		assertTrue(new QuiverEncoder(2, 2).canEncode(mat));
+		assertRoundTrip(mat);
+	}
+
+	@Test
+	public void testCanEncodeTooLarge() {
+		QuiverEncoder encoder = new QuiverEncoder(2, 2);
+		assertFalse(encoder.canEncode(new QuiverMatrix(2, 2, 0, 4, -4, 0)));
+		assertFalse(encoder.canEncode(new QuiverMatrix(2, 2, 0, 3, -5, 0)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncodeTooLarge() {
+		QuiverEncoder encoder = new QuiverEncoder(2, 2);
+		encoder.encode(new QuiverMatrix(2, 2, 0, 4, -4, 0), new long[encoder.getNumWords()], 0);
+	}
+
+	@Test
+	public void testDistinctKeys() {
+		QuiverEncoder encoder = new QuiverEncoder(4, 4);
+		QuiverMatrix a4 = DynkinDiagram.A4.getMatrix();
+		long[] first = new long[encoder.getNumWords()];
+		long[] second = new long[encoder.getNumWords()];
+		encoder.encode(a4, first, 0);
+		encoder.encode(a4.mutate(0), second, 0);
+		assertTrue(QuiverEncoder.compare(first, 0, second, 0, encoder.getNumWords()) != 0);
+		encoder.encode(a4.mutate(0).mutate(0), second, 0);
+		assertEquals(0, QuiverEncoder.compare(first, 0, second, 0, encoder.getNumWords()));
+		assertEquals(QuiverEncoder.hash(first, 0, encoder.getNumWords()),
+				QuiverEncoder.hash(second, 0, encoder.getNumWords()));
+	}
+
+	@Test
+	public void testSortUnique() {
+		long[] keys = { 5, 3, 5, 1, 3 };
+		assertEquals(3, QuiverEncoder.sortUnique(keys, keys.length, 1));
+		assertEquals(1, keys[0]);
+		assertEquals(3, keys[1]);
+		assertEquals(5, keys[2]);
+	}
+
+	@Test
+	public void testSortUniqueMultiWord() {
+		long[] keys = { 2, 1, 1, 9, 2, 1, 1, 3 };
+		assertEquals(3, QuiverEncoder.sortUnique(keys, 4, 2));
+		assertEquals(1, keys[0]);
+		assertEquals(3, keys[1]);
+		assertEquals(1, keys[2]);
+		assertEquals(9, keys[3]);
+		assertEquals(2, keys[4]);
+		assertEquals(1, keys[5]);
+	}
+}
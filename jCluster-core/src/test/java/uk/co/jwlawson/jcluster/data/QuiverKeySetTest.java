@@ -0,0 +1,90 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverKeySetTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class QuiverKeySetTest {
+
+	/** Keys always have the top bit set, so make test keys the same way. */
+	private long[] key(final long first, final long second) {
+		return new long[] { Long.MIN_VALUE | first, second };
+	}
+
+	@Test
+	public void testAdd() {
+		QuiverKeySet set = new QuiverKeySet(2, 0);
+		assertTrue(set.add(key(1, 2), 0));
+		assertFalse(set.add(key(1, 2), 0));
+		assertTrue(set.add(key(1, 3), 0));
+		assertEquals(2, set.size());
+	}
+
+	@Test
+	public void testContains() {
+		QuiverKeySet set = new QuiverKeySet(2, 0);
+		set.add(key(4, 5), 0);
+		assertTrue(set.contains(key(4, 5), 0));
+		assertFalse(set.contains(key(5, 4), 0));
+	}
+
+	@Test
+	public void testOffset() {
+		QuiverKeySet set = new QuiverKeySet(2, 0);
+		long[] keys = { 0, Long.MIN_VALUE | 7, 8 };
+		assertTrue(set.add(keys, 1));
+		assertTrue(set.contains(key(7, 8), 0));
+	}
+
+	@Test
+	public void testGrow() {
+		QuiverKeySet set = new QuiverKeySet(2, 0);
+		int num = 10000;
+		for (int i = 0; i < num; i++) {
+			assertTrue(set.add(key(i, -i), 0));
+		}
+		assertEquals(num, set.size());
+		for (int i = 0; i < num; i++) {
+			assertTrue(set.contains(key(i, -i), 0));
+			assertFalse(set.add(key(i, -i), 0));
+		}
+		assertFalse(set.contains(key(num, -num), 0));
+	}
+
+	@Test
+	public void testEncodedKeys() {
+		QuiverEncoder encoder = new QuiverEncoder(4, 4);
+		QuiverKeySet set = new QuiverKeySet(encoder.getNumWords(), 4);
+		long[] key = new long[encoder.getNumWords()];
+		QuiverMatrix a4 = DynkinDiagram.A4.getMatrix();
+		for (int k = 0; k < 4; k++) {
+			encoder.encode(a4.mutate(k), key, 0);
+			assertTrue(set.add(key, 0));
+		}
+		encoder.encode(a4.mutate(2).mutate(2), key, 0);
+		assertTrue(set.add(key, 0));
+		encoder.encode(a4.mutate(1), key, 0);
+		assertFalse(set.add(key, 0));
+		assertEquals(5, set.size());
+	}
+}
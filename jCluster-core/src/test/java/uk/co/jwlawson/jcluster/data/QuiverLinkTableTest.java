@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverLinkTableTest.java is part of JCluster. Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class QuiverLinkTableTest {
+
+	private long[] key(final long value) {
+		return new long[] {Long.MIN_VALUE | value, value * 31};
+	}
+
+	@Test
+	public void testPutAndGet() {
+		QuiverLinkTable table = new QuiverLinkTable(2, 3, 0);
+		assertTrue(table.putIfAbsent(key(1), 0, 1L));
+		assertFalse(table.putIfAbsent(key(1), 0, 2L));
+		assertEquals(1L, table.getLinks(key(1), 0));
+		assertEquals(QuiverLinkTable.NO_ENTRY, table.getLinks(key(2), 0));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void testCompleteEntryRemoved() {
+		QuiverLinkTable table = new QuiverLinkTable(2, 3, 0);
+		table.putIfAbsent(key(5), 0, 0L);
+		assertEquals(QuiverLinkTable.LINK_SET, table.setLinkAt(key(5), 0, 0));
+		assertEquals(QuiverLinkTable.LINK_SET, table.setLinkAt(key(5), 0, 2));
+		assertEquals(QuiverLinkTable.COMPLETED, table.setLinkAt(key(5), 0, 1));
+		assertFalse(table.contains(key(5), 0));
+		assertEquals(QuiverLinkTable.NOT_FOUND, table.setLinkAt(key(5), 0, 1));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testGrowWhileRemoving() {
+		QuiverLinkTable table = new QuiverLinkTable(2, 2, 0);
+		int num = 5000;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 1L);
+			if (i % 3 == 0) {
+				assertEquals(QuiverLinkTable.COMPLETED, table.setLinkAt(key(i), 0, 1));
+			}
+		}
+		for (int i = 0; i < num; i++) {
+			assertEquals(i % 3 != 0, table.contains(key(i), 0));
+		}
+		assertEquals(num - (num + 2) / 3, table.size());
+		for (int i = 0; i < num; i++) {
+			table.remove(key(i), 0);
+		}
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testSnapshotUnchangedByLaterUse() throws Exception {
+		QuiverLinkTable table = new QuiverLinkTable(2, 2, 0);
+		int num = 3000;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, 1L);
+		}
+		LinkTable.Snapshot snapshot = table.snapshot();
+		assertEquals(num, snapshot.size());
+		try {
+			table.snapshot();
+			fail("Only one snapshot can be open");
+		} catch (IllegalStateException expected) {
+			// Expected
+		}
+
+		// Change every part of the table, growing it twice
+		for (int i = 0; i < num; i++) {
+			if (i % 3 == 0) {
+				table.setLinkAt(key(i), 0, 1);
+			} else if (i % 3 == 1) {
+				table.remove(key(i), 0);
+			}
+		}
+		for (int i = num; i < 4 * num; i++) {
+			table.putIfAbsent(key(i), 0, 0L);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		snapshot.writeTo(new DataOutputStream(bytes));
+		snapshot.close();
+		QuiverLinkTable restored = new QuiverLinkTable(2, 2, 0);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		long[] entry = new long[3];
+		for (int i = 0; i < num; i++) {
+			for (int w = 0; w < entry.length; w++) {
+				entry[w] = in.readLong();
+			}
+			assertTrue(restored.putIfAbsent(entry, 0, entry[2]));
+		}
+		assertEquals(0, in.available());
+		for (int i = 0; i < num; i++) {
+			assertEquals(1L, restored.getLinks(key(i), 0));
+		}
+
+		table.snapshot().close();
+	}
+
+	@Test
+	public void testCursorWhileGrowing() {
+		QuiverLinkTable table = new QuiverLinkTable(2, 2, 0);
+		int num = 4097;
+		for (int i = 0; i < num; i++) {
+			table.putIfAbsent(key(i), 0, i % 2);
+			if (i % 3 == 0) {
+				table.remove(key(i), 0);
+			}
+		}
+		boolean[] seen = new boolean[num];
+		long[] key = new long[2];
+		int count = 0;
+		LinkTable.Cursor cursor = table.cursor();
+		while (cursor.next()) {
+			cursor.getKey(key, 0);
+			int i = (int) (key[0] & Long.MAX_VALUE);
+			assertFalse(seen[i]);
+			assertEquals(i % 2, cursor.getLinks());
+			seen[i] = true;
+			count++;
+		}
+		assertEquals(table.size(), count);
+		for (int i = 0; i < num; i++) {
+			assertEquals(i % 3 != 0, seen[i]);
+		}
+	}
+}
@@ -88,4 +88,18 @@ public class QuiverMatrixTest {
 
 		assertEquals(exp, m.mutate(4));
 	}
+
+	@Test
+	public void testMutateInPlace() {
+		QuiverMatrix m =
+				new QuiverMatrix(5, 5, 0, 0, -1, 1, 0, 0, 0, 0, 0, 1, 1, 0, 0, -1, 1, -1, 0, 1, 0,
+						-1, 0, -1, -1, 1, 0);
+		QuiverMatrix orig = m.copy();
+
+		for (int k = 0; k < 5; k++) {
+			QuiverMatrix exp = orig.mutate(k);
+			assertEquals("Mutation in place at " + k, exp, m.mutateInPlace(k));
+			assertEquals("Mutation back at " + k, orig, m.mutateInPlace(k));
+		}
+	}
 }
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 John Lawson
+ * 
+ * QuiverPackerTest.java is part of JCluster. Licensed under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License. You may obtain a
+ * copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package uk.co.jwlawson.jcluster.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author John Lawson
+ * 
+ */
+public class QuiverPackerTest {
+
+	private void assertRoundTrip(final QuiverPacker packer, final QuiverMatrix matrix) {
+		long[] packed = new long[packer.getNumWords() + 1];
+		packer.pack(matrix, packed, 1);
+		QuiverMatrix result = new QuiverMatrix(matrix.getNumRows(), matrix.getNumCols());
+		packer.unpack(packed, 1, result);
+		assertEquals(matrix, result);
+	}
+
+	@Test
+	public void testSkewSymmetric() {
+		QuiverMatrix e8 = DynkinDiagram.E8.getMatrix();
+		QuiverPacker packer = QuiverPacker.forMatrix(e8);
+		// 28 entries above the diagonal rather than 64 in all
+		assertEquals(2, packer.getNumWords());
+		assertEquals(4, new QuiverEncoder(8, 8).getNumWords());
+		for (QuiverMatrix m : new QuiverMatrix[] { e8, e8.mutate(3), e8.mutate(3).mutate(4) }) {
+			assertRoundTrip(packer, m);
+		}
+	}
+
+	@Test
+	public void testFrozenVertices() {
+		QuiverMatrix matrix = new QuiverMatrix(4, 3, 0, 1, 0, -1, 0, -1, 0, 1, 0, 1, -2, 3);
+		assertTrue(QuiverPacker.isSkewSymmetric(matrix));
+		QuiverPacker packer = QuiverPacker.forMatrix(matrix);
+		assertRoundTrip(packer, matrix);
+		assertRoundTrip(packer, matrix.mutate(1));
+
+		QuiverMatrix wide = new QuiverMatrix(2, 4, 0, -1, 1, -4, 1, 0, 2, 0);
+		assertRoundTrip(QuiverPacker.forMatrix(wide), wide);
+	}
+
+	@Test
+	public void testSkewSymmetrizable() {
+		QuiverMatrix b2 = new QuiverMatrix(2, 2, 0, 1, -2, 0);
+		assertFalse(QuiverPacker.isSkewSymmetric(b2));
+		QuiverPacker packer = QuiverPacker.forMatrix(b2);
+		assertRoundTrip(packer, b2);
+		assertRoundTrip(packer, b2.mutate(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLargeEntry() {
+		QuiverMatrix matrix = new QuiverMatrix(2, 2, 0, 4, -4, 0);
+		new QuiverPacker(2, 2, true).pack(matrix, new long[1], 0);
+	}
+}